@@ -0,0 +1,120 @@
+package com.ujjwalgarg;
+
+/**
+ * The LatencyRecorder class is a log-linear histogram of latencies for the load
+ * test. Every power of two is split into 64 buckets, so a percentile read back
+ * is within 1.6% of the recorded value whatever its magnitude, from
+ * nanoseconds to minutes.
+ *
+ * A recorder is not thread-safe: each client thread records into its own and
+ * the results are merged once the run is over.
+ */
+class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 6; // log2 of the buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Buckets per power of two
+    private static final int MAX_SHIFT = 64 - SUB_BUCKET_BITS - 1; // Shift of the largest long values
+
+    private final long[] counts; // Values recorded in each bucket
+    private long total; // Values recorded
+    private long max; // Largest value recorded
+
+    /**
+     * Constructs an empty LatencyRecorder.
+     */
+    LatencyRecorder() {
+        this.counts = new long[(MAX_SHIFT + 2) * SUB_BUCKETS];
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of another recorder to this one.
+     *
+     * @param other the recorder to merge
+     */
+    void merge(LatencyRecorder other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count
+     */
+    long count() {
+        return total;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the maximum in nanoseconds
+     */
+    long max() {
+        return max;
+    }
+
+    /**
+     * Returns the value below which a percentage of the recorded values fall.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the upper bound of the bucket holding the percentile, in
+     *         nanoseconds, or 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueAt(i));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the bucket of a value. Values below 128 have a bucket each; above,
+     * the top seven bits of the value select the bucket.
+     *
+     * @param value the value, not negative
+     * @return the bucket index
+     */
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value falling into a bucket.
+     *
+     * @param index the bucket index
+     * @return the value
+     */
+    private static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,422 @@
+package com.ujjwalgarg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ujjwalgarg.httpserver.EngineType;
+import com.ujjwalgarg.httpserver.ExecutionMode;
+import com.ujjwalgarg.httpserver.HttpServer;
+import com.ujjwalgarg.httpserver.ServerConfig;
+
+/**
+ * The LoadTest class is an end-to-end benchmark of the server. It starts an
+ * {@link HttpServer} with the routes of {@link App} on loopback, drives it from
+ * client threads in the same process, and reports the throughput and the
+ * latency percentiles of every endpoint.
+ *
+ * Each client thread owns one connection (or, with {@code --keep-alive false},
+ * opens a new one per request) and cycles through the endpoints. Two modes are
+ * available:
+ * <ul>
+ * <li>Closed loop (the default): every thread sends its next request as soon as
+ * the previous response has arrived, which measures the maximum throughput.
+ * Latency is the time from sending a request to its complete response.</li>
+ * <li>Open loop ({@code --rate}): requests are scheduled at a fixed total rate
+ * whatever the server does. Latency is measured from the time a request was
+ * scheduled rather than sent, so a stalled server is charged for the requests
+ * it delayed, instead of hiding them (coordinated omission).</li>
+ * </ul>
+ * Requests scheduled during the warmup are sent but not recorded.
+ */
+public class LoadTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long STARTUP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10); // Wait for the server to listen
+
+    private int port; // Port of the server, 0 to pick a free one
+    private int connections = 16; // Client threads, each with its own connection
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10); // Measured part of the run
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(2); // Unrecorded start of the run
+    private double rate; // Requests per second over all connections, 0 for closed loop
+    private boolean keepAlive = true; // Whether connections are reused across requests
+    private String[] paths = { "/", "/echo/hello", "/user-agent" }; // Endpoints requested in turn
+    private String directory; // Directory of the file routes, or null
+
+    /**
+     * The Worker class is one client thread with its own connection and its own
+     * recorders, one per endpoint.
+     */
+    private final class Worker implements Runnable {
+        private final int id; // Index of the worker
+        private final byte[][] requests; // Encoded request of each endpoint
+        private final long measureStart; // Time from which requests are recorded
+        private final long end; // Time after which no request is scheduled
+        private final LatencyRecorder[] latencies; // Latency of each endpoint
+        private final long[] errors; // Failed requests of each endpoint
+        private Socket socket; // Current connection, or null
+        private InputStream in; // Buffered input of the connection
+        private OutputStream out; // Buffered output of the connection
+
+        /**
+         * Constructs a Worker.
+         *
+         * @param id           the index of the worker
+         * @param requests     the encoded request of each endpoint
+         * @param measureStart the time from which requests are recorded
+         * @param end          the time after which no request is scheduled
+         */
+        Worker(int id, byte[][] requests, long measureStart, long end) {
+            this.id = id;
+            this.requests = requests;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.latencies = new LatencyRecorder[requests.length];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyRecorder();
+            }
+            this.errors = new long[requests.length];
+        }
+
+        /**
+         * Sends requests until the end of the run.
+         */
+        @Override
+        public void run() {
+            // In open loop the workers take turns, each sending every
+            // connections / rate seconds, staggered so the total rate is even
+            long interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+            long next = measureStart - warmupNanos + interval * id / connections;
+            int turn = id;
+            while (true) {
+                long intended;
+                if (rate > 0) {
+                    intended = next;
+                    next += interval;
+                    if (intended >= end) {
+                        break;
+                    }
+                    long wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                    if (intended >= end) {
+                        break;
+                    }
+                }
+
+                int endpoint = turn++ % requests.length;
+                boolean ok;
+                try {
+                    ok = exchange(requests[endpoint]);
+                } catch (IOException e) {
+                    ok = false;
+                    disconnect();
+                }
+                if (intended >= measureStart) {
+                    latencies[endpoint].record(System.nanoTime() - intended);
+                    if (!ok) {
+                        errors[endpoint]++;
+                    }
+                }
+            }
+            disconnect();
+        }
+
+        /**
+         * Sends a request and reads its response, connecting first if needed.
+         *
+         * @param request the encoded request
+         * @return true if the response has a 2xx or 3xx status
+         * @throws IOException if the connection fails
+         */
+        private boolean exchange(byte[] request) throws IOException {
+            if (socket == null) {
+                socket = new Socket(HOST, port);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+                out = new BufferedOutputStream(socket.getOutputStream(), 4 * 1024);
+            }
+            out.write(request);
+            out.flush();
+
+            // Status line and headers
+            String statusLine = readLine(in);
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int status = Integer.parseInt(parts[1]);
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = !keepAlive;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon == -1) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                switch (name) {
+                    case "content-length" -> contentLength = Long.parseLong(value);
+                    case "transfer-encoding" -> chunked = value.equalsIgnoreCase("chunked");
+                    case "connection" -> close |= value.equalsIgnoreCase("close");
+                    default -> {
+                    }
+                }
+            }
+
+            // Body
+            if (chunked) {
+                for (long size = chunkSize(in); size > 0; size = chunkSize(in)) {
+                    skip(in, size);
+                    readLine(in);
+                }
+                while (!readLine(in).isEmpty()) {
+                    // Trailers
+                }
+            } else if (contentLength >= 0) {
+                skip(in, contentLength);
+            } else {
+                in.transferTo(OutputStream.nullOutputStream());
+                close = true;
+            }
+
+            if (close) {
+                disconnect();
+            }
+            return status >= 200 && status < 400;
+        }
+
+        /**
+         * Closes the connection, if one is open.
+         */
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+                socket = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args the command line options (--engine, --execution,
+     *             --acceptors, --reuse-port, --backlog, --connections,
+     *             --duration, --warmup, --rate, --keep-alive, --paths,
+     *             --directory, --port)
+     * @throws Exception if the server cannot be started or a client fails
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        ServerConfig config = new ServerConfig();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--engine" -> config.setEngineType(EngineType.valueOf(value.toUpperCase()));
+                case "--execution" -> config.setExecutionMode(ExecutionMode.valueOf(value.toUpperCase()));
+                case "--acceptors" -> config.setAcceptorThreads(Integer.parseInt(value));
+                case "--reuse-port" -> config.setReusePort(Boolean.parseBoolean(value));
+                case "--backlog" -> config.setBacklog(Integer.parseInt(value));
+                case "--connections" -> test.connections = Integer.parseInt(value);
+                case "--duration" -> test.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                case "--warmup" -> test.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                case "--rate" -> test.rate = Double.parseDouble(value);
+                case "--keep-alive" -> test.keepAlive = Boolean.parseBoolean(value);
+                case "--paths" -> test.paths = value.split(",");
+                case "--directory" -> test.directory = value;
+                case "--port" -> test.port = Integer.parseInt(value);
+                default -> System.out.println("Ignoring unknown option " + args[i]);
+            }
+        }
+        if (test.connections < 1 || test.durationNanos <= 0 || test.warmupNanos < 0 || test.rate < 0) {
+            throw new IllegalArgumentException(
+                    "connections and duration must be positive, warmup and rate must not be negative");
+        }
+        test.run(config);
+    }
+
+    /**
+     * Starts the server, drives it for the warmup and the measured duration,
+     * stops it and prints the report.
+     *
+     * @param config the configuration of the server
+     * @throws Exception if the server cannot be started or a client fails
+     */
+    private void run(ServerConfig config) throws Exception {
+        if (port == 0) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+        }
+        HttpServer server = new HttpServer(port, config);
+        App.addRoutes(server, directory);
+        Thread serverThread = new Thread(server::start, "load-test-server");
+        serverThread.start();
+        awaitListening();
+
+        byte[][] requests = new byte[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            requests[i] = ("GET " + paths[i] + " HTTP/1.1\r\nHost: " + HOST + ":" + port
+                    + "\r\nUser-Agent: load-test\r\n" + (keepAlive ? "" : "Connection: close\r\n")
+                    + "\r\n").getBytes();
+        }
+
+        System.out.printf("Running %d connections for %ds (+%ds warmup) against the %s engine, %s, %s%n",
+                connections, TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), config.getEngineType().name().toLowerCase(),
+                keepAlive ? "keep-alive" : "a connection per request",
+                rate > 0 ? "open loop at %.0f req/s".formatted(rate) : "closed loop");
+        long measureStart = System.nanoTime() + warmupNanos;
+        long end = measureStart + durationNanos;
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Worker worker = new Worker(i, requests, measureStart, end);
+            Thread thread = new Thread(worker, "load-test-client-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = Math.max(durationNanos, System.nanoTime() - measureStart);
+
+        server.stop();
+        serverThread.join();
+        report(workers, elapsed);
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     *
+     * @throws IOException if the server does not listen in time
+     */
+    private void awaitListening() throws IOException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT_NANOS;
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(HOST, port), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("The server did not listen on port " + port, e);
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            }
+        }
+    }
+
+    /**
+     * Prints the throughput and latency of each endpoint and of all of them.
+     *
+     * @param workers the finished workers
+     * @param elapsed the measured time in nanoseconds
+     */
+    private void report(List<Worker> workers, long elapsed) {
+        double seconds = elapsed / 1e9;
+        LatencyRecorder all = new LatencyRecorder();
+        long allErrors = 0;
+        System.out.printf("%n%-24s %10s %8s %11s %10s %10s %10s %10s%n", "Endpoint", "Requests", "Errors",
+                "Req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (int i = 0; i < paths.length; i++) {
+            LatencyRecorder latency = new LatencyRecorder();
+            long errors = 0;
+            for (Worker worker : workers) {
+                latency.merge(worker.latencies[i]);
+                errors += worker.errors[i];
+            }
+            printRow(paths[i], latency, errors, seconds);
+            all.merge(latency);
+            allErrors += errors;
+        }
+        printRow("all", all, allErrors, seconds);
+    }
+
+    /**
+     * Prints one line of the report.
+     *
+     * @param name    the endpoint
+     * @param latency the latency of its requests
+     * @param errors  the number of failed requests
+     * @param seconds the measured time in seconds
+     */
+    private static void printRow(String name, LatencyRecorder latency, long errors, double seconds) {
+        System.out.printf("%-24s %10d %8d %11.1f %10.3f %10.3f %10.3f %10.3f%n", name, latency.count(), errors,
+                latency.count() / seconds, latency.percentile(50) / 1e6, latency.percentile(99) / 1e6,
+                latency.percentile(99.9) / 1e6, latency.max() / 1e6);
+    }
+
+    /**
+     * Reads a CRLF-terminated line.
+     *
+     * @param in the input of the connection
+     * @return the line, without its terminator
+     * @throws IOException if the connection ends first
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed by the server");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Reads the size line of a chunk.
+     *
+     * @param in the input of the connection
+     * @return the chunk size
+     * @throws IOException if the connection ends first
+     */
+    private static long chunkSize(InputStream in) throws IOException {
+        String line = readLine(in);
+        int semicolon = line.indexOf(';');
+        return Long.parseLong((semicolon == -1 ? line : line.substring(0, semicolon)).trim(), 16);
+    }
+
+    /**
+     * Discards bytes of a body.
+     *
+     * @param in the input of the connection
+     * @param n  the number of bytes
+     * @throws IOException if the connection ends first
+     */
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
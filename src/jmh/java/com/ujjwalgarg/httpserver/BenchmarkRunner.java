@@ -0,0 +1,32 @@
+package com.ujjwalgarg.httpserver;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The BenchmarkRunner class is the entry point of the benchmarks jar. It takes
+ * the usual JMH command line (e.g. a benchmark name regex, {@code -f 1} or
+ * {@code -rf json}) and always adds the GC profiler, so every result reports
+ * the bytes allocated per operation next to its time.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Runs the benchmarks selected on the command line.
+     *
+     * @param args the JMH command line arguments
+     * @throws CommandLineOptionException if the arguments are invalid
+     * @throws RunnerException            if a benchmark fails
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
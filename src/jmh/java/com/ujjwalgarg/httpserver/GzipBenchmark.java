@@ -0,0 +1,89 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link GzipEncoder} compressing text bodies of 1, 16 and 128 KB,
+ * both whole, as for bodies set at once, and streamed through a compressed
+ * {@link Response}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipBenchmark {
+
+    private static final int CHUNK_SIZE = 4096; // Size of the writes of the streamed body
+
+    @Param({ "1024", "16384", "131072" })
+    private int size; // Body size in bytes
+
+    private byte[] body; // Text body
+    private ByteArrayOutputStream out; // Sink reused across invocations
+
+    /**
+     * Builds a body of log-like text, which compresses about as well as HTML or
+     * JSON does.
+     */
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder(size + 128);
+        for (int i = 0; text.length() < size; i++) {
+            text.append("2026-10-18T12:00:").append(i % 60).append(" INFO request ").append(i * 7919 % 100_000)
+                    .append(" GET /api/v1/orders/").append(i * 31 % 1000).append(" 200 ").append(i % 250)
+                    .append("ms\n");
+        }
+        body = text.substring(0, size).getBytes();
+        out = new ByteArrayOutputStream(size + 1024);
+    }
+
+    /**
+     * Compresses a whole body.
+     *
+     * @return the compressed body
+     */
+    @Benchmark
+    public byte[] encode() {
+        return GzipEncoder.encode(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Streams the body in chunks through a response that compresses it.
+     *
+     * @return the number of bytes written
+     * @throws IOException if the response cannot be written
+     */
+    @Benchmark
+    public int stream() throws IOException {
+        out.reset();
+        Response res = new Response(out);
+        res.setCompression(true, 0);
+        res.setStatusCode(200);
+        res.setStatusMsg("OK");
+        res.addHeader("Content-Type", "text/plain");
+        OutputStream stream = res.getBodyStream();
+        for (int off = 0; off < body.length; off += CHUNK_SIZE) {
+            stream.write(body, off, Math.min(CHUNK_SIZE, body.length - off));
+        }
+        res.send();
+        return out.size();
+    }
+}
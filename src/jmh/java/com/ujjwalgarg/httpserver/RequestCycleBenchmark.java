@@ -0,0 +1,111 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the objects a connection allocates for each request it serves and
+ * for itself, with and without recycling them. Run with the GC profiler to
+ * compare the bytes allocated per request ({@code gc.alloc.rate.norm}) before
+ * and after pooling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestCycleBenchmark {
+
+    private static final String HEAD = "GET /echo/abc HTTP/1.1\r\n"
+            + "Host: localhost:4221\r\n"
+            + "User-Agent: curl/8.4.0\r\n"
+            + "Accept: */*\r\n"
+            + "Accept-Encoding: gzip\r\n"
+            + "\r\n";
+    private static final int READ_BUFFER_SIZE = 16 * 1024; // Read buffer of a new connection
+
+    @Param({ "false", "true" })
+    private boolean recycle; // Whether objects are reused rather than allocated
+
+    private ByteBuffer bytes; // Encoded request head
+    private RequestParser parser; // Parser of the connection
+    private ByteArrayOutputStream out; // Sink of the responses
+    private Request req; // Request kept across invocations when recycling
+    private Response res; // Response kept across invocations when recycling
+    private BufferPool pool; // Pool of read buffers
+
+    /**
+     * Encodes the request head and creates the objects to recycle.
+     */
+    @Setup
+    public void setUp() {
+        bytes = ByteBuffer.wrap(HEAD.getBytes());
+        parser = new RequestParser(true);
+        out = new ByteArrayOutputStream(4096);
+        req = new Request();
+        res = new Response(out);
+        pool = new BufferPool(16, false);
+    }
+
+    /**
+     * Serves one request of a keep-alive connection: parses its head, reads
+     * the fields a handler looks at, and sends a small text response.
+     *
+     * @return the number of bytes written
+     * @throws IOException if the request is rejected
+     */
+    @Benchmark
+    public int request() throws IOException {
+        out.reset();
+        Request req;
+        Response res;
+        if (recycle) {
+            req = this.req;
+            res = this.res;
+            req.reset();
+            res.reset();
+        } else {
+            req = new Request();
+            res = new Response(out);
+        }
+        parser.parse(bytes.duplicate(), req);
+        res.setStatusCode(200);
+        res.setStatusMsg("OK");
+        res.addHeader("Content-Type", "text/plain");
+        res.setResponseBody(req.getPath().substring("/echo/".length()));
+        res.send();
+        return out.size();
+    }
+
+    /**
+     * Sets up and tears down the read buffer of one connection.
+     *
+     * @param bh receives the buffer, so that it is really allocated
+     */
+    @Benchmark
+    public void connection(Blackhole bh) {
+        if (!recycle) {
+            bh.consume(ByteBuffer.allocate(READ_BUFFER_SIZE));
+            return;
+        }
+        ByteBuffer buffer = pool.acquire(READ_BUFFER_SIZE);
+        bh.consume(buffer);
+        pool.release(buffer);
+    }
+}
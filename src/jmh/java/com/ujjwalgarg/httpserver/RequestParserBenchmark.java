@@ -0,0 +1,117 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks {@link RequestParser} on request heads shaped like real traffic:
+ * a bare command line client, a browser page load and an API call carrying a
+ * large cookie and bearer token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+    private static final String CURL = "GET /files/report.txt HTTP/1.1\r\n"
+            + "Host: localhost:4221\r\n"
+            + "User-Agent: curl/8.4.0\r\n"
+            + "Accept: */*\r\n"
+            + "\r\n";
+
+    private static final String BROWSER = "GET /static/app.js?v=3f9a2c HTTP/1.1\r\n"
+            + "Host: www.example.com\r\n"
+            + "Connection: keep-alive\r\n"
+            + "sec-ch-ua: \"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)"
+            + " Chrome/118.0.0.0 Safari/537.36\r\n"
+            + "sec-ch-ua-platform: \"Linux\"\r\n"
+            + "Accept: */*\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Dest: script\r\n"
+            + "Referer: https://www.example.com/dashboard\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: en-US,en;q=0.9\r\n"
+            + "If-None-Match: \"5e1f-17a8c3b2d40\"\r\n"
+            + "\r\n";
+
+    private static final String API = "POST /api/v1/orders/8842/items HTTP/1.1\r\n"
+            + "Host: api.example.com\r\n"
+            + "Authorization: Bearer " + "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9".repeat(8) + "\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: 0\r\n"
+            + "Accept: application/json\r\n"
+            + "Cookie: " + "session=8f14e45fceea167a5a36dedd4bea2543; ".repeat(12) + "theme=dark\r\n"
+            + "X-Request-Id: 7c9e6679-7425-40de-944b-e07c4c3bf4f5\r\n"
+            + "X-Forwarded-For: 203.0.113.195, 70.41.3.18, 150.172.238.178\r\n"
+            + "User-Agent: okhttp/4.12.0\r\n"
+            + "\r\n";
+
+    @Param({ "curl", "browser", "api" })
+    private String head; // Shape of the request head
+
+    private ByteBuffer bytes; // Encoded request head
+    private RequestParser parser; // Parser under test
+
+    /**
+     * Encodes the request head.
+     */
+    @Setup
+    public void setUp() {
+        String text = switch (head) {
+            case "curl" -> CURL;
+            case "browser" -> BROWSER;
+            default -> API;
+        };
+        bytes = ByteBuffer.wrap(text.getBytes());
+        parser = new RequestParser(true);
+    }
+
+    /**
+     * Parses the head only, as the engines do before dispatching.
+     *
+     * @return the parsed request
+     * @throws HttpException if the head is rejected
+     */
+    @Benchmark
+    public Request parse() throws HttpException {
+        Request req = new Request();
+        parser.parse(bytes.duplicate(), req);
+        return req;
+    }
+
+    /**
+     * Parses the head and reads the fields a typical handler looks at, which
+     * creates the Strings the parser defers.
+     *
+     * @param bh consumes the values read
+     * @throws HttpException if the head is rejected
+     */
+    @Benchmark
+    public void parseAndRead(Blackhole bh) throws HttpException {
+        Request req = new Request();
+        parser.parse(bytes.duplicate(), req);
+        bh.consume(req.getPath());
+        bh.consume(req.getHeader("User-Agent"));
+        bh.consume(req.getHeader("Accept-Encoding"));
+        bh.consume(req.isKeepAlive());
+    }
+}
@@ -0,0 +1,84 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Response#send()} serializing the status line, headers and
+ * body into an in-memory stream, for a bare status, a small text body and a
+ * JSON body with the headers of a typical API response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    private static final String JSON = "{\"id\":8842,\"status\":\"shipped\",\"items\":["
+            + "{\"sku\":\"A-100\",\"quantity\":2,\"price\":1999},".repeat(20)
+            + "{\"sku\":\"B-200\",\"quantity\":1,\"price\":499}]}";
+
+    @Param({ "empty", "text", "json" })
+    private String shape; // Shape of the response
+
+    private ByteArrayOutputStream out; // Sink reused across invocations
+    private byte[] body; // Body of the json response
+
+    /**
+     * Allocates the sink and the body.
+     */
+    @Setup
+    public void setUp() {
+        out = new ByteArrayOutputStream(4096);
+        body = JSON.getBytes();
+    }
+
+    /**
+     * Builds and sends one response.
+     *
+     * @return the number of bytes written
+     * @throws IOException if the response cannot be written
+     */
+    @Benchmark
+    public int send() throws IOException {
+        out.reset();
+        Response res = new Response(out);
+        switch (shape) {
+            case "empty" -> {
+                res.setStatusCode(404);
+                res.setStatusMsg("Not Found");
+            }
+            case "text" -> {
+                res.setStatusCode(200);
+                res.setStatusMsg("OK");
+                res.addHeader("Content-Type", "text/plain");
+                res.setResponseBody("curl/8.4.0");
+            }
+            default -> {
+                res.setStatusCode(200);
+                res.setStatusMsg("OK");
+                res.addHeader("Content-Type", "application/json");
+                res.addHeader("Cache-Control", "no-store");
+                res.addHeader("X-Request-Id", "7c9e6679-7425-40de-944b-e07c4c3bf4f5");
+                res.setBody(body);
+            }
+        }
+        res.send();
+        return out.size();
+    }
+}
@@ -0,0 +1,118 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Router#match(String)} against tables of 10, 100 and 1000
+ * routes. Most routes are templates, as in a REST API; one in twenty is a
+ * regular expression, which is only tried once the trie has no match.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    private static final RequestHandler HANDLER = (req, res) -> { };
+
+    @Param({ "10", "100", "1000" })
+    private int routes; // Number of registered routes
+
+    private Router router; // Router under test
+    private String literalPath; // Path of the last literal route
+    private String templatePath; // Path of the last template route with placeholders
+    private String regexPath; // Path of the last regular expression route
+    private String missPath; // Path matching no route
+
+    /**
+     * Registers the routes.
+     */
+    @Setup
+    public void setUp() {
+        router = new Router();
+        int last = routes - 1;
+        for (int i = 0; i < routes; i++) {
+            switch (i % 20) {
+                case 0 -> router.addRoute(RequestMethod.GET, "^/legacy/r" + i + "/(?<id>[0-9]+)\\.html$", HANDLER);
+                case 1, 2, 3, 4, 5, 6 -> router.addRoute(RequestMethod.GET, "/pages/page" + i, HANDLER);
+                default -> router.addRoute(RequestMethod.GET, "/api/v1/resource" + i + "/{id}/items/{item}", HANDLER);
+            }
+        }
+        literalPath = "/pages/page" + lastWith(last, 1, 6);
+        templatePath = "/api/v1/resource" + lastWith(last, 7, 19) + "/8842/items/17";
+        regexPath = "/legacy/r" + lastWith(last, 0, 0) + "/123.html";
+        missPath = "/api/v2/unknown/8842";
+    }
+
+    /**
+     * Finds the last route index whose position in a group of twenty is in a
+     * range, so lookups pass over as many siblings as possible.
+     *
+     * @param last the last route index
+     * @param from the first position in the group
+     * @param to   the last position in the group
+     * @return the route index
+     */
+    private static int lastWith(int last, int from, int to) {
+        for (int i = last; i >= 0; i--) {
+            if (i % 20 >= from && i % 20 <= to) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No route in the range");
+    }
+
+    /**
+     * Matches a literal route.
+     *
+     * @return the match
+     */
+    @Benchmark
+    public Object literal() {
+        return router.match(literalPath);
+    }
+
+    /**
+     * Matches a template with two placeholders.
+     *
+     * @return the match
+     */
+    @Benchmark
+    public Object template() {
+        return router.match(templatePath);
+    }
+
+    /**
+     * Matches a regular expression route, after the trie has failed.
+     *
+     * @return the match
+     */
+    @Benchmark
+    public Object regex() {
+        return router.match(regexPath);
+    }
+
+    /**
+     * Looks up a path matching no route, which tries every regular expression.
+     *
+     * @return null
+     */
+    @Benchmark
+    public Object miss() {
+        return router.match(missPath);
+    }
+}
@@ -1,59 +1,89 @@
 package com.ujjwalgarg;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Base64;
-import java.util.zip.GZIPOutputStream;
+import java.nio.file.Path;
 
+import com.ujjwalgarg.httpserver.AccessLog;
+import com.ujjwalgarg.httpserver.EngineType;
+import com.ujjwalgarg.httpserver.FileCache;
+import com.ujjwalgarg.httpserver.FileUploadHandler;
+import com.ujjwalgarg.httpserver.ExecutionMode;
 import com.ujjwalgarg.httpserver.HttpServer;
+import com.ujjwalgarg.httpserver.MetricsHandler;
 import com.ujjwalgarg.httpserver.RequestMethod;
+import com.ujjwalgarg.httpserver.ResponseCache;
+import com.ujjwalgarg.httpserver.ServerConfig;
+import com.ujjwalgarg.httpserver.StaticFileHandler;
 
 /**
  * The App class represents the main entry point of the HTTP server application.
  */
 public class App {
     private static int PORT = 4221;
+    private static final long MAX_UPLOAD_SIZE = 1024L * 1024 * 1024; // Largest file accepted by POST /files/
 
     public static void main(String[] args) {
+        // Read the command line options (--directory <dir> --engine <blocking|nio>
+        // --execution <thread_per_connection|virtual_threads|bounded_pool>
+        // --access-log <file>)
+        String dirOption = null;
+        String accessLogOption = null;
+        ServerConfig config = new ServerConfig();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--directory" -> dirOption = args[i + 1];
+                case "--engine" -> config.setEngineType(EngineType.valueOf(args[i + 1].toUpperCase()));
+                case "--execution" -> config.setExecutionMode(ExecutionMode.valueOf(args[i + 1].toUpperCase()));
+                case "--access-log" -> accessLogOption = args[i + 1];
+                default -> System.out.println("Ignoring unknown option " + args[i]);
+            }
+        }
+
         // Create an instance of the HTTP server on a specified port
-        HttpServer server = new HttpServer(PORT);
+        HttpServer server = new HttpServer(PORT, config);
+        if (accessLogOption != null) {
+            try {
+                server.setAccessLog(new AccessLog(Path.of(accessLogOption)).setFormat(AccessLog.Format.COMBINED));
+            } catch (IOException e) {
+                System.out.println("Cannot write the access log to " + accessLogOption);
+                e.printStackTrace();
+            }
+        }
 
         // Add request handlers for different routes and HTTP methods
-        server.addHandler(RequestMethod.GET, "^/$", (req, res) -> {
+        addRoutes(server, dirOption);
+
+        // Start the HTTP server
+        server.start();
+    }
+
+    /**
+     * Adds the routes of the application to a server. The load test harness
+     * uses this too, so it measures the same handlers the application serves.
+     *
+     * @param server    the server to add the routes to
+     * @param directory the directory files are served from and uploaded to
+     *                  (with a trailing slash), or null to serve no files
+     */
+    public static void addRoutes(HttpServer server, String directory) {
+        server.addHandler(RequestMethod.GET, "/", (req, res) -> {
             // Handler for root path (GET /)
             res.setStatusCode(200);
             res.setStatusMsg("OK");
         });
-        server.addHandler(RequestMethod.GET, "^/echo/[^/]+$", (req, res) -> {
+        // Echoes never change, so they are answered from memory for a minute
+        ResponseCache responses = new ResponseCache(16 * 1024 * 1024, 64 * 1024);
+        server.addHandler(RequestMethod.GET, "/echo/{text}", responses.cache((req, res) -> {
             // Handler for /echo/<something> (GET)
-            String path = req.getPath();
-            if (req.getHeader("accept-encoding") != null) {
-                String encodingVal = req.getHeader("accept-encoding");
-                if (encodingVal.equals("gzip")) {
-                    // Compress the response if client accepts gzip encoding
-                    String compressed = gzipCompress(path.substring(6));
-                    res.addHeader("Content-Encoding", "gzip");
-                    res.setResponseBody(compressed);
-                } else {
-                    res.setResponseBody(path.substring(6));
-                }
-                res.setStatusCode(200);
-                res.addHeader("Content-Type", "text/plain");
-                res.setStatusMsg("OK");
-                return;
-            }
-
+            String text = req.getPathParam("text");
             res.setStatusCode(200);
             res.addHeader("Content-Type", "text/plain");
-            res.setResponseBody(path.substring(6));
+            res.setResponseBody(text);
             res.setStatusMsg("OK");
-        });
-        server.addHandler(RequestMethod.GET, "^/user-agent$", (req, res) -> {
+        }, 60_000));
+        // Handler exposing the server metrics to Prometheus (GET /metrics)
+        server.addHandler(RequestMethod.GET, "/metrics", new MetricsHandler(server.getMetrics()));
+        server.addHandler(RequestMethod.GET, "/user-agent", (req, res) -> {
             // Handler for /user-agent (GET)
             String userAgentHeader = req.getHeader("user-agent");
             res.setStatusCode(200);
@@ -61,70 +91,24 @@ public class App {
             res.addHeader("Content-Type", "text/plain");
             res.setResponseBody(userAgentHeader);
         });
-        server.addHandler(RequestMethod.GET, "^/files/[^/]+$", (req, res) -> {
-            // Handler for retrieving files (GET /files/<filename>)
-            File dir = new File(args[1]);
-            String fileToFind = req.getPath().substring(7);
-            boolean fileExists = false;
-            for (String file : dir.list()) {
-                if (fileToFind.equals(file)) {
-                    fileExists = true;
-                    break;
-                }
-            }
+        if (directory != null) {
+            // Handler for retrieving files (GET and HEAD /files/<filename>)
+            try {
+                // Keep small hot files in memory, dropping them as soon as they change
+                FileCache cache = new FileCache(64 * 1024 * 1024, 1024 * 1024);
+                cache.watch(Path.of(directory));
+                server.addHandler(RequestMethod.GET, "/files/{filename}",
+                        new StaticFileHandler(Path.of(directory), "/files/", cache));
 
-            if (!fileExists) {
-                // Respond with 404 Not Found if file does not exist
-                res.setStatusCode(404);
-                res.setStatusMsg("Not Found");
-                return;
+                // Handler for uploading files (POST /files/<filename>), stored once complete
+                server.addHandler(RequestMethod.POST, "/files/{filename}",
+                        new FileUploadHandler(Path.of(directory), "/files/")
+                                .setMaxSize(MAX_UPLOAD_SIZE)
+                                .setSync(true));
+            } catch (IOException e) {
+                System.out.println("Cannot serve files from " + directory);
+                e.printStackTrace();
             }
-
-            // Read file contents and set as response body
-            res.addHeader("Content-Type", "application/octet-stream");
-            BufferedReader br = new BufferedReader(new FileReader(new File(dir, fileToFind)));
-            StringBuilder sb = new StringBuilder();
-            while (br.ready()) {
-                sb.append(br.readLine());
-            }
-            br.close();
-            res.setResponseBody(sb.toString());
-
-            res.setStatusCode(200);
-            res.setStatusMsg("OK");
-        });
-        server.addHandler(RequestMethod.POST, "^/files/[^/]+$", (req, res) -> {
-            // Handler for uploading files (POST /files/<filename>)
-            String fileToWrite = req.getPath().substring(7);
-
-            // Write request body (file content) to specified file
-            File newFile = new File(args[1] + fileToWrite);
-            BufferedWriter bw = new BufferedWriter(new FileWriter(newFile));
-            bw.write(req.getRequestBody());
-            bw.close();
-
-            res.setStatusCode(201);
-            res.setStatusMsg("Created");
-        });
-
-        // Start the HTTP server
-        server.start();
-    }
-
-    /**
-     * Compresses a string using GZIP compression and returns the base64-encoded
-     * result.
-     * 
-     * @param s the string to compress
-     * @return the base64-encoded compressed string
-     * @throws IOException if an I/O error occurs
-     */
-    private static String gzipCompress(String s) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(baos)) {
-            byte[] input = s.getBytes("UTF-8");
-            gzipOutputStream.write(input, 0, input.length);
         }
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
     }
 }
@@ -0,0 +1,479 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AccessLog class writes one line per served request to a file, without
+ * making request threads wait for the disk or for each other.
+ *
+ * Request threads record entries into a bounded ring buffer of preallocated
+ * slots, claiming a slot with a single compare-and-set and publishing it with
+ * a volatile write. A single writer thread drains the buffer, formats the
+ * entries and writes them in batches. When the buffer is full, entries are
+ * dropped and counted rather than blocking the request. The file is rotated
+ * once it grows past a size, keeping a fixed number of older files.
+ *
+ * Successful responses may be sampled to reduce the volume; error responses
+ * (status 400 and above) are always logged.
+ */
+public class AccessLog implements AutoCloseable {
+
+    /**
+     * The Format enum lists the layouts of a log line.
+     */
+    public enum Format {
+        /** NCSA Common Log Format. */
+        COMMON,
+        /** NCSA Combined Log Format: Common plus the Referer and User-Agent. */
+        COMBINED,
+        /** One JSON object per line, including the route and the duration. */
+        JSON
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192; // Entries buffered by default
+    private static final int BATCH_SIZE = 64 * 1024; // Formatted bytes collected before a write
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5); // Writer sleep when the buffer is empty
+    private static final DateTimeFormatter CLF_TIME = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneOffset.UTC); // Common Log Format time
+    private static final DateTimeFormatter ISO_TIME = DateTimeFormatter.ISO_INSTANT; // JSON time
+
+    /**
+     * The Slot class is one entry of the ring buffer, reused as the buffer wraps.
+     */
+    private static class Slot {
+        private volatile long sequence; // Position the slot is free for, or that position + 1 once published
+        private long timeMillis; // Time the response was sent
+        private String remote; // Address of the client
+        private RequestMethod method; // Request method
+        private String path; // Request path
+        private String version; // HTTP version of the request
+        private String route; // Matched route pattern, or null
+        private String referer; // Referer header, or null
+        private String userAgent; // User-Agent header, or null
+        private int statusCode; // Status code of the response
+        private long bytes; // Body bytes sent
+        private long nanos; // Time from dispatch to the end of the response
+
+        /**
+         * Constructs a free Slot.
+         *
+         * @param sequence the first position the slot is free for
+         */
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private final Path file; // Current log file
+    private final Slot[] slots; // Ring buffer
+    private final int mask; // Capacity - 1, to wrap positions into the buffer
+    private final AtomicLong tail; // Next position claimed by a request thread
+    private long head; // Next position read by the writer
+    private final LongAdder dropped; // Entries dropped because the buffer was full
+    private final LongAdder written; // Entries written to the file
+    private final Thread writer; // Thread formatting and writing entries
+    private volatile Format format; // Layout of the lines
+    private volatile double sampleRate; // Fraction of successful responses logged
+    private volatile long maxFileSize; // Size rotating the file, 0 meaning never
+    private volatile int maxFiles; // Rotated files kept
+    private volatile boolean closed; // Whether the log is shutting down
+    private OutputStream out; // Stream of the current file, used by the writer only
+    private long fileSize; // Size of the current file, used by the writer only
+    private long cachedSecond = -1; // Second of the cached time, used by the writer only
+    private String cachedTime; // Formatted time of that second, used by the writer only
+
+    /**
+     * Constructs an AccessLog appending to a file, with the default buffer
+     * capacity.
+     *
+     * @param file the log file, created if missing
+     * @throws IOException if the file cannot be opened
+     */
+    public AccessLog(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an AccessLog appending to a file.
+     *
+     * @param file     the log file, created if missing
+     * @param capacity the number of entries buffered before new ones are
+     *                 dropped, rounded up to a power of two
+     * @throws IOException if the file cannot be opened
+     */
+    public AccessLog(Path file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.file = file;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.written = new LongAdder();
+        this.format = Format.COMMON;
+        this.sampleRate = 1.0;
+        this.maxFileSize = 100L * 1024 * 1024;
+        this.maxFiles = 5;
+        open();
+        this.writer = new Thread(this::drain, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Sets the layout of the lines.
+     *
+     * @param format the format
+     * @return this log, for chaining
+     */
+    public AccessLog setFormat(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of successful responses logged. Error responses are
+     * always logged.
+     *
+     * @param sampleRate the fraction, from 0 to 1
+     * @return this log, for chaining
+     */
+    public AccessLog setSampleRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Sets when the file is rotated. Once it grows past the size it is renamed
+     * with the suffix {@code .1}, older files moving up to {@code .maxFiles},
+     * and a new file is started.
+     *
+     * @param maxFileSize the size in bytes, 0 meaning never
+     * @param maxFiles    the number of rotated files kept
+     * @return this log, for chaining
+     */
+    public AccessLog setRotation(long maxFileSize, int maxFiles) {
+        if (maxFileSize < 0 || maxFiles < 1) {
+            throw new IllegalArgumentException("Invalid rotation settings");
+        }
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    /**
+     * Returns the number of entries dropped because the buffer was full.
+     *
+     * @return the drop count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of entries written to the file.
+     *
+     * @return the entry count
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * Records a served request. Never blocks: the entry is dropped if the
+     * buffer is full.
+     *
+     * @param req        the request
+     * @param remote     the address of the client
+     * @param statusCode the status code of the response
+     * @param bytes      the body bytes sent
+     * @param nanos      the time from dispatch to the end of the response
+     */
+    void log(Request req, String remote, int statusCode, long bytes, long nanos) {
+        if (closed) {
+            return;
+        }
+        double rate = sampleRate;
+        if (statusCode < 400 && rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return;
+        }
+
+        // Claim the next free slot
+        Slot slot;
+        long position = tail.get();
+        while (true) {
+            slot = slots[(int) position & mask];
+            long sequence = slot.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                dropped.increment(); // The writer has not freed the slot yet
+                return;
+            } else {
+                position = tail.get(); // Another thread claimed the slot first
+            }
+        }
+
+        slot.timeMillis = System.currentTimeMillis();
+        slot.remote = remote;
+        slot.method = req.getMethod();
+        slot.path = req.getPath();
+        slot.version = req.getHttpVersion();
+        slot.route = req.getRoute();
+        slot.referer = req.getHeader(HeaderNames.REFERER);
+        slot.userAgent = req.getHeader(HeaderNames.USER_AGENT);
+        slot.statusCode = statusCode;
+        slot.bytes = bytes;
+        slot.nanos = nanos;
+        slot.sequence = position + 1; // Publish to the writer
+    }
+
+    /**
+     * Writes the buffered entries and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the writer thread: drains the buffer in batches until the log is
+     * closed, then writes what is left and closes the file.
+     */
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        byte[] batch = new byte[BATCH_SIZE];
+        while (true) {
+            boolean closing = closed;
+            int length = 0;
+            int count = 0;
+            while (true) {
+                Slot slot = slots[(int) head & mask];
+                if (slot.sequence != head + 1) {
+                    break; // Nothing published at this position yet
+                }
+                line.setLength(0);
+                format(slot, line);
+                slot.remote = slot.path = slot.route = slot.referer = slot.userAgent = null;
+                slot.sequence = head + slots.length; // Free the slot for the next lap
+                head++;
+                count++;
+
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                if (length + bytes.length > batch.length) {
+                    write(batch, length);
+                    length = 0;
+                }
+                if (bytes.length > batch.length) {
+                    write(bytes, bytes.length);
+                } else {
+                    System.arraycopy(bytes, 0, batch, length, bytes.length);
+                    length += bytes.length;
+                }
+            }
+            if (length > 0) {
+                write(batch, length);
+            }
+            if (count > 0) {
+                written.add(count);
+                flush();
+            } else if (closing) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Formats an entry into a line.
+     *
+     * @param slot the entry
+     * @param line the builder receiving the line, newline included
+     */
+    private void format(Slot slot, StringBuilder line) {
+        if (format == Format.JSON) {
+            line.append("{\"time\":\"").append(ISO_TIME.format(Instant.ofEpochMilli(slot.timeMillis)));
+            line.append("\",\"remote\":");
+            json(line, slot.remote);
+            line.append(",\"method\":\"").append(slot.method).append("\",\"path\":");
+            json(line, slot.path);
+            line.append(",\"version\":");
+            json(line, slot.version);
+            line.append(",\"route\":");
+            json(line, slot.route);
+            line.append(",\"status\":").append(slot.statusCode);
+            line.append(",\"bytes\":").append(slot.bytes);
+            line.append(",\"duration_ms\":").append(slot.nanos / 1_000_000.0);
+            line.append(",\"referer\":");
+            json(line, slot.referer);
+            line.append(",\"user_agent\":");
+            json(line, slot.userAgent);
+            line.append("}\n");
+            return;
+        }
+
+        line.append(slot.remote).append(" - - [").append(clfTime(slot.timeMillis)).append("] \"")
+                .append(slot.method).append(' ').append(slot.path).append(' ').append(slot.version).append("\" ")
+                .append(slot.statusCode).append(' ');
+        if (slot.bytes > 0) {
+            line.append(slot.bytes);
+        } else {
+            line.append('-');
+        }
+        if (format == Format.COMBINED) {
+            line.append(" \"").append(slot.referer != null ? slot.referer : "-").append("\" \"")
+                    .append(slot.userAgent != null ? slot.userAgent : "-").append('"');
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Formats a time for the Common Log Format, reusing the last result within
+     * the same second.
+     *
+     * @param timeMillis the time in milliseconds
+     * @return the formatted time
+     */
+    private String clfTime(long timeMillis) {
+        long second = timeMillis / 1000;
+        if (second != cachedSecond) {
+            cachedTime = CLF_TIME.format(Instant.ofEpochSecond(second));
+            cachedSecond = second;
+        }
+        return cachedTime;
+    }
+
+    /**
+     * Appends a String as a JSON value.
+     *
+     * @param line  the builder
+     * @param value the String, or null
+     */
+    private static void json(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Writes formatted lines to the file, rotating it first if it is full.
+     *
+     * @param bytes  the lines
+     * @param length the number of bytes to write
+     */
+    private void write(byte[] bytes, int length) {
+        try {
+            long limit = maxFileSize;
+            if (limit > 0 && fileSize > 0 && fileSize + length > limit) {
+                rotate();
+            }
+            out.write(bytes, 0, length);
+            fileSize += length;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes the written lines to the file.
+     */
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Renames the current file and the rotated ones one step up, dropping the
+     * oldest, and starts a new file.
+     *
+     * @throws IOException if the files cannot be renamed or opened
+     */
+    private void rotate() throws IOException {
+        out.close();
+        int keep = maxFiles;
+        Files.deleteIfExists(rotated(keep));
+        for (int i = keep - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) {
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    /**
+     * Returns the path of a rotated file.
+     *
+     * @param index the rotation index, 1 being the most recent
+     * @return the path
+     */
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    /**
+     * Opens the current file for appending.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    private void open() throws IOException {
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                StandardOpenOption.WRITE);
+        fileSize = Files.size(file);
+    }
+}
@@ -0,0 +1,151 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The AsyncHandlerAdapter class registers an {@link AsyncRequestHandler} in the
+ * router alongside synchronous handlers, together with the timeout of its
+ * route. The dispatcher starts it with {@link #start(Request, Response)} and
+ * lets the engine wait for the result in its own way.
+ *
+ * When the timeout expires first, the response is abandoned so that whatever
+ * the handler does with it later never reaches the connection, and the request
+ * is answered with 504 Gateway Timeout.
+ */
+class AsyncHandlerAdapter implements RequestHandler {
+
+    private final AsyncRequestHandler handler; // Handler of the route
+    private final long timeoutMillis; // Time the handler has to complete, 0 meaning no limit
+
+    /**
+     * Constructs an AsyncHandlerAdapter.
+     *
+     * @param handler       the handler of the route
+     * @param timeoutMillis the time the handler has to complete the response, 0
+     *                      meaning no limit
+     */
+    AsyncHandlerAdapter(AsyncRequestHandler handler, long timeoutMillis) {
+        this.handler = handler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts the handler and waits for it, for callers that need a synchronous
+     * handler.
+     *
+     * @param req the HTTP request to handle
+     * @param res the HTTP response to populate
+     * @throws IOException if the handler fails or times out
+     */
+    @Override
+    public void handle(Request req, Response res) throws IOException {
+        await(start(req, res));
+    }
+
+    /**
+     * Starts the handler.
+     *
+     * @param req the HTTP request to handle
+     * @param res the HTTP response to populate
+     * @return a future completed once the response is populated, or
+     *         exceptionally with an {@link HttpException} for the error response
+     *         to send instead
+     */
+    CompletableFuture<Void> start(Request req, Response res) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            CompletionStage<Void> stage = handler.handle(req, res);
+            if (stage == null) {
+                throw new IllegalStateException("Async handler returned no stage");
+            }
+            stage.whenComplete((value, error) -> {
+                if (error == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(unwrap(error));
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        if (timeoutMillis > 0) {
+            result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return result.handle((value, error) -> {
+            if (error == null) {
+                return null;
+            }
+            throw new CompletionException(toHttpError(unwrap(error), res));
+        });
+    }
+
+    /**
+     * Waits for a dispatched request to be handled.
+     *
+     * @param done the future returned by the dispatcher
+     * @throws IOException if the handler failed with an I/O error, or an
+     *                     {@link HttpException} for the error response to send
+     */
+    static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the handler", e);
+        }
+    }
+
+    /**
+     * Maps the failure of a handler to the error response it calls for.
+     *
+     * @param error the failure
+     * @param res   the response the handler was populating
+     * @return the failure to complete the dispatch with
+     */
+    private static Throwable toHttpError(Throwable error, Response res) {
+        if (error instanceof TimeoutException) {
+            if (!res.abandon()) {
+                // Part of the response is out, only closing can signal the failure
+                return new IOException("Handler timed out after committing the response");
+            }
+            return new HttpException(504, "Gateway Timeout");
+        }
+        if (error instanceof RejectedExecutionException && res.abandon()) {
+            return new HttpException(503, "Service Unavailable");
+        }
+        return error;
+    }
+
+    /**
+     * Strips the wrappers CompletableFuture puts around failures.
+     *
+     * @param error the failure
+     * @return the underlying failure
+     */
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,34 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The AsyncRequestHandler interface defines a contract for handling HTTP
+ * requests whose response is completed later, typically once a downstream
+ * service or a disk read answers. The handler starts the work, returns at
+ * once, and completes the returned stage after it has populated the response,
+ * from whichever thread the work finishes on. The server does not hold a
+ * thread for the request in the meantime.
+ */
+@FunctionalInterface
+public interface AsyncRequestHandler {
+
+    /**
+     * Starts handling an HTTP request. The response must not be touched once
+     * the returned stage is complete.
+     *
+     * Completing the stage exceptionally with an {@link HttpException} answers
+     * with its status; a {@link java.util.concurrent.TimeoutException} answers
+     * with 504 Gateway Timeout, a
+     * {@link java.util.concurrent.RejectedExecutionException} with 503 Service
+     * Unavailable, and anything else with 500.
+     *
+     * @param req the HTTP request to handle
+     * @param res the HTTP response to populate
+     * @return a stage completed once the response is populated
+     * @throws IOException if an I/O error occurs while starting the work
+     */
+    public CompletionStage<Void> handle(Request req, Response res) throws IOException;
+
+}
@@ -0,0 +1,89 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The BlockingServerEngine class serves connections with blocking sockets. It
+ * accepts incoming connections on the acceptor threads of a
+ * {@link ServerListener} and runs each of them on the
+ * {@link ConnectionExecutor}, where it is handled by a SocketConnectionHandler.
+ * Connections rejected by a saturated executor are answered with 503 Service
+ * Unavailable and closed right away. The timeouts of all connections are
+ * tracked by a single {@link TimerWheel}, and their read buffers come from a
+ * single {@link BufferPool}.
+ *
+ * The listening socket is a ServerSocketChannel, so accepted sockets have a
+ * channel that file bodies can be transferred to without copying.
+ */
+class BlockingServerEngine implements ServerEngine {
+
+    private static final long TICK_MILLIS = 100; // Precision of the connection timeouts
+    private static final int WHEEL_SIZE = 512; // Buckets of the timer wheel, one turn every 51.2 seconds
+    private static final int MAX_FREE_BUFFERS = 256; // Free read buffers kept per size class
+
+    private final RequestDispatcher dispatcher; // Routes requests to their handlers
+    private final ServerConfig config; // Connection settings of the server
+    private volatile ServerListener listener; // Listening sockets and acceptors, set while the engine runs
+    private volatile ConnectionExecutor executor; // Executor running the connections
+
+    /**
+     * Constructs a BlockingServerEngine with the specified dispatcher and
+     * configuration.
+     *
+     * @param dispatcher the dispatcher routing requests to their handlers
+     * @param config     the connection settings of the server
+     */
+    BlockingServerEngine(RequestDispatcher dispatcher, ServerConfig config) {
+        this.dispatcher = dispatcher;
+        this.config = config;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        this.executor = new ConnectionExecutor(config, "http-connection-");
+        ConnectionLimiter limiter = new ConnectionLimiter(config);
+        TimerWheel timer = new TimerWheel(TICK_MILLIS, WHEEL_SIZE);
+        timer.start("http-timer");
+        BufferPool pool = new BufferPool(MAX_FREE_BUFFERS, config.isBufferLeakDetection());
+        ServerListener listener = new ServerListener(config, limiter, dispatcher.getMetrics());
+        this.listener = listener;
+        try {
+            listener.bind(port);
+
+            // Accept incoming connections and hand each one to the executor
+            listener.accept("http-acceptor-", clientChannel -> {
+                SocketConnectionHandler socketConnHandler = new SocketConnectionHandler(clientChannel.socket(),
+                        dispatcher, config, limiter, timer, pool, executor);
+                if (!executor.execute(socketConnHandler)) {
+                    dispatcher.getMetrics().connectionRejected();
+                    limiter.release(clientChannel.socket().getInetAddress());
+                    ServerListener.reject(clientChannel);
+                }
+            });
+        } finally {
+            listener.close();
+            executor.shutdown();
+            timer.stop();
+        }
+    }
+
+    @Override
+    public void stop() {
+        ServerListener listener = this.listener;
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        ConnectionExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        ConnectionExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getQueueDepth();
+    }
+}
@@ -0,0 +1,118 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BodyInputStream class is the base of the streams handing a request body to
+ * handlers as it arrives on a blocking connection. Subclasses implement the
+ * framing: {@link FixedLengthInputStream} for Content-Length and
+ * {@link ChunkedInputStream} for chunked transfer coding.
+ *
+ * When the client sent {@code Expect: 100-continue}, the interim response is
+ * written right before the body is first read, so clients whose body is never
+ * read are not asked to send it.
+ *
+ * A body whose request was abandoned to a late asynchronous handler is
+ * detached from the connection, so that the handler cannot read the bytes of
+ * the requests that follow. Reads hold a {@link ReentrantLock} rather than the
+ * monitor, so a virtual thread blocked on the socket does not pin its carrier.
+ */
+abstract class BodyInputStream extends InputStream {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(); // Interim response
+
+    private OutputStream continueOut; // Where to write 100 Continue before the first read, or null
+    private final ReentrantLock lock = new ReentrantLock(); // Held by reads and by detach
+    private boolean detached; // Whether the body no longer reads from the connection, guarded by lock
+
+    /**
+     * Asks for {@code 100 Continue} to be written before the body is first read.
+     *
+     * @param out the OutputStream of the connection
+     */
+    void expectContinue(OutputStream out) {
+        this.continueOut = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            if (detached) {
+                throw new IOException("Request body abandoned by the server");
+            }
+            if (continueOut != null) {
+                continueOut.write(CONTINUE);
+                continueOut.flush();
+                continueOut = null;
+            }
+            return readBody(b, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads decoded body bytes.
+     *
+     * @param b   the destination array
+     * @param off the offset in the array
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the end of the body
+     * @throws IOException if an I/O error occurs or the body is malformed
+     */
+    protected abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Detaches the body from the connection: later reads fail, and a read in
+     * progress is waited for, so the connection input is free to use once
+     * this returns.
+     */
+    void detach() {
+        lock.lock();
+        try {
+            detached = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads and drops what is left of the body, so the next request on the
+     * connection can be read. A body the client was never asked to send (see
+     * {@link #expectContinue(OutputStream)}) is not read at all.
+     *
+     * @param maxBytes the most bytes worth reading before giving up
+     * @return true if the end of the body was reached, false if the connection
+     *         has to be closed instead
+     */
+    boolean discardRemaining(long maxBytes) {
+        if (continueOut != null) {
+            return false;
+        }
+        byte[] scratch = new byte[8192];
+        long discarded = 0;
+        try {
+            int n;
+            while ((n = readBody(scratch, 0, scratch.length)) != -1) {
+                discarded += n;
+                if (discarded > maxBytes) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
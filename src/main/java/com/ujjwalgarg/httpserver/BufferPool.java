@@ -0,0 +1,279 @@
+package com.ujjwalgarg.httpserver;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BufferPool class recycles the direct ByteBuffers connections read into.
+ * Direct buffers are expensive to allocate and free, and the socket reads into
+ * them without the copy the JDK makes for heap buffers, so each buffer is kept
+ * and handed out again once its connection gives it back.
+ *
+ * Buffers come in power-of-two size classes from 4 KiB to 1 MiB; a request is
+ * served from the smallest class that fits, and larger ones are allocated on
+ * the heap and never pooled. Each class keeps at most a fixed number of free
+ * buffers, so a burst of connections does not pin its memory forever.
+ *
+ * A buffer must be released exactly once. With leak detection on, each
+ * acquisition hands out a view of the pooled buffer and remembers where it was
+ * made: a view released twice or not acquired from the pool is rejected, and a
+ * view garbage collected without being released is reported with its
+ * acquisition site, its buffer going back to the pool. Otherwise only the
+ * outstanding count is kept.
+ *
+ * A pool serves one event loop, or the connections of one engine; its methods
+ * are synchronized, which costs next to nothing uncontended.
+ */
+class BufferPool {
+
+    static final int MIN_SIZE = 4 * 1024; // Size of the smallest class
+    static final int MAX_SIZE = 1024 * 1024; // Size of the largest class
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE); // log2 of MIN_SIZE
+
+    /**
+     * The Lease class tracks a view handed out with leak detection on. It is
+     * enqueued once the view is garbage collected, unless it was cleared on
+     * release first.
+     */
+    private static final class Lease extends WeakReference<ByteBuffer> {
+        private final ByteBuffer pooled; // Buffer of the pool behind the view
+        private final Throwable site; // Where the view was acquired
+        private final int hash; // Identity hash of the view
+
+        /**
+         * Constructs a Lease.
+         *
+         * @param view   the view handed out
+         * @param pooled the buffer behind it
+         * @param queue  the queue the lease joins once the view is collected
+         */
+        Lease(ByteBuffer view, ByteBuffer pooled, ReferenceQueue<ByteBuffer> queue) {
+            super(view, queue);
+            this.pooled = pooled;
+            this.site = new Throwable("Buffer acquired here");
+            this.hash = System.identityHashCode(view);
+        }
+    }
+
+    private final ArrayDeque<ByteBuffer>[] free; // Free buffers of each size class
+    private final int maxFreePerClass; // Free buffers kept in each class
+    private final boolean leakDetection; // Whether acquisitions are tracked
+    private final Map<Integer, List<Lease>> leases; // Leases of the views out, by identity hash
+    private final ReferenceQueue<ByteBuffer> collected; // Leases whose view was garbage collected
+    private int outstanding; // Buffers acquired and not released
+    private long allocated; // Direct buffers allocated so far
+    private long reused; // Buffers handed out from the free lists
+    private long leaked; // Views garbage collected without being released
+
+    /**
+     * Constructs an empty BufferPool.
+     *
+     * @param maxFreePerClass the free buffers kept in each size class
+     * @param leakDetection   whether to track acquisitions and report leaks
+     */
+    BufferPool(int maxFreePerClass, boolean leakDetection) {
+        // Arrays of a generic type cannot be created; this one only ever holds ArrayDeque<ByteBuffer>
+        @SuppressWarnings("unchecked")
+        ArrayDeque<ByteBuffer>[] free = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[
+                Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1];
+        this.free = free;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+        this.maxFreePerClass = maxFreePerClass;
+        this.leakDetection = leakDetection;
+        this.leases = new HashMap<>();
+        this.collected = new ReferenceQueue<>();
+    }
+
+    /**
+     * Returns the size class serving a capacity.
+     *
+     * @param capacity the capacity needed, at most {@link #MAX_SIZE}
+     * @return the index of the class
+     */
+    private static int sizeClass(int capacity) {
+        int size = Math.max(MIN_SIZE, capacity);
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Hands out a cleared buffer of at least a capacity.
+     *
+     * @param capacity the capacity needed
+     * @return a direct buffer from the pool, or a heap buffer of exactly the
+     *         capacity if it is above {@link #MAX_SIZE}
+     */
+    synchronized ByteBuffer acquire(int capacity) {
+        if (leakDetection) {
+            reportLeaks();
+        }
+        outstanding++;
+        if (capacity > MAX_SIZE) {
+            return ByteBuffer.allocate(capacity);
+        }
+
+        int index = sizeClass(capacity);
+        ByteBuffer buffer = free[index].pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_SIZE << index);
+            allocated++;
+        } else {
+            buffer.clear();
+            reused++;
+        }
+        if (!leakDetection) {
+            return buffer;
+        }
+        ByteBuffer view = buffer.duplicate();
+        Lease lease = new Lease(view, buffer, collected);
+        leases.computeIfAbsent(lease.hash, hash -> new ArrayList<>(1)).add(lease);
+        return view;
+    }
+
+    /**
+     * Takes back a buffer acquired from the pool. The caller must not touch it
+     * afterwards.
+     *
+     * @param buffer the buffer
+     * @throws IllegalStateException with leak detection, if the buffer is not
+     *                               out of this pool
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            outstanding--;
+            return;
+        }
+        ByteBuffer pooled = buffer;
+        if (leakDetection) {
+            Lease lease = removeLease(buffer);
+            if (lease == null) {
+                throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+            }
+            lease.clear(); // A cleared lease is never enqueued
+            pooled = lease.pooled;
+        }
+        outstanding--;
+        recycle(pooled);
+    }
+
+    /**
+     * Puts a buffer back on the free list of its class, unless the list is
+     * full.
+     *
+     * @param buffer the pooled buffer
+     */
+    private void recycle(ByteBuffer buffer) {
+        ArrayDeque<ByteBuffer> list = free[sizeClass(buffer.capacity())];
+        if (list.size() < maxFreePerClass) {
+            list.addFirst(buffer); // The most recently used buffer is the likeliest to be in cache
+        }
+    }
+
+    /**
+     * Forgets the lease of a view.
+     *
+     * @param view the view handed out
+     * @return the lease, or null if the view is not out
+     */
+    private Lease removeLease(ByteBuffer view) {
+        Integer hash = System.identityHashCode(view);
+        List<Lease> list = leases.get(hash);
+        if (list == null) {
+            return null;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).get() == view) {
+                Lease lease = list.remove(i);
+                if (list.isEmpty()) {
+                    leases.remove(hash);
+                }
+                return lease;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reports the views garbage collected without being released, and takes
+     * their buffers back.
+     */
+    private void reportLeaks() {
+        Reference<? extends ByteBuffer> ref;
+        while ((ref = collected.poll()) != null) {
+            Lease lease = (Lease) ref;
+            List<Lease> list = leases.get(lease.hash);
+            if (list == null || !list.remove(lease)) {
+                continue;
+            }
+            if (list.isEmpty()) {
+                leases.remove(lease.hash);
+            }
+            leaked++;
+            outstanding--;
+            System.out.println("Buffer garbage collected without being released");
+            lease.site.printStackTrace();
+            recycle(lease.pooled);
+        }
+    }
+
+    /**
+     * Returns the number of buffers acquired and not yet released.
+     *
+     * @return the outstanding count
+     */
+    synchronized int getOutstanding() {
+        if (leakDetection) {
+            reportLeaks();
+        }
+        return outstanding;
+    }
+
+    /**
+     * Returns the number of direct buffers allocated so far.
+     *
+     * @return the allocation count
+     */
+    synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Returns the number of buffers handed out again from the free lists.
+     *
+     * @return the reuse count
+     */
+    synchronized long getReused() {
+        return reused;
+    }
+
+    /**
+     * Returns the number of buffers found garbage collected without being
+     * released, with leak detection on.
+     *
+     * @return the leak count
+     */
+    synchronized long getLeaked() {
+        if (leakDetection) {
+            reportLeaks();
+        }
+        return leaked;
+    }
+
+    /**
+     * Drops the free buffers. Buffers still out are unaffected and can still be
+     * released.
+     */
+    synchronized void clear() {
+        for (ArrayDeque<ByteBuffer> list : free) {
+            list.clear();
+        }
+    }
+}
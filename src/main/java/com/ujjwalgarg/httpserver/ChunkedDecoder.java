@@ -0,0 +1,217 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The ChunkedDecoder class decodes the chunked transfer coding incrementally.
+ * It consumes whatever encoded bytes are available and produces the body bytes
+ * they carry, keeping its position in the chunk syntax between calls. Chunk
+ * extensions and trailer fields are skipped. It is used by the blocking engine
+ * through {@link ChunkedInputStream} and directly by the NIO engine.
+ */
+class ChunkedDecoder {
+
+    private static final int MAX_LINE_LENGTH = 4096; // Longest chunk size line or trailer section accepted
+
+    private enum State {
+        SIZE, // Reading the hex digits of the chunk size
+        SIZE_EXTENSION, // Skipping chunk extensions up to the end of the size line
+        SIZE_LF, // Expecting the LF ending the size line
+        DATA, // Copying chunk data
+        DATA_CR, // Expecting the CR after the chunk data
+        DATA_LF, // Expecting the LF after the chunk data
+        TRAILER_START, // At the start of a trailer line or the final empty line
+        TRAILER_LINE, // Skipping a trailer field
+        TRAILER_LF, // Expecting the LF ending the final empty line
+        DONE // The body is complete
+    }
+
+    private final long maxBodySize; // Largest decoded body accepted, 0 meaning unlimited
+    private State state; // Position in the chunk syntax
+    private long chunkRemaining; // Data bytes left in the current chunk, or the size read so far
+    private int sizeDigits; // Hex digits read for the current chunk size
+    private int lineLength; // Bytes read on the current size line or trailer section
+    private long decoded; // Body bytes produced so far
+
+    /**
+     * Constructs a ChunkedDecoder.
+     *
+     * @param maxBodySize the largest decoded body accepted, 0 meaning unlimited
+     */
+    ChunkedDecoder(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        this.state = State.SIZE;
+    }
+
+    /**
+     * Tells whether the whole body, including trailers, has been decoded.
+     *
+     * @return true once the body is complete
+     */
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Decodes as many bytes as possible from the source into the destination.
+     * Stops when the source is exhausted, the destination is full or the body is
+     * complete.
+     *
+     * @param src the encoded bytes, in read mode
+     * @param dst the array receiving body bytes
+     * @param off the offset in the array
+     * @param len the maximum number of body bytes to produce
+     * @return the number of body bytes produced
+     * @throws HttpException if the encoding is malformed or the body too large
+     */
+    int decode(ByteBuffer src, byte[] dst, int off, int len) throws HttpException {
+        int written = 0;
+        while (src.hasRemaining() && state != State.DONE) {
+            if (state == State.DATA) {
+                if (written == len) {
+                    break;
+                }
+                int n = (int) Math.min(chunkRemaining, Math.min(src.remaining(), len - written));
+                src.get(dst, off + written, n);
+                written += n;
+                chunkRemaining -= n;
+                if (chunkRemaining == 0) {
+                    state = State.DATA_CR;
+                }
+                continue;
+            }
+
+            byte b = src.get();
+            switch (state) {
+                case SIZE -> readSize(b);
+                case SIZE_EXTENSION -> {
+                    countLine();
+                    if (b == '\r') {
+                        state = State.SIZE_LF;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    }
+                }
+                case SIZE_LF -> {
+                    expect(b, '\n');
+                    endSizeLine();
+                }
+                case DATA_CR -> {
+                    if (b == '\r') {
+                        state = State.DATA_LF;
+                    } else {
+                        expect(b, '\n');
+                        state = State.SIZE;
+                    }
+                }
+                case DATA_LF -> {
+                    expect(b, '\n');
+                    state = State.SIZE;
+                }
+                case TRAILER_START -> {
+                    if (b == '\r') {
+                        state = State.TRAILER_LF;
+                    } else if (b == '\n') {
+                        state = State.DONE;
+                    } else {
+                        countLine();
+                        state = State.TRAILER_LINE;
+                    }
+                }
+                case TRAILER_LINE -> {
+                    countLine();
+                    if (b == '\n') {
+                        state = State.TRAILER_START;
+                    }
+                }
+                case TRAILER_LF -> {
+                    expect(b, '\n');
+                    state = State.DONE;
+                }
+                default -> throw new IllegalStateException(state.name());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Consumes one byte of the chunk size line.
+     *
+     * @param b the byte
+     * @throws HttpException if the size is malformed
+     */
+    private void readSize(byte b) throws HttpException {
+        int digit = Character.digit(b, 16);
+        if (digit != -1) {
+            if (++sizeDigits > 15) {
+                throw badRequest();
+            }
+            chunkRemaining = chunkRemaining * 16 + digit;
+            return;
+        }
+        if (sizeDigits == 0) {
+            throw badRequest();
+        }
+        if (b == '\r') {
+            state = State.SIZE_LF;
+        } else if (b == '\n') {
+            endSizeLine();
+        } else if (b == ';' || b == ' ' || b == '\t') {
+            state = State.SIZE_EXTENSION;
+        } else {
+            throw badRequest();
+        }
+    }
+
+    /**
+     * Moves on to the chunk data, or to the trailers after the last chunk.
+     *
+     * @throws HttpException if the body grows beyond the allowed size
+     */
+    private void endSizeLine() throws HttpException {
+        sizeDigits = 0;
+        lineLength = 0;
+        if (chunkRemaining == 0) {
+            state = State.TRAILER_START;
+            return;
+        }
+        decoded += chunkRemaining;
+        if (maxBodySize > 0 && decoded > maxBodySize) {
+            throw new HttpException(413, "Content Too Large");
+        }
+        state = State.DATA;
+    }
+
+    /**
+     * Counts a byte of a size line or trailer section against the length limit.
+     *
+     * @throws HttpException if the line is too long
+     */
+    private void countLine() throws HttpException {
+        if (++lineLength > MAX_LINE_LENGTH) {
+            throw badRequest();
+        }
+    }
+
+    /**
+     * Checks that a byte is the one the syntax requires.
+     *
+     * @param b        the byte read
+     * @param expected the byte required
+     * @throws HttpException if they differ
+     */
+    private static void expect(byte b, char expected) throws HttpException {
+        if (b != expected) {
+            throw badRequest();
+        }
+    }
+
+    /**
+     * Creates the exception for malformed chunked bodies.
+     *
+     * @return a 400 Bad Request exception
+     */
+    private static HttpException badRequest() {
+        return new HttpException(400, "Bad Request");
+    }
+}
@@ -0,0 +1,44 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The ChunkedInputStream class reads a request body sent with
+ * {@code Transfer-Encoding: chunked}, decoding it with a {@link ChunkedDecoder}
+ * as bytes arrive on the connection.
+ */
+class ChunkedInputStream extends BodyInputStream {
+
+    private final ConnectionInput input; // Read side of the connection
+    private final ChunkedDecoder decoder; // Decoder keeping the position in the chunk syntax
+
+    /**
+     * Constructs a ChunkedInputStream.
+     *
+     * @param input       the read side of the connection
+     * @param maxBodySize the largest decoded body accepted, 0 meaning unlimited
+     */
+    ChunkedInputStream(ConnectionInput input, long maxBodySize) {
+        this.input = input;
+        this.decoder = new ChunkedDecoder(maxBodySize);
+    }
+
+    @Override
+    protected int readBody(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            int n = decoder.decode(input.buffer(), b, off, len);
+            if (n > 0) {
+                return n;
+            }
+            if (decoder.isDone()) {
+                return -1;
+            }
+            if (!input.fill()) {
+                throw new HttpException(400, "Bad Request"); // Connection closed before the last chunk
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.zip.CRC32C;
+
+/**
+ * The ConditionalGet class answers conditional GET and HEAD requests (RFC 9110
+ * section 13) once their handler has populated the response. A response
+ * carrying an ETag matching {@code If-None-Match}, or, when the client sent no
+ * {@code If-None-Match}, a Last-Modified not later than
+ * {@code If-Modified-Since}, is turned into 304 Not Modified and loses its body.
+ *
+ * Responses whose body was set at once and that have no ETag get a weak one
+ * computed from the body, so that even handlers knowing nothing of validators
+ * spare the client the body when it has not changed. Streamed bodies are left
+ * alone, since their head is gone before the body is known.
+ */
+final class ConditionalGet {
+
+    /**
+     * Prevents instantiation; all methods are static.
+     */
+    private ConditionalGet() {
+    }
+
+    /**
+     * Adds validators to a response and turns it into 304 Not Modified if the
+     * request already holds its current version.
+     *
+     * @param req the request
+     * @param res the response populated by the handler
+     */
+    static void apply(Request req, Response res) {
+        RequestMethod method = req.getMethod();
+        if ((method != RequestMethod.GET && method != RequestMethod.HEAD) || res.isBodyStreamed()
+                || res.isCommitted()) {
+            return;
+        }
+        addETag(res);
+        if (isNotModified(req, res)) {
+            res.notModified();
+        }
+    }
+
+    /**
+     * Adds a weak ETag computed from a body set at once, if the response is a
+     * 200 OK without an ETag. The tag is weak since the body may still be sent
+     * gzip-encoded.
+     *
+     * @param res the response
+     */
+    static void addETag(Response res) {
+        if (res.getStatusCode() != 200 || res.getHeaders().contains(HeaderNames.ETAG)) {
+            return;
+        }
+        ByteBuffer body = res.getBufferedBody();
+        if (body == null) {
+            return;
+        }
+        int length = body.remaining();
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        res.setHeader(HeaderNames.ETAG, "W/\"" + Integer.toHexString(length) + "-" + Long.toHexString(crc.getValue()) + "\"");
+    }
+
+    /**
+     * Tells whether the client already holds the version of the resource the
+     * response carries. If-None-Match takes precedence over If-Modified-Since,
+     * and only successful responses are concerned.
+     *
+     * @param req the request
+     * @param res the response
+     * @return true if the response should be 304 Not Modified
+     */
+    static boolean isNotModified(Request req, Response res) {
+        int status = res.getStatusCode();
+        if (status != 200 && status != 206) {
+            return false;
+        }
+        String ifNoneMatch = req.getHeader(HeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, res.getHeaders().get(HeaderNames.ETAG));
+        }
+        String ifModifiedSince = req.getHeader(HeaderNames.IF_MODIFIED_SINCE);
+        String lastModified = res.getHeaders().get(HeaderNames.LAST_MODIFIED);
+        if (ifModifiedSince == null || lastModified == null) {
+            return false;
+        }
+        long since = parseDate(ifModifiedSince);
+        long modified = parseDate(lastModified);
+        return since != -1 && modified != -1 && modified <= since;
+    }
+
+    /**
+     * Compares an ETag with an If-None-Match list, with the weak comparison of
+     * RFC 9110: tags match if their opaque parts are equal, whether or not
+     * either is weak.
+     *
+     * @param list the If-None-Match header, a list of tags or {@code *}
+     * @param etag the ETag of the response, or null
+     * @return true if a tag of the list matches
+     */
+    static boolean matches(String list, String etag) {
+        if (list.trim().equals("*")) {
+            return true;
+        }
+        if (etag == null) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        int pos = 0;
+        while (pos < list.length()) {
+            char c = list.charAt(pos);
+            if (c == ' ' || c == '\t' || c == ',') {
+                pos++;
+                continue;
+            }
+            if (list.startsWith("W/", pos)) {
+                pos += 2;
+            }
+            // Tags are quoted and may contain commas, so they are scanned rather than split
+            int end = list.indexOf('"', pos + 1);
+            if (pos >= list.length() || list.charAt(pos) != '"' || end == -1) {
+                return false;
+            }
+            if (list.regionMatches(pos, opaque, 0, opaque.length()) && end + 1 - pos == opaque.length()) {
+                return true;
+            }
+            pos = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Parses an HTTP date.
+     *
+     * @param value the date, in the IMF-fixdate format of RFC 9110
+     * @return the time in milliseconds since the epoch, or -1 if the date is
+     *         invalid
+     */
+    static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ConnectionExecutor class runs the tasks of a server engine according to
+ * the {@link ExecutionMode} of the configuration, and keeps the counters needed
+ * to tune it. Rejected tasks are reported to the caller instead of being queued
+ * without bound, so that the engine can answer 503 right away.
+ */
+class ConnectionExecutor {
+
+    private final ExecutorService executor; // Executor running the tasks
+    private final ThreadPoolExecutor pool; // Same executor when it is a bounded pool, null otherwise
+    private final AtomicInteger activeCount; // Tasks currently running
+
+    /**
+     * Constructs a ConnectionExecutor for the execution mode of the
+     * configuration.
+     *
+     * @param config           the server configuration
+     * @param threadNamePrefix the prefix of the names of created threads
+     */
+    ConnectionExecutor(ServerConfig config, String threadNamePrefix) {
+        this.activeCount = new AtomicInteger();
+        switch (config.getExecutionMode()) {
+            case VIRTUAL_THREADS -> {
+                this.pool = null;
+                this.executor = Executors.newThreadPerTaskExecutor(
+                        Thread.ofVirtual().name(threadNamePrefix, 1).factory());
+            }
+            case BOUNDED_POOL -> {
+                ThreadFactory factory = Thread.ofPlatform().name(threadNamePrefix, 1).daemon(true).factory();
+                this.pool = new ThreadPoolExecutor(config.getPoolSize(), config.getPoolSize(), 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(config.getQueueCapacity()), factory,
+                        new ThreadPoolExecutor.AbortPolicy());
+                this.pool.allowCoreThreadTimeOut(true);
+                this.executor = pool;
+            }
+            default -> {
+                this.pool = null;
+                this.executor = Executors.newThreadPerTaskExecutor(
+                        Thread.ofPlatform().name(threadNamePrefix, 1).factory());
+            }
+        }
+    }
+
+    /**
+     * Runs a task, unless the executor is saturated or shut down.
+     *
+     * @param task the task to run
+     * @return true if the task was accepted, false if it was rejected
+     */
+    boolean execute(Runnable task) {
+        try {
+            executor.execute(() -> {
+                activeCount.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of tasks currently running.
+     *
+     * @return the active count
+     */
+    int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread. Only the bounded pool
+     * queues tasks; the other modes start a thread for every task.
+     *
+     * @return the queue depth
+     */
+    int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    /**
+     * Stops accepting tasks. Running tasks are allowed to finish.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The ConnectionInput class is the read side of a blocking connection: a buffer
+ * holding bytes read from the socket but not yet consumed, in front of the
+ * socket channel. Request heads are parsed from the buffer, and request bodies
+ * read through it so that bytes of the next request are never lost. The buffer
+ * is a direct one from the {@link BufferPool} of the engine, which the channel
+ * reads into without an extra copy, and goes back to the pool on close.
+ *
+ * Responses to pipelined requests may be left in the output buffer while the
+ * next request is already buffered here; the output is flushed before every
+ * read that may block, so the client never waits for a response the server
+ * still holds.
+ *
+ * Every read that may block can be timed: the connection timeout is armed
+ * after the output is flushed and disarmed once bytes arrive, either for a
+ * fixed delay per read or up to a fixed deadline.
+ */
+class ConnectionInput {
+
+    private final ReadableByteChannel in; // Channel of the socket, in blocking mode
+    private final BufferPool pool; // Pool the buffer comes from and returns to
+    private final OutputStream out; // Output of the connection, flushed before blocking reads
+    private final ServerMetrics metrics; // Metrics counting the bytes read
+    private final ConnectionTimeout timeout; // Timeout of the connection
+    private ByteBuffer buffer; // Bytes read but not yet consumed, in read mode, null once closed
+    private TimeoutPhase readPhase; // Phase reads are timed for, or null if they are not timed
+    private long readMillis; // Time each read may take, if there is no deadline
+    private long readDeadline; // Time by which reads must be done, from System.nanoTime(), or 0
+
+    /**
+     * Constructs a ConnectionInput over a socket channel.
+     *
+     * @param in          the socket channel, in blocking mode
+     * @param out         the output of the connection, flushed before reads
+     *                    that may block
+     * @param initialSize the initial size of the buffer
+     * @param pool        the pool the buffer is taken from
+     * @param metrics     the metrics counting the bytes read
+     * @param timeout     the timeout of the connection
+     */
+    ConnectionInput(ReadableByteChannel in, OutputStream out, int initialSize, BufferPool pool,
+            ServerMetrics metrics, ConnectionTimeout timeout) {
+        this.in = in;
+        this.out = out;
+        this.pool = pool;
+        this.metrics = metrics;
+        this.timeout = timeout;
+        this.buffer = pool.acquire(initialSize).flip();
+    }
+
+    /**
+     * Returns the buffer of unconsumed bytes, in read mode.
+     *
+     * @return the buffer
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Times every following read that may block, each one separately.
+     *
+     * @param phase  the phase the connection is in
+     * @param millis the time each read may take, 0 to leave reads untimed
+     */
+    void timeReads(TimeoutPhase phase, long millis) {
+        this.readPhase = millis > 0 ? phase : null;
+        this.readMillis = millis;
+        this.readDeadline = 0;
+    }
+
+    /**
+     * Times every following read that may block against a common deadline.
+     *
+     * @param phase         the phase the connection is in
+     * @param deadlineNanos the time by which reads must be done, from
+     *                      {@link System#nanoTime()}
+     */
+    void timeReadsUntil(TimeoutPhase phase, long deadlineNanos) {
+        this.readPhase = phase;
+        this.readDeadline = deadlineNanos;
+    }
+
+    /**
+     * Reads more bytes from the socket into the buffer, growing it when it is
+     * full. Callers bound how large it can get.
+     *
+     * @return false if the client closed the connection, true otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    boolean fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = pool.acquire(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            pool.release(buffer);
+            buffer = larger;
+        }
+        int read = readSocket(buffer);
+        if (read > 0) {
+            metrics.addBytesIn(read);
+        }
+        buffer.flip();
+        return read != -1;
+    }
+
+    /**
+     * Reads bytes, taking buffered bytes first. Large reads into an empty buffer
+     * go straight to the socket to avoid copying through the buffer.
+     *
+     * @param b   the destination array
+     * @param off the offset in the array
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the client closed the connection
+     * @throws IOException if an I/O error occurs
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity()) {
+                int read = readSocket(ByteBuffer.wrap(b, off, len));
+                if (read > 0) {
+                    metrics.addBytesIn(read);
+                }
+                return read;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Gives the buffer back to the pool. The connection must not be read from
+     * afterwards.
+     */
+    void close() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Flushes the output, then reads from the socket under the timeout.
+     *
+     * @param dst the buffer to read into
+     * @return the number of bytes read, or -1 if the client closed the connection
+     * @throws IOException if an I/O error occurs
+     */
+    private int readSocket(ByteBuffer dst) throws IOException {
+        out.flush();
+        if (readPhase == null) {
+            return in.read(dst);
+        }
+        if (readDeadline != 0) {
+            timeout.armAt(readPhase, readDeadline);
+        } else {
+            timeout.arm(readPhase, readMillis);
+        }
+        try {
+            return in.read(dst);
+        } finally {
+            timeout.cancel();
+        }
+    }
+}
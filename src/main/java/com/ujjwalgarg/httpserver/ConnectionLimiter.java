@@ -0,0 +1,81 @@
+package com.ujjwalgarg.httpserver;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ConnectionLimiter class counts the open connections of a server, in
+ * total and per client address, and refuses new ones beyond the limits of the
+ * {@link ServerConfig}. Every accepted connection takes a permit, given back
+ * when the connection is closed.
+ */
+class ConnectionLimiter {
+
+    private final int maxConnections; // Connections open at once, 0 for no limit
+    private final int maxPerAddress; // Connections open at once per address, 0 for no limit
+    private final AtomicInteger open; // Connections holding a permit
+    private final ConcurrentHashMap<InetAddress, Integer> perAddress; // Permits held by each address
+
+    /**
+     * Constructs a ConnectionLimiter enforcing the limits of a configuration.
+     *
+     * @param config the server configuration
+     */
+    ConnectionLimiter(ServerConfig config) {
+        this.maxConnections = config.getMaxConnections();
+        this.maxPerAddress = config.getMaxConnectionsPerAddress();
+        this.open = new AtomicInteger();
+        this.perAddress = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Takes a permit for a new connection, if both limits allow it.
+     *
+     * @param address the address of the client
+     * @return true if the connection may be served, false if it must be refused
+     */
+    boolean tryAcquire(InetAddress address) {
+        if (open.incrementAndGet() > maxConnections && maxConnections > 0) {
+            open.decrementAndGet();
+            return false;
+        }
+        if (maxPerAddress == 0) {
+            return true;
+        }
+        boolean[] acquired = new boolean[1];
+        perAddress.compute(address, (key, count) -> {
+            int held = count == null ? 0 : count;
+            if (held >= maxPerAddress) {
+                return count;
+            }
+            acquired[0] = true;
+            return held + 1;
+        });
+        if (!acquired[0]) {
+            open.decrementAndGet();
+        }
+        return acquired[0];
+    }
+
+    /**
+     * Gives back the permit of a closed connection.
+     *
+     * @param address the address of the client
+     */
+    void release(InetAddress address) {
+        if (maxPerAddress > 0) {
+            perAddress.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+        }
+        open.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of connections holding a permit.
+     *
+     * @return the open connection count
+     */
+    int getOpenConnections() {
+        return open.get();
+    }
+}
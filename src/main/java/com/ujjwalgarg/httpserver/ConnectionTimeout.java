@@ -0,0 +1,57 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.function.Consumer;
+
+/**
+ * The ConnectionTimeout class is the single timeout of a connection, armed
+ * for whichever {@link TimeoutPhase} the connection is in. When it expires, the
+ * connection is told which phase timed out.
+ */
+class ConnectionTimeout {
+
+    private final TimerWheel.Timeout timeout; // Timeout on the wheel of the server
+    private volatile TimeoutPhase phase; // Phase the timeout was last armed for
+
+    /**
+     * Constructs a disarmed ConnectionTimeout.
+     *
+     * @param wheel    the timer wheel of the server
+     * @param onExpiry called on the timer thread with the phase that timed out
+     */
+    ConnectionTimeout(TimerWheel wheel, Consumer<TimeoutPhase> onExpiry) {
+        this.timeout = wheel.newTimeout(() -> onExpiry.accept(phase));
+    }
+
+    /**
+     * Arms the timeout to expire after a delay.
+     *
+     * @param phase       the phase the connection is in
+     * @param delayMillis the delay in milliseconds, 0 to disarm the timeout
+     */
+    void arm(TimeoutPhase phase, long delayMillis) {
+        if (delayMillis == 0) {
+            cancel();
+            return;
+        }
+        this.phase = phase;
+        timeout.schedule(delayMillis);
+    }
+
+    /**
+     * Arms the timeout to expire at a point in time.
+     *
+     * @param phase         the phase the connection is in
+     * @param deadlineNanos the expiry time, from {@link System#nanoTime()}
+     */
+    void armAt(TimeoutPhase phase, long deadlineNanos) {
+        this.phase = phase;
+        timeout.scheduleAt(deadlineNanos);
+    }
+
+    /**
+     * Disarms the timeout.
+     */
+    void cancel() {
+        timeout.cancel();
+    }
+}
@@ -0,0 +1,17 @@
+package com.ujjwalgarg.httpserver;
+
+/**
+ * The EngineType enum lists the ways an {@link HttpServer} can serve its
+ * connections.
+ */
+public enum EngineType {
+    /**
+     * Blocking sockets, with one thread serving each connection.
+     */
+    BLOCKING,
+    /**
+     * Non-blocking channels multiplexed by selector event loops, with request
+     * handlers running on a separate worker pool.
+     */
+    NIO
+}
@@ -0,0 +1,22 @@
+package com.ujjwalgarg.httpserver;
+
+/**
+ * The ExecutionMode enum lists the threading strategies available for running
+ * connections (blocking engine) or request handlers (NIO engine).
+ */
+public enum ExecutionMode {
+    /**
+     * A new platform thread per task, without any limit.
+     */
+    THREAD_PER_CONNECTION,
+    /**
+     * A new virtual thread per task. Blocking I/O unmounts the virtual thread
+     * instead of holding an OS thread.
+     */
+    VIRTUAL_THREADS,
+    /**
+     * A fixed pool of platform threads in front of a bounded queue. Tasks that
+     * find the queue full are rejected with 503 Service Unavailable.
+     */
+    BOUNDED_POOL
+}
@@ -0,0 +1,334 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The FileCache class keeps the contents of frequently served files in direct
+ * ByteBuffers, outside the Java heap, so that {@link StaticFileHandler} does
+ * not open and read them for every request. The cache is bounded by the total
+ * size of the files it holds and evicts the least recently used ones first.
+ *
+ * Entries are checked against the size and modification time of the file on
+ * every lookup. Files directly inside directories watched with
+ * {@link #watch(Path)} skip that check: a background thread invalidates them
+ * as they change instead. Files anywhere else, in subdirectories or behind
+ * symbolic links, are still checked. Hit, miss and eviction counts are kept
+ * for monitoring.
+ */
+public class FileCache implements AutoCloseable {
+
+    private final long maxBytes; // Largest total size of the cached files
+    private final long maxFileSize; // Largest file worth caching
+    private final LinkedHashMap<Path, Entry> entries; // Cached files, least recently used first
+    private long totalBytes; // Total size of the cached files
+    private final LongAdder hits; // Lookups served from the cache
+    private final LongAdder misses; // Lookups that had to read the file
+    private final LongAdder evictions; // Entries dropped to make room
+    private volatile WatchService watchService; // Service watching directories, or null
+    private final Set<Path> watchedDirs; // Real paths of the watched directories
+    private long generation; // Number of invalidations so far, so loads can tell they raced one
+
+    /**
+     * The Entry class is a cached file: its contents and the attributes they
+     * were read with.
+     */
+    static class Entry {
+        private final ByteBuffer data; // Contents of the file, read-only and off-heap
+        private final long lastModified; // Modification time of the file when read, in milliseconds
+        private final long size; // Size of the file when read
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param data         the contents of the file
+         * @param lastModified the modification time of the file
+         * @param size         the size of the file
+         */
+        Entry(ByteBuffer data, long lastModified, long size) {
+            this.data = data;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * Returns the contents of the file, as a new buffer sharing them so that
+         * callers may move its position freely.
+         *
+         * @return the contents
+         */
+        ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        /**
+         * Returns the modification time of the file when it was read.
+         *
+         * @return the modification time in milliseconds
+         */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the size of the file.
+         *
+         * @return the size in bytes
+         */
+        long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Constructs a FileCache.
+     *
+     * @param maxBytes    the largest total size of the cached files
+     * @param maxFileSize the largest file worth caching; larger ones are always
+     *                    served from disk
+     */
+    public FileCache(long maxBytes, long maxFileSize) {
+        if (maxBytes <= 0 || maxFileSize <= 0) {
+            throw new IllegalArgumentException("Cache sizes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, Math.min(maxBytes, Integer.MAX_VALUE));
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.watchedDirs = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Returns the cached contents of a file, reading the file into the cache if
+     * it is missing or has changed.
+     *
+     * @param file the real path of the file
+     * @return the entry, or null if the file is too large to cache
+     * @throws IOException if the file cannot be read
+     */
+    Entry get(Path file) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+        }
+        if (entry != null && (watchedDirs.contains(file.getParent()) || isCurrent(entry, file))) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return load(file);
+    }
+
+    /**
+     * Drops the cached contents of a file.
+     *
+     * @param file the real path of the file
+     */
+    public synchronized void invalidate(Path file) {
+        generation++;
+        Entry entry = entries.remove(file);
+        if (entry != null) {
+            totalBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Drops all cached files.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Watches a directory for changes, invalidating modified and deleted files
+     * as soon as they change rather than checking them on every lookup.
+     * Subdirectories are not watched, so their files are still checked.
+     *
+     * @param dir the directory
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized void watch(Path dir) throws IOException {
+        if (watchService == null) {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(() -> processEvents(service), "file-cache-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            watchService = service;
+        }
+        Path realDir = dir.toRealPath();
+        realDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.add(realDir);
+        clear(); // Entries read before the watch started may be stale
+    }
+
+    /**
+     * Stops watching directories.
+     */
+    @Override
+    public void close() {
+        WatchService service = watchService;
+        watchService = null;
+        watchedDirs.clear();
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to read the file.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of files dropped to make room for others.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    /**
+     * Tells whether a cached entry still matches its file.
+     *
+     * @param entry the cached entry
+     * @param file  the file
+     * @return true if the size and modification time are unchanged
+     */
+    private static boolean isCurrent(Entry entry, Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a file into a direct buffer and caches it, evicting the least
+     * recently used files to stay within the size bound. A file invalidated
+     * while it was being read is returned but not cached, since what was read
+     * may predate the change.
+     *
+     * @param file the file
+     * @return the entry, or null if the file is too large to cache
+     * @throws IOException if the file cannot be read
+     */
+    private Entry load(Path file) throws IOException {
+        long loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+        Entry entry;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long size = channel.size();
+            if (size > maxFileSize) {
+                return null;
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data) == -1) {
+                    throw new NoSuchFileException(file.toString(), null, "File truncated while being cached");
+                }
+            }
+            entry = new Entry(data.flip().asReadOnlyBuffer(), lastModified, size);
+        }
+
+        synchronized (this) {
+            if (generation != loadGeneration) {
+                return entry;
+            }
+            Entry previous = entries.put(file, entry);
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += entry.size;
+            Iterator<Map.Entry<Path, Entry>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<Path, Entry> victim = eldest.next();
+                if (victim.getValue() == entry) {
+                    continue;
+                }
+                totalBytes -= victim.getValue().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Invalidates files as the watch service reports changes to them, until the
+     * service is closed.
+     *
+     * @param service the watch service
+     */
+    private void processEvents(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        clear(); // Events were lost, nothing cached can be trusted
+                    } else {
+                        invalidate(dir.resolve((Path) event.context()));
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The cache was closed
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The FileRegion class is a range of a file sent as a response body. It is
+ * transferred with {@link FileChannel#transferTo}, which lets the kernel copy
+ * the file to the socket without the bytes passing through the heap. A region
+ * owns its file channel and closes it once sent or abandoned.
+ */
+class FileRegion {
+
+    private static final long MAX_TRANSFER = 1024 * 1024; // Most bytes sent by a single transfer
+    private static final int COPY_CHUNK_SIZE = 64 * 1024; // Bytes sent by a single copy through the heap
+
+    private final FileChannel file; // File the region belongs to
+    private final long length; // Size of the region
+    private long position; // Offset of the next byte to send
+    private long remaining; // Bytes left to send
+
+    /**
+     * Constructs a FileRegion.
+     *
+     * @param file     the file, closed along with the region
+     * @param position the offset of the first byte
+     * @param count    the number of bytes
+     */
+    FileRegion(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.remaining = count;
+        this.length = count;
+    }
+
+    /**
+     * Returns the size of the region.
+     *
+     * @return the byte count
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes left to send.
+     *
+     * @return the remaining byte count
+     */
+    long remaining() {
+        return remaining;
+    }
+
+    /**
+     * Tells whether the whole region has been sent.
+     *
+     * @return true once no bytes are left
+     */
+    boolean isDone() {
+        return remaining == 0;
+    }
+
+    /**
+     * Transfers as much of the region as the target accepts, up to 1 MiB. A
+     * blocking target usually takes all of it; a non-blocking one only what fits
+     * in the socket buffer. The cap keeps each transfer short enough to be timed
+     * by the write timeout of the connection.
+     *
+     * @param target the channel of the connection
+     * @return the number of bytes transferred
+     * @throws IOException if an I/O error occurs or the file shrank
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long n = file.transferTo(position, Math.min(remaining, MAX_TRANSFER), target);
+        if (n == 0 && position >= file.size()) {
+            throw new IOException("File truncated while being sent");
+        }
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * Sends the next chunk of the region by reading it into the heap and
+     * writing it, for blocking targets that {@link #transferTo} cannot wait
+     * on. The socket of a virtual thread is non-blocking underneath, so a
+     * transfer to it returns nothing once its buffer is full, where a write
+     * parks the thread until there is room.
+     *
+     * @param target the blocking channel of the connection
+     * @return the number of bytes sent
+     * @throws IOException if an I/O error occurs or the file shrank
+     */
+    long copyTo(WritableByteChannel target) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(remaining, COPY_CHUNK_SIZE));
+        int n = file.read(chunk, position);
+        if (n <= 0) {
+            throw new IOException("File truncated while being sent");
+        }
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            target.write(chunk);
+        }
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * Reads the next bytes of the region into an array, for protocols that
+     * frame the body themselves.
+     *
+     * @param b   the destination
+     * @param off the offset in the array
+     * @param len the maximum number of bytes, at least 1
+     * @return the number of bytes read
+     * @throws IOException if an I/O error occurs or the file shrank
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        int n = file.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+        if (n <= 0) {
+            throw new IOException("File truncated while being sent");
+        }
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * Closes the file channel.
+     */
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
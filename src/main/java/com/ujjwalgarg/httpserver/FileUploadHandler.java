@@ -0,0 +1,193 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * The FileUploadHandler class stores request bodies as files of a directory. The
+ * file is found by stripping a prefix from the request path, like
+ * {@link StaticFileHandler} does, and paths resolving outside the directory are
+ * answered with 404 Not Found.
+ *
+ * The body is streamed to a temporary file next to the target as it arrives,
+ * never held in memory, and moved over the target with an atomic rename once
+ * complete. Readers of the file, this server's included, see either the old
+ * contents or the new ones, never a partial upload; a failed or aborted upload
+ * leaves the target untouched.
+ *
+ * Bodies larger than {@link #setMaxSize(long)} are answered with 413 Content
+ * Too Large, before any byte is read when the client declared the length. With
+ * {@link #setSync(boolean)}, the file and the directory entry are flushed to
+ * the disk before the response is sent, so a 201 Created survives a crash.
+ */
+public class FileUploadHandler implements RequestHandler {
+
+    private static final int COPY_CHUNK_SIZE = 64 * 1024; // Body bytes read and written at a time
+
+    private final Path root; // Real path of the directory files are stored in
+    private final String prefix; // Part of the request path stripped before resolving the file
+    private long maxSize; // Largest body stored, 0 for no limit
+    private boolean sync; // Whether uploads are flushed to the disk before being answered
+
+    /**
+     * Constructs a FileUploadHandler with no size limit that does not flush
+     * uploads to the disk.
+     *
+     * @param root   the directory files are stored in
+     * @param prefix the part of the request path that maps to the directory,
+     *               such as {@code /files/}
+     * @throws IOException if the directory does not exist
+     */
+    public FileUploadHandler(Path root, String prefix) throws IOException {
+        this.root = root.toRealPath();
+        this.prefix = prefix;
+    }
+
+    /**
+     * Sets the largest body stored.
+     *
+     * @param maxSize the size limit in bytes, 0 for no limit
+     * @return this handler
+     */
+    public FileUploadHandler setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets whether each upload is flushed to the disk, along with its directory
+     * entry, before it is answered.
+     *
+     * @param sync true to flush uploads
+     * @return this handler
+     */
+    public FileUploadHandler setSync(boolean sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    @Override
+    public void handle(Request req, Response res) throws IOException {
+        Path file = resolve(req.getPath());
+        if (file == null) {
+            res.setStatusCode(404);
+            res.setStatusMsg("Not Found");
+            return;
+        }
+        if (maxSize > 0 && req.getContentLength() > maxSize) {
+            throw new HttpException(413, "Content Too Large");
+        }
+
+        // Hidden and unguessable, so the partial file is never served by name
+        Path temp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".upload");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                copy(req.getBodyStream(), channel);
+                if (sync) {
+                    channel.force(true);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (sync) {
+            syncDirectory(file.getParent());
+        }
+
+        res.setStatusCode(201);
+        res.setStatusMsg("Created");
+    }
+
+    /**
+     * Writes a body to a file as it is read, checking the size limit on the
+     * way for bodies whose length was not declared.
+     *
+     * @param body    the body stream
+     * @param channel the file
+     * @throws IOException if an I/O error occurs or the body is too large
+     */
+    private void copy(InputStream body, FileChannel channel) throws IOException {
+        byte[] chunk = new byte[COPY_CHUNK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long size = 0;
+        int n;
+        while ((n = body.read(chunk, 0, chunk.length)) != -1) {
+            size += n;
+            if (maxSize > 0 && size > maxSize) {
+                throw new HttpException(413, "Content Too Large");
+            }
+            buffer.clear().limit(n);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Flushes a directory to the disk, making the renames in it durable. Not
+     * every platform can open a directory, in which case there is nothing more
+     * to do.
+     *
+     * @param dir the directory
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on this platform
+        }
+    }
+
+    /**
+     * Maps a request path to a file inside the directory, which need not exist
+     * yet.
+     *
+     * @param path the request path
+     * @return the path of the file, or null if it lies outside the directory or
+     *         names a directory
+     */
+    private Path resolve(String path) {
+        if (!path.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            // Decode percent escapes, keeping '+' as is since this is a path
+            String name = URLDecoder.decode(path.substring(prefix.length()).replace("+", "%2B"),
+                    StandardCharsets.UTF_8);
+            if (name.isEmpty() || name.indexOf('\0') != -1 || name.indexOf('\\') != -1) {
+                return null;
+            }
+            Path file = root.resolve(name).normalize();
+            if (!file.startsWith(root) || file.equals(root) || Files.isDirectory(file)) {
+                return null;
+            }
+            // Follow links in the parent directories, which may point outside
+            Path parent = file.getParent().toRealPath();
+            if (!parent.startsWith(root)) {
+                return null;
+            }
+            return parent.resolve(file.getFileName());
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The FixedLengthInputStream class reads a request body framed by its
+ * Content-Length header.
+ */
+class FixedLengthInputStream extends BodyInputStream {
+
+    private final ConnectionInput input; // Read side of the connection
+    private long remaining; // Body bytes not yet read
+
+    /**
+     * Constructs a FixedLengthInputStream.
+     *
+     * @param input  the read side of the connection
+     * @param length the Content-Length of the body
+     */
+    FixedLengthInputStream(ConnectionInput input, long length) {
+        this.input = input;
+        this.remaining = length;
+    }
+
+    @Override
+    protected int readBody(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int n = input.read(b, off, (int) Math.min(len, remaining));
+        if (n == -1) {
+            throw new HttpException(400, "Bad Request"); // Connection closed before the end of the body
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, input.buffer().remaining());
+    }
+}
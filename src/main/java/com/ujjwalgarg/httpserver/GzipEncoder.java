@@ -0,0 +1,277 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The GzipEncoder class compresses response bodies with the gzip content
+ * coding. As an OutputStream it compresses a streamed body on the fly; its
+ * static methods negotiate the coding and compress bodies set at once.
+ *
+ * Deflaters hold native memory and are costly to create, so they are pooled
+ * and reset between bodies instead of created for each response. The pool is
+ * shared rather than per thread, since connections and handlers run on virtual
+ * threads that live for a single connection or request. It keeps a bounded
+ * number of idle deflaters and ends the ones it has no room for, so their
+ * native memory is freed at once rather than by the garbage collector.
+ */
+class GzipEncoder extends OutputStream {
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff }; // Gzip header
+    private static final int BUFFER_SIZE = 8 * 1024; // Size of the array compressed bytes are collected in
+    private static final int MAX_IDLE_DEFLATERS = 2 * Runtime.getRuntime().availableProcessors(); // Deflaters kept
+    private static final ArrayDeque<Deflater> IDLE_DEFLATERS = new ArrayDeque<>(); // Reset raw deflaters to reuse
+
+    private final OutputStream out; // Stream receiving the compressed bytes
+    private final Deflater deflater; // Deflater taken from the pool, given back on close
+    private final CRC32 crc; // Checksum of the uncompressed bytes
+    private final byte[] buffer; // Compressed bytes not yet written
+    private boolean started; // Whether the gzip header has been written
+    private boolean closed; // Whether the gzip trailer has been written
+
+    /**
+     * Constructs a GzipEncoder. The gzip header is written with the first
+     * compressed bytes.
+     *
+     * @param out the stream receiving the compressed bytes; it is closed along
+     *            with the encoder
+     */
+    GzipEncoder(OutputStream out) {
+        this.out = out;
+        this.deflater = acquireDeflater();
+        this.crc = new CRC32();
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Takes an idle deflater from the pool, or creates one if there is none.
+     *
+     * @return a reset raw deflater
+     */
+    private static Deflater acquireDeflater() {
+        synchronized (IDLE_DEFLATERS) {
+            Deflater deflater = IDLE_DEFLATERS.poll();
+            if (deflater != null) {
+                return deflater;
+            }
+        }
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    /**
+     * Gives a deflater back to the pool, or ends it if the pool is full.
+     *
+     * @param deflater the deflater
+     */
+    private static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        synchronized (IDLE_DEFLATERS) {
+            if (IDLE_DEFLATERS.size() < MAX_IDLE_DEFLATERS) {
+                IDLE_DEFLATERS.push(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Returns the number of idle deflaters in the pool.
+     *
+     * @return the idle count
+     */
+    static int getIdleDeflaterCount() {
+        synchronized (IDLE_DEFLATERS) {
+            return IDLE_DEFLATERS.size();
+        }
+    }
+
+    /**
+     * Tells whether a client accepts the gzip coding, from its Accept-Encoding
+     * header. Codings are weighed by their q-values: gzip is accepted when it,
+     * or {@code *} if gzip is not listed, has a weight above zero that is not
+     * below the weight of the identity coding.
+     *
+     * @param acceptEncoding the Accept-Encoding header, or null
+     * @return true if the response may be gzipped
+     */
+    static boolean accepts(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        double identity = -1;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0; // A malformed weight disables the coding
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = Math.max(gzip, q);
+                case "*" -> any = q;
+                case "identity" -> identity = q;
+                default -> {
+                }
+            }
+        }
+        double weight = gzip != -1 ? gzip : any;
+        return weight > 0 && weight >= identity;
+    }
+
+    /**
+     * Tells whether a content type is worth compressing. Text and structured
+     * text compress well; images, media, archives and unknown binary content are
+     * usually compressed already.
+     *
+     * @param contentType the Content-Type header, or null
+     * @return true if the content type compresses well
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int semicolon = type.indexOf(';');
+        if (semicolon != -1) {
+            type = type.substring(0, semicolon);
+        }
+        type = type.trim();
+        return type.startsWith("text/") || type.endsWith("+json") || type.endsWith("+xml")
+                || type.equals("application/json") || type.equals("application/javascript")
+                || type.equals("application/xml") || type.equals("application/wasm");
+    }
+
+    /**
+     * Compresses a whole body.
+     *
+     * @param data the body, whose position is moved to its limit
+     * @return the gzip-encoded body
+     */
+    static byte[] encode(ByteBuffer data) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.remaining() / 2));
+        try (GzipEncoder encoder = new GzipEncoder(compressed)) {
+            if (data.hasArray()) {
+                encoder.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                data.position(data.limit());
+            } else {
+                byte[] chunk = new byte[Math.min(data.remaining(), BUFFER_SIZE)];
+                while (data.hasRemaining()) {
+                    int n = Math.min(chunk.length, data.remaining());
+                    data.get(chunk, 0, n);
+                    encoder.write(chunk, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A ByteArrayOutputStream does not fail
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Gzip stream already closed");
+        }
+        if (len == 0) {
+            return;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drain(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Writes out what has been compressed so far, so the client can start
+     * decompressing it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        int n;
+        do {
+            n = drain(Deflater.SYNC_FLUSH);
+        } while (n == buffer.length);
+        out.flush();
+    }
+
+    /**
+     * Finishes the compressed body, writes the gzip trailer and closes the
+     * underlying stream. The deflater goes back to the pool even if writing
+     * fails.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(Deflater.NO_FLUSH);
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) deflater.getBytesRead());
+        } finally {
+            releaseDeflater(deflater);
+        }
+        out.close();
+    }
+
+    /**
+     * Moves compressed bytes from the deflater to the underlying stream.
+     *
+     * @param flush the deflater flush mode
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    private int drain(int flush) throws IOException {
+        if (!started) {
+            out.write(HEADER);
+            started = true;
+        }
+        int n = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (n > 0) {
+            out.write(buffer, 0, n);
+        }
+        return n;
+    }
+
+    /**
+     * Writes a 32-bit value in little-endian order, as the gzip trailer requires.
+     *
+     * @param value the value
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeIntLE(int value) throws IOException {
+        out.write(new byte[] { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) });
+    }
+}
@@ -0,0 +1,172 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The HeaderNames class is a static table of common header names. Header names
+ * read from the wire are matched against it byte by byte, so well-known headers
+ * are recognized without allocating and share one interned lower-case String.
+ * The table also holds the encoded {@code name: } prefix of each name, which
+ * response heads copy instead of encoding the name again.
+ */
+final class HeaderNames {
+
+    static final String ACCEPT = "accept";
+    static final String ACCEPT_ENCODING = "accept-encoding";
+    static final String ACCEPT_RANGES = "accept-ranges";
+    static final String AGE = "age";
+    static final String CACHE_CONTROL = "cache-control";
+    static final String CONNECTION = "connection";
+    static final String CONTENT_ENCODING = "content-encoding";
+    static final String CONTENT_LENGTH = "content-length";
+    static final String CONTENT_RANGE = "content-range";
+    static final String CONTENT_TYPE = "content-type";
+    static final String ETAG = "etag";
+    static final String EXPECT = "expect";
+    static final String HOST = "host";
+    static final String HTTP2_SETTINGS = "http2-settings";
+    static final String IF_MODIFIED_SINCE = "if-modified-since";
+    static final String IF_NONE_MATCH = "if-none-match";
+    static final String LAST_MODIFIED = "last-modified";
+    static final String REFERER = "referer";
+    static final String SET_COOKIE = "set-cookie";
+    static final String TRANSFER_ENCODING = "transfer-encoding";
+    static final String UPGRADE = "upgrade";
+    static final String USER_AGENT = "user-agent";
+    static final String VARY = "vary";
+
+    private static final String[] NAMES = {
+            ACCEPT, "accept-charset", ACCEPT_ENCODING, "accept-language", ACCEPT_RANGES, AGE, "allow",
+            "authorization", CACHE_CONTROL, CONNECTION, "content-disposition", CONTENT_ENCODING,
+            "content-language", CONTENT_LENGTH, "content-location", CONTENT_RANGE, CONTENT_TYPE, "cookie",
+            "date", ETAG, EXPECT, "expires", "forwarded", HOST, HTTP2_SETTINGS, "if-match",
+            IF_MODIFIED_SINCE, IF_NONE_MATCH, "if-range", "if-unmodified-since", "keep-alive",
+            LAST_MODIFIED, "location", "origin", "pragma", "range", REFERER, "retry-after", "server",
+            SET_COOKIE, "te", "trailer", TRANSFER_ENCODING, UPGRADE, USER_AGENT, VARY, "via",
+            "x-forwarded-for", "x-forwarded-proto", "x-request-id"
+    }; // Well-known header names, lower case
+
+    private static final int MAX_LENGTH = 32; // Longer names are never well known
+    private static final int[][] BY_LENGTH = new int[MAX_LENGTH + 1][]; // Indexes into NAMES by name length
+    private static final byte[][] PREFIXES = new byte[NAMES.length][]; // Encoded "name: " of each name
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            PREFIXES[i] = (NAMES[i] + ": ").getBytes(StandardCharsets.US_ASCII);
+        }
+        int[] counts = new int[MAX_LENGTH + 1];
+        for (String name : NAMES) {
+            counts[name.length()]++;
+        }
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            BY_LENGTH[length] = new int[counts[length]];
+            counts[length] = 0;
+        }
+        for (int i = 0; i < NAMES.length; i++) {
+            int length = NAMES[i].length();
+            BY_LENGTH[length][counts[length]++] = i;
+        }
+    }
+
+    private HeaderNames() {
+    }
+
+    /**
+     * Finds the well-known name spelled by a range of bytes, ignoring case.
+     *
+     * @param buf   the bytes holding the name
+     * @param start the index of the first byte of the name
+     * @param end   the index after the last byte of the name
+     * @return the interned lower-case name, or null if it is not well known
+     */
+    static String lookup(byte[] buf, int start, int end) {
+        int length = end - start;
+        if (length > MAX_LENGTH) {
+            return null;
+        }
+        candidates: for (int index : BY_LENGTH[length]) {
+            String name = NAMES[index];
+            for (int i = 0; i < length; i++) {
+                if (toLowerCase(buf[start + i]) != name.charAt(i)) {
+                    continue candidates;
+                }
+            }
+            return name;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the well-known name spelled by a String, ignoring case.
+     *
+     * @param s the name
+     * @return the interned lower-case name, or null if it is not well known
+     */
+    static String lookup(String s) {
+        int length = s.length();
+        if (length > MAX_LENGTH) {
+            return null;
+        }
+        for (int index : BY_LENGTH[length]) {
+            String name = NAMES[index];
+            if (name == s || name.equalsIgnoreCase(s)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the encoded {@code name: } prefix of a well-known header name.
+     * Fields carry the interned name they spell (see
+     * {@link HttpHeaders#getKnownName(int)}), so it is found whatever case the
+     * field was added in.
+     *
+     * @param name the interned lower-case header name
+     * @return the encoded prefix, or null if the name is not well known
+     */
+    static byte[] prefix(String name) {
+        int length = name.length();
+        if (length > MAX_LENGTH) {
+            return null;
+        }
+        for (int index : BY_LENGTH[length]) {
+            if (NAMES[index] == name || NAMES[index].equals(name)) {
+                return PREFIXES[index];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares a range of bytes with a String, ignoring ASCII case.
+     *
+     * @param buf   the bytes
+     * @param start the index of the first byte
+     * @param end   the index after the last byte
+     * @param s     the String to compare with
+     * @return true if both spell the same name
+     */
+    static boolean equalsIgnoreCase(byte[] buf, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (toLowerCase(buf[start + i]) != (c >= 'A' && c <= 'Z' ? c + 32 : c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowers the case of an ASCII letter.
+     *
+     * @param b the byte
+     * @return the lower-case letter, or the byte itself if it is not a letter
+     */
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+}
@@ -0,0 +1,301 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Hpack class holds the parts of HPACK header compression (RFC 7541) shared
+ * by the encoder and the decoder: the static table, prefixed integers, string
+ * literals and the Huffman code.
+ *
+ * Response headers are encoded without the dynamic table, as literals whose
+ * name is indexed when the static table has it, and statuses the table lists
+ * are fully indexed. This keeps the encoder stateless, so responses of
+ * concurrent streams can be encoded in any order; the decoder of the request
+ * headers does keep a dynamic table, see {@link HpackDecoder}.
+ */
+final class Hpack {
+
+    static final String[][] STATIC_TABLE = {
+            { ":authority", "" },
+            { ":method", "GET" },
+            { ":method", "POST" },
+            { ":path", "/" },
+            { ":path", "/index.html" },
+            { ":scheme", "http" },
+            { ":scheme", "https" },
+            { ":status", "200" },
+            { ":status", "204" },
+            { ":status", "206" },
+            { ":status", "304" },
+            { ":status", "400" },
+            { ":status", "404" },
+            { ":status", "500" },
+            { "accept-charset", "" },
+            { "accept-encoding", "gzip, deflate" },
+            { "accept-language", "" },
+            { "accept-ranges", "" },
+            { "accept", "" },
+            { "access-control-allow-origin", "" },
+            { "age", "" },
+            { "allow", "" },
+            { "authorization", "" },
+            { "cache-control", "" },
+            { "content-disposition", "" },
+            { "content-encoding", "" },
+            { "content-language", "" },
+            { "content-length", "" },
+            { "content-location", "" },
+            { "content-range", "" },
+            { "content-type", "" },
+            { "cookie", "" },
+            { "date", "" },
+            { "etag", "" },
+            { "expect", "" },
+            { "expires", "" },
+            { "from", "" },
+            { "host", "" },
+            { "if-match", "" },
+            { "if-modified-since", "" },
+            { "if-none-match", "" },
+            { "if-range", "" },
+            { "if-unmodified-since", "" },
+            { "last-modified", "" },
+            { "link", "" },
+            { "location", "" },
+            { "max-forwards", "" },
+            { "proxy-authenticate", "" },
+            { "proxy-authorization", "" },
+            { "range", "" },
+            { "referer", "" },
+            { "refresh", "" },
+            { "retry-after", "" },
+            { "server", "" },
+            { "set-cookie", "" },
+            { "strict-transport-security", "" },
+            { "transfer-encoding", "" },
+            { "user-agent", "" },
+            { "vary", "" },
+            { "via", "" },
+            { "www-authenticate", "" }
+    }; // Static table entries, index 1 first
+
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    }; // Huffman code of each symbol, right-aligned, EOS last
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    }; // Bit length of each Huffman code
+
+    private static final int[][] HUFFMAN_TREE = buildTree(); // Children of each node, leaves hold ~symbol
+
+    private Hpack() {
+    }
+
+    /**
+     * Builds the binary tree the Huffman decoder walks bit by bit. Node 0 is
+     * the root; a child entry is the index of an inner node, or the bitwise
+     * complement of the symbol of a leaf.
+     *
+     * @return the left and right child of each node
+     */
+    private static int[][] buildTree() {
+        int[][] tree = new int[2][512];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int side = (code >>> bit) & 1;
+                if (tree[side][node] == 0) {
+                    tree[side][node] = nodes++;
+                }
+                node = tree[side][node];
+            }
+            tree[code & 1][node] = ~symbol;
+        }
+        return tree;
+    }
+
+    /**
+     * Decodes a Huffman-coded string.
+     *
+     * @param buf   the bytes holding the string
+     * @param start the index of the first byte
+     * @param end   the index after the last byte
+     * @return the decoded string
+     * @throws Http2Exception if the code or its padding is invalid
+     */
+    static String huffmanDecode(byte[] buf, int start, int end) throws Http2Exception {
+        StringBuilder sb = new StringBuilder((end - start) * 8 / 5);
+        int node = 0;
+        int depth = 0; // Bits read since the last symbol
+        boolean allOnes = true; // Whether those bits were all ones, as padding must be
+        for (int i = start; i < end; i++) {
+            int b = buf[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                int side = (b >>> bit) & 1;
+                int next = HUFFMAN_TREE[side][node];
+                depth++;
+                allOnes &= side == 1;
+                if (next < 0) {
+                    if (~next == 256) {
+                        throw compressionError("Huffman string contains EOS");
+                    }
+                    sb.append((char) ~next);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else if (next == 0) {
+                    throw compressionError("Invalid Huffman code");
+                } else {
+                    node = next;
+                }
+            }
+        }
+        if (depth > 7 || !allOnes) {
+            throw compressionError("Invalid Huffman padding");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Finds the static table entry matching a header.
+     *
+     * @param name  the lower-case name
+     * @param value the value
+     * @return the index of an entry with the same name and value, negated for
+     *         an entry with the same name only, or 0 if none has the name
+     */
+    static int staticIndex(String name, String value) {
+        int nameIndex = 0;
+        for (int i = 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i][0].equals(name)) {
+                if (STATIC_TABLE[i][1].equals(value)) {
+                    return i + 1;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = -(i + 1);
+                }
+            }
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Encodes a header field without adding it to the dynamic table of the
+     * peer.
+     *
+     * @param out   the header block being written
+     * @param name  the lower-case name
+     * @param value the value
+     */
+    static void encodeHeader(ByteArrayOutputStream out, String name, String value) {
+        int index = staticIndex(name, value);
+        if (index > 0) {
+            encodeInteger(out, 0x80, 7, index); // Indexed field
+            return;
+        }
+        // Literal without indexing, with an indexed name when the table has it
+        encodeInteger(out, 0x00, 4, -index);
+        if (index == 0) {
+            encodeString(out, name);
+        }
+        encodeString(out, value);
+    }
+
+    /**
+     * Encodes a prefixed integer.
+     *
+     * @param out    the header block being written
+     * @param flags  the bits above the prefix in the first byte
+     * @param prefix the number of bits of the prefix
+     * @param value  the value
+     */
+    static void encodeInteger(ByteArrayOutputStream out, int flags, int prefix, int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Encodes a string literal, without Huffman coding.
+     *
+     * @param out the header block being written
+     * @param s   the string, in ISO-8859-1
+     */
+    static void encodeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        encodeInteger(out, 0x00, 7, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Creates the exception for a header block that cannot be decoded, which
+     * ends the connection since the decoder state is lost.
+     *
+     * @param message the detail message
+     * @return the exception
+     */
+    static Http2Exception compressionError(String message) {
+        return new Http2Exception(Http2Exception.COMPRESSION_ERROR, 0, message);
+    }
+}
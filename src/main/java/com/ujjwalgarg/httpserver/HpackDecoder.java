@@ -0,0 +1,238 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The HpackDecoder class decodes the header blocks of one HTTP/2 connection.
+ * It keeps the dynamic table the peer's encoder fills, bounded by the size the
+ * server announced in SETTINGS_HEADER_TABLE_SIZE; the peer may shrink it
+ * further with size updates but never grow it past that bound.
+ *
+ * The table is a ring of entries, newest first, evicted oldest first as new
+ * entries need the room. Blocks must be decoded in the order they arrive, on
+ * the connection thread, since each one may change the table.
+ */
+class HpackDecoder {
+
+    private static final int ENTRY_OVERHEAD = 32; // Bytes counted for each entry besides its name and value
+
+    private final int maxTableSize; // Largest table size the peer may ask for
+    private int tableSize; // Current size limit of the table
+    private int usedSize; // Size of the entries in the table
+    private String[] names; // Names of the entries, in a ring
+    private String[] values; // Values of the entries, in a ring
+    private int first; // Position of the newest entry in the ring
+    private int count; // Number of entries
+
+    /**
+     * Constructs an HpackDecoder with an empty table.
+     *
+     * @param maxTableSize the table size announced to the peer
+     */
+    HpackDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        this.tableSize = maxTableSize;
+        this.names = new String[16];
+        this.values = new String[16];
+    }
+
+    /**
+     * Decodes a complete header block, adding each field to the headers in
+     * order. The whole block is always decoded, so that the table stays in step
+     * with the peer's even when the caller rejects the headers.
+     *
+     * @param block   the bytes of the header block
+     * @param length  the length of the block in the array
+     * @param headers the headers to add the fields to
+     * @return the size of the header list, as SETTINGS_MAX_HEADER_LIST_SIZE
+     *         counts it
+     * @throws Http2Exception if the block cannot be decoded
+     */
+    int decode(byte[] block, int length, HttpHeaders headers) throws Http2Exception {
+        int[] pos = { 0 };
+        int listSize = 0;
+        boolean fieldSeen = false;
+        while (pos[0] < length) {
+            int b = block[pos[0]] & 0xff;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) {
+                // Indexed field
+                int index = decodeInteger(block, length, pos, 7);
+                name = nameAt(index);
+                value = valueAt(index);
+            } else if ((b & 0xe0) == 0x20) {
+                // Dynamic table size update, only allowed before the first field
+                int size = decodeInteger(block, length, pos, 5);
+                if (fieldSeen || size > maxTableSize) {
+                    throw Hpack.compressionError("Invalid dynamic table size update");
+                }
+                tableSize = size;
+                evict(0);
+                continue;
+            } else {
+                // Literal, added to the table if incremental indexing is asked for
+                boolean indexing = (b & 0xc0) == 0x40;
+                int index = decodeInteger(block, length, pos, indexing ? 6 : 4);
+                name = index == 0 ? decodeString(block, length, pos) : nameAt(index);
+                value = decodeString(block, length, pos);
+                if (indexing) {
+                    insert(name, value);
+                }
+            }
+            fieldSeen = true;
+            listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+            headers.add(name, value);
+        }
+        return listSize;
+    }
+
+    /**
+     * Returns the name of a table entry.
+     *
+     * @param index the index of the entry, static entries first
+     * @return the name
+     * @throws Http2Exception if there is no such entry
+     */
+    private String nameAt(int index) throws Http2Exception {
+        return index <= Hpack.STATIC_TABLE.length ? staticEntry(index)[0] : names[dynamicSlot(index)];
+    }
+
+    /**
+     * Returns the value of a table entry.
+     *
+     * @param index the index of the entry, static entries first
+     * @return the value
+     * @throws Http2Exception if there is no such entry
+     */
+    private String valueAt(int index) throws Http2Exception {
+        return index <= Hpack.STATIC_TABLE.length ? staticEntry(index)[1] : values[dynamicSlot(index)];
+    }
+
+    /**
+     * Returns an entry of the static table.
+     *
+     * @param index the index of the entry
+     * @return the name and value
+     * @throws Http2Exception if the index is 0
+     */
+    private static String[] staticEntry(int index) throws Http2Exception {
+        if (index == 0) {
+            throw Hpack.compressionError("Index 0 is invalid");
+        }
+        return Hpack.STATIC_TABLE[index - 1];
+    }
+
+    /**
+     * Finds the position in the ring of a dynamic table entry.
+     *
+     * @param index the index of the entry, counting the static ones
+     * @return the position in the ring
+     * @throws Http2Exception if there is no such entry
+     */
+    private int dynamicSlot(int index) throws Http2Exception {
+        int age = index - Hpack.STATIC_TABLE.length - 1;
+        if (age >= count) {
+            throw Hpack.compressionError("Index " + index + " is not in the table");
+        }
+        return (first + age) % names.length;
+    }
+
+    /**
+     * Adds an entry as the newest one, evicting old entries to make room. An
+     * entry larger than the whole table empties it and is not added.
+     *
+     * @param name  the name
+     * @param value the value
+     */
+    private void insert(String name, String value) {
+        int size = name.length() + value.length() + ENTRY_OVERHEAD;
+        evict(size);
+        if (size > tableSize) {
+            return;
+        }
+        if (count == names.length) {
+            String[] newNames = new String[names.length * 2];
+            String[] newValues = new String[names.length * 2];
+            for (int i = 0; i < count; i++) {
+                newNames[i] = names[(first + i) % names.length];
+                newValues[i] = values[(first + i) % names.length];
+            }
+            names = newNames;
+            values = newValues;
+            first = 0;
+        }
+        first = (first - 1 + names.length) % names.length;
+        names[first] = name;
+        values[first] = value;
+        count++;
+        usedSize += size;
+    }
+
+    /**
+     * Evicts the oldest entries until an entry of some size fits.
+     *
+     * @param room the size that must fit next to the remaining entries
+     */
+    private void evict(int room) {
+        while (count > 0 && usedSize + room > tableSize) {
+            int last = (first + count - 1) % names.length;
+            usedSize -= names[last].length() + values[last].length() + ENTRY_OVERHEAD;
+            names[last] = null;
+            values[last] = null;
+            count--;
+        }
+    }
+
+    /**
+     * Decodes a prefixed integer.
+     *
+     * @param block  the header block
+     * @param length the length of the block
+     * @param pos    the position in the block, advanced past the integer
+     * @param prefix the number of bits of the prefix
+     * @return the value
+     * @throws Http2Exception if the integer is truncated or too large
+     */
+    private static int decodeInteger(byte[] block, int length, int[] pos, int prefix) throws Http2Exception {
+        int max = (1 << prefix) - 1;
+        int value = block[pos[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (pos[0] >= length || shift > 21) {
+                throw Hpack.compressionError("Invalid integer");
+            }
+            int b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Decodes a string literal.
+     *
+     * @param block  the header block
+     * @param length the length of the block
+     * @param pos    the position in the block, advanced past the string
+     * @return the string
+     * @throws Http2Exception if the string is truncated or badly coded
+     */
+    private static String decodeString(byte[] block, int length, int[] pos) throws Http2Exception {
+        if (pos[0] >= length) {
+            throw Hpack.compressionError("Truncated string");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int n = decodeInteger(block, length, pos, 7);
+        int start = pos[0];
+        if (n > length - start) {
+            throw Hpack.compressionError("Truncated string");
+        }
+        pos[0] += n;
+        return huffman ? Hpack.huffmanDecode(block, start, start + n)
+                : new String(block, start, n, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,1455 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The Http2Connection class serves HTTP/2 over cleartext TCP (h2c, RFC 9113)
+ * on a connection of the blocking engine, either started with the connection
+ * preface or upgraded from an HTTP/1.1 request carrying {@code Upgrade: h2c}.
+ *
+ * The connection thread reads frames and keeps the state of every stream. Once
+ * the headers of a stream are complete it becomes a {@link Request} and runs on
+ * the connection executor like any other request, so a single connection
+ * carries many requests at once. Request bodies arrive in DATA frames that the
+ * handler reads as a stream; the window of each stream and of the connection
+ * is reopened as the handler consumes them, so a slow handler slows its client
+ * down instead of filling the heap.
+ *
+ * Responses are serialized by the {@link Response} as for HTTP/1.1, into memory
+ * with file and buffer bodies left aside, then sent as a HEADERS frame and DATA
+ * frames within the windows the client grants. Streamed bodies are collected
+ * in full before being sent. Frames of different streams interleave, each one
+ * written whole under a lock.
+ *
+ * Headers are decoded by an {@link HpackDecoder} whose dynamic table is bounded
+ * by SETTINGS_HEADER_TABLE_SIZE, and encoded statelessly by {@link Hpack}. Server
+ * push and priorities are not supported; PRIORITY frames are ignored.
+ */
+class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII); // Client preface
+
+    private static final int DATA = 0x0; // Frame types
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1; // Frame flags; ACK shares the value of END_STREAM
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1; // Setting identifiers
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int FRAME_HEADER_SIZE = 9; // Length, type, flags and stream id
+    private static final int DEFAULT_WINDOW_SIZE = 65_535; // Initial windows before any setting
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16_384; // Largest frame payload before any setting
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE; // Largest flow-control window
+    private static final int HEADER_TABLE_SIZE = 4096; // Dynamic table size allowed to the client
+    private static final int STREAM_WINDOW_SIZE = 256 * 1024; // Request body bytes buffered per stream
+    private static final int CONNECTION_WINDOW_SIZE = 1024 * 1024; // Request body bytes buffered per connection
+
+    private final ConnectionInput input; // Bytes read from the socket
+    private final OutputStream out; // Output of the connection, timed by the write timeout
+    private final RequestDispatcher dispatcher; // Routes requests to their handlers
+    private final ServerConfig config; // Limits and timeouts of the server
+    private final ConnectionExecutor workers; // Runs the handlers of the streams
+    private final RequestParser parser; // Validates request heads rebuilt from the headers
+    private final String remote; // Address of the client, for the access log
+    private final HpackDecoder decoder; // Decoder of the request headers
+    private final ConnectionTimeout idleTimeout; // Timeout of the connection while no stream is open
+    private final ReentrantLock lock; // Guards the streams and the flow-control windows
+    private final Condition changed; // Signalled when data arrives, windows open or streams end
+    private final ReentrantLock writeLock; // Keeps the frames written by different threads whole
+    private final Map<Integer, Stream> streams; // Open streams by id
+    private final byte[] frame; // Payload of the frame being read
+    private int lastStreamId; // Highest stream id the client opened
+    private long sendWindow; // Bytes the client accepts on the connection
+    private int peerInitialWindow; // Initial window of new streams, set by the client
+    private int peerMaxFrameSize; // Largest frame payload the client accepts
+    private int receiveWindow; // Bytes the client may still send on the connection
+    private int consumed; // Body bytes consumed since the connection window was last reopened
+    private boolean inputDone; // Whether no more frames are read
+    private boolean closed; // Whether the connection is being torn down, failing writes
+    private ByteArrayOutputStream headerBlock; // Header block being received in CONTINUATION frames
+    private int headerStreamId; // Stream of the header block being received, 0 if none
+    private boolean headerEndStream; // Whether the header block being received ends its stream
+
+    /**
+     * The Stream class is the state of one request of the connection.
+     */
+    private final class Stream {
+        private final int id; // Stream identifier
+        private final ArrayDeque<byte[]> chunks; // Body bytes received and not yet read
+        private int chunkPos; // Bytes of the first chunk already read
+        private long sendWindow; // Bytes the client accepts on this stream
+        private int receiveWindow; // Bytes the client may still send on this stream
+        private int buffered; // Body bytes received and not yet read
+        private int consumed; // Body bytes read since the stream window was last reopened
+        private long received; // Body bytes received so far
+        private boolean remoteClosed; // Whether the client ended its side of the stream
+        private boolean reset; // Whether either side reset the stream
+        private boolean tooLarge; // Whether the body outgrew the size limit
+
+        /**
+         * Constructs a Stream.
+         *
+         * @param id the stream identifier
+         */
+        Stream(int id) {
+            this.id = id;
+            this.chunks = new ArrayDeque<>();
+            this.sendWindow = peerInitialWindow;
+            this.receiveWindow = STREAM_WINDOW_SIZE;
+        }
+    }
+
+    /**
+     * The BodyStream class reads the body of a stream as its DATA frames
+     * arrive, on the thread of the handler.
+     */
+    private final class BodyStream extends InputStream {
+        private final Stream stream; // Stream whose body is read
+
+        /**
+         * Constructs a BodyStream.
+         *
+         * @param stream the stream whose body is read
+         */
+        BodyStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            int streamIncrement = 0;
+            int connectionIncrement;
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(config.getBodyTimeoutMillis());
+                while (stream.buffered == 0) {
+                    if (stream.tooLarge) {
+                        throw new HttpException(413, "Content Too Large");
+                    }
+                    if (stream.remoteClosed) {
+                        return -1;
+                    }
+                    if (stream.reset || inputDone) {
+                        throw new IOException("Stream closed before its body was complete");
+                    }
+                    if (config.getBodyTimeoutMillis() == 0) {
+                        changed.await();
+                    } else if ((nanos = changed.awaitNanos(nanos)) <= 0) {
+                        throw new HttpException(408, "Request Timeout");
+                    }
+                }
+                while (n < len && !stream.chunks.isEmpty()) {
+                    byte[] chunk = stream.chunks.peek();
+                    int count = Math.min(len - n, chunk.length - stream.chunkPos);
+                    System.arraycopy(chunk, stream.chunkPos, b, off + n, count);
+                    n += count;
+                    stream.chunkPos += count;
+                    if (stream.chunkPos == chunk.length) {
+                        stream.chunks.poll();
+                        stream.chunkPos = 0;
+                    }
+                }
+                stream.buffered -= n;
+                stream.consumed += n;
+                if (stream.consumed >= STREAM_WINDOW_SIZE / 2 && !stream.remoteClosed) {
+                    streamIncrement = stream.consumed;
+                    stream.receiveWindow += streamIncrement;
+                    stream.consumed = 0;
+                }
+                connectionIncrement = consume(n);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+            if (streamIncrement > 0) {
+                writeWindowUpdate(stream.id, streamIncrement);
+            }
+            if (connectionIncrement > 0) {
+                writeWindowUpdate(0, connectionIncrement);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Constructs an Http2Connection over an accepted connection.
+     *
+     * @param input      the bytes read from the socket
+     * @param out        the output of the connection
+     * @param dispatcher the dispatcher routing requests to their handlers
+     * @param config     the limits and timeouts of the server
+     * @param workers    the executor running the handlers of the streams
+     * @param timer      the timer wheel tracking the idle timeout
+     * @param remote     the address of the client
+     * @param onIdle     shuts the input down once the connection stays idle
+     */
+    Http2Connection(ConnectionInput input, OutputStream out, RequestDispatcher dispatcher, ServerConfig config,
+            ConnectionExecutor workers, TimerWheel timer, String remote, Runnable onIdle) {
+        this.input = input;
+        this.out = out;
+        this.dispatcher = dispatcher;
+        this.config = config;
+        this.workers = workers;
+        this.remote = remote;
+        this.parser = new RequestParser(config.isStrictParsing(), config.getMaxHeaderSize(),
+                config.getMaxHeaderCount());
+        this.decoder = new HpackDecoder(HEADER_TABLE_SIZE);
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.writeLock = new ReentrantLock();
+        this.streams = new HashMap<>();
+        this.frame = new byte[DEFAULT_MAX_FRAME_SIZE];
+        this.sendWindow = DEFAULT_WINDOW_SIZE;
+        this.peerInitialWindow = DEFAULT_WINDOW_SIZE;
+        this.peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        this.receiveWindow = CONNECTION_WINDOW_SIZE;
+        // Only end the connection if it is still idle when the timeout expires
+        this.idleTimeout = new ConnectionTimeout(timer, phase -> {
+            boolean idle;
+            lock.lock();
+            try {
+                idle = streams.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+            if (idle) {
+                onIdle.run();
+            }
+        });
+    }
+
+    /**
+     * Serves the connection until the client closes it, stays idle too long,
+     * or breaks the protocol, then waits for the streams still running.
+     *
+     * @param upgrade  the HTTP/1.1 request that asked for the upgrade, answered
+     *                 on stream 1, or null if the client sent the preface
+     *                 straight away
+     * @param settings the payload of the HTTP2-Settings header of the upgrade
+     *                 request, or null
+     * @throws IOException if the connection fails
+     */
+    void serve(Request upgrade, byte[] settings) throws IOException {
+        input.timeReads(TimeoutPhase.IDLE, 0); // Reads are untimed, the idle timeout is armed here
+        int errorCode = Http2Exception.NO_ERROR;
+        try {
+            writeSettings();
+            if (upgrade != null) {
+                applySettings(settings, settings.length);
+                // The upgrade request is stream 1, whose client side is already complete
+                Stream stream = new Stream(1);
+                stream.remoteClosed = true;
+                lastStreamId = 1;
+                openStream(stream, upgrade);
+                upgrade.setHttpVersion("HTTP/2.0");
+                dispatch(stream, upgrade);
+
+                byte[] preface = new byte[PREFACE.length];
+                if (!readFully(preface, PREFACE.length) || !Arrays.equals(preface, PREFACE)) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid connection preface");
+                }
+            }
+            armIdleIfQuiet();
+            readFrames();
+        } catch (Http2Exception e) {
+            errorCode = e.getErrorCode();
+        } finally {
+            shutdown(errorCode);
+        }
+    }
+
+    /**
+     * Reads and handles frames until the client stops sending them.
+     *
+     * @throws IOException if the connection fails or the client breaks the
+     *                     protocol
+     */
+    private void readFrames() throws IOException {
+        byte[] header = new byte[FRAME_HEADER_SIZE];
+        boolean first = true;
+        while (readFully(header, FRAME_HEADER_SIZE)) {
+            int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+            int type = header[3] & 0xff;
+            int flags = header[4] & 0xff;
+            int streamId = ((header[5] & 0x7f) << 24 | (header[6] & 0xff) << 16 | (header[7] & 0xff) << 8
+                    | header[8] & 0xff);
+            if (length > DEFAULT_MAX_FRAME_SIZE) {
+                throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "Frame larger than SETTINGS_MAX_FRAME_SIZE");
+            }
+            if (!readFully(frame, length)) {
+                return;
+            }
+            if (first && type != SETTINGS) {
+                throw connectionError(Http2Exception.PROTOCOL_ERROR, "The preface must be followed by SETTINGS");
+            }
+            first = false;
+            if (headerStreamId != 0 && (type != CONTINUATION || streamId != headerStreamId)) {
+                throw connectionError(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+            }
+
+            try {
+                handleFrame(type, flags, streamId, length);
+            } catch (Http2Exception e) {
+                if (e.getStreamId() == 0) {
+                    throw e;
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+            armIdleIfQuiet();
+        }
+    }
+
+    /**
+     * Handles one frame, whose payload is in {@link #frame}.
+     *
+     * @param type     the frame type
+     * @param flags    the frame flags
+     * @param streamId the stream of the frame, 0 for the connection
+     * @param length   the length of the payload
+     * @throws IOException if the connection fails or the frame breaks the
+     *                     protocol
+     */
+    private void handleFrame(int type, int flags, int streamId, int length) throws IOException {
+        switch (type) {
+            case DATA -> onData(flags, streamId, length);
+            case HEADERS -> onHeaders(flags, streamId, length);
+            case CONTINUATION -> {
+                if (headerStreamId == 0) {
+                    throw connectionError(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                }
+                appendHeaderBlock(frame, 0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    endHeaderBlock();
+                }
+            }
+            case PRIORITY -> {
+                if (streamId == 0) {
+                    throw connectionError(Http2Exception.PROTOCOL_ERROR, "PRIORITY on stream 0");
+                }
+                if (length != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "Invalid PRIORITY size");
+                }
+            }
+            case RST_STREAM -> onReset(streamId, length);
+            case SETTINGS -> onSettings(flags, streamId, length);
+            case PING -> {
+                if (streamId != 0 || length != 8) {
+                    throw connectionError(streamId != 0 ? Http2Exception.PROTOCOL_ERROR
+                            : Http2Exception.FRAME_SIZE_ERROR, "Invalid PING");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    writeFrame(PING, FLAG_ACK, 0, frame, 0, 8);
+                }
+            }
+            case GOAWAY -> {
+                if (streamId != 0) {
+                    throw connectionError(Http2Exception.PROTOCOL_ERROR, "GOAWAY on a stream");
+                }
+                // The client opens no more streams; the running ones complete
+            }
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, length);
+            case PUSH_PROMISE -> throw connectionError(Http2Exception.PROTOCOL_ERROR, "Clients cannot push");
+            default -> {
+                // Unknown frame types are ignored
+            }
+        }
+    }
+
+    /**
+     * Handles a HEADERS frame, which opens a stream or carries its trailers.
+     *
+     * @param flags    the frame flags
+     * @param streamId the stream of the frame
+     * @param length   the length of the payload
+     * @throws IOException if the frame breaks the protocol
+     */
+    private void onHeaders(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int start = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1) {
+                throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid padding");
+            }
+            start = 1;
+            end -= frame[0] & 0xff;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            start += 5;
+        }
+        if (end < start) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "Padding exceeds the payload");
+        }
+        headerStreamId = streamId;
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        headerBlock = new ByteArrayOutputStream(end - start);
+        appendHeaderBlock(frame, start, end - start);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaderBlock();
+        }
+    }
+
+    /**
+     * Adds a fragment to the header block being received, within a bound that
+     * keeps a client from growing it without end.
+     *
+     * @param buf    the bytes of the fragment
+     * @param off    the offset of the fragment
+     * @param length the length of the fragment
+     * @throws Http2Exception if the block grows too large
+     */
+    private void appendHeaderBlock(byte[] buf, int off, int length) throws Http2Exception {
+        if (headerBlock.size() + length > Math.max(2 * config.getMaxHeaderSize(), 4 * DEFAULT_MAX_FRAME_SIZE)) {
+            throw connectionError(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(buf, off, length);
+    }
+
+    /**
+     * Decodes a complete header block and acts on it: a new stream is turned
+     * into a request and dispatched, trailers end the body of their stream.
+     *
+     * @throws IOException if the block breaks the protocol
+     */
+    private void endHeaderBlock() throws IOException {
+        int streamId = headerStreamId;
+        boolean endStream = headerEndStream;
+        byte[] block = headerBlock.toByteArray();
+        headerStreamId = 0;
+        headerBlock = null;
+        HttpHeaders fields = new HttpHeaders();
+        int listSize = decoder.decode(block, block.length, fields);
+
+        Stream existing;
+        lock.lock();
+        try {
+            existing = streams.get(streamId);
+        } finally {
+            lock.unlock();
+        }
+        if (streamId <= lastStreamId) {
+            if (existing == null || existing.remoteClosed) {
+                return; // Trailers of a stream already reset or answered
+            }
+            if (!endStream) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers must end the stream");
+            }
+            endRemote(existing); // Trailers are decoded and dropped
+            return;
+        }
+        if ((streamId & 1) == 0) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "Clients open odd-numbered streams");
+        }
+        lastStreamId = streamId;
+
+        Stream stream = new Stream(streamId);
+        stream.remoteClosed = endStream;
+        lock.lock();
+        try {
+            if (streams.size() >= config.getMaxConcurrentStreams()) {
+                throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Request req = new Request();
+        openStream(stream, req);
+        try {
+            if (listSize > config.getMaxHeaderSize()) {
+                throw new HttpException(431, "Request Header Fields Too Large");
+            }
+            parseRequest(fields, req);
+            long maxBodySize = config.getMaxBodySize();
+            if (maxBodySize > 0 && req.getContentLength() > maxBodySize) {
+                throw new HttpException(413, "Content Too Large");
+            }
+        } catch (HttpException e) {
+            // A request rejected before any handler runs gets its status on the stream
+            if (req.getMethod() != null) {
+                dispatcher.recordResponse(req, remote, e.getStatusCode(), 0, 0);
+            }
+            respondEmpty(stream, e.getStatusCode());
+            return;
+        }
+        dispatch(stream, req);
+    }
+
+    /**
+     * Rebuilds the HTTP/1.1 head of a request from its decoded headers and
+     * parses it, so HTTP/2 requests get the same validation and the same
+     * Request as any other. Fields HTTP/2 forbids, pseudo-headers out of place
+     * and values that could not be written as an HTTP/1.1 head are malformed.
+     *
+     * @param fields the decoded header fields
+     * @param req    the request to fill
+     * @throws IOException if the request is malformed
+     */
+    private void parseRequest(HttpHeaders fields, Request req) throws IOException {
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        boolean regularSeen = false;
+        StringBuilder head = new StringBuilder(256);
+        StringBuilder cookie = null;
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.getName(i);
+            String value = fields.getValue(i);
+            if (!isFieldValid(name, value)) {
+                throw malformed();
+            }
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw malformed();
+                }
+                switch (name) {
+                    case ":method" -> method = once(method, value);
+                    case ":path" -> path = once(path, value);
+                    case ":scheme" -> scheme = once(scheme, value);
+                    case ":authority" -> authority = once(authority, value);
+                    default -> throw malformed();
+                }
+                continue;
+            }
+            regularSeen = true;
+            switch (name) {
+                case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" ->
+                    throw malformed();
+                case "te" -> {
+                    if (!value.equals("trailers")) {
+                        throw malformed();
+                    }
+                }
+                case "cookie" -> {
+                    // Cookies may be split into several fields, which HTTP/1.1 joins into one
+                    cookie = cookie == null ? new StringBuilder(value) : cookie.append("; ").append(value);
+                    continue;
+                }
+                case "host" -> authority = null; // The Host field wins over :authority
+                default -> {
+                }
+            }
+            head.append(name).append(": ").append(value).append("\r\n");
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw malformed();
+        }
+        if (authority != null) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        if (cookie != null) {
+            head.append("cookie: ").append(cookie).append("\r\n");
+        }
+        head.insert(0, method + " " + path + " HTTP/1.1\r\n").append("\r\n");
+        parser.parse(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)), req);
+        req.setHttpVersion("HTTP/2.0");
+    }
+
+    /**
+     * Checks that a decoded field can be carried by an HTTP/1.1 head: a
+     * lower-case name and a value without line breaks or NUL.
+     *
+     * @param name  the field name
+     * @param value the field value
+     * @return true if the field is well formed
+     */
+    private static boolean isFieldValid(String name, String value) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = name.startsWith(":") ? 1 : 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7f || (c >= 'A' && c <= 'Z') || c == ':') {
+                return false;
+            }
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the value of a pseudo-header, which may only appear once.
+     *
+     * @param current the value seen so far, or null
+     * @param value   the new value
+     * @return the value
+     * @throws HttpException if the pseudo-header is repeated
+     */
+    private static String once(String current, String value) throws HttpException {
+        if (current != null) {
+            throw malformed();
+        }
+        return value;
+    }
+
+    /**
+     * Creates the exception for a malformed request, answered with 400 Bad
+     * Request on its stream.
+     *
+     * @return the exception
+     */
+    private static HttpException malformed() {
+        return new HttpException(400, "Bad Request");
+    }
+
+    /**
+     * Registers a new stream and attaches its body to the request.
+     *
+     * @param stream the stream
+     * @param req    the request of the stream
+     */
+    private void openStream(Stream stream, Request req) {
+        lock.lock();
+        try {
+            streams.put(stream.id, stream);
+        } finally {
+            lock.unlock();
+        }
+        if (!stream.remoteClosed) {
+            req.setBodyStream(new BodyStream(stream));
+        }
+    }
+
+    /**
+     * Runs the handler of a request on the executor, or refuses the stream if
+     * the executor is saturated. A refused stream is forgotten at once, so it
+     * neither holds a concurrent stream slot nor keeps its buffered body out
+     * of the connection window.
+     *
+     * @param stream the stream of the request
+     * @param req    the request
+     * @throws IOException if the refusal cannot be sent
+     */
+    private void dispatch(Stream stream, Request req) throws IOException {
+        if (!workers.execute(() -> handle(stream, req))) {
+            resetStream(stream.id, Http2Exception.REFUSED_STREAM);
+            endLocal(stream);
+        }
+    }
+
+    /**
+     * Handles a request and sends its response, on a worker thread. A handler
+     * that fails before its response is sent gets an empty one with the status
+     * of the failure; a body that fails midway resets the stream.
+     *
+     * @param stream the stream of the request
+     * @param req    the request
+     */
+    private void handle(Stream stream, Request req) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        Response res = new Response(head);
+        res.setKeepAlive(true);
+        res.setChunkedAllowed(false); // Streamed bodies are collected raw and framed here
+        res.setBodyDeferred(true);
+        int statusCode;
+        long bodyLength = 0;
+        boolean sent = false;
+        try {
+            AsyncHandlerAdapter.await(dispatcher.dispatch(req, res));
+            res.send();
+            statusCode = res.getStatusCode();
+            sent = true;
+        } catch (HttpException e) {
+            statusCode = e.getStatusCode();
+        } catch (Exception e) {
+            if (!isReset(stream)) {
+                e.printStackTrace();
+            }
+            statusCode = 500;
+        }
+        try {
+            if (sent) {
+                sendResponse(stream, res, head.toByteArray());
+                bodyLength = res.getBodyLength();
+            } else {
+                respondEmpty(stream, statusCode);
+            }
+        } catch (IOException e) {
+            abort(stream);
+        } finally {
+            FileRegion file = res.getDeferredFileBody();
+            if (file != null) {
+                file.close();
+            }
+            endLocal(stream);
+        }
+        dispatcher.recordResponse(req, remote, statusCode, bodyLength, System.nanoTime() - start);
+    }
+
+    /**
+     * Sends a response serialized for HTTP/1.1 as a HEADERS frame and DATA
+     * frames. The serialized head is dropped, its fields are taken from the
+     * response; the bytes after it are a streamed body.
+     *
+     * @param stream the stream of the request
+     * @param res    the sent response
+     * @param bytes  what the response wrote to its output stream
+     * @throws IOException if the stream is reset or the connection fails
+     */
+    private void sendResponse(Stream stream, Response res, byte[] bytes) throws IOException {
+        int headEnd = 0;
+        for (int i = 3; i < bytes.length; i++) {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                headEnd = i + 1;
+                break;
+            }
+        }
+        ByteBuffer body = res.getDeferredBody();
+        FileRegion file = res.getDeferredFileBody();
+        boolean streamed = bytes.length > headEnd;
+        boolean hasBody = streamed || (body != null && body.hasRemaining()) || (file != null && !file.isDone());
+
+        writeHeaders(stream, encodeHeaders(res.getStatusCode(), res.getHeaders()), !hasBody);
+        if (streamed) {
+            boolean last = (body == null || !body.hasRemaining()) && (file == null || file.isDone());
+            sendData(stream, bytes, headEnd, bytes.length - headEnd, last);
+        }
+        if (body != null && body.hasRemaining()) {
+            int len = body.remaining();
+            boolean last = file == null || file.isDone();
+            if (body.hasArray()) {
+                sendData(stream, body.array(), body.arrayOffset() + body.position(), len, last);
+            } else {
+                byte[] data = new byte[len];
+                body.get(data);
+                sendData(stream, data, 0, len, last);
+            }
+        }
+        if (file != null) {
+            byte[] chunk = new byte[(int) Math.min(file.remaining(), 4 * DEFAULT_MAX_FRAME_SIZE)];
+            while (!file.isDone()) {
+                int n = file.read(chunk, 0, (int) Math.min(chunk.length, file.remaining()));
+                sendData(stream, chunk, 0, n, file.isDone());
+            }
+        }
+    }
+
+    /**
+     * Encodes the status and fields of a response as a header block, leaving
+     * out the fields that only concern HTTP/1.1 connections.
+     *
+     * @param statusCode the HTTP status code
+     * @param headers    the header fields of the response
+     * @return the header block
+     */
+    private static byte[] encodeHeaders(int statusCode, HttpHeaders headers) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(128);
+        Hpack.encodeHeader(block, ":status", Integer.toString(statusCode));
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.getName(i).toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" -> {
+                }
+                default -> Hpack.encodeHeader(block, name, headers.getValue(i));
+            }
+        }
+        Hpack.encodeHeader(block, "date", ResponseHead.currentDate());
+        return block.toByteArray();
+    }
+
+    /**
+     * Answers a stream with a status and no body.
+     *
+     * @param stream     the stream
+     * @param statusCode the HTTP status code
+     * @throws IOException if the connection fails
+     */
+    private void respondEmpty(Stream stream, int statusCode) throws IOException {
+        HttpHeaders headers = new HttpHeaders().add(HeaderNames.CONTENT_LENGTH, "0");
+        writeHeaders(stream, encodeHeaders(statusCode, headers), true);
+        endLocal(stream);
+    }
+
+    /**
+     * Writes a header block as a HEADERS frame followed by as many CONTINUATION
+     * frames as the frame size of the client requires, with nothing in between.
+     *
+     * @param stream    the stream
+     * @param block     the header block
+     * @param endStream whether the block ends the response
+     * @throws IOException if the stream is reset or the connection fails
+     */
+    private void writeHeaders(Stream stream, byte[] block, boolean endStream) throws IOException {
+        writeLock.lock();
+        try {
+            checkWritable(stream);
+            int maxFrameSize = peerMaxFrameSize;
+            int off = 0;
+            int type = HEADERS;
+            do {
+                int n = Math.min(block.length - off, maxFrameSize);
+                boolean lastFragment = off + n == block.length;
+                int flags = (lastFragment ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+                writeFrameHeader(n, type, flags, stream.id);
+                out.write(block, off, n);
+                off += n;
+                type = CONTINUATION;
+            } while (off < block.length);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends body bytes in DATA frames, waiting for the client to open its
+     * windows whenever they are spent. A window that stays closed for longer
+     * than the write timeout fails the stream.
+     *
+     * @param stream the stream
+     * @param b      the bytes
+     * @param off    the offset of the bytes
+     * @param len    the number of bytes
+     * @param last   whether the bytes end the response
+     * @throws IOException if the stream is reset, the window stays closed or
+     *                     the connection fails
+     */
+    private void sendData(Stream stream, byte[] b, int off, int len, boolean last) throws IOException {
+        do {
+            int n;
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMillis());
+                while (true) {
+                    if (closed || stream.reset) {
+                        throw new IOException("Stream closed");
+                    }
+                    n = (int) Math.min(Math.min(len, peerMaxFrameSize), Math.min(sendWindow, stream.sendWindow));
+                    if (n > 0 || len == 0) {
+                        break;
+                    }
+                    if (inputDone) {
+                        throw new IOException("Flow-control window closed for good");
+                    }
+                    if (config.getWriteTimeoutMillis() == 0) {
+                        changed.await();
+                    } else if ((nanos = changed.awaitNanos(nanos)) <= 0) {
+                        throw new IOException("Flow-control window stayed closed");
+                    }
+                }
+                sendWindow -= n;
+                stream.sendWindow -= n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+            writeFrame(DATA, last && n == len ? FLAG_END_STREAM : 0, stream.id, b, off, n);
+            off += n;
+            len -= n;
+        } while (len > 0);
+    }
+
+    /**
+     * Handles a DATA frame, adding its bytes to the body of its stream.
+     *
+     * @param flags    the frame flags
+     * @param streamId the stream of the frame
+     * @param length   the length of the payload
+     * @throws IOException if the frame breaks the protocol
+     */
+    private void onData(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        if (streamId > lastStreamId) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "DATA on an idle stream");
+        }
+        int start = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1 || (frame[0] & 0xff) >= length) {
+                throw connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid padding");
+            }
+            start = 1;
+            end -= frame[0] & 0xff;
+        }
+
+        int increment;
+        Stream stream;
+        boolean exceeded = false;
+        lock.lock();
+        try {
+            receiveWindow -= length;
+            if (receiveWindow < 0) {
+                throw connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+            }
+            stream = streams.get(streamId);
+            int delivered = 0;
+            if (stream != null && !stream.remoteClosed) {
+                stream.receiveWindow -= length;
+                exceeded = stream.receiveWindow < 0;
+                stream.received += end - start;
+                long maxBodySize = config.getMaxBodySize();
+                if (exceeded) {
+                    // Nothing is delivered, so the bytes go back to the connection window below
+                } else if (maxBodySize > 0 && stream.received > maxBodySize) {
+                    stream.tooLarge = true;
+                } else if (end > start && !stream.reset) {
+                    stream.chunks.add(Arrays.copyOfRange(frame, start, end));
+                    stream.buffered += end - start;
+                    delivered = end - start;
+                }
+                changed.signalAll();
+            }
+            // Padding, and data nobody will read, are consumed right away
+            increment = consume(length - delivered);
+        } finally {
+            lock.unlock();
+        }
+        if (increment > 0) {
+            writeWindowUpdate(0, increment);
+        }
+        if (exceeded) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+        if (stream != null && (flags & FLAG_END_STREAM) != 0) {
+            endRemote(stream);
+        }
+    }
+
+    /**
+     * Counts body bytes as consumed and tells how much to reopen the connection
+     * window by, once enough have been consumed to be worth a frame. Must be
+     * called with the lock held.
+     *
+     * @param n the number of bytes consumed
+     * @return the increment to send in a WINDOW_UPDATE, or 0
+     */
+    private int consume(int n) {
+        consumed += n;
+        if (consumed < CONNECTION_WINDOW_SIZE / 2) {
+            return 0;
+        }
+        int increment = consumed;
+        receiveWindow += increment;
+        consumed = 0;
+        return increment;
+    }
+
+    /**
+     * Handles a RST_STREAM frame, which aborts a stream.
+     *
+     * @param streamId the stream of the frame
+     * @param length   the length of the payload
+     * @throws Http2Exception if the frame breaks the protocol
+     */
+    private void onReset(int streamId, int length) throws Http2Exception {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on an idle stream");
+        }
+        if (length != 4) {
+            throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid RST_STREAM size");
+        }
+        lock.lock();
+        try {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                stream.reset = true;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles a SETTINGS frame: applies the settings of the client and
+     * acknowledges them.
+     *
+     * @param flags    the frame flags
+     * @param streamId the stream of the frame
+     * @param length   the length of the payload
+     * @throws IOException if the frame breaks the protocol or cannot be
+     *                     acknowledged
+     */
+    private void onSettings(int flags, int streamId, int length) throws IOException {
+        if (streamId != 0) {
+            throw connectionError(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        applySettings(frame, length);
+        writeFrame(SETTINGS, FLAG_ACK, 0, frame, 0, 0);
+    }
+
+    /**
+     * Applies settings sent by the client. A new initial window size moves the
+     * send window of every open stream by the difference.
+     *
+     * @param payload the settings, six bytes each
+     * @param length  the length of the settings
+     * @throws Http2Exception if a setting is invalid
+     */
+    private void applySettings(byte[] payload, int length) throws Http2Exception {
+        if (length % 6 != 0) {
+            throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid SETTINGS size");
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < length; i += 6) {
+                int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+                long value = (payload[i + 2] & 0xffL) << 24 | (payload[i + 3] & 0xff) << 16
+                        | (payload[i + 4] & 0xff) << 8 | payload[i + 5] & 0xff;
+                switch (id) {
+                    case SETTINGS_ENABLE_PUSH -> {
+                        if (value > 1) {
+                            throw connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                        }
+                    }
+                    case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                        if (value > MAX_WINDOW_SIZE) {
+                            throw connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Invalid initial window size");
+                        }
+                        long delta = value - peerInitialWindow;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                            if (stream.sendWindow > MAX_WINDOW_SIZE) {
+                                throw connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Window overflow");
+                            }
+                        }
+                        peerInitialWindow = (int) value;
+                        changed.signalAll();
+                    }
+                    case SETTINGS_MAX_FRAME_SIZE -> {
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                        }
+                        peerMaxFrameSize = (int) value;
+                    }
+                    default -> {
+                        // The header table of the client is never used, and the
+                        // other settings do not constrain what the server sends
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles a WINDOW_UPDATE frame, which lets more body bytes be sent.
+     *
+     * @param streamId the stream of the frame, 0 for the connection
+     * @param length   the length of the payload
+     * @throws Http2Exception if the frame breaks the protocol
+     */
+    private void onWindowUpdate(int streamId, int length) throws Http2Exception {
+        if (length != 4) {
+            throw connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE size");
+        }
+        int increment = ((frame[0] & 0x7f) << 24 | (frame[1] & 0xff) << 16 | (frame[2] & 0xff) << 8
+                | frame[3] & 0xff);
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw connectionError(Http2Exception.PROTOCOL_ERROR, "Zero window increment");
+            }
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        lock.lock();
+        try {
+            if (streamId == 0) {
+                sendWindow += increment;
+                if (sendWindow > MAX_WINDOW_SIZE) {
+                    throw connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                    if (stream.sendWindow > MAX_WINDOW_SIZE) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Window overflow");
+                    }
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether a stream was reset by either side.
+     *
+     * @param stream the stream
+     * @return true if the stream was reset
+     */
+    private boolean isReset(Stream stream) {
+        lock.lock();
+        try {
+            return stream.reset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resets a stream whose response could not be completed, unless the client
+     * reset it first or the connection is gone.
+     *
+     * @param stream the stream
+     */
+    private void abort(Stream stream) {
+        boolean tell;
+        lock.lock();
+        try {
+            tell = !stream.reset && !closed;
+            stream.reset = true;
+        } finally {
+            lock.unlock();
+        }
+        if (tell) {
+            try {
+                writeRstStream(stream.id, Http2Exception.INTERNAL_ERROR);
+            } catch (IOException e) {
+                // The connection is gone, nothing left to tell the client
+            }
+        }
+    }
+
+    /**
+     * Marks the client side of a stream as complete.
+     *
+     * @param stream the stream
+     */
+    private void endRemote(Stream stream) {
+        lock.lock();
+        try {
+            stream.remoteClosed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a stream once its response is sent or abandoned. A client still
+     * sending the body of an answered request is told to stop, and the body
+     * bytes nobody read are given back to the connection window.
+     *
+     * @param stream the stream
+     */
+    private void endLocal(Stream stream) {
+        boolean stopClient;
+        int increment;
+        lock.lock();
+        try {
+            if (streams.remove(stream.id) == null) {
+                return;
+            }
+            stopClient = !stream.remoteClosed && !stream.reset;
+            stream.reset = true;
+            increment = consume(stream.buffered);
+            stream.chunks.clear();
+            stream.buffered = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (stopClient) {
+                writeRstStream(stream.id, Http2Exception.NO_ERROR);
+            }
+            if (increment > 0) {
+                writeWindowUpdate(0, increment);
+            }
+        } catch (IOException e) {
+            // The connection is gone, nothing left to tell the client
+        }
+        armIdleIfQuiet();
+    }
+
+    /**
+     * Resets a stream after an error, or refuses it.
+     *
+     * @param streamId  the stream
+     * @param errorCode the error code sent to the client
+     * @throws IOException if the connection fails
+     */
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        lock.lock();
+        try {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                stream.reset = true;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        writeRstStream(streamId, errorCode);
+    }
+
+    /**
+     * Arms the idle timeout if no stream is open.
+     */
+    private void armIdleIfQuiet() {
+        boolean quiet;
+        lock.lock();
+        try {
+            quiet = streams.isEmpty() && !inputDone;
+        } finally {
+            lock.unlock();
+        }
+        if (quiet) {
+            idleTimeout.arm(TimeoutPhase.IDLE, config.getIdleTimeoutMillis());
+        }
+    }
+
+    /**
+     * Stops reading, tells the client with GOAWAY, and waits for the streams
+     * still running to finish unless the connection failed.
+     *
+     * @param errorCode the error code sent to the client
+     */
+    private void shutdown(int errorCode) {
+        idleTimeout.cancel();
+        lock.lock();
+        try {
+            inputDone = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            byte[] payload = new byte[8];
+            writeInt(payload, 0, lastStreamId);
+            writeInt(payload, 4, errorCode);
+            writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+        } catch (IOException e) {
+            // The client is gone already
+        }
+        lock.lock();
+        try {
+            // After an error the running streams are only waited for, not answered
+            closed = errorCode != Http2Exception.NO_ERROR;
+            changed.signalAll();
+            while (!streams.isEmpty()) {
+                changed.awaitUninterruptibly();
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the settings of the server, then opens the connection window to its
+     * full size.
+     *
+     * @throws IOException if the connection fails
+     */
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[24];
+        writeSetting(payload, 0, SETTINGS_HEADER_TABLE_SIZE, HEADER_TABLE_SIZE);
+        writeSetting(payload, 6, SETTINGS_MAX_CONCURRENT_STREAMS, config.getMaxConcurrentStreams());
+        writeSetting(payload, 12, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+        writeSetting(payload, 18, SETTINGS_MAX_HEADER_LIST_SIZE, config.getMaxHeaderSize());
+        writeFrame(SETTINGS, 0, 0, payload, 0, payload.length);
+        writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Encodes one setting.
+     *
+     * @param payload the SETTINGS payload
+     * @param off     the offset of the setting
+     * @param id      the setting identifier
+     * @param value   the value
+     */
+    private static void writeSetting(byte[] payload, int off, int id, int value) {
+        payload[off] = (byte) (id >>> 8);
+        payload[off + 1] = (byte) id;
+        writeInt(payload, off + 2, value);
+    }
+
+    /**
+     * Sends a WINDOW_UPDATE frame.
+     *
+     * @param streamId  the stream, 0 for the connection
+     * @param increment the number of bytes the window grows by
+     * @throws IOException if the connection fails
+     */
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a RST_STREAM frame.
+     *
+     * @param streamId  the stream
+     * @param errorCode the error code
+     * @throws IOException if the connection fails
+     */
+    private void writeRstStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes a whole frame and flushes it.
+     *
+     * @param type     the frame type
+     * @param flags    the frame flags
+     * @param streamId the stream, 0 for the connection
+     * @param payload  the bytes of the payload
+     * @param off      the offset of the payload
+     * @param len      the length of the payload
+     * @throws IOException if the connection fails
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len)
+            throws IOException {
+        writeLock.lock();
+        try {
+            checkWritable(null);
+            writeFrameHeader(len, type, flags, streamId);
+            out.write(payload, off, len);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the header of a frame. Must be called with the write lock held.
+     *
+     * @param length   the length of the payload
+     * @param type     the frame type
+     * @param flags    the frame flags
+     * @param streamId the stream, 0 for the connection
+     * @throws IOException if the connection fails
+     */
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        byte[] header = new byte[FRAME_HEADER_SIZE];
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        writeInt(header, 5, streamId);
+        out.write(header);
+    }
+
+    /**
+     * Fails a write once the connection is torn down or its stream reset.
+     *
+     * @param stream the stream written to, or null for a connection frame
+     * @throws IOException if nothing more may be written
+     */
+    private void checkWritable(Stream stream) throws IOException {
+        lock.lock();
+        try {
+            if (closed || (stream != null && stream.reset)) {
+                throw new IOException("Stream closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes a 32-bit integer, most significant byte first.
+     *
+     * @param buf   the destination
+     * @param off   the offset of the integer
+     * @param value the value
+     */
+    private static void writeInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a number of bytes from the connection.
+     *
+     * @param b   the destination
+     * @param len the number of bytes
+     * @return false if the client closed the connection first
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean readFully(byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = input.read(b, off, len - off);
+            if (n == -1) {
+                return false;
+            }
+            off += n;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the exception for an error ending the connection.
+     *
+     * @param errorCode the error code sent in GOAWAY
+     * @param message   the detail message
+     * @return the exception
+     */
+    private static Http2Exception connectionError(int errorCode, String message) {
+        return new Http2Exception(errorCode, 0, message);
+    }
+}
@@ -0,0 +1,58 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The Http2Exception class signals an HTTP/2 protocol error and the error code
+ * sent to the peer. An error on a stream only resets that stream with
+ * RST_STREAM; an error on stream 0 ends the whole connection with GOAWAY.
+ */
+class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = 1L; // Version of the serialized form
+
+    static final int NO_ERROR = 0x0; // Graceful shutdown
+    static final int PROTOCOL_ERROR = 0x1; // Generic protocol violation
+    static final int INTERNAL_ERROR = 0x2; // Unexpected failure of the server
+    static final int FLOW_CONTROL_ERROR = 0x3; // Flow-control window exceeded or overflowed
+    static final int STREAM_CLOSED = 0x5; // Frame received on a closed stream
+    static final int FRAME_SIZE_ERROR = 0x6; // Frame of an invalid size
+    static final int REFUSED_STREAM = 0x7; // Stream refused before any processing
+    static final int CANCEL = 0x8; // Stream no longer needed
+    static final int COMPRESSION_ERROR = 0x9; // Header compression state lost
+    static final int ENHANCE_YOUR_CALM = 0xb; // Peer generating excessive load
+
+    private final int errorCode; // Error code sent to the peer
+    private final int streamId; // Stream in error, 0 for the connection
+
+    /**
+     * Constructs an Http2Exception.
+     *
+     * @param errorCode the error code sent to the peer
+     * @param streamId  the stream in error, 0 for the connection
+     * @param message   the detail message
+     */
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Returns the error code sent to the peer.
+     *
+     * @return the error code
+     */
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns the stream in error.
+     *
+     * @return the stream id, 0 for a connection error
+     */
+    int getStreamId() {
+        return streamId;
+    }
+}
@@ -0,0 +1,45 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The HttpException class signals that a request cannot be served and which
+ * status the client should get instead, such as 400 Bad Request for a malformed
+ * request line. Server engines answer it with its status rather than with 500
+ * Server Error, and request handlers may throw it too.
+ */
+public class HttpException extends IOException {
+
+    private static final long serialVersionUID = 1L; // Version of the serialized form
+
+    private final int statusCode; // HTTP status code sent to the client (e.g., 400)
+
+    /**
+     * Constructs an HttpException with the specified status.
+     *
+     * @param statusCode the HTTP status code to send
+     * @param statusMsg  the HTTP status message to send
+     */
+    public HttpException(int statusCode, String statusMsg) {
+        super(statusMsg);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the HTTP status code to send.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the HTTP status message to send.
+     *
+     * @return the status message
+     */
+    public String getStatusMsg() {
+        return getMessage();
+    }
+}
@@ -0,0 +1,345 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The HttpHeaders class holds the header fields of a {@link Request} or a
+ * {@link Response}, in the order they were added, in flat parallel arrays.
+ * Names are compared ignoring case, and a name may appear more than once, as
+ * {@code Set-Cookie} does.
+ *
+ * Each field remembers the interned name of the {@link HeaderNames} table it
+ * spells, if any, so looking up a well-known header compares references rather
+ * than characters and never allocates. Names added by handlers are kept as
+ * spelled. Fields parsed from a request point into the raw head instead, and
+ * their name and value Strings are only created, lower-case for names, when
+ * first asked for.
+ */
+public class HttpHeaders {
+
+    private static final int DEFAULT_CAPACITY = 8; // Fields held before the arrays grow
+
+    private int size; // Number of fields
+    private String[] names; // Name of each field, created on first use for parsed fields
+    private String[] knownNames; // Interned lower-case name of each well-known field, else null
+    private String[] values; // Value of each field, created on first use for parsed fields
+    private byte[] source; // Raw head the parsed fields point into, or null
+    private int[] offsets; // Name start, name end, value start and value end of each parsed field
+
+    /**
+     * Constructs an empty HttpHeaders.
+     */
+    public HttpHeaders() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty HttpHeaders with room for a number of fields.
+     *
+     * @param capacity the fields held before the arrays grow
+     */
+    HttpHeaders(int capacity) {
+        this.names = new String[capacity];
+        this.knownNames = new String[capacity];
+        this.values = new String[capacity];
+    }
+
+    /**
+     * Returns the number of fields, repeated names counted each time.
+     *
+     * @return the number of fields
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of a field.
+     *
+     * @param index the position of the field, from 0
+     * @return the name
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        if (names[index] == null) {
+            names[index] = knownNames[index] != null ? knownNames[index]
+                    : new String(source, offsets[index * 4], offsets[index * 4 + 1] - offsets[index * 4],
+                            StandardCharsets.ISO_8859_1).toLowerCase();
+        }
+        return names[index];
+    }
+
+    /**
+     * Returns the interned lower-case name of a field, if it is well known.
+     *
+     * @param index the position of the field, from 0
+     * @return the interned name, or null if the name is not well known
+     */
+    String getKnownName(int index) {
+        checkIndex(index);
+        return knownNames[index];
+    }
+
+    /**
+     * Returns the value of a field.
+     *
+     * @param index the position of the field, from 0
+     * @return the value
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        if (values[index] == null) {
+            int start = offsets[index * 4 + 2];
+            values[index] = new String(source, start, offsets[index * 4 + 3] - start, StandardCharsets.ISO_8859_1);
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns the value of the first field with a name.
+     *
+     * @param name the name, in any case
+     * @return the value, or null if no field has the name
+     */
+    public String get(String name) {
+        int index = indexOf(name, HeaderNames.lookup(name), 0);
+        return index == -1 ? null : getValue(index);
+    }
+
+    /**
+     * Returns the values of all fields with a name, in order.
+     *
+     * @param name the name, in any case
+     * @return the values, empty if no field has the name
+     */
+    public List<String> getAll(String name) {
+        String known = HeaderNames.lookup(name);
+        int index = indexOf(name, known, 0);
+        if (index == -1) {
+            return Collections.emptyList();
+        }
+        List<String> all = new ArrayList<>(2);
+        for (; index != -1; index = indexOf(name, known, index + 1)) {
+            all.add(getValue(index));
+        }
+        return all;
+    }
+
+    /**
+     * Tells whether a field has a name.
+     *
+     * @param name the name, in any case
+     * @return true if the name is present
+     */
+    public boolean contains(String name) {
+        return indexOf(name, HeaderNames.lookup(name), 0) != -1;
+    }
+
+    /**
+     * Adds a field after the existing ones, keeping any other with the same
+     * name.
+     *
+     * @param name  the name
+     * @param value the value
+     * @return these headers
+     */
+    public HttpHeaders add(String name, String value) {
+        int index = append();
+        names[index] = name;
+        knownNames[index] = HeaderNames.lookup(name);
+        values[index] = value;
+        return this;
+    }
+
+    /**
+     * Sets the value of a name, replacing the first field with it in place and
+     * removing the others, or adding a field if there is none.
+     *
+     * @param name  the name
+     * @param value the value
+     * @return these headers
+     */
+    public HttpHeaders set(String name, String value) {
+        String known = HeaderNames.lookup(name);
+        int index = indexOf(name, known, 0);
+        if (index == -1) {
+            return add(name, value);
+        }
+        names[index] = name;
+        values[index] = value;
+        removeFrom(name, known, index + 1);
+        return this;
+    }
+
+    /**
+     * Removes all fields with a name.
+     *
+     * @param name the name, in any case
+     * @return true if a field was removed
+     */
+    public boolean remove(String name) {
+        int before = size;
+        removeFrom(name, HeaderNames.lookup(name), 0);
+        return size != before;
+    }
+
+    /**
+     * Removes all fields.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(knownNames, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        source = null;
+    }
+
+    /**
+     * Passes each field to an action, in order.
+     *
+     * @param action takes the name and the value of each field
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(getName(i), getValue(i));
+        }
+    }
+
+    /**
+     * Adds a field parsed from a request head, whose Strings are created on
+     * first use. All parsed fields of one HttpHeaders point into the same head.
+     *
+     * @param head       the raw head bytes
+     * @param nameStart  the offset of the name
+     * @param nameEnd    the offset after the name
+     * @param valueStart the offset of the value
+     * @param valueEnd   the offset after the value
+     * @param knownName  the interned name if the header is well known, or null
+     */
+    void addParsed(byte[] head, int nameStart, int nameEnd, int valueStart, int valueEnd, String knownName) {
+        int index = append();
+        if (offsets == null || offsets.length < names.length * 4) {
+            offsets = offsets == null ? new int[names.length * 4] : Arrays.copyOf(offsets, names.length * 4);
+        }
+        source = head;
+        int offset = index * 4;
+        offsets[offset] = nameStart;
+        offsets[offset + 1] = nameEnd;
+        offsets[offset + 2] = valueStart;
+        offsets[offset + 3] = valueEnd;
+        knownNames[index] = knownName;
+    }
+
+    /**
+     * Makes room for one more field at the end.
+     *
+     * @return the index of the new field
+     */
+    private int append() {
+        if (size == names.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size * 2);
+            names = Arrays.copyOf(names, capacity);
+            knownNames = Arrays.copyOf(knownNames, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (offsets != null) {
+                offsets = Arrays.copyOf(offsets, capacity * 4);
+            }
+        }
+        return size++;
+    }
+
+    /**
+     * Finds the next field with a name. A well-known name is matched by
+     * reference only, since fields spelling it always carry its interned form.
+     *
+     * @param name  the name, in any case
+     * @param known the interned form of the name, or null if it is not well known
+     * @param from  the index to start at
+     * @return the index of the field, or -1 if there is none
+     */
+    private int indexOf(String name, String known, int from) {
+        for (int i = from; i < size; i++) {
+            if (matches(i, name, known)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether a field has a name.
+     *
+     * @param index the index of the field
+     * @param name  the name, in any case
+     * @param known the interned form of the name, or null if it is not well known
+     * @return true if the field has the name
+     */
+    private boolean matches(int index, String name, String known) {
+        if (known != null) {
+            return knownNames[index] == known;
+        }
+        if (knownNames[index] != null) {
+            return false;
+        }
+        return names[index] != null ? names[index].equalsIgnoreCase(name)
+                : HeaderNames.equalsIgnoreCase(source, offsets[index * 4], offsets[index * 4 + 1], name);
+    }
+
+    /**
+     * Removes the fields with a name from an index on, keeping the order of the
+     * others.
+     *
+     * @param name  the name, in any case
+     * @param known the interned form of the name, or null if it is not well known
+     * @param from  the index to start at
+     */
+    private void removeFrom(String name, String known, int from) {
+        int kept = from;
+        for (int i = from; i < size; i++) {
+            if (matches(i, name, known)) {
+                continue;
+            }
+            if (kept != i) {
+                names[kept] = names[i];
+                knownNames[kept] = knownNames[i];
+                values[kept] = values[i];
+                if (offsets != null) {
+                    System.arraycopy(offsets, i * 4, offsets, kept * 4, 4);
+                }
+            }
+            kept++;
+        }
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(knownNames, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+    }
+
+    /**
+     * Checks that an index designates a field.
+     *
+     * @param index the index
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Header index " + index + " out of " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getName(i)).append('=').append(getValue(i));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -1,10 +1,6 @@
 package com.ujjwalgarg.httpserver;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * The HttpServer class represents an HTTP server that listens on a specified
@@ -12,59 +8,175 @@ import java.util.Map;
  */
 public class HttpServer {
     private final int port; // Port on which the server listens for incoming connections
-    private final Map<String, Map<RequestMethod, RequestHandler>> handlers; // Map of route patterns to request handlers
+    private final Router router; // Compiled route patterns and their request handlers
+    private final ServerConfig config; // Connection settings shared by all connections
+    private final ServerMetrics metrics; // Instrumentation of the server
+    private AccessLog accessLog; // Log of served requests, or null
+    private volatile ServerEngine engine; // Engine serving connections, set by start()
+    private boolean gaugesRegistered; // Whether start() has registered the engine gauges
 
     /**
-     * Constructs an HttpServer object with the specified port.
+     * Constructs an HttpServer object with the specified port and the default
+     * configuration.
      * 
      * @param port the port on which the server listens for incoming connections
      */
     public HttpServer(int port) {
+        this(port, new ServerConfig());
+    }
+
+    /**
+     * Constructs an HttpServer object with the specified port and configuration.
+     * 
+     * @param port   the port on which the server listens for incoming connections
+     * @param config the connection settings of the server
+     */
+    public HttpServer(int port, ServerConfig config) {
         this.port = port;
-        this.handlers = new HashMap<>();
+        this.config = config;
+        this.router = new Router();
+        this.metrics = new ServerMetrics();
+    }
+
+    /**
+     * Returns the configuration of the server.
+     * 
+     * @return the server configuration
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the metrics of the server, which {@link MetricsHandler} serves.
+     * 
+     * @return the server metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the log receiving one line per served request. Logging happens off
+     * the request threads; entries are dropped rather than slowing requests
+     * down when the log falls behind, and the drop count is exported as the
+     * {@code http_access_log_dropped_entries} metric. Must be called before
+     * {@link #start()}.
+     * 
+     * @param accessLog the access log, or null for none
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+        if (accessLog != null) {
+            metrics.registerGauge("http_access_log_dropped_entries",
+                    "Access log entries dropped because the log fell behind.", accessLog::getDroppedCount);
+        }
     }
 
     /**
      * Adds a request handler for a specific HTTP method and route pattern.
      * 
+     * The pattern is either a template of literal segments and {@code {name}}
+     * placeholders, such as {@code /files/{filename}}, whose values are available
+     * through {@link Request#getPathParam(String)}, or a regular expression
+     * matched against the whole path. Literal segments take precedence over
+     * placeholders, and templates over regular expressions, which are tried in
+     * the order they were added.
+     * 
+     * Handlers can be added, replaced and removed while the server is running;
+     * requests being routed see the routes either before or after the change,
+     * and never wait for it.
+     * 
      * @param reqMethod the HTTP method (GET, POST, etc.)
-     * @param pattern   the route pattern (regex) to match incoming requests
+     * @param pattern   the route template or regex to match incoming requests
      * @param handler   the request handler to process incoming requests matching
      *                  the pattern and method
+     * @throws IllegalArgumentException if the pattern is not a valid regex
      */
     public void addHandler(RequestMethod reqMethod, String pattern, RequestHandler handler) {
-        // Ensure the map contains an entry for the pattern
-        if (!handlers.containsKey(pattern)) {
-            handlers.put(pattern, new HashMap<>());
-        }
+        router.addRoute(reqMethod, pattern, handler);
+    }
+
+    /**
+     * Removes the request handler of a specific HTTP method and route pattern,
+     * synchronous or asynchronous. Requests already routed to it complete;
+     * later ones no longer match it. This can be called while the server is
+     * running.
+     * 
+     * @param reqMethod the HTTP method (GET, POST, etc.)
+     * @param pattern   the route template or regex, exactly as it was added
+     * @return true if a handler was removed
+     */
+    public boolean removeHandler(RequestMethod reqMethod, String pattern) {
+        return router.removeRoute(reqMethod, pattern);
+    }
 
-        // Add the handler for the specified HTTP method and pattern
-        handlers.get(pattern).put(reqMethod, handler);
+    /**
+     * Adds an asynchronous request handler for a specific HTTP method and route
+     * pattern, with the timeout of the server configuration.
+     * 
+     * @param reqMethod the HTTP method (GET, POST, etc.)
+     * @param pattern   the route template or regex to match incoming requests
+     * @param handler   the handler starting the work for matching requests
+     * @throws IllegalArgumentException if the pattern is not a valid regex
+     * @see #addAsyncHandler(RequestMethod, String, AsyncRequestHandler, long)
+     */
+    public void addAsyncHandler(RequestMethod reqMethod, String pattern, AsyncRequestHandler handler) {
+        addAsyncHandler(reqMethod, pattern, handler, config.getAsyncTimeoutMillis());
+    }
+
+    /**
+     * Adds an asynchronous request handler for a specific HTTP method and route
+     * pattern. Patterns work as for {@link #addHandler}.
+     * 
+     * No thread waits for the handler: the NIO engine hands the connection back
+     * to its event loop and writes the response once the handler completes it.
+     * The blocking engine keeps its connection thread, which with virtual
+     * threads releases its carrier thread while waiting. Requests whose handler
+     * does not complete within the timeout are answered with 504 Gateway
+     * Timeout.
+     * 
+     * @param reqMethod     the HTTP method (GET, POST, etc.)
+     * @param pattern       the route template or regex to match incoming requests
+     * @param handler       the handler starting the work for matching requests
+     * @param timeoutMillis the time the handler has to complete the response, 0
+     *                      meaning no limit
+     * @throws IllegalArgumentException if the pattern is not a valid regex or
+     *                                  the timeout is negative
+     */
+    public void addAsyncHandler(RequestMethod reqMethod, String pattern, AsyncRequestHandler handler,
+            long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative");
+        }
+        router.addRoute(reqMethod, pattern, new AsyncHandlerAdapter(handler, timeoutMillis));
     }
 
     /**
      * Starts the HTTP server, listening for incoming connections on the specified
-     * port.
+     * port. This method blocks until the server is stopped.
      * 
-     * The server accepts incoming connections in a loop and spawns a new thread for
-     * each connection,
-     * which is then handled by a SocketConnectionHandler.
+     * Connections are served by the engine selected in the configuration: either
+     * blocking sockets with a thread per connection, or selector event loops
+     * handing requests to worker threads. In both cases the threads come from
+     * the execution mode of the configuration.
      */
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            serverSocket.setReuseAddress(true);
-            System.out.println("Listening on port: %d".formatted(port));
-
-            // Accept incoming connections in a loop
-            Socket clientSocket = null;
-            while ((clientSocket = serverSocket.accept()) != null) {
-                // Create a new SocketConnectionHandler for each connection and start it in a
-                // new thread
-                SocketConnectionHandler socketConnHandler = new SocketConnectionHandler(clientSocket, handlers);
-                Thread thread = new Thread(socketConnHandler);
-                thread.start();
-            }
+        RequestDispatcher dispatcher = new RequestDispatcher(router, config, metrics, accessLog);
+        this.engine = config.getEngineType() == EngineType.NIO
+                ? new NioServerEngine(dispatcher, config)
+                : new BlockingServerEngine(dispatcher, config);
+        // Registered here rather than in the constructor, which must not hand out this
+        if (!gaugesRegistered) {
+            gaugesRegistered = true;
+            metrics.registerGauge("http_server_active_threads",
+                    "Connections (blocking engine) or handlers (NIO engine) running.", this::getActiveCount);
+            metrics.registerGauge("http_server_queue_depth",
+                    "Connections or requests waiting for a thread of the bounded pool.", this::getQueueDepth);
+        }
 
+        try {
+            engine.start(port);
         } catch (IOException e) {
             // Handle IOException if occurred while creating the ServerSocket or accepting
             // connections
@@ -72,4 +184,36 @@ public class HttpServer {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Stops the HTTP server, making {@link #start()} return.
+     */
+    public void stop() {
+        ServerEngine engine = this.engine;
+        if (engine != null) {
+            engine.stop();
+        }
+    }
+
+    /**
+     * Returns the number of connections (blocking engine) or request handlers
+     * (NIO engine) currently running.
+     * 
+     * @return the active count, 0 if the server is not running
+     */
+    public int getActiveCount() {
+        ServerEngine engine = this.engine;
+        return engine == null ? 0 : engine.getActiveCount();
+    }
+
+    /**
+     * Returns the number of connections (blocking engine) or requests (NIO
+     * engine) waiting for a thread of the bounded pool.
+     * 
+     * @return the queue depth, 0 if the server is not running or not pooled
+     */
+    public int getQueueDepth() {
+        ServerEngine engine = this.engine;
+        return engine == null ? 0 : engine.getQueueDepth();
+    }
 }
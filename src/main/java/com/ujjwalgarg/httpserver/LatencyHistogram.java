@@ -0,0 +1,80 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class counts durations into fixed buckets, from 50
+ * microseconds to 10 seconds. Every bucket is a striped counter, so recording
+ * from many threads at once does not contend on a single memory location, and
+ * recording never allocates.
+ */
+class LatencyHistogram {
+
+    private static final long[] BOUNDS = { 50_000L, 100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L,
+            5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L }; // Upper bounds of the buckets, in nanoseconds
+    private static final String[] LABELS = { "5.0E-5", "1.0E-4", "2.5E-4", "5.0E-4", "0.001", "0.0025", "0.005",
+            "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1.0", "2.5", "5.0", "10.0", "+Inf" }; // Bounds in seconds, for export
+
+    private final LongAdder[] buckets; // Durations per bucket, the last one for those above every bound
+    private final LongAdder sumNanos; // Total of the recorded durations
+
+    /**
+     * Constructs an empty LatencyHistogram.
+     */
+    LatencyHistogram() {
+        this.buckets = new LongAdder[BOUNDS.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.sumNanos = new LongAdder();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return the count
+     */
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format.
+     *
+     * @param out    the text to append to
+     * @param name   the metric name
+     * @param labels the labels of the series, as {@code name="value"} pairs
+     *               separated by commas, or an empty String
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket").append(prefix).append("le=\"").append(LABELS[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String series = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(series).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(series).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,36 @@
+package com.ujjwalgarg.httpserver;
+
+/**
+ * The MetricsHandler class serves the metrics of a server in the Prometheus
+ * text format, for scraping by a monitoring system. It is not registered by
+ * default; add it to a route such as {@code /metrics} to expose the metrics.
+ */
+public class MetricsHandler implements RequestHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8"; // Prometheus text format
+
+    private final ServerMetrics metrics; // Metrics to serve
+
+    /**
+     * Constructs a MetricsHandler.
+     *
+     * @param metrics the metrics to serve, usually {@link HttpServer#getMetrics()}
+     */
+    public MetricsHandler(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Responds with the current metrics.
+     *
+     * @param req the HTTP request to handle
+     * @param res the HTTP response to populate
+     */
+    @Override
+    public void handle(Request req, Response res) {
+        res.setStatusCode(200);
+        res.setStatusMsg("OK");
+        res.addHeader(HeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+        res.setResponseBody(metrics.toPrometheus());
+    }
+}
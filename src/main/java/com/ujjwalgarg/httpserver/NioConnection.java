@@ -0,0 +1,684 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The NioConnection class holds the state of one non-blocking client
+ * connection. It parses requests from its read buffer as bytes arrive, hands
+ * each complete request to the worker pool, and writes the responses back once
+ * the handlers are done.
+ *
+ * Pipelined requests are handed to workers without waiting for the responses
+ * to the earlier ones, up to {@link ServerConfig#getMaxPipelinedRequests()} per
+ * connection; reading pauses at the cap. Each dispatched request reserves a
+ * slot in a queue, and responses are written strictly in slot order, whichever
+ * handler finishes first. Requests with unsafe methods never run alongside
+ * other requests of the connection, so their side effects happen in the order
+ * the client sent them.
+ *
+ * Unlike the blocking engine, request bodies are read on the event loop before
+ * the request is handed to a worker, so handlers never block on the network.
+ * Bodies are copied out of the read buffer as they arrive, bounded by
+ * {@link ServerConfig#getMaxBodySize()}, and chunked bodies are decoded on the
+ * way. Responses are likewise serialized in full by the worker, streamed
+ * bodies included, before the loop writes them.
+ *
+ * A single timeout on the timer wheel of the engine follows what the
+ * connection waits for: the next request, the rest of a head from its first
+ * byte, the next bytes of a body, or the client to take more of a response.
+ * Body and write timeouts restart whenever bytes move. An expired head or body
+ * is answered with 408 Request Timeout, the others close the connection.
+ */
+class NioConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024; // Size of the read buffer of a new connection
+    private static final int CHUNK_SCRATCH_SIZE = 8 * 1024; // Size of the array chunked bodies are decoded into
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(); // Interim response
+
+    /**
+     * The ResponseSlot class holds the response to one dispatched request until
+     * the responses before it have been written.
+     */
+    private static class ResponseSlot {
+        private final boolean safe; // Whether the request may run alongside others
+        private ByteBuffer head; // Serialized response, or its head if the body is separate
+        private ByteBuffer body; // Buffer body written after the head, or null
+        private FileRegion file; // File body written after the head, or null
+        private boolean close; // Whether the connection closes after the response
+        private boolean ready; // Whether the response has been filled in
+
+        /**
+         * Constructs an empty ResponseSlot.
+         *
+         * @param safe whether the request may run alongside others
+         */
+        ResponseSlot(boolean safe) {
+            this.safe = safe;
+        }
+    }
+
+    private final NioEventLoop eventLoop; // Loop owning this connection
+    private final NioServerEngine engine; // Engine providing the dispatcher, config and workers
+    private final ServerMetrics metrics; // Instrumentation of the server
+    private final SocketChannel channel; // Client channel
+    private final InetAddress address; // Address of the client, kept for the limiter once the channel is closed
+    private final String remote; // Address of the client, for the access log
+    private final SelectionKey key; // Registration of the channel with the loop selector
+    private final Queue<ResponseSlot> slots; // Responses of the dispatched requests, in request order
+    private final Queue<ByteBuffer> writeQueue; // Response bytes not yet written to the channel
+    private FileRegion pendingFile; // File body written once the write queue drains, or null
+    private final RequestParser parser; // Parses request heads from the read buffer
+    private Request pendingRequest; // Request whose head is parsed but which is not dispatched yet
+    private long parseNanos; // Time spent parsing the head of the next request so far
+    private boolean continuePending; // Whether the pending request still waits for 100 Continue
+    private boolean blocked; // Whether the pending request is complete but waits for earlier responses
+    private byte[] pendingBody; // Fixed-length body being received, grown as its bytes arrive
+    private int pendingBodyFilled; // Bytes of the fixed-length body received so far
+    private int pendingBodyLength; // Declared length of the fixed-length body
+    private byte[] chunkScratch; // Array chunked bodies are decoded into, allocated on first use
+    private ChunkedDecoder pendingDecoder; // Decoder of the chunked body being received
+    private ByteArrayOutputStream pendingChunks; // Decoded bytes of the chunked body being received
+    private ByteBuffer readBuffer; // Bytes read but not yet consumed, in write mode
+    private int unsafeInFlight; // Dispatched requests with unsafe methods whose response is not written
+    private boolean readingDone; // Whether no further requests are taken from the connection
+    private boolean inputClosed; // Whether the client has shut down its side of the connection
+    private boolean closeAfterWrite; // Whether the connection closes once the write queue drains
+    private int servedRequests; // Number of requests read from this connection
+    private final ConnectionTimeout timeout; // Timeout of what the connection waits for
+    private TimeoutPhase armedPhase; // Phase the timeout is armed for, or null
+    private long armedDeadline; // Expiry time of the armed timeout, from System.nanoTime()
+    private boolean progressed; // Whether bytes were read or written since the timeout was armed
+
+    /**
+     * Constructs a NioConnection for a channel registered with an event loop.
+     *
+     * @param eventLoop the loop owning the connection
+     * @param engine    the engine providing the dispatcher, config and workers
+     * @param channel   the client channel
+     * @param key       the registration of the channel with the loop selector
+     */
+    NioConnection(NioEventLoop eventLoop, NioServerEngine engine, SocketChannel channel, SelectionKey key) {
+        this.eventLoop = eventLoop;
+        this.engine = engine;
+        this.metrics = engine.getDispatcher().getMetrics();
+        this.channel = channel;
+        this.address = channel.socket().getInetAddress();
+        this.remote = address.getHostAddress();
+        this.key = key;
+        this.slots = new ArrayDeque<>();
+        this.writeQueue = new ArrayDeque<>();
+        ServerConfig config = engine.getConfig();
+        this.parser = new RequestParser(config.isStrictParsing(), config.getMaxHeaderSize(),
+                config.getMaxHeaderCount());
+        this.readBuffer = eventLoop.getBufferPool().acquire(INITIAL_BUFFER_SIZE);
+        // Expiry is handled on the loop thread like every other event of the connection
+        this.timeout = new ConnectionTimeout(engine.getTimer(),
+                phase -> eventLoop.execute(() -> onTimeout(phase)));
+        metrics.connectionOpened();
+        updateTimeout();
+    }
+
+    /**
+     * Reads the available bytes and dispatches the requests that are complete.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                // The client sent its last request, answer the ones still pending
+                inputClosed = true;
+                if (slots.isEmpty() && writeQueue.isEmpty() && pendingFile == null) {
+                    close();
+                } else {
+                    updateInterest();
+                }
+                return;
+            }
+            progressed |= read > 0;
+            metrics.addBytesIn(read);
+            processRequests();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Continues writing the pending response bytes.
+     */
+    void onWritable() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Parses requests from the read buffer and hands each of them to a worker
+     * once its body has arrived, until the buffer runs out, the cap on requests
+     * in flight is reached, or a request has to wait for earlier responses.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void processRequests() throws IOException {
+        int maxPipelined = engine.getConfig().getMaxPipelinedRequests();
+        readBuffer.flip();
+        try {
+            while (!readingDone && slots.size() < maxPipelined) {
+                if (pendingRequest == null) {
+                    Request req = new Request();
+                    long start = System.nanoTime();
+                    boolean parsed = parser.parse(readBuffer, req);
+                    parseNanos += System.nanoTime() - start;
+                    if (!parsed) {
+                        growIfFull(readBuffer.remaining() + 1);
+                        readBuffer.flip();
+                        break;
+                    }
+                    metrics.recordPhase(ServerMetrics.Phase.PARSE, parseNanos);
+                    parseNanos = 0;
+                    startBody(req);
+                    pendingRequest = req;
+                }
+                if (continuePending) {
+                    if (!slots.isEmpty()) {
+                        break; // An interim response must not overtake earlier responses
+                    }
+                    writeQueue.add(ByteBuffer.wrap(CONTINUE));
+                    continuePending = false;
+                }
+                if (!readBody()) {
+                    break; // Wait for the rest of the body
+                }
+                blocked = !canDispatch(pendingRequest);
+                if (blocked) {
+                    break;
+                }
+                Request req = pendingRequest;
+                pendingRequest = null;
+                dispatch(req);
+            }
+        } catch (HttpException e) {
+            respondInOrder(e.getStatusCode(), e.getStatusMsg());
+        }
+        readBuffer.compact();
+        flush();
+    }
+
+    /**
+     * Tells whether a complete request may be handed to a worker now. A request
+     * with an unsafe method waits until all earlier responses are written, and
+     * no request runs alongside one.
+     *
+     * @param req the request
+     * @return true if the request can be dispatched
+     */
+    private boolean canDispatch(Request req) {
+        return unsafeInFlight == 0 && (slots.isEmpty() || isSafe(req.getMethod()));
+    }
+
+    /**
+     * Tells whether a method is safe, that is without side effects that running
+     * it alongside other requests could reorder.
+     *
+     * @param method the request method
+     * @return true for GET, HEAD, OPTIONS and TRACE
+     */
+    private static boolean isSafe(RequestMethod method) {
+        return method == RequestMethod.GET || method == RequestMethod.HEAD
+                || method == RequestMethod.OPTIONS || method == RequestMethod.TRACE;
+    }
+
+    /**
+     * Reserves the place of a request in the response order and hands it to a
+     * worker.
+     *
+     * @param req the complete request
+     */
+    private void dispatch(Request req) {
+        servedRequests++;
+        int maxRequests = engine.getConfig().getMaxRequestsPerConnection();
+        boolean underLimit = maxRequests == 0 || servedRequests < maxRequests;
+        if (!req.isKeepAlive() || !underLimit) {
+            readingDone = true; // The connection closes after this response
+        }
+
+        ResponseSlot slot = new ResponseSlot(isSafe(req.getMethod()));
+        if (!slot.safe) {
+            unsafeInFlight++;
+        }
+        slots.add(slot);
+        if (!engine.getWorkers().execute(() -> handle(req, slot, underLimit))) {
+            fill(slot, ByteBuffer.wrap(basicResponse(503, "Service Unavailable")), null, null, true);
+            readingDone = true;
+        }
+    }
+
+    /**
+     * Prepares to receive the body of a request whose head has been parsed, and
+     * notes whether the client waits for {@code 100 Continue}.
+     *
+     * @param req the request
+     * @throws HttpException if the declared body is too large
+     */
+    private void startBody(Request req) throws HttpException {
+        if (!req.hasBody()) {
+            return;
+        }
+        long maxBodySize = engine.getConfig().getMaxBodySize();
+        long limit = maxBodySize > 0 ? Math.min(maxBodySize, Integer.MAX_VALUE - 8) : Integer.MAX_VALUE - 8;
+        if (req.isChunked()) {
+            pendingDecoder = new ChunkedDecoder(limit);
+            pendingChunks = new ByteArrayOutputStream();
+        } else if (req.getContentLength() > limit) {
+            throw new HttpException(413, "Content Too Large");
+        } else {
+            // Sized by what arrives rather than by what is declared, so heads alone cost no memory
+            pendingBodyLength = (int) req.getContentLength();
+            pendingBody = new byte[Math.min(pendingBodyLength, readBuffer.capacity())];
+            pendingBodyFilled = 0;
+        }
+        continuePending = req.expectsContinue();
+    }
+
+    /**
+     * Moves body bytes of the pending request out of the read buffer.
+     *
+     * @return true once the whole body has been received
+     * @throws HttpException if a chunked body is malformed or too large
+     */
+    private boolean readBody() throws HttpException {
+        if (pendingDecoder != null) {
+            if (chunkScratch == null) {
+                chunkScratch = new byte[CHUNK_SCRATCH_SIZE];
+            }
+            byte[] scratch = chunkScratch;
+            while (!pendingDecoder.isDone() && readBuffer.hasRemaining()) {
+                int n = pendingDecoder.decode(readBuffer, scratch, 0, scratch.length);
+                pendingChunks.write(scratch, 0, n);
+            }
+            if (!pendingDecoder.isDone()) {
+                return false;
+            }
+            pendingRequest.setBody(pendingChunks.toByteArray());
+            pendingDecoder = null;
+            pendingChunks = null;
+        } else if (pendingBody != null) {
+            int n = Math.min(readBuffer.remaining(), pendingBodyLength - pendingBodyFilled);
+            if (pendingBodyFilled + n > pendingBody.length) {
+                int capacity = (int) Math.min(pendingBodyLength, Math.max(pendingBodyFilled + n, 2L * pendingBody.length));
+                pendingBody = Arrays.copyOf(pendingBody, capacity);
+            }
+            readBuffer.get(pendingBody, pendingBodyFilled, n);
+            pendingBodyFilled += n;
+            if (pendingBodyFilled < pendingBodyLength) {
+                return false;
+            }
+            pendingRequest.setBody(pendingBody);
+            pendingBody = null;
+        }
+        return true;
+    }
+
+    /**
+     * Compacts the read buffer and grows it if it cannot hold the bytes still
+     * needed.
+     *
+     * @param needed the number of bytes the buffer must be able to hold
+     */
+    private void growIfFull(int needed) {
+        readBuffer.compact();
+        if (needed > readBuffer.capacity()) {
+            BufferPool pool = eventLoop.getBufferPool();
+            ByteBuffer larger = pool.acquire(Math.max(needed, readBuffer.capacity() * 2));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            pool.release(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * Dispatches a request on a worker thread. The response is serialized and
+     * handed back to the event loop once the handler completes it, which for
+     * asynchronous handlers happens after the worker has moved on.
+     *
+     * @param req        the parsed request
+     * @param slot       the place of the response in the connection order
+     * @param underLimit whether the connection may serve another request
+     */
+    private void handle(Request req, ResponseSlot slot, boolean underLimit) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response(out);
+        res.setKeepAlive(req.isKeepAlive() && underLimit);
+        res.setChunkedAllowed(!"HTTP/1.0".equals(req.getHttpVersion()));
+        res.setBodyDeferred(true);
+        CompletableFuture<Void> done;
+        try {
+            done = engine.getDispatcher().dispatch(req, res);
+        } catch (Exception e) {
+            done = CompletableFuture.failedFuture(e);
+        }
+        if (done.isDone()) {
+            finish(req, res, out, done, slot, start);
+            return;
+        }
+        CompletableFuture<Void> pending = done;
+        pending.whenComplete((value, error) -> {
+            // Serialize on a worker rather than on the thread completing the handler
+            if (!engine.getWorkers().execute(() -> finish(req, res, out, pending, slot, start))) {
+                finish(req, res, out, pending, slot, start);
+            }
+        });
+    }
+
+    /**
+     * Serializes the response of a handled request and hands it back to the
+     * event loop, or an error response if the handler failed.
+     *
+     * @param req   the request
+     * @param res   the response populated by the handler
+     * @param out   the stream the response is serialized into
+     * @param done  the completed result of the dispatch
+     * @param slot  the place of the response in the connection order
+     * @param start the time the request was dispatched, from
+     *              {@link System#nanoTime()}
+     */
+    private void finish(Request req, Response res, ByteArrayOutputStream out, CompletableFuture<Void> done,
+            ResponseSlot slot, long start) {
+        FileRegion file = null;
+        ByteBuffer body = null;
+        boolean keepAlive;
+        int statusCode = res.getStatusCode();
+        long bodyLength = 0;
+        try {
+            AsyncHandlerAdapter.await(done);
+            long serializing = System.nanoTime();
+            res.send();
+            metrics.recordPhase(ServerMetrics.Phase.WRITE, System.nanoTime() - serializing);
+            statusCode = res.getStatusCode();
+            bodyLength = res.getBodyLength();
+            file = res.getDeferredFileBody();
+            body = res.getDeferredBody();
+            keepAlive = res.isKeepAlive();
+        } catch (HttpException e) {
+            out.reset();
+            out.writeBytes(basicResponse(e.getStatusCode(), e.getStatusMsg()));
+            keepAlive = false;
+            statusCode = e.getStatusCode();
+        } catch (Exception e) {
+            e.printStackTrace();
+            out.reset();
+            out.writeBytes(basicResponse(500, "Server Error"));
+            keepAlive = false;
+            statusCode = 500;
+        }
+        engine.getDispatcher().recordResponse(req, remote, statusCode, bodyLength, System.nanoTime() - start);
+        if (file == null && res.getDeferredFileBody() != null) {
+            res.getDeferredFileBody().close(); // The handler failed after opening the file
+        }
+
+        ByteBuffer head = ByteBuffer.wrap(out.toByteArray());
+        ByteBuffer bufferBody = body;
+        FileRegion fileBody = file;
+        boolean close = !keepAlive;
+        eventLoop.execute(() -> {
+            fill(slot, head, bufferBody, fileBody, close);
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Fills in the response of a slot, on the loop thread.
+     *
+     * @param slot  the slot of the request
+     * @param head  the serialized response, or its head if the body is separate
+     * @param body  the buffer body sent after the head, or null
+     * @param file  the file body sent after the head, or null
+     * @param close whether the connection closes after the response
+     */
+    private void fill(ResponseSlot slot, ByteBuffer head, ByteBuffer body, FileRegion file, boolean close) {
+        if (!channel.isOpen()) {
+            if (file != null) {
+                file.close();
+            }
+            return;
+        }
+        slot.head = head;
+        slot.body = body;
+        slot.file = file;
+        slot.close = close;
+        slot.ready = true;
+    }
+
+    /**
+     * Writes as much of the responses as the socket accepts, moving on to the
+     * next slot only once the previous response is fully written and the next
+     * one is ready. Once a response is out, requests that were waiting for it
+     * are processed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void flush() throws IOException {
+        boolean written = false;
+        while (true) {
+            if (!writeQueue.isEmpty()) {
+                // Head and body buffers leave in a single gathering write
+                long n = channel.write(writeQueue.toArray(new ByteBuffer[0]));
+                metrics.addBytesOut(n);
+                progressed |= n > 0;
+                while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                    writeQueue.poll();
+                }
+                if (!writeQueue.isEmpty()) {
+                    updateInterest(); // Socket buffer is full, continue when the channel is writable
+                    return;
+                }
+            }
+            if (pendingFile != null) {
+                // Transfer the file body straight from the file to the socket
+                long n = pendingFile.transferTo(channel);
+                metrics.addBytesOut(n);
+                progressed |= n > 0;
+                if (!pendingFile.isDone()) {
+                    updateInterest();
+                    return;
+                }
+                pendingFile.close();
+                pendingFile = null;
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+
+            ResponseSlot slot = slots.peek();
+            if (slot == null || !slot.ready) {
+                break;
+            }
+            slots.poll();
+            if (!slot.safe) {
+                unsafeInFlight--;
+            }
+            writeQueue.add(slot.head);
+            if (slot.body != null) {
+                writeQueue.add(slot.body);
+            }
+            pendingFile = slot.file;
+            closeAfterWrite = slot.close;
+            written = true;
+        }
+
+        if (written && !readingDone) {
+            processRequests(); // Requests may be waiting in the read buffer
+        } else if (inputClosed && slots.isEmpty()) {
+            close();
+        } else {
+            updateInterest();
+        }
+    }
+
+    /**
+     * Queues a response with an empty body after the responses to the earlier
+     * requests, and closes the connection once it is written.
+     *
+     * @param statusCode the HTTP status code
+     * @param statusMsg  the HTTP status message
+     */
+    private void respondInOrder(int statusCode, String statusMsg) {
+        ResponseSlot slot = new ResponseSlot(true);
+        slots.add(slot);
+        fill(slot, ByteBuffer.wrap(basicResponse(statusCode, statusMsg)), null, null, true);
+        pendingRequest = null;
+        readingDone = true;
+    }
+
+    /**
+     * Watches the channel for writability while response bytes are pending,
+     * and for readability while the connection can take more requests.
+     */
+    private void updateInterest() {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!writeQueue.isEmpty() || pendingFile != null) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (!readingDone && !inputClosed && !blocked && !continuePending
+                && slots.size() < engine.getConfig().getMaxPipelinedRequests()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+        updateTimeout();
+    }
+
+    /**
+     * Arms the timeout for what the connection now waits for. Idle and header
+     * timeouts are armed once when the wait starts; body and write timeouts are
+     * armed again whenever bytes moved. Nothing is timed while requests are
+     * with the handlers.
+     */
+    private void updateTimeout() {
+        ServerConfig config = engine.getConfig();
+        TimeoutPhase phase;
+        int millis;
+        if (!writeQueue.isEmpty() || pendingFile != null) {
+            phase = TimeoutPhase.WRITE;
+            millis = config.getWriteTimeoutMillis();
+        } else if (!slots.isEmpty() || readingDone || inputClosed) {
+            phase = null;
+            millis = 0;
+        } else if (pendingRequest != null) {
+            phase = TimeoutPhase.BODY;
+            millis = config.getBodyTimeoutMillis();
+        } else if (readBuffer.position() > 0) {
+            phase = TimeoutPhase.HEADER;
+            millis = config.getHeaderTimeoutMillis();
+        } else {
+            phase = TimeoutPhase.IDLE;
+            millis = config.getIdleTimeoutMillis();
+        }
+
+        boolean restart = progressed && (phase == TimeoutPhase.BODY || phase == TimeoutPhase.WRITE);
+        progressed = false;
+        if (phase == armedPhase && !restart) {
+            return;
+        }
+        armedPhase = phase;
+        if (millis == 0) {
+            timeout.cancel();
+        } else {
+            armedDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            timeout.armAt(phase, armedDeadline);
+        }
+    }
+
+    /**
+     * Handles an expired timeout on the loop thread. A head or body that did
+     * not arrive in time is answered with 408 Request Timeout; an idle
+     * connection or a client not reading its response is closed.
+     *
+     * @param phase the phase that timed out
+     */
+    private void onTimeout(TimeoutPhase phase) {
+        // The connection may have moved on while the expiry was queued
+        if (!channel.isOpen() || phase != armedPhase || System.nanoTime() - armedDeadline < 0) {
+            return;
+        }
+        armedPhase = null;
+        metrics.timedOut(phase);
+        if ((phase == TimeoutPhase.HEADER || phase == TimeoutPhase.BODY) && slots.isEmpty()) {
+            respondInOrder(408, "Request Timeout");
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        } else {
+            close();
+        }
+    }
+
+    /**
+     * Closes the connection and removes it from its event loop.
+     */
+    void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        metrics.connectionClosed();
+        timeout.cancel();
+        engine.getLimiter().release(address);
+        key.cancel();
+        try {
+            if (pendingFile != null) {
+                pendingFile.close();
+                pendingFile = null;
+            }
+            for (ResponseSlot slot : slots) {
+                if (slot.file != null) {
+                    slot.file.close();
+                }
+            }
+            slots.clear();
+            eventLoop.getBufferPool().release(readBuffer);
+        } finally {
+            // Even if releasing failed, e.g. a buffer released twice, the socket must not leak
+            readBuffer = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            eventLoop.unregister(this);
+        }
+    }
+
+    /**
+     * Serializes a response with an empty body that closes the connection.
+     *
+     * @param statusCode the HTTP status code
+     * @param statusMsg  the HTTP status message
+     * @return the serialized response
+     */
+    private static byte[] basicResponse(int statusCode, String statusMsg) {
+        return "HTTP/1.1 %d %s\r\ncontent-length: 0\r\nconnection: close\r\n\r\n"
+                .formatted(statusCode, statusMsg).getBytes();
+    }
+}
@@ -0,0 +1,184 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The NioEventLoop class owns a selector and all connections registered with
+ * it. Connections are only ever touched from the loop thread; other threads hand
+ * work to the loop through {@link #execute(Runnable)}.
+ *
+ * The read buffers of the connections come from a {@link BufferPool} of the
+ * loop, so a connection closing hands its buffer straight to the next one.
+ */
+class NioEventLoop implements Runnable {
+
+    private static final int MAX_FREE_BUFFERS = 64; // Free read buffers kept in each size class
+
+    private final NioServerEngine engine; // Engine providing the dispatcher, config and workers
+    private final Selector selector; // Selector multiplexing the connections of this loop
+    private final Queue<Runnable> tasks; // Work submitted by other threads
+    private final Set<NioConnection> connections; // Open connections, only used on the loop thread
+    private final BufferPool bufferPool; // Read buffers of the connections of this loop
+    private volatile boolean running; // Cleared by shutdown()
+
+    /**
+     * Constructs a NioEventLoop for the specified engine.
+     *
+     * @param engine the engine the loop belongs to
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(NioServerEngine engine) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.connections = new HashSet<>();
+        this.bufferPool = new BufferPool(MAX_FREE_BUFFERS, engine.getConfig().isBufferLeakDetection());
+        this.running = true;
+    }
+
+    /**
+     * Registers a freshly accepted channel with this loop.
+     *
+     * @param channel the accepted client channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, engine, channel, key);
+                key.attach(connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                e.printStackTrace();
+                engine.getLimiter().release(channel.socket().getInetAddress());
+                try {
+                    channel.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the loop thread and wakes the selector up to pick it up.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the pool the connections of this loop take their read buffers
+     * from. It must only be used on the loop thread.
+     *
+     * @return the buffer pool
+     */
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Forgets a connection once it has been closed.
+     *
+     * @param connection the closed connection
+     */
+    void unregister(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Stops the loop; its connections are closed by the loop thread on exit.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Selects ready channels and runs submitted tasks, timeouts included, until
+     * the loop is shut down. An unchecked exception thrown by a task is logged,
+     * and one thrown by a connection closes that connection only, so the loop
+     * keeps serving the others.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                // Run work handed over by the acceptor and the workers
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        System.out.println("Error in event loop task");
+                        e.printStackTrace();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (RuntimeException e) {
+                        abort(connection, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error in event loop");
+            e.printStackTrace();
+        } finally {
+            for (NioConnection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            bufferPool.clear();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes a connection that failed with an unchecked exception.
+     *
+     * @param connection the connection
+     * @param e          the exception
+     */
+    private void abort(NioConnection connection, RuntimeException e) {
+        System.out.println("Error in connection, closing it");
+        e.printStackTrace();
+        try {
+            connection.close();
+        } catch (RuntimeException err) {
+            err.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NioServerEngine class serves connections with non-blocking channels. The
+ * acceptor threads of a {@link ServerListener}, starting with the thread
+ * calling {@link #start(int)}, accept connections and hand them round robin to
+ * a fixed set of {@link NioEventLoop}s, which read and write the sockets.
+ * Complete requests are handed to a {@link ConnectionExecutor} so that slow
+ * handlers never stall an event loop. The timeouts of all connections are
+ * tracked by a single {@link TimerWheel}.
+ */
+class NioServerEngine implements ServerEngine {
+
+    private static final long TICK_MILLIS = 100; // Precision of the connection timeouts
+    private static final int WHEEL_SIZE = 512; // Buckets of the timer wheel, one turn every 51.2 seconds
+
+    private final RequestDispatcher dispatcher; // Routes requests to their handlers
+    private final ServerConfig config; // Connection settings of the server
+    private volatile ServerListener listener; // Listening sockets and acceptors, set while the engine runs
+    private NioEventLoop[] eventLoops; // Event loops owning the accepted connections
+    private ConnectionExecutor workers; // Executor running the request handlers
+    private ConnectionLimiter limiter; // Limits on open connections
+    private TimerWheel timer; // Timer wheel tracking the connection timeouts
+
+    /**
+     * Constructs a NioServerEngine with the specified dispatcher and
+     * configuration.
+     *
+     * @param dispatcher the dispatcher routing requests to their handlers
+     * @param config     the connection settings of the server
+     */
+    NioServerEngine(RequestDispatcher dispatcher, ServerConfig config) {
+        this.dispatcher = dispatcher;
+        this.config = config;
+    }
+
+    /**
+     * Returns the dispatcher routing requests to their handlers.
+     *
+     * @return the dispatcher
+     */
+    RequestDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the configuration of the server.
+     *
+     * @return the server configuration
+     */
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the executor running the request handlers.
+     *
+     * @return the worker executor
+     */
+    ConnectionExecutor getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Returns the limits on open connections, whose permits the connections
+     * give back when closed.
+     *
+     * @return the connection limiter
+     */
+    ConnectionLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Returns the timer wheel tracking the connection timeouts.
+     *
+     * @return the timer wheel
+     */
+    TimerWheel getTimer() {
+        return timer;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        this.workers = new ConnectionExecutor(config, "http-worker-");
+        this.limiter = new ConnectionLimiter(config);
+        this.timer = new TimerWheel(TICK_MILLIS, WHEEL_SIZE);
+        timer.start("http-timer");
+
+        this.eventLoops = new NioEventLoop[config.getEventLoopThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(this);
+            Thread thread = new Thread(eventLoops[i], "http-event-loop-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ServerListener listener = new ServerListener(config, limiter, dispatcher.getMetrics());
+        this.listener = listener;
+        try {
+            listener.bind(port);
+
+            // Accept incoming connections and spread them over the event loops
+            AtomicInteger next = new AtomicInteger();
+            listener.accept("http-acceptor-", clientChannel -> {
+                int index = Math.floorMod(next.getAndIncrement(), eventLoops.length);
+                eventLoops[index].register(clientChannel);
+            });
+        } finally {
+            stop();
+        }
+    }
+
+    @Override
+    public void stop() {
+        ServerListener listener = this.listener;
+        if (listener != null) {
+            listener.close();
+        }
+        if (eventLoops != null) {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        return workers == null ? 0 : workers.getActiveCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return workers == null ? 0 : workers.getQueueDepth();
+    }
+}
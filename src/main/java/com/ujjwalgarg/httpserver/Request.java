@@ -1,38 +1,66 @@
 package com.ujjwalgarg.httpserver;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * The Request class represents an HTTP request.
- * It includes methods to parse and retrieve details about the request such as
- * method, path, headers, and query parameters.
+ * It includes methods to retrieve details about the request such as method,
+ * path, headers, and query parameters.
+ *
+ * Requests are filled by {@link RequestParser}, which keeps the raw head bytes
+ * and the offsets of each part. Strings for the path, header values and query
+ * parameters are only created, and then cached, when they are first asked for.
+ *
+ * The body is not read before the handler runs. Handlers stream it through
+ * {@link #getBodyStream()} or {@link #getBodyChannel()}, or ask for all of it
+ * at once with {@link #getRequestBody()}, which buffers it on first use.
+ *
+ * A blocking connection reuses one Request for all of its requests, emptied by
+ * {@link #reset()} in between, so the head array and the header tables are only
+ * allocated again when a request outgrows them.
  */
 public class Request {
+    private static final int INITIAL_HEADER_CAPACITY = 16; // Headers a request has room for before growing
+
     private RequestMethod method; // HTTP method (e.g., GET, POST)
-    private String path; // Request path (e.g., /index.html)
     private String httpVersion; // HTTP version (e.g., HTTP/1.1)
-    private final Map<String, String> headers; // Stores HTTP headers
-    private final Map<String, String> queryParameters; // Stores query parameters
-    private String requestBody; // Body of the request
-    private final BufferedReader in; // BufferedReader to read the request from
+    private byte[] head; // Raw request line and headers, possibly followed by unused bytes
+    private int targetStart; // Offset of the request target in the head
+    private int targetEnd; // Offset after the request target in the head
+    private String path; // Request path (e.g., /index.html), created on first use
+    private String queryString; // Raw query string, created on first use
+    private Map<String, String> queryParameters; // Stores query parameters, created on first use
+    private Map<String, String> pathParams; // Values captured by the matched route
+    private String route; // Pattern of the matched route, or null
+    private final HttpHeaders headers; // Header fields, pointing into the head
+    private long contentLength; // Value of the Content-Length header, -1 if absent
+    private boolean chunked; // Whether the body is sent with chunked transfer coding
+    private InputStream bodyStream; // Stream of the body, framed by the engine
+    private ReadableByteChannel bodyChannel; // Channel view of the body stream, created on first use
+    private byte[] bufferedBody; // Remaining body bytes, read on first use of getRequestBody()
+    private String requestBody; // Body of the request as text, created on first use
 
     /**
-     * Constructs a Request object with the specified BufferedReader.
-     * 
-     * @param in the BufferedReader to read the request from
+     * Constructs an empty Request to be filled by a {@link RequestParser}.
      */
-    public Request(BufferedReader in) {
-        this.in = in;
-        this.headers = new HashMap<>();
-        this.queryParameters = new HashMap<>();
+    Request() {
+        this.headers = new HttpHeaders(INITIAL_HEADER_CAPACITY);
+        this.pathParams = Collections.emptyMap();
+        this.contentLength = -1;
+        this.bodyStream = InputStream.nullInputStream();
     }
 
     /**
      * Returns the HTTP method of the request.
-     * 
+     *
      * @return the method
      */
     public RequestMethod getMethod() {
@@ -40,17 +68,36 @@ public class Request {
     }
 
     /**
-     * Returns the path of the request.
-     * 
+     * Returns the path of the request, without the query string.
+     *
      * @return the path
      */
     public String getPath() {
+        if (path == null) {
+            int end = queryStart();
+            path = new String(head, targetStart, (end == -1 ? targetEnd : end) - targetStart,
+                    StandardCharsets.UTF_8);
+        }
         return path;
     }
 
+    /**
+     * Returns the query string of the request, the part of the request target
+     * after the {@code ?}.
+     *
+     * @return the query string, or null if the request has none
+     */
+    public String getQueryString() {
+        int start = queryStart();
+        if (queryString == null && start != -1) {
+            queryString = new String(head, start + 1, targetEnd - start - 1, StandardCharsets.UTF_8);
+        }
+        return queryString;
+    }
+
     /**
      * Returns the HTTP version of the request.
-     * 
+     *
      * @return the HTTP version
      */
     public String getHttpVersion() {
@@ -58,127 +105,388 @@ public class Request {
     }
 
     /**
-     * Returns the all headers of the request.
-     * 
-     * @return a map of headers
+     * Returns the headers of the request, in the order they were sent, with
+     * lower-case names.
+     *
+     * @return the headers
      */
-    public Map<String, String> getHeaders() {
+    public HttpHeaders getHeaders() {
         return headers;
     }
 
     /**
      * Returns the value of a specific header.
-     * 
-     * @param key the name of the header
-     * @return the value of the header
+     *
+     * @param key the name of the header, in any case
+     * @return the value of the header, or null if it is absent
      */
     public String getHeader(String key) {
         return headers.get(key);
     }
 
     /**
-     * Returns the body of the request.
-     * 
+     * Returns the body of the request as a stream. The body is read from the
+     * connection as the stream is consumed, without being buffered.
+     *
+     * @return the body stream, empty if the request has no body
+     */
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    /**
+     * Returns the body of the request as a channel, which reads from the same
+     * stream as {@link #getBodyStream()}.
+     *
+     * @return the body channel
+     */
+    public ReadableByteChannel getBodyChannel() {
+        if (bodyChannel == null) {
+            bodyChannel = Channels.newChannel(bodyStream);
+        }
+        return bodyChannel;
+    }
+
+    /**
+     * Returns the body of the request. The first call reads whatever is left of
+     * the body stream into memory; use {@link #getBodyStream()} for bodies that
+     * should not be buffered.
+     *
+     * @return the request body bytes
+     * @throws IOException if the body cannot be read
+     */
+    public byte[] getRequestBodyBytes() throws IOException {
+        if (bufferedBody == null) {
+            bufferedBody = bodyStream.readAllBytes();
+        }
+        return bufferedBody;
+    }
+
+    /**
+     * Returns the body of the request as UTF-8 text. The first call reads
+     * whatever is left of the body stream into memory.
+     *
      * @return the request body
+     * @throws IOException if the body cannot be read
      */
-    public String getRequestBody() {
+    public String getRequestBody() throws IOException {
+        if (requestBody == null) {
+            requestBody = new String(getRequestBodyBytes(), StandardCharsets.UTF_8);
+        }
         return requestBody;
     }
 
+    /**
+     * Tells whether the client wants the connection to stay open after this
+     * request. HTTP/1.1 connections are persistent unless the client sends
+     * {@code Connection: close}, while HTTP/1.0 connections are only persistent
+     * when the client explicitly asks for {@code Connection: keep-alive}.
+     *
+     * @return true if the connection should be kept alive, false otherwise
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader(HeaderNames.CONNECTION);
+        if ("HTTP/1.0".equals(httpVersion)) {
+            return __hasConnectionToken(connection, "keep-alive");
+        }
+        return !__hasConnectionToken(connection, "close");
+    }
+
+    /**
+     * Tells whether a comma separated header lists a token, such as
+     * {@code upgrade} in Connection or {@code h2c} in Upgrade.
+     *
+     * @param name  the header name
+     * @param token the token to look for, in any case
+     * @return true if the token is present
+     */
+    boolean hasHeaderToken(String name, String token) {
+        return __hasConnectionToken(getHeader(name), token);
+    }
+
     /**
      * Returns the query parameters of the request.
-     * 
+     *
      * @return a map of query parameters
      */
     public Map<String, String> getQueryParameters() {
+        if (this.queryParameters == null) {
+            this.queryParameters = __parseQueryParameters();
+        }
         return this.queryParameters;
     }
 
     /**
      * Returns the value of a specific query parameter.
-     * 
+     *
      * @param key the name of the query parameter
      * @return the value of the query parameter
      */
     public String getQueryParameter(String key) {
-        return this.queryParameters.get(key);
+        return getQueryParameters().get(key);
     }
 
     /**
-     * Parses the HTTP request from the BufferedReader.
-     * 
-     * @return true if the request was parsed successfully, false otherwise
-     * @throws IOException if an I/O error occurs
+     * Returns the values captured from the path by the matched route, such as
+     * {@code filename} for the route {@code /files/{filename}}.
+     *
+     * @return a map of path parameters
      */
-    public boolean parse() throws IOException {
-        // Read and parse the request line
-        String reqLine = this.in.readLine();
-        String[] splittedReqLine = reqLine.split(" ");
-        System.out.println(reqLine);
+    public Map<String, String> getPathParams() {
+        return pathParams;
+    }
 
-        this.method = RequestMethod.valueOf(splittedReqLine[0]);
-        this.path = splittedReqLine[1];
-        this.httpVersion = splittedReqLine[2].substring(0, splittedReqLine[2].length() - 1);
+    /**
+     * Returns the value of a specific path parameter.
+     *
+     * @param key the name of the path parameter
+     * @return the value of the path parameter, or null if the route has none
+     */
+    public String getPathParam(String key) {
+        return pathParams.get(key);
+    }
 
-        // Parse query parameters
-        if (!this.__parseQueryParameters()) {
-            return false;
-        }
+    /**
+     * Sets the values captured from the path by the matched route.
+     *
+     * @param pathParams a map of path parameters
+     */
+    void setPathParams(Map<String, String> pathParams) {
+        this.pathParams = pathParams;
+    }
 
-        // Parse headers
-        while (true) {
-            String headerLine = this.in.readLine();
-            System.out.println(headerLine);
-            if (headerLine.length() == 0) {
-                break;
-            }
+    /**
+     * Returns the pattern of the route the request matched, as it was
+     * registered.
+     *
+     * @return the route pattern, or null if no route matched
+     */
+    public String getRoute() {
+        return route;
+    }
 
-            int headerDivider = headerLine.indexOf(":");
-            if (headerDivider == -1) {
-                return false;
-            }
+    /**
+     * Sets the pattern of the route the request matched.
+     *
+     * @param route the route pattern
+     */
+    void setRoute(String route) {
+        this.route = route;
+    }
 
-            headers.put(headerLine.substring(0, headerDivider).toLowerCase(),
-                    headerLine.substring(headerDivider + 2));
+    /**
+     * Returns the value of the Content-Length header.
+     *
+     * @return the declared body length, or -1 if the header is absent
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Sets the value of the Content-Length header, once validated by the parser.
+     *
+     * @param contentLength the declared body length
+     */
+    void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Tells whether the body is sent with chunked transfer coding.
+     *
+     * @return true if the body is chunked
+     */
+    boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * Sets whether the body is sent with chunked transfer coding, once validated
+     * by the parser.
+     *
+     * @param chunked true if the body is chunked
+     */
+    void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    /**
+     * Tells whether the request has a body to read.
+     *
+     * @return true if a Content-Length above zero or chunked coding was sent
+     */
+    boolean hasBody() {
+        return chunked || contentLength > 0;
+    }
+
+    /**
+     * Tells whether the client waits for {@code 100 Continue} before sending the
+     * body.
+     *
+     * @return true if the request carries {@code Expect: 100-continue}
+     */
+    boolean expectsContinue() {
+        return "HTTP/1.1".equals(httpVersion) && "100-continue".equalsIgnoreCase(getHeader(HeaderNames.EXPECT));
+    }
+
+    /**
+     * Sets the stream the body is read from.
+     *
+     * @param bodyStream the body stream
+     */
+    void setBodyStream(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * Sets a body that has already been read completely.
+     *
+     * @param body the bytes of the body
+     */
+    void setBody(byte[] body) {
+        this.bodyStream = new ByteArrayInputStream(body);
+    }
+
+    /**
+     * Returns an array the parser can copy a head into, the one of the previous
+     * request if it is large enough.
+     *
+     * @param length the length of the head
+     * @return an array of at least that length
+     */
+    byte[] headBuffer(int length) {
+        if (head == null || head.length < length) {
+            head = new byte[length];
         }
+        return head;
+    }
 
-        // Parse request body
-        StringBuilder sb = new StringBuilder();
-        while (this.in.ready()) {
-            sb.append((char) this.in.read());
+    /**
+     * Empties the request so it can be filled by the next request of the
+     * connection. The head array and header tables are kept.
+     */
+    void reset() {
+        method = null;
+        httpVersion = null;
+        targetStart = 0;
+        targetEnd = 0;
+        path = null;
+        queryString = null;
+        queryParameters = null;
+        pathParams = Collections.emptyMap();
+        route = null;
+        headers.clear();
+        contentLength = -1;
+        chunked = false;
+        bodyStream = InputStream.nullInputStream();
+        bodyChannel = null;
+        bufferedBody = null;
+        requestBody = null;
+    }
+
+    /**
+     * Records the request line parsed from the head.
+     *
+     * @param head        the raw head bytes, the array of
+     *                    {@link #headBuffer(int)}
+     * @param method      the HTTP method
+     * @param targetStart the offset of the request target
+     * @param targetEnd   the offset after the request target
+     * @param httpVersion the HTTP version
+     */
+    void setRequestLine(byte[] head, RequestMethod method, int targetStart, int targetEnd, String httpVersion) {
+        this.head = head;
+        this.method = method;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.httpVersion = httpVersion;
+    }
+
+    /**
+     * Replaces the HTTP version, for requests that arrived over another
+     * protocol than the one their head was parsed as.
+     *
+     * @param httpVersion the HTTP version
+     */
+    void setHttpVersion(String httpVersion) {
+        this.httpVersion = httpVersion;
+    }
+
+    /**
+     * Records a header parsed from the head.
+     *
+     * @param nameStart  the offset of the name
+     * @param nameEnd    the offset after the name
+     * @param valueStart the offset of the value
+     * @param valueEnd   the offset after the value
+     * @param knownName  the interned name if the header is well known, or null
+     */
+    void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd, String knownName) {
+        headers.addParsed(head, nameStart, nameEnd, valueStart, valueEnd, knownName);
+    }
+
+    /**
+     * Finds the start of the query string in the request target.
+     *
+     * @return the offset of the {@code ?}, or -1 if there is none
+     */
+    private int queryStart() {
+        for (int i = targetStart; i < targetEnd; i++) {
+            if (head[i] == '?') {
+                return i;
+            }
         }
-        this.requestBody = sb.toString();
+        return -1;
+    }
 
-        return true;
+    /**
+     * Checks whether a comma separated Connection header value contains a token.
+     *
+     * @param headerValue the value of the Connection header, may be null
+     * @param token       the token to look for (e.g., close, keep-alive)
+     * @return true if the token is present, false otherwise
+     */
+    private static boolean __hasConnectionToken(String headerValue, String token) {
+        if (headerValue == null) {
+            return false;
+        }
+        for (String part : headerValue.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Parses the query parameters from the request path.
-     * 
-     * @return true if query parameters were parsed successfully, false otherwise
+     * Parses the query parameters from the query string.
+     *
+     * @return a map of query parameters
      */
-    private boolean __parseQueryParameters() {
-        int queryParamsStartIndex = this.path.indexOf("?");
-        if (queryParamsStartIndex == -1) {
-            return true;
+    private Map<String, String> __parseQueryParameters() {
+        String queryParams = getQueryString();
+        if (queryParams == null) {
+            return Collections.emptyMap();
         }
 
-        String queryParams = this.path.substring(queryParamsStartIndex + 1); // +1 to skip the "?"
+        Map<String, String> parameters = new HashMap<>();
         for (String parameter : queryParams.split("&")) {
-            if (parameter.indexOf("=") != -1) {
-                String[] keyVal = parameter.split("=");
-                this.queryParameters.put(keyVal[0], keyVal[1]);
+            int divider = parameter.indexOf("=");
+            if (divider != -1) {
+                parameters.put(parameter.substring(0, divider), parameter.substring(divider + 1));
             } else {
-                this.queryParameters.put(parameter, null);
+                parameters.put(parameter, null);
             }
         }
 
-        return true;
+        return parameters;
     }
 
     @Override
     public String toString() {
-        return "Request [method=" + method + ", path=" + path + ", httpVersion=" + httpVersion + ", headers=" + headers
-                + ", queryParameters=" + queryParameters + ", requestBody=" + requestBody + "]";
+        return "Request [method=" + method + ", path=" + getPath() + ", httpVersion=" + httpVersion + ", headers="
+                + getHeaders() + ", queryParameters=" + getQueryParameters() + ", contentLength=" + contentLength
+                + ", chunked=" + chunked + "]";
     }
 }
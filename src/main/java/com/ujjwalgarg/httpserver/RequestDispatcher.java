@@ -0,0 +1,129 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The RequestDispatcher class finds the handler registered for a request and
+ * lets it populate the response. It is shared by all server engines so that
+ * routing behaves the same regardless of how connections are served.
+ */
+class RequestDispatcher {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null); // Result of synchronous handlers
+
+    private final Router router; // Compiled routes of the server
+    private final ServerConfig config; // Response settings of the server
+    private final ServerMetrics metrics; // Instrumentation of the server
+    private final AccessLog accessLog; // Log of served requests, or null
+
+    /**
+     * Constructs a RequestDispatcher over the specified router.
+     *
+     * @param router    the compiled routes of the server
+     * @param config    the server configuration holding the compression settings
+     * @param metrics   the metrics recording the route and handler phases
+     * @param accessLog the log of served requests, or null
+     */
+    RequestDispatcher(Router router, ServerConfig config, ServerMetrics metrics, AccessLog accessLog) {
+        this.router = router;
+        this.config = config;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Returns the metrics of the server, for the engines to record their own
+     * phases.
+     *
+     * @return the server metrics
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Records a request once its response has been sent, in the metrics and in
+     * the access log.
+     *
+     * @param req        the request
+     * @param remote     the address of the client
+     * @param statusCode the status code of the response
+     * @param bodyBytes  the body bytes sent
+     * @param nanos      the time from dispatch to the end of the response
+     */
+    void recordResponse(Request req, String remote, int statusCode, long bodyBytes, long nanos) {
+        metrics.recordRequest(req.getMethod(), req.getRoute(), statusCode, nanos);
+        if (accessLog != null) {
+            accessLog.log(req, remote, statusCode, bodyBytes, nanos);
+        }
+    }
+
+    /**
+     * Dispatches a request to its handler. If no route matches, the response is
+     * set to 404 Not Found, and if the route has no handler for the request
+     * method, to 405 Method Not Allowed. HEAD requests are served by the GET
+     * handler when the route has no HEAD handler, and never get a body.
+     *
+     * Synchronous handlers run to completion before this method returns.
+     * Asynchronous handlers are only started, and the engine sends the
+     * response once the returned future completes. Either way, conditional GET
+     * requests are then answered with 304 Not Modified when they can be.
+     *
+     * @param req the parsed request
+     * @param res the response to populate
+     * @return a future completed once the response is populated, or
+     *         exceptionally with an {@link HttpException} for the error response
+     *         to send instead
+     * @throws IOException if a synchronous handler fails with an I/O error
+     */
+    CompletableFuture<Void> dispatch(Request req, Response res) throws IOException {
+        // Find the route for the request path
+        long start = System.nanoTime();
+        Router.Match match = router.match(req.getPath());
+        long routed = System.nanoTime();
+        metrics.recordPhase(ServerMetrics.Phase.ROUTE, routed - start);
+
+        // If no route was found, respond with 404 Not Found
+        if (match == null) {
+            res.setStatusCode(404);
+            res.setStatusMsg("Not Found");
+            return DONE;
+        }
+
+        // Find the handler for the request method
+        req.setRoute(match.getPattern());
+        RequestHandler handler = match.getHandler(req.getMethod());
+        if (req.getMethod() == RequestMethod.HEAD) {
+            res.setHeadOnly(true);
+            if (handler == null) {
+                handler = match.getHandler(RequestMethod.GET);
+            }
+        }
+        if (handler == null) {
+            res.setStatusCode(405);
+            res.setStatusMsg("Method not allowed");
+            return DONE;
+        }
+
+        req.setPathParams(match.getPathParams());
+        if (config.isCompression()) {
+            res.setCompression(GzipEncoder.accepts(req.getHeader(HeaderNames.ACCEPT_ENCODING)),
+                    config.getCompressionMinSize());
+        }
+        if (handler instanceof AsyncHandlerAdapter async) {
+            CompletableFuture<Void> done = async.start(req, res).whenComplete((value, error) -> metrics
+                    .recordPhase(ServerMetrics.Phase.HANDLER, System.nanoTime() - routed));
+            return config.isConditionalGet() ? done.thenRun(() -> ConditionalGet.apply(req, res)) : done;
+        }
+        try {
+            handler.handle(req, res);
+        } finally {
+            metrics.recordPhase(ServerMetrics.Phase.HANDLER, System.nanoTime() - routed);
+        }
+        if (config.isConditionalGet()) {
+            ConditionalGet.apply(req, res);
+        }
+        return DONE;
+    }
+}
@@ -0,0 +1,425 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The RequestParser class parses request heads straight from the bytes of a
+ * connection buffer. The method and well-known header names are recognized by
+ * comparing bytes; everything else is recorded as offsets into a copy of the
+ * head, and Strings are only created when a handler asks for them.
+ *
+ * A parser belongs to one connection and may be fed a partial head: it then
+ * returns false and resumes scanning where it stopped once more bytes arrive.
+ *
+ * In strict mode every line must end with CRLF, the parts of the request line
+ * must be separated by exactly one space, and header names must be tokens
+ * directly followed by the colon. Lenient mode also accepts bare LF line endings,
+ * runs of spaces in the request line and whitespace before the colon. Input that
+ * cannot be parsed in the chosen mode is rejected with an {@link HttpException}
+ * carrying 400 Bad Request (or a more specific 4xx/5xx status).
+ */
+class RequestParser {
+
+    static final int MAX_HEAD_SIZE = 64 * 1024; // Default largest request line plus headers accepted
+    static final int MAX_HEADER_COUNT = 100; // Default largest number of header lines accepted
+
+    private static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final RequestMethod[] METHODS = RequestMethod.values(); // Methods in declaration order
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][]; // Method names as bytes
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes();
+        }
+    }
+
+    private final boolean strict; // Whether lenient syntax is rejected
+    private final int maxHeadSize; // Largest request line plus headers accepted
+    private final int maxHeaderCount; // Largest number of header lines accepted
+    private int scanned; // Bytes after the buffer position already searched for the end of the head
+
+    /**
+     * Constructs a RequestParser.
+     *
+     * @param strict true to reject anything but the exact request syntax
+     */
+    RequestParser(boolean strict) {
+        this(strict, MAX_HEAD_SIZE, MAX_HEADER_COUNT);
+    }
+
+    /**
+     * Constructs a RequestParser with limits on the size of request heads.
+     * Heads over either limit are rejected with 431 Request Header Fields Too
+     * Large.
+     *
+     * @param strict         true to reject anything but the exact request syntax
+     * @param maxHeadSize    the largest request line plus headers, in bytes
+     * @param maxHeaderCount the largest number of header lines
+     */
+    RequestParser(boolean strict, int maxHeadSize, int maxHeaderCount) {
+        this.strict = strict;
+        this.maxHeadSize = maxHeadSize;
+        this.maxHeaderCount = maxHeaderCount;
+    }
+
+    /**
+     * Parses the request head starting at the buffer position. On success the
+     * buffer position is moved past the head, leaving the body (or the next
+     * request) in the buffer.
+     *
+     * @param buffer the connection buffer, in read mode
+     * @param req    the request to fill
+     * @return true if a complete head was parsed, false if more bytes are needed
+     * @throws HttpException if the head is malformed or too large
+     */
+    boolean parse(ByteBuffer buffer, Request req) throws HttpException {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        if (scanned == 0) {
+            // Skip empty lines left between requests
+            while (start < limit && (buffer.get(start) == '\r' || buffer.get(start) == '\n')) {
+                start++;
+            }
+            buffer.position(start);
+        }
+
+        int headEnd = findHeadEnd(buffer, start + scanned, limit);
+        if (headEnd == -1) {
+            if (limit - start > maxHeadSize) {
+                throw new HttpException(431, "Request Header Fields Too Large");
+            }
+            // The last bytes may hold the start of the blank line, look at them again
+            scanned = Math.max(0, limit - start - 3);
+            return false;
+        }
+        scanned = 0;
+        if (headEnd - start > maxHeadSize) {
+            throw new HttpException(431, "Request Header Fields Too Large");
+        }
+
+        // Copy into the array of the request, which a recycled request already has
+        int length = headEnd - start;
+        byte[] head = req.headBuffer(length);
+        buffer.get(start, head, 0, length);
+        buffer.position(headEnd);
+        parseHead(head, length, req);
+        return true;
+    }
+
+    /**
+     * Forgets a partially scanned head, so the parser can start on a new
+     * connection buffer.
+     */
+    void reset() {
+        scanned = 0;
+    }
+
+    /**
+     * Parses a complete head into the request.
+     *
+     * @param head   the bytes of the head, up to and including the blank line
+     * @param length the length of the head in the array
+     * @param req    the request to fill
+     * @throws HttpException if the head is malformed
+     */
+    private void parseHead(byte[] head, int length, Request req) throws HttpException {
+        // Request line: method SP request-target SP HTTP-version
+        int lineEnd = indexOf(head, '\n', 0, length);
+        int eol = lineContentEnd(head, 0, lineEnd);
+
+        int methodEnd = indexOf(head, ' ', 0, eol);
+        if (methodEnd <= 0) {
+            throw badRequest();
+        }
+        RequestMethod method = matchMethod(head, methodEnd);
+        if (method == null) {
+            if (isToken(head, 0, methodEnd)) {
+                throw new HttpException(501, "Not Implemented");
+            }
+            throw badRequest();
+        }
+
+        int targetStart = skipSpaces(head, methodEnd + 1, eol);
+        int targetEnd = indexOf(head, ' ', targetStart, eol);
+        if (targetEnd <= targetStart || !isVisible(head, targetStart, targetEnd)) {
+            throw badRequest();
+        }
+
+        int versionStart = skipSpaces(head, targetEnd + 1, eol);
+        int versionEnd = eol;
+        if (!strict) {
+            while (versionEnd > versionStart && head[versionEnd - 1] == ' ') {
+                versionEnd--;
+            }
+        }
+        String version = matchVersion(head, versionStart, versionEnd);
+
+        req.setRequestLine(head, method, targetStart, targetEnd, version);
+
+        // Header lines: field-name ":" OWS field-value OWS, until the blank line
+        int pos = lineEnd + 1;
+        int contentLengthCount = 0;
+        int headerCount = 0;
+        while (true) {
+            lineEnd = indexOf(head, '\n', pos, length);
+            eol = lineContentEnd(head, pos, lineEnd);
+            if (eol == pos) {
+                break;
+            }
+            if (++headerCount > maxHeaderCount) {
+                throw new HttpException(431, "Request Header Fields Too Large");
+            }
+            if (head[pos] == ' ' || head[pos] == '\t') {
+                throw badRequest(); // Obsolete line folding
+            }
+
+            int colon = indexOf(head, ':', pos, eol);
+            if (colon == -1) {
+                throw badRequest();
+            }
+            int nameEnd = colon;
+            if (!strict) {
+                while (nameEnd > pos && (head[nameEnd - 1] == ' ' || head[nameEnd - 1] == '\t')) {
+                    nameEnd--;
+                }
+            }
+            if (nameEnd == pos || !isToken(head, pos, nameEnd)) {
+                throw badRequest();
+            }
+
+            int valueStart = colon + 1;
+            int valueEnd = eol;
+            while (valueStart < valueEnd && (head[valueStart] == ' ' || head[valueStart] == '\t')) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+
+            String knownName = HeaderNames.lookup(head, pos, nameEnd);
+            if (knownName == HeaderNames.CONTENT_LENGTH && ++contentLengthCount > 1) {
+                throw badRequest(); // Conflicting body lengths
+            }
+            req.addHeader(pos, nameEnd, valueStart, valueEnd, knownName);
+            pos = lineEnd + 1;
+        }
+
+        validateFraming(req);
+    }
+
+    /**
+     * Checks the headers that decide where the body ends.
+     *
+     * @param req the request with its headers parsed
+     * @throws HttpException if the body length cannot be determined
+     */
+    private static void validateFraming(Request req) throws HttpException {
+        String contentLength = req.getHeader(HeaderNames.CONTENT_LENGTH);
+        String transferEncoding = req.getHeader(HeaderNames.TRANSFER_ENCODING);
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                throw badRequest(); // Ambiguous framing, a request smuggling vector
+            }
+            if (!transferEncoding.equalsIgnoreCase("chunked")) {
+                throw new HttpException(501, "Not Implemented"); // Only plain chunked coding is supported
+            }
+            req.setChunked(true);
+            return;
+        }
+
+        if (contentLength == null) {
+            return;
+        }
+        if (contentLength.isEmpty() || contentLength.length() > 18) {
+            throw badRequest();
+        }
+        for (int i = 0; i < contentLength.length(); i++) {
+            char c = contentLength.charAt(i);
+            if (c < '0' || c > '9') {
+                throw badRequest();
+            }
+        }
+        req.setContentLength(Long.parseLong(contentLength));
+    }
+
+    /**
+     * Finds the end of the head: the position after the blank line.
+     *
+     * @param buffer the buffer, in read mode
+     * @param from   the absolute position to search from
+     * @param limit  the absolute position to search to
+     * @return the absolute position after the head, or -1 if it is incomplete
+     */
+    private static int findHeadEnd(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+            if (i + 1 < limit && buffer.get(i + 1) == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < limit && buffer.get(i + 1) == '\r' && buffer.get(i + 2) == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns where the content of a line ends, excluding its CR. In strict mode
+     * lines must end with CRLF.
+     *
+     * @param head      the head bytes
+     * @param lineStart the index of the first byte of the line
+     * @param lineEnd   the index of the LF ending the line
+     * @return the index after the last content byte
+     * @throws HttpException if the line does not end with CRLF in strict mode
+     */
+    private int lineContentEnd(byte[] head, int lineStart, int lineEnd) throws HttpException {
+        if (lineEnd > lineStart && head[lineEnd - 1] == '\r') {
+            return lineEnd - 1;
+        }
+        if (strict) {
+            throw badRequest();
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Skips the separator after a request line part. Strict mode allows exactly
+     * the one space that was already found; lenient mode skips any further ones.
+     *
+     * @param head the head bytes
+     * @param pos  the index after the space that was found
+     * @param end  the end of the request line
+     * @return the index of the next part
+     */
+    private int skipSpaces(byte[] head, int pos, int end) {
+        if (!strict) {
+            while (pos < end && head[pos] == ' ') {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Matches the method token against the known methods.
+     *
+     * @param head      the head bytes
+     * @param methodEnd the index after the method token
+     * @return the method, or null if it is not known
+     */
+    private static RequestMethod matchMethod(byte[] head, int methodEnd) {
+        methods: for (int m = 0; m < METHOD_NAMES.length; m++) {
+            byte[] name = METHOD_NAMES[m];
+            if (name.length != methodEnd) {
+                continue;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (head[i] != name[i]) {
+                    continue methods;
+                }
+            }
+            return METHODS[m];
+        }
+        return null;
+    }
+
+    /**
+     * Matches the HTTP version of the request line.
+     *
+     * @param head  the head bytes
+     * @param start the index of the first byte of the version
+     * @param end   the index after the last byte of the version
+     * @return the shared version String
+     * @throws HttpException if the version is malformed or not HTTP/1.x
+     */
+    private static String matchVersion(byte[] head, int start, int end) throws HttpException {
+        if (end - start != 8 || head[start] != 'H' || head[start + 1] != 'T' || head[start + 2] != 'T'
+                || head[start + 3] != 'P' || head[start + 4] != '/' || !isDigit(head[start + 5])
+                || head[start + 6] != '.' || !isDigit(head[start + 7])) {
+            throw badRequest();
+        }
+        if (head[start + 5] != '1') {
+            throw new HttpException(505, "HTTP Version Not Supported");
+        }
+        return head[start + 7] == '0' ? HTTP_1_0 : HTTP_1_1;
+    }
+
+    /**
+     * Finds a byte in a range.
+     *
+     * @param buf   the bytes
+     * @param b     the byte to find
+     * @param start the index to search from
+     * @param end   the index to search to
+     * @return the index of the byte, or -1 if it is absent
+     */
+    private static int indexOf(byte[] buf, char b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether a range of bytes is an RFC 9110 token.
+     *
+     * @param buf   the bytes
+     * @param start the index of the first byte
+     * @param end   the index after the last byte
+     * @return true if every byte is a token character
+     */
+    private static boolean isToken(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            boolean tchar = b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || isDigit(b)
+                    || "!#$%&'*+-.^_`|~".indexOf(b) != -1;
+            if (!tchar) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a range of bytes holds no control characters or spaces.
+     *
+     * @param buf   the bytes
+     * @param start the index of the first byte
+     * @param end   the index after the last byte
+     * @return true if every byte is visible
+     */
+    private static boolean isVisible(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int b = buf[i] & 0xFF;
+            if (b <= ' ' || b == 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a byte is an ASCII digit.
+     *
+     * @param b the byte
+     * @return true if it is a digit
+     */
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Creates the exception for malformed input.
+     *
+     * @return a 400 Bad Request exception
+     */
+    private static HttpException badRequest() {
+        return new HttpException(400, "Bad Request");
+    }
+}
@@ -2,22 +2,57 @@ package com.ujjwalgarg.httpserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * The Response class represents an HTTP response.
  * It includes methods to set the status code, status message, headers, and body
  * of the response.
  * It also provides a method to send the response to the client.
+ *
+ * The body is either set at once, as text, bytes, a ByteBuffer or a range of a
+ * file, or written through {@link #getBodyStream()}. A streamed body is sent as
+ * it is written, with chunked transfer coding unless the handler set a
+ * Content-Length header. File bodies are transferred straight from the file to
+ * the socket when the engine allows it.
+ *
+ * Text bodies are gzip-encoded when the client accepts it and the server
+ * enables compression: bodies set at once if they are large enough, streamed
+ * bodies of unknown length on the fly. File bodies are never compressed; see
+ * {@link StaticFileHandler} for precompressed files.
+ *
+ * A blocking connection reuses one Response for all of its requests, emptied
+ * by {@link #reset()} in between, unless it was abandoned to a handler that may
+ * still hold it.
  */
 public class Response {
 
-    private final Map<String, String> headers; // Stores HTTP headers
+    private final HttpHeaders headers; // Header fields, in the order they are sent
     private int statusCode; // HTTP status code (e.g., 200, 404)
     private String statusMsg; // HTTP status message (e.g., "OK", "Not Found")
-    private String responseBody; // Body of the response
+    private ByteBuffer body; // Body of the response, set at once
+    private FileRegion fileBody; // Body of the response sent from a file
     private final OutputStream out; // Output stream to write the response to
+    private boolean keepAlive; // Whether the connection stays open after the response is sent
+    private boolean chunkedAllowed = true; // Whether the client understands chunked transfer coding
+    private ResponseOutputStream bodyStream; // Streamed body, once asked for
+    private OutputStream bodyOut; // Stream handed to the handler, compressing into bodyStream if needed
+    private boolean gzipAccepted; // Whether the client accepts gzip-encoded bodies
+    private int compressionMinSize = -1; // Smallest body compressed, -1 if compression is off
+    private boolean committed; // Whether the status line and headers have been written
+    private boolean abandoned; // Whether the server gave up on the response and sent another one
+    private boolean headOnly; // Whether the body is left out, as for HEAD requests
+    private WritableByteChannel channel; // Channel of the connection for file bodies, or null
+    private boolean bodyDeferred; // Whether the engine sends file and buffer bodies itself
+    private boolean flushDeferred; // Whether the engine flushes the output stream itself
+    private long channelBytes; // Bytes written straight to the channel, bypassing the output stream
+    private ConnectionTimeout writeTimeout; // Timeout armed around each write to the channel, or null
+    private long writeTimeoutMillis; // Time allowed for each write to the channel, 0 for no limit
 
     /**
      * Constructs a Response object with the specified output stream.
@@ -26,25 +61,35 @@ public class Response {
      */
     public Response(OutputStream out) {
         this.out = out;
-        this.headers = new HashMap<>();
+        this.headers = new HttpHeaders();
     }
 
     /**
-     * Adds a header to the response.
+     * Adds a header to the response, after any other with the same name.
      * 
      * @param key the name of the header
      * @param val the value of the header
      */
     public void addHeader(String key, String val) {
-        this.headers.put(key.toLowerCase(), val);
+        this.headers.add(key, val);
+    }
+
+    /**
+     * Sets a header of the response, replacing any other with the same name.
+     * 
+     * @param key the name of the header
+     * @param val the value of the header
+     */
+    public void setHeader(String key, String val) {
+        this.headers.set(key, val);
     }
 
     /**
      * Returns the headers of the response.
      * 
-     * @return a map of headers
+     * @return the headers, in the order they are sent
      */
-    public Map<String, String> getHeaders() {
+    public HttpHeaders getHeaders() {
         return headers;
     }
 
@@ -76,7 +121,8 @@ public class Response {
     }
 
     /**
-     * Sets the status message of the response.
+     * Sets the status message of the response. When it is left unset, the
+     * standard reason phrase of the status code is sent.
      * 
      * @param responseMsg the status message to set
      */
@@ -85,48 +131,564 @@ public class Response {
     }
 
     /**
-     * Returns the body of the response.
+     * Returns the body of the response as text.
      * 
-     * @return the response body
+     * @return the response body decoded as UTF-8, or null if none was set
      */
     public String getResponseBody() {
-        return responseBody;
+        return body == null ? null : StandardCharsets.UTF_8.decode(body.duplicate()).toString();
     }
 
     /**
-     * Sets the body of the response and updates the Content-Length header.
+     * Sets the body of the response as UTF-8 text and updates the Content-Length
+     * header.
      * 
      * @param responseBody the response body to set
      */
     public void setResponseBody(String responseBody) {
-        this.headers.put("Content-Length", Integer.toString(responseBody.length()));
-        this.responseBody = responseBody;
+        setBody(responseBody.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sets the body of the response and updates the Content-Length header. The
+     * array is sent as is, not copied.
+     * 
+     * @param body the bytes of the body
+     */
+    public void setBody(byte[] body) {
+        setBody(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Sets the body of the response to the remaining bytes of a buffer and
+     * updates the Content-Length header. The buffer is read when the response is
+     * sent; its position is left unchanged.
+     * 
+     * @param body the buffer holding the body
+     */
+    public void setBody(ByteBuffer body) {
+        checkBodyUnset();
+        this.headers.set(HeaderNames.CONTENT_LENGTH, Integer.toString(body.remaining()));
+        this.body = body;
+    }
+
+    /**
+     * Sets the body of the response to a range of a file and updates the
+     * Content-Length header. The range is transferred from the file to the socket
+     * without being copied into the heap when the connection allows it. The
+     * response takes ownership of the channel and closes it once sent.
+     * 
+     * @param file     the open file
+     * @param position the offset of the first byte to send
+     * @param count    the number of bytes to send
+     */
+    public void setBody(FileChannel file, long position, long count) {
+        checkBodyUnset();
+        this.headers.set(HeaderNames.CONTENT_LENGTH, Long.toString(count));
+        this.fileBody = new FileRegion(file, position, count);
+    }
+
+    /**
+     * Returns a stream to write the body to as it is produced. The status line
+     * and headers are sent before the first body bytes, so they cannot be changed
+     * afterwards. If no Content-Length header was added, the body is sent with
+     * chunked transfer coding, or delimited by closing the connection for HTTP/1.0
+     * clients. Closing the stream completes the body; {@link #send()} does so
+     * otherwise. A body of unknown length may be compressed on the fly, so the
+     * Content-Type header should be added before asking for the stream.
+     * 
+     * @return the body stream
+     */
+    public OutputStream getBodyStream() {
+        if (bodyStream == null) {
+            checkBodyUnset();
+            String contentLength = headers.get(HeaderNames.CONTENT_LENGTH);
+            long length = contentLength != null ? Long.parseLong(contentLength) : -1;
+            boolean compress = shouldCompress(length);
+            if (compress) {
+                headers.set(HeaderNames.CONTENT_ENCODING, "gzip");
+            }
+            boolean chunked = length == -1 && chunkedAllowed;
+            if (chunked) {
+                headers.set(HeaderNames.TRANSFER_ENCODING, "chunked");
+            } else if (length == -1) {
+                keepAlive = false; // Only closing the connection ends the body
+            }
+            bodyStream = new ResponseOutputStream(this, headOnly ? OutputStream.nullOutputStream() : out, chunked,
+                    length);
+            bodyOut = compress ? new GzipEncoder(bodyStream) : bodyStream;
+        }
+        return bodyOut;
+    }
+
+    /**
+     * Tells whether the body should be gzip-encoded, and announces that the
+     * response varies with Accept-Encoding whenever it could be.
+     * 
+     * @param length the length of the body, -1 if unknown
+     * @return true if the body should be compressed
+     */
+    private boolean shouldCompress(long length) {
+        if (compressionMinSize < 0 || headers.contains(HeaderNames.CONTENT_ENCODING) || statusCode == 204
+                || statusCode == 206 || statusCode == 304
+                || !GzipEncoder.isCompressible(headers.get(HeaderNames.CONTENT_TYPE))) {
+            return false;
+        }
+        headers.set(HeaderNames.VARY, "Accept-Encoding");
+        return gzipAccepted && !headOnly && (length == -1 || length >= compressionMinSize);
+    }
+
+    /**
+     * Replaces a body set at once with its gzip encoding, if it is worth it.
+     * Called by {@link #send()}, or earlier by a cache storing the body as
+     * sent; a body already encoded is left alone.
+     */
+    void compressBody() {
+        if (body == null || !shouldCompress(body.remaining())) {
+            return;
+        }
+        byte[] compressed = GzipEncoder.encode(body.duplicate());
+        if (compressed.length < body.remaining()) {
+            body = ByteBuffer.wrap(compressed);
+            headers.set(HeaderNames.CONTENT_LENGTH, Integer.toString(compressed.length));
+            headers.set(HeaderNames.CONTENT_ENCODING, "gzip");
+        }
+    }
+
+    /**
+     * Returns the body set at once, for validators and caches looking at it.
+     *
+     * @return a buffer over the body, or null if the body is not set at once
+     */
+    ByteBuffer getBufferedBody() {
+        return body != null && fileBody == null ? body.duplicate() : null;
+    }
+
+    /**
+     * Tells whether the body is a range of a file.
+     *
+     * @return true if the body is sent from a file
+     */
+    boolean hasFileBody() {
+        return fileBody != null;
+    }
+
+    /**
+     * Tells whether the body is written through {@link #getBodyStream()}.
+     *
+     * @return true if the body is streamed
+     */
+    boolean isBodyStreamed() {
+        return bodyStream != null;
+    }
+
+    /**
+     * Turns the response into 304 Not Modified, dropping its body but keeping
+     * its validators and other headers. Must be called before the response is
+     * sent, and not for a streamed body.
+     */
+    void notModified() {
+        statusCode = 304;
+        statusMsg = "Not Modified";
+        body = null;
+        if (fileBody != null) {
+            fileBody.close();
+            fileBody = null;
+        }
+        headers.remove(HeaderNames.CONTENT_LENGTH);
+        headers.remove(HeaderNames.CONTENT_RANGE);
+    }
+
+    /**
+     * Checks that no body has been set or streamed yet.
+     */
+    private void checkBodyUnset() {
+        if (body != null || fileBody != null || bodyStream != null) {
+            throw new IllegalStateException("Response body is already set");
+        }
+    }
+
+    /**
+     * Tells whether the status line and headers have already been written, after
+     * which the response can no longer be replaced by an error response.
+     * 
+     * @return true if the response is committed
+     */
+    public synchronized boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Gives up on the response so that an error response can be sent instead,
+     * for a handler that did not complete it in time. Nothing the handler
+     * writes afterwards reaches the connection: committing fails instead.
+     * 
+     * @return true if the response was abandoned, false if it is already
+     *         committed
+     */
+    synchronized boolean abandon() {
+        if (!committed) {
+            abandoned = true;
+        }
+        return abandoned;
+    }
+
+    /**
+     * Tells whether the response was given up on, in which case a handler may
+     * still hold it and it must not be reused.
+     * 
+     * @return true if the response was abandoned
+     */
+    synchronized boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Empties the response so it can be reused for the next request of the
+     * connection. The output stream, the channel and the write timeout belong
+     * to the connection and are kept.
+     */
+    synchronized void reset() {
+        if (fileBody != null) {
+            fileBody.close(); // Left unsent by a failed handler
+        }
+        headers.clear();
+        statusCode = 0;
+        statusMsg = null;
+        body = null;
+        fileBody = null;
+        keepAlive = false;
+        chunkedAllowed = true;
+        bodyStream = null;
+        bodyOut = null;
+        gzipAccepted = false;
+        compressionMinSize = -1;
+        committed = false;
+        abandoned = false;
+        headOnly = false;
+        bodyDeferred = false;
+        flushDeferred = false;
+        channelBytes = 0;
+    }
+
+    /**
+     * Marks the response as committed, unless it has been abandoned.
+     * 
+     * @return false if the response was already committed
+     * @throws IOException if the response has been abandoned
+     */
+    private synchronized boolean markCommitted() throws IOException {
+        if (abandoned) {
+            throw new IOException("Response abandoned by the server");
+        }
+        boolean first = !committed;
+        committed = true;
+        return first;
+    }
+
+    /**
+     * Tells whether the connection stays open after this response is sent.
+     * 
+     * @return true if the connection is kept alive, false otherwise
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether the connection stays open after this response is sent. This
+     * is decided by the connection handler from the request and the server
+     * limits, and is announced to the client through the Connection header.
+     * 
+     * @param keepAlive true to keep the connection open, false to close it
+     */
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Sets whether the client understands chunked transfer coding, which HTTP/1.0
+     * clients do not.
+     * 
+     * @param chunkedAllowed true if streamed bodies may be chunked
+     */
+    void setChunkedAllowed(boolean chunkedAllowed) {
+        this.chunkedAllowed = chunkedAllowed;
+    }
+
+    /**
+     * Sets how the body may be compressed.
+     * 
+     * @param gzipAccepted       whether the client accepts gzip-encoded bodies
+     * @param compressionMinSize the smallest body worth compressing, -1 to turn
+     *                           compression off
+     */
+    void setCompression(boolean gzipAccepted, int compressionMinSize) {
+        this.gzipAccepted = gzipAccepted;
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    /**
+     * Sets whether the body is left out while the headers still describe it, as
+     * required for responses to HEAD requests.
+     * 
+     * @param headOnly true to send the status line and headers only
+     */
+    void setHeadOnly(boolean headOnly) {
+        this.headOnly = headOnly;
+    }
+
+    /**
+     * Sets the channel of the connection, which file bodies are transferred to
+     * directly.
+     * 
+     * @param channel the blocking channel of the connection
+     */
+    void setChannel(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sets the timeout armed around each write straight to the channel, which
+     * the output stream of a blocking connection times by itself.
+     * 
+     * @param writeTimeout       the write timeout of the connection
+     * @param writeTimeoutMillis the time allowed for each write, 0 for no limit
+     */
+    void setWriteTimeout(ConnectionTimeout writeTimeout, long writeTimeoutMillis) {
+        this.writeTimeout = writeTimeout;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Arms the write timeout, if there is one, before a write to the channel.
+     */
+    private void armWrite() {
+        if (writeTimeout != null) {
+            writeTimeout.arm(TimeoutPhase.WRITE, writeTimeoutMillis);
+        }
+    }
+
+    /**
+     * Disarms the write timeout, if there is one, once the channel writes are
+     * done.
+     */
+    private void disarmWrite() {
+        if (writeTimeout != null) {
+            writeTimeout.cancel();
+        }
+    }
+
+    /**
+     * Sets whether {@link #send()} leaves file and buffer bodies for the engine
+     * to send, for engines that write responses themselves. Only the head is
+     * then written to the output stream, and the body is written without being
+     * copied.
+     * 
+     * @param bodyDeferred true to leave the body to the engine
+     */
+    void setBodyDeferred(boolean bodyDeferred) {
+        this.bodyDeferred = bodyDeferred;
+    }
+
+    /**
+     * Returns the length of the body as sent, after compression and without
+     * chunk framing, for the access log.
+     * 
+     * @return the byte count, 0 if no body is sent
+     */
+    long getBodyLength() {
+        if (headOnly) {
+            return 0;
+        }
+        if (bodyStream != null) {
+            return bodyStream.getWritten();
+        }
+        if (body != null) {
+            return body.remaining();
+        }
+        return fileBody != null ? fileBody.length() : 0;
+    }
+
+    /**
+     * Returns the number of bytes sent straight to the channel of the
+     * connection rather than through the output stream, for engines counting
+     * what they send.
+     * 
+     * @return the byte count
+     */
+    long getChannelBytes() {
+        return channelBytes;
+    }
+
+    /**
+     * Sets whether {@link #send()} leaves the output stream unflushed, so that
+     * the responses to pipelined requests are collected and leave together.
+     * The engine must then flush the stream before it waits for the client.
+     * 
+     * @param flushDeferred true to leave flushing to the engine
+     */
+    void setFlushDeferred(boolean flushDeferred) {
+        this.flushDeferred = flushDeferred;
+    }
+
+    /**
+     * Returns the file body left by {@link #send()} for the engine to send.
+     * 
+     * @return the file body, or null if there is none to send
+     */
+    FileRegion getDeferredFileBody() {
+        return bodyDeferred && !headOnly ? fileBody : null;
+    }
+
+    /**
+     * Returns the buffer body left by {@link #send()} for the engine to send.
+     * 
+     * @return a buffer over the body, or null if there is none to send
+     */
+    ByteBuffer getDeferredBody() {
+        return bodyDeferred && !headOnly && body != null ? body.duplicate() : null;
     }
 
     /**
      * Sends the response to the client by writing the status line, headers, and
-     * body to the output stream.
+     * body to the output stream, or by completing a streamed body. The output
+     * stream is flushed, unless the engine defers it, but not closed, so that
+     * further responses can be written on a persistent connection.
      * 
      * @throws IOException if an I/O error occurs
      */
     public void send() throws IOException {
-        headers.put("Connection", "close"); // Ensure the connection is closed after the response is sent
-        this.out.write(String.format("HTTP/1.1 %d %s\r\n", this.statusCode, this.statusMsg).getBytes());
+        if (bodyStream != null) {
+            bodyOut.close();
+            if (!flushDeferred) {
+                this.out.flush();
+            }
+            return;
+        }
+        compressBody();
+        if (body != null && fileBody == null && !headOnly && !bodyDeferred
+                && channel instanceof GatheringByteChannel gathering) {
+            // Head and body leave in a single gathering write
+            markCommitted();
+            ByteBuffer[] buffers = { encodeHead().buffer(), body.duplicate() };
+            this.out.flush();
+            try {
+                while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                    armWrite();
+                    channelBytes += gathering.write(buffers);
+                }
+            } finally {
+                disarmWrite();
+            }
+            return;
+        }
+        commit();
+
+        // Write the response body, if it exists
+        if (headOnly) {
+            if (fileBody != null) {
+                fileBody.close();
+            }
+        } else if (fileBody != null) {
+            if (!bodyDeferred) {
+                sendFileBody();
+            }
+        } else if (body != null && !bodyDeferred) {
+            ByteBuffer data = body.duplicate();
+            if (data.isDirect() && channel != null) {
+                // Off-heap bodies go to the socket without a copy into the heap
+                this.out.flush();
+                try {
+                    while (data.hasRemaining()) {
+                        armWrite();
+                        channelBytes += channel.write(data);
+                    }
+                } finally {
+                    disarmWrite();
+                }
+            } else if (data.hasArray()) {
+                this.out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                byte[] chunk = new byte[Math.min(data.remaining(), 8192)];
+                while (data.hasRemaining()) {
+                    int n = Math.min(chunk.length, data.remaining());
+                    data.get(chunk, 0, n);
+                    this.out.write(chunk, 0, n);
+                }
+            }
+        }
 
-        // Write headers
-        for (Map.Entry<String, String> header : headers.entrySet()) {
-            this.out.write(String.format("%s: %s\r\n", header.getKey(), header.getValue()).getBytes());
+        if (!flushDeferred) {
+            this.out.flush();
         }
+    }
 
-        // Write a blank line to separate headers from the body
-        this.out.write("\r\n".getBytes());
+    /**
+     * Sends the file body, straight to the channel of the connection if there is
+     * one, or copied through the output stream otherwise.
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    private void sendFileBody() throws IOException {
+        try {
+            this.out.flush(); // The head must reach the socket before the file
+            WritableByteChannel target = channel != null ? channel : Channels.newChannel(this.out);
+            while (!fileBody.isDone()) {
+                if (target == channel) {
+                    armWrite();
+                }
+                long n = fileBody.transferTo(target);
+                if (n == 0 && target == channel) {
+                    n = fileBody.copyTo(target); // Wait for the client rather than spin
+                }
+                if (target == channel) {
+                    channelBytes += n;
+                }
+            }
+        } finally {
+            disarmWrite();
+            fileBody.close();
+        }
+    }
 
-        // Write the response body, if it exists
-        if (responseBody != null) {
-            this.out.write(responseBody.getBytes());
+    /**
+     * Writes the status line and headers, once.
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    void commit() throws IOException {
+        if (!markCommitted()) {
+            return;
+        }
+        ResponseHead head = encodeHead();
+        this.out.write(head.array(), 0, head.length());
+    }
+
+    /**
+     * Serializes the status line and headers into the head buffer of the current
+     * thread, so that they reach the connection in a single write.
+     * 
+     * @return the encoded head
+     */
+    private ResponseHead encodeHead() {
+        headers.set(HeaderNames.CONNECTION, keepAlive ? "keep-alive" : "close");
+        if (statusCode < 200 || statusCode == 204) {
+            // Never has a body, and RFC 9110 section 8.6 forbids announcing one
+            headers.remove(HeaderNames.CONTENT_LENGTH);
+        } else if (body == null && fileBody == null && bodyStream == null && statusCode != 304) {
+            // A persistent connection needs explicit framing even for empty bodies
+            headers.set(HeaderNames.CONTENT_LENGTH, "0");
         }
+        ResponseHead head = ResponseHead.forCurrentThread().statusLine(statusCode, statusMsg).date();
 
-        // Close the output stream
-        this.out.close();
+        // Write headers, well-known names from their pre-encoded form whatever their case
+        for (int i = 0; i < headers.size(); i++) {
+            String known = headers.getKnownName(i);
+            head.header(known != null ? known : headers.getName(i), headers.getValue(i));
+        }
+
+        // Write a blank line to separate headers from the body
+        return head.end();
     }
 }
@@ -0,0 +1,391 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ResponseCache class keeps the responses of chosen routes in memory, so
+ * that repeated GET and HEAD requests are answered without calling their
+ * handler at all. A route opts in by registering its handler wrapped with
+ * {@link #cache(RequestHandler, long)}:
+ *
+ * <pre>
+ * ResponseCache cache = new ResponseCache(16 * 1024 * 1024, 64 * 1024);
+ * server.addHandler(RequestMethod.GET, "/echo/{text}", cache.cache(handler, 60_000));
+ * </pre>
+ *
+ * Responses are stored as sent: status, headers and body, already gzip-encoded
+ * when the client accepted it, with an ETag and a Last-Modified header added
+ * so that clients can revalidate them cheaply. Entries are keyed by path and
+ * query string, and by the values of the request headers the response names in
+ * Vary, so a client is only ever served the variant it asked for.
+ *
+ * Only 200 OK responses with a body set at once are stored, and not those
+ * setting cookies or marked {@code no-store} or {@code private}. Requests with
+ * {@code Cache-Control: no-cache} bypass the cache and refresh it. Each entry
+ * lives for the time to live of its route; the cache is bounded by the total
+ * size of its entries and evicts the least recently used paths first. Hit,
+ * miss and eviction counts are kept for monitoring.
+ */
+public class ResponseCache {
+
+    private static final int ENTRY_OVERHEAD = 64; // Bytes counted for each entry besides its headers and body
+
+    private final long maxBytes; // Largest total size of the entries
+    private final int maxEntrySize; // Largest entry worth caching
+    private final LinkedHashMap<String, List<Entry>> entries; // Variants by path, least recently used first
+    private long totalBytes; // Total size of the entries
+    private final LongAdder hits; // Requests answered from the cache
+    private final LongAdder misses; // Requests passed to the handler
+    private final LongAdder evictions; // Entries dropped to make room
+
+    /**
+     * The Entry class is a stored response, along with the request header
+     * values it was selected by.
+     */
+    private static final class Entry {
+        private final String[] varyNames; // Request headers the response varies on, lower case
+        private final String[] varyValues; // Values of those headers in the request, null if absent
+        private final int statusCode; // HTTP status code
+        private final String statusMsg; // HTTP status message
+        private final String[] names; // Header names, in order
+        private final String[] values; // Header values, in order
+        private final byte[] body; // Body as sent, or null if there is none
+        private final long storedAt; // When the response was stored, in milliseconds
+        private final long expiresAt; // When the entry stops being served, in milliseconds
+        private final int size; // Bytes counted against the size bound
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param varyNames  the request headers the response varies on
+         * @param varyValues the values of those headers in the request
+         * @param res        the response to store
+         * @param body       the body as sent, or null
+         * @param storedAt   when the response is stored
+         * @param ttlMillis  how long the entry is served
+         */
+        Entry(String[] varyNames, String[] varyValues, Response res, byte[] body, long storedAt, long ttlMillis) {
+            this.varyNames = varyNames;
+            this.varyValues = varyValues;
+            this.statusCode = res.getStatusCode();
+            this.statusMsg = res.getStatusMsg();
+            HttpHeaders headers = res.getHeaders();
+            List<String> names = new ArrayList<>(headers.size());
+            List<String> values = new ArrayList<>(headers.size());
+            int size = ENTRY_OVERHEAD + (body == null ? 0 : body.length);
+            for (int i = 0; i < headers.size(); i++) {
+                String name = headers.getName(i);
+                if (name.equalsIgnoreCase(HeaderNames.CONNECTION)) {
+                    continue; // Set by each connection
+                }
+                names.add(name);
+                values.add(headers.getValue(i));
+                size += name.length() + headers.getValue(i).length();
+            }
+            this.names = names.toArray(new String[0]);
+            this.values = values.toArray(new String[0]);
+            this.body = body;
+            this.storedAt = storedAt;
+            this.expiresAt = storedAt + ttlMillis;
+            this.size = size;
+        }
+
+        /**
+         * Tells whether the entry was stored for a request carrying the same
+         * values of the headers the response varies on.
+         *
+         * @param req the request
+         * @return true if the entry may be served for the request
+         */
+        boolean selects(Request req) {
+            for (int i = 0; i < varyNames.length; i++) {
+                if (!Objects.equals(varyValues[i], req.getHeader(varyNames[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Tells whether the entry holds the same variant as another one.
+         *
+         * @param other the other entry
+         * @return true if both were selected by the same header values
+         */
+        boolean sameVariant(Entry other) {
+            return Arrays.equals(varyNames, other.varyNames)
+                    && Arrays.equals(varyValues, other.varyValues);
+        }
+
+        /**
+         * Copies the stored response into a response, with its current age.
+         *
+         * @param res the response to populate
+         * @param now the current time in milliseconds
+         */
+        void writeTo(Response res, long now) {
+            res.setStatusCode(statusCode);
+            res.setStatusMsg(statusMsg);
+            for (int i = 0; i < names.length; i++) {
+                res.addHeader(names[i], values[i]);
+            }
+            res.setHeader(HeaderNames.AGE, Long.toString((now - storedAt) / 1000));
+            if (body != null) {
+                res.setBody(body); // Never modified once stored, so it is shared
+            }
+        }
+    }
+
+    /**
+     * The CachingHandler class answers the requests of a route from the cache,
+     * calling the handler of the route only on a miss.
+     */
+    private final class CachingHandler implements RequestHandler {
+        private final RequestHandler handler; // Handler of the route
+        private final long ttlMillis; // Time the responses of the route are served
+
+        /**
+         * Constructs a CachingHandler.
+         *
+         * @param handler   the handler of the route
+         * @param ttlMillis the time the responses of the route are served
+         */
+        CachingHandler(RequestHandler handler, long ttlMillis) {
+            this.handler = handler;
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public void handle(Request req, Response res) throws IOException {
+            RequestMethod method = req.getMethod();
+            if (method != RequestMethod.GET && method != RequestMethod.HEAD) {
+                handler.handle(req, res);
+                return;
+            }
+            String key = req.getQueryString() == null ? req.getPath() : req.getPath() + "?" + req.getQueryString();
+            if (!req.hasHeaderToken(HeaderNames.CACHE_CONTROL, "no-cache")
+                    && !req.hasHeaderToken(HeaderNames.CACHE_CONTROL, "no-store")) {
+                long now = System.currentTimeMillis();
+                Entry entry = lookup(key, req, now);
+                if (entry != null) {
+                    hits.increment();
+                    entry.writeTo(res, now);
+                    return;
+                }
+            }
+            misses.increment();
+            handler.handle(req, res);
+            // HEAD responses are not compressed, so only GET fills the cache
+            if (method == RequestMethod.GET && !req.hasHeaderToken(HeaderNames.CACHE_CONTROL, "no-store")) {
+                store(key, req, res, ttlMillis);
+            }
+        }
+    }
+
+    /**
+     * Constructs a ResponseCache.
+     *
+     * @param maxBytes     the largest total size of the entries
+     * @param maxEntrySize the largest response worth caching, headers included
+     */
+    public ResponseCache(long maxBytes, int maxEntrySize) {
+        if (maxBytes <= 0 || maxEntrySize <= 0) {
+            throw new IllegalArgumentException("Cache sizes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntrySize = (int) Math.min(maxEntrySize, maxBytes);
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Wraps the handler of a route so that its GET and HEAD responses are
+     * served from this cache. Other methods go straight to the handler.
+     *
+     * @param handler   the handler of the route
+     * @param ttlMillis the time each response is served before the handler is
+     *                  called again
+     * @return the caching handler, to register in place of the handler
+     */
+    public RequestHandler cache(RequestHandler handler, long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        return new CachingHandler(handler, ttlMillis);
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests passed to their handler.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries dropped to make room for others.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the total size of the entries.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    /**
+     * Finds the live entry of a path selected by a request, dropping the
+     * expired variants of the path on the way.
+     *
+     * @param key the path and query string
+     * @param req the request
+     * @param now the current time in milliseconds
+     * @return the entry, or null if there is none
+     */
+    private synchronized Entry lookup(String key, Request req, long now) {
+        List<Entry> variants = entries.get(key);
+        if (variants == null) {
+            return null;
+        }
+        Entry found = null;
+        for (Iterator<Entry> it = variants.iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.expiresAt <= now) {
+                it.remove();
+                totalBytes -= entry.size;
+            } else if (found == null && entry.selects(req)) {
+                found = entry;
+            }
+        }
+        if (variants.isEmpty()) {
+            entries.remove(key);
+        }
+        return found;
+    }
+
+    /**
+     * Stores a response if it may be cached, with validators added and its body
+     * encoded as it will be sent, then evicts the least recently used paths to
+     * stay within the size bound.
+     *
+     * @param key       the path and query string
+     * @param req       the request
+     * @param res       the response populated by the handler
+     * @param ttlMillis the time the entry is served
+     */
+    private void store(String key, Request req, Response res, long ttlMillis) {
+        HttpHeaders headers = res.getHeaders();
+        if (res.getStatusCode() != 200 || res.isBodyStreamed() || res.hasFileBody() || res.isCommitted()
+                || headers.contains(HeaderNames.SET_COOKIE)) {
+            return;
+        }
+        String cacheControl = headers.get(HeaderNames.CACHE_CONTROL);
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.ROOT);
+            if (directives.contains("no-store") || directives.contains("private")) {
+                return;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        ConditionalGet.addETag(res);
+        if (!headers.contains(HeaderNames.LAST_MODIFIED)) {
+            res.setHeader(HeaderNames.LAST_MODIFIED, ResponseHead.formatDate(now));
+        }
+        res.compressBody(); // Adds Vary: Accept-Encoding when the body could be compressed
+
+        List<String> vary = new ArrayList<>();
+        for (String value : headers.getAll(HeaderNames.VARY)) {
+            for (String name : value.split(",")) {
+                name = name.trim().toLowerCase(Locale.ROOT);
+                if (name.equals("*")) {
+                    return; // Varies on something no request header tells
+                }
+                if (!name.isEmpty() && !vary.contains(name)) {
+                    vary.add(name);
+                }
+            }
+        }
+        String[] varyNames = vary.toArray(new String[0]);
+        String[] varyValues = new String[varyNames.length];
+        for (int i = 0; i < varyNames.length; i++) {
+            varyValues[i] = req.getHeader(varyNames[i]);
+        }
+
+        ByteBuffer buffer = res.getBufferedBody();
+        byte[] body = null;
+        if (buffer != null) {
+            if (buffer.remaining() > maxEntrySize) {
+                return;
+            }
+            body = new byte[buffer.remaining()];
+            buffer.get(body);
+        }
+        Entry entry = new Entry(varyNames, varyValues, res, body, now, ttlMillis);
+        if (entry.size > maxEntrySize) {
+            return;
+        }
+
+        synchronized (this) {
+            List<Entry> variants = entries.computeIfAbsent(key, k -> new ArrayList<>(1));
+            for (Iterator<Entry> it = variants.iterator(); it.hasNext();) {
+                Entry previous = it.next();
+                if (previous.sameVariant(entry)) {
+                    it.remove();
+                    totalBytes -= previous.size;
+                }
+            }
+            variants.add(entry);
+            totalBytes += entry.size;
+            Iterator<Map.Entry<String, List<Entry>>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, List<Entry>> victim = eldest.next();
+                if (victim.getValue() == variants) {
+                    continue;
+                }
+                for (Entry dropped : victim.getValue()) {
+                    totalBytes -= dropped.size;
+                    evictions.increment();
+                }
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The ResponseHead class serializes the status line and headers of a response
+ * into a byte array that each thread reuses from one response to the next.
+ * Status lines of the standard codes are encoded once, well-known header names
+ * come pre-encoded from {@link HeaderNames}, and the Date header is formatted
+ * at most once per second.
+ */
+final class ResponseHead {
+
+    private static final int INITIAL_SIZE = 512; // Size of a new head buffer
+    private static final byte[] CRLF = { '\r', '\n' }; // Line ending
+    private static final String[] REASONS = new String[600]; // Standard reason phrase of each status code
+    private static final byte[][] STATUS_LINES = new byte[600][]; // Encoded status line of each standard code
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME
+            .withZone(ZoneOffset.UTC); // Format of the Date header
+    private static final ThreadLocal<ResponseHead> HEADS = ThreadLocal.withInitial(ResponseHead::new); // Head of each thread
+    private static volatile CachedDate cachedDate = new CachedDate(-1, null, null); // Date header of the current second
+
+    static {
+        reason(100, "Continue");
+        reason(101, "Switching Protocols");
+        reason(200, "OK");
+        reason(201, "Created");
+        reason(202, "Accepted");
+        reason(204, "No Content");
+        reason(206, "Partial Content");
+        reason(301, "Moved Permanently");
+        reason(302, "Found");
+        reason(303, "See Other");
+        reason(304, "Not Modified");
+        reason(307, "Temporary Redirect");
+        reason(308, "Permanent Redirect");
+        reason(400, "Bad Request");
+        reason(401, "Unauthorized");
+        reason(403, "Forbidden");
+        reason(404, "Not Found");
+        reason(405, "Method Not Allowed");
+        reason(408, "Request Timeout");
+        reason(409, "Conflict");
+        reason(410, "Gone");
+        reason(411, "Length Required");
+        reason(412, "Precondition Failed");
+        reason(413, "Content Too Large");
+        reason(414, "URI Too Long");
+        reason(415, "Unsupported Media Type");
+        reason(416, "Range Not Satisfiable");
+        reason(417, "Expectation Failed");
+        reason(426, "Upgrade Required");
+        reason(429, "Too Many Requests");
+        reason(431, "Request Header Fields Too Large");
+        reason(500, "Server Error");
+        reason(501, "Not Implemented");
+        reason(502, "Bad Gateway");
+        reason(503, "Service Unavailable");
+        reason(504, "Gateway Timeout");
+        reason(505, "HTTP Version Not Supported");
+    }
+
+    /**
+     * The CachedDate class holds the Date header of one second.
+     */
+    private static final class CachedDate {
+        private final long second; // Epoch second the date was formatted for
+        private final String value; // Formatted date
+        private final byte[] line; // Encoded "date: ...\r\n" line
+
+        /**
+         * Constructs a CachedDate.
+         *
+         * @param second the epoch second
+         * @param value  the formatted date
+         * @param line   the encoded header line
+         */
+        CachedDate(long second, String value, byte[] line) {
+            this.second = second;
+            this.value = value;
+            this.line = line;
+        }
+    }
+
+    private byte[] buf; // Encoded head
+    private int count; // Number of bytes used in the buffer
+
+    /**
+     * Constructs an empty ResponseHead.
+     */
+    private ResponseHead() {
+        this.buf = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Returns the head buffer of the current thread, emptied. The bytes must be
+     * written out before the thread serializes another head.
+     *
+     * @return the head buffer
+     */
+    static ResponseHead forCurrentThread() {
+        ResponseHead head = HEADS.get();
+        head.count = 0;
+        return head;
+    }
+
+    /**
+     * Returns the standard reason phrase of a status code.
+     *
+     * @param statusCode the status code
+     * @return the reason phrase, or null if the code is not a common one
+     */
+    static String reasonPhrase(int statusCode) {
+        return statusCode >= 0 && statusCode < REASONS.length ? REASONS[statusCode] : null;
+    }
+
+    /**
+     * Appends the status line.
+     *
+     * @param statusCode the status code
+     * @param statusMsg  the reason phrase, which uses the cached line when it is
+     *                   the standard one
+     * @return this head
+     */
+    ResponseHead statusLine(int statusCode, String statusMsg) {
+        String reason = reasonPhrase(statusCode);
+        if (reason != null && (statusMsg == null || reason.equals(statusMsg))) {
+            return append(STATUS_LINES[statusCode]);
+        }
+        append("HTTP/1.1 ");
+        append(Integer.toString(statusCode));
+        ensureCapacity(1);
+        buf[count++] = ' ';
+        append(statusMsg == null ? "" : statusMsg);
+        return append(CRLF);
+    }
+
+    /**
+     * Appends a header line.
+     *
+     * @param name  the header name
+     * @param value the header value
+     * @return this head
+     */
+    ResponseHead header(String name, String value) {
+        byte[] prefix = HeaderNames.prefix(name);
+        if (prefix != null) {
+            append(prefix);
+        } else {
+            append(name);
+            append(": ");
+        }
+        append(value);
+        return append(CRLF);
+    }
+
+    /**
+     * Appends the Date header line for the current second.
+     *
+     * @return this head
+     */
+    ResponseHead date() {
+        return append(cachedDate().line);
+    }
+
+    /**
+     * Returns the value of the Date header for the current second, for
+     * protocols that do not send a text head.
+     *
+     * @return the formatted date
+     */
+    static String currentDate() {
+        return cachedDate().value;
+    }
+
+    /**
+     * Formats a time as an HTTP date, for headers such as Last-Modified.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @return the formatted date
+     */
+    static String formatDate(long millis) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Returns the Date header of the current second, formatting it once per
+     * second.
+     *
+     * @return the cached date
+     */
+    private static CachedDate cachedDate() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate date = cachedDate;
+        if (date.second != second) {
+            String value = DATE_FORMAT.format(Instant.ofEpochSecond(second));
+            date = new CachedDate(second, value, ("date: " + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            cachedDate = date;
+        }
+        return date;
+    }
+
+    /**
+     * Appends the empty line ending the head.
+     *
+     * @return this head
+     */
+    ResponseHead end() {
+        return append(CRLF);
+    }
+
+    /**
+     * Returns the encoded head as a buffer over the reused array.
+     *
+     * @return the head bytes, in read mode
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Returns the array holding the encoded head.
+     *
+     * @return the array, valid up to {@link #length()}
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Returns the length of the encoded head.
+     *
+     * @return the number of bytes
+     */
+    int length() {
+        return count;
+    }
+
+    /**
+     * Appends bytes.
+     *
+     * @param bytes the bytes
+     * @return this head
+     */
+    private ResponseHead append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    /**
+     * Appends a String one char per byte. Header values outside Latin-1 are not
+     * valid on the wire and are replaced by '?'.
+     *
+     * @param s the String
+     * @return this head
+     */
+    private ResponseHead append(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            buf[count++] = c < 256 ? (byte) c : (byte) '?';
+        }
+        return this;
+    }
+
+    /**
+     * Grows the buffer if it cannot take more bytes.
+     *
+     * @param needed the number of bytes about to be appended
+     */
+    private void ensureCapacity(int needed) {
+        if (count + needed > buf.length) {
+            byte[] larger = new byte[Math.max(buf.length * 2, count + needed)];
+            System.arraycopy(buf, 0, larger, 0, count);
+            buf = larger;
+        }
+    }
+
+    /**
+     * Records the reason phrase and encoded status line of a standard code.
+     *
+     * @param statusCode the status code
+     * @param reason     the reason phrase
+     */
+    private static void reason(int statusCode, String reason) {
+        REASONS[statusCode] = reason;
+        STATUS_LINES[statusCode] = ("HTTP/1.1 " + statusCode + " " + reason + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,164 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The ResponseOutputStream class is the body stream handed out by
+ * {@link Response#getBodyStream()}. It collects small writes in a buffer and
+ * writes the response head before the first body bytes leave it. When the body
+ * length is unknown, each buffer written is framed as one chunk of
+ * {@code Transfer-Encoding: chunked}, and closing the stream writes the last
+ * chunk. Closing it never closes the connection, unless a body with a declared
+ * Content-Length ends short, which leaves the connection out of sync.
+ */
+class ResponseOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024; // Body bytes collected before they are written as one chunk
+    private static final byte[] CRLF = { '\r', '\n' }; // Line ending after chunk data
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(); // Zero-size chunk ending a chunked body
+
+    private final Response response; // Response whose head is written before the first body bytes
+    private final OutputStream out; // Output stream of the connection
+    private final boolean chunked; // Whether the body is framed with chunked transfer coding
+    private final long length; // Declared Content-Length, -1 if unknown
+    private final byte[] buffer; // Body bytes not yet written
+    private int count; // Number of bytes in the buffer
+    private long written; // Body bytes written to the connection
+    private boolean closed; // Whether the body is complete
+
+    /**
+     * Constructs a ResponseOutputStream.
+     *
+     * @param response the response the body belongs to
+     * @param out      the output stream of the connection
+     * @param chunked  whether the body is framed with chunked transfer coding
+     * @param length   the declared Content-Length, -1 if unknown
+     */
+    ResponseOutputStream(Response response, OutputStream out, boolean chunked, long length) {
+        this.response = response;
+        this.out = out;
+        this.chunked = chunked;
+        this.length = length;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= buffer.length) {
+            // Large writes skip the buffer and go out as a single chunk
+            flushBuffer();
+            writeData(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Writes the buffered body bytes and flushes the connection, so the client
+     * receives what has been produced so far.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Completes the body, writing the last chunk when the body is chunked. The
+     * connection stays open.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushBuffer();
+        response.commit();
+        if (chunked) {
+            out.write(LAST_CHUNK);
+        } else if (length != -1 && written != length) {
+            response.setKeepAlive(false); // The client cannot tell where the next response starts
+        }
+        out.flush();
+        closed = true;
+    }
+
+    /**
+     * Writes the buffered body bytes, committing the response head first.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void flushBuffer() throws IOException {
+        response.commit();
+        if (count > 0) {
+            writeData(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes body bytes to the connection, framed as a chunk if needed.
+     *
+     * @param b   the bytes
+     * @param off the offset in the array
+     * @param len the number of bytes
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeData(byte[] b, int off, int len) throws IOException {
+        response.commit();
+        if (len == 0) {
+            return; // An empty chunk would end the body
+        }
+        if (chunked) {
+            out.write(Integer.toHexString(len).getBytes());
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        } else {
+            out.write(b, off, len);
+        }
+        written += len;
+    }
+
+    /**
+     * Returns the number of body bytes written to the connection so far.
+     *
+     * @return the byte count
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Checks that the body is still open for writing.
+     *
+     * @throws IOException if the stream has been closed
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response body already closed");
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The Router class maps request paths to the handlers registered for them.
+ * Routes are compiled once when they are added:
+ * <ul>
+ * <li>Templates made of literal segments and {@code {name}} placeholders (e.g.
+ * {@code /files/{filename}}) go into a trie keyed by path segment. An optional
+ * leading {@code ^} and trailing {@code $} are ignored, so {@code ^/user-agent$}
+ * is the literal route {@code /user-agent}.</li>
+ * <li>Any other pattern is a regular expression, compiled once and matched
+ * against the whole path. Named groups become path parameters.</li>
+ * </ul>
+ * Lookups try the trie first, preferring a literal segment over a placeholder at
+ * every level, and fall back to the regular expressions in registration order.
+ *
+ * Routes can be added and removed while requests are being served. Lookups
+ * read an immutable snapshot of the trie and the regular expressions through a
+ * volatile field and never lock. Each change builds a new snapshot from the
+ * registered routes and publishes it at once, so a lookup sees the table either
+ * before or after a change, never halfway. Changes are serialized with each
+ * other and cost a rebuild of the table, which is meant for routes that change
+ * rarely compared to how often they are matched.
+ */
+class Router {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z_][A-Za-z0-9_]*)\\}"); // A {name} segment
+    private static final String REGEX_CHARS = "\\[](){}*+?|^$"; // Characters that make a pattern a regex
+
+    private final Map<String, Route> routes; // Registered routes by pattern, in registration order; guarded by this
+    private volatile Table table; // Compiled snapshot of the routes, read by lookups
+
+    /**
+     * Constructs an empty Router.
+     */
+    Router() {
+        this.routes = new LinkedHashMap<>();
+        this.table = new Table(routes.values());
+    }
+
+    /**
+     * Adds a handler for a method and route pattern, replacing the handler the
+     * pattern may already have for the method.
+     *
+     * @param method  the HTTP method
+     * @param pattern the route template or regular expression
+     * @param handler the handler for requests matching the method and pattern
+     * @throws IllegalArgumentException if the pattern is not a valid template or
+     *                                  regular expression
+     */
+    synchronized void addRoute(RequestMethod method, String pattern, RequestHandler handler) {
+        Route route = routes.get(pattern);
+        if (route == null) {
+            route = new Route(pattern); // Compiled first, so an invalid pattern changes nothing
+            routes.put(pattern, route);
+        }
+        route.handlers.put(method, handler);
+        table = new Table(routes.values());
+    }
+
+    /**
+     * Removes the handler of a method for a route pattern. The route goes away
+     * with its last handler.
+     *
+     * @param method  the HTTP method
+     * @param pattern the route pattern, as it was added
+     * @return true if the pattern had a handler for the method
+     */
+    synchronized boolean removeRoute(RequestMethod method, String pattern) {
+        Route route = routes.get(pattern);
+        if (route == null || route.handlers.remove(method) == null) {
+            return false;
+        }
+        if (route.handlers.isEmpty()) {
+            routes.remove(pattern);
+        }
+        table = new Table(routes.values());
+        return true;
+    }
+
+    /**
+     * Finds the route matching a path.
+     *
+     * @param path the request path, without query string
+     * @return the matched route, or null if no route matches
+     */
+    Match match(String path) {
+        Table table = this.table; // Read once, so the whole lookup sees one snapshot
+        if (path.startsWith("/")) {
+            String[] segments = splitPath(path);
+            String[] values = new String[segments.length];
+            Node node = find(table.root, segments, 0, values, 0);
+            if (node != null) {
+                if (node.paramNames.length == 0) {
+                    return new Match(node.pattern, node.handlers, Collections.emptyMap());
+                }
+                Map<String, String> params = new HashMap<>();
+                for (int i = 0; i < node.paramNames.length; i++) {
+                    params.put(node.paramNames[i], values[i]);
+                }
+                return new Match(node.pattern, node.handlers, params);
+            }
+        }
+
+        for (RegexRoute route : table.regexRoutes) {
+            Matcher matcher = route.pattern.matcher(path);
+            if (matcher.matches()) {
+                if (route.groupNames.isEmpty()) {
+                    return new Match(route.regex, route.handlers, Collections.emptyMap());
+                }
+                Map<String, String> params = new HashMap<>();
+                for (String name : route.groupNames) {
+                    params.put(name, matcher.group(name));
+                }
+                return new Match(route.regex, route.handlers, params);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recursively finds the trie node holding the handlers for the remaining
+     * segments, trying the literal child before the placeholder child.
+     *
+     * @param node       the current node
+     * @param segments   the segments of the path
+     * @param index      the index of the next segment to match
+     * @param values     the values captured by placeholders so far
+     * @param paramCount the number of values captured so far
+     * @return the matching node, or null if there is none
+     */
+    private static Node find(Node node, String[] segments, int index, String[] values, int paramCount) {
+        if (index == segments.length) {
+            return node.handlers != null ? node : null;
+        }
+
+        String segment = segments[index];
+        Node literal = node.literalChildren.get(segment);
+        if (literal != null) {
+            Node found = find(literal, segments, index + 1, values, paramCount);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        if (node.paramChild != null && !segment.isEmpty()) {
+            values[paramCount] = segment;
+            return find(node.paramChild, segments, index + 1, values, paramCount + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Turns a route pattern into a template if it is one.
+     *
+     * @param pattern the route pattern
+     * @return the template without anchors, or null if the pattern is a regex
+     */
+    private static String toTemplate(String pattern) {
+        String template = pattern;
+        if (template.startsWith("^")) {
+            template = template.substring(1);
+        }
+        if (template.endsWith("$")) {
+            template = template.substring(0, template.length() - 1);
+        }
+        if (!template.startsWith("/")) {
+            return null;
+        }
+
+        for (String segment : splitPath(template)) {
+            if (PLACEHOLDER.matcher(segment).matches()) {
+                continue;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (REGEX_CHARS.indexOf(segment.charAt(i)) != -1) {
+                    return null;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Splits a path starting with a slash into its segments.
+     *
+     * @param path the path
+     * @return the segments, {@code /} giving a single empty segment
+     */
+    private static String[] splitPath(String path) {
+        return path.substring(1).split("/", -1);
+    }
+
+    /**
+     * The Match class holds the result of a successful lookup.
+     */
+    static class Match {
+        private final String pattern; // Pattern the route was registered with
+        private final Map<RequestMethod, RequestHandler> handlers; // Handlers of the route by method
+        private final Map<String, String> pathParams; // Values captured from the path
+
+        /**
+         * Constructs a Match.
+         *
+         * @param pattern    the pattern the route was registered with
+         * @param handlers   the handlers of the matched route by method
+         * @param pathParams the values captured from the path
+         */
+        Match(String pattern, Map<RequestMethod, RequestHandler> handlers, Map<String, String> pathParams) {
+            this.pattern = pattern;
+            this.handlers = handlers;
+            this.pathParams = pathParams;
+        }
+
+        /**
+         * Returns the pattern the matched route was registered with, first
+         * come if several patterns compile to the same route.
+         *
+         * @return the route pattern
+         */
+        String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Returns the handler of the matched route for a method.
+         *
+         * @param method the HTTP method
+         * @return the handler, or null if the route has none for the method
+         */
+        RequestHandler getHandler(RequestMethod method) {
+            return handlers.get(method);
+        }
+
+        /**
+         * Returns the values captured from the path.
+         *
+         * @return the path parameters by name
+         */
+        Map<String, String> getPathParams() {
+            return pathParams;
+        }
+    }
+
+    /**
+     * The Route class is a registered route, compiled once when first added.
+     * Its handlers are only changed under the lock of the router, and copied
+     * into each snapshot.
+     */
+    private static class Route {
+        private final String pattern; // Pattern as registered
+        private final String template; // Template without anchors, or null for a regex
+        private final Pattern regex; // Compiled regular expression, or null for a template
+        private final Map<RequestMethod, RequestHandler> handlers; // Handlers by method
+
+        /**
+         * Compiles a route.
+         *
+         * @param pattern the route template or regular expression
+         * @throws IllegalArgumentException if the pattern is not a valid regex
+         */
+        Route(String pattern) {
+            this.pattern = pattern;
+            this.template = toTemplate(pattern);
+            this.regex = template == null ? Pattern.compile(pattern) : null;
+            this.handlers = new EnumMap<>(RequestMethod.class);
+        }
+    }
+
+    /**
+     * The Table class is an immutable snapshot of the routes: the template trie
+     * and the regular expressions. It is never modified once published.
+     */
+    private static class Table {
+        private final Node root; // Root of the template trie
+        private final RegexRoute[] regexRoutes; // Regex routes, in registration order
+
+        /**
+         * Compiles the routes into a snapshot.
+         *
+         * @param routes the registered routes, in registration order
+         */
+        Table(Collection<Route> routes) {
+            this.root = new Node();
+            List<RegexRoute> regexRoutes = new ArrayList<>();
+            for (Route route : routes) {
+                if (route.template == null) {
+                    regexRoutes.add(new RegexRoute(route));
+                } else {
+                    addTemplate(route);
+                }
+            }
+            this.regexRoutes = regexRoutes.toArray(new RegexRoute[0]);
+        }
+
+        /**
+         * Adds a template route to the trie. Patterns compiling to the same
+         * template share a node, keeping the first pattern.
+         *
+         * @param route the template route
+         */
+        private void addTemplate(Route route) {
+            // Walk down the trie, creating nodes for the segments of the template
+            Node node = root;
+            List<String> paramNames = new ArrayList<>();
+            for (String segment : splitPath(route.template)) {
+                Matcher placeholder = PLACEHOLDER.matcher(segment);
+                if (placeholder.matches()) {
+                    if (node.paramChild == null) {
+                        node.paramChild = new Node();
+                    }
+                    node = node.paramChild;
+                    paramNames.add(placeholder.group(1));
+                } else {
+                    node = node.literalChildren.computeIfAbsent(segment, s -> new Node());
+                }
+            }
+
+            if (node.handlers == null) {
+                node.handlers = new EnumMap<>(RequestMethod.class);
+                node.paramNames = paramNames.toArray(new String[0]);
+                node.pattern = route.pattern;
+            }
+            node.handlers.putAll(route.handlers);
+        }
+    }
+
+    /**
+     * The Node class is a node of the template trie.
+     */
+    private static class Node {
+        private final Map<String, Node> literalChildren = new HashMap<>(); // Children by literal segment
+        private Node paramChild; // Child matching any non-empty segment
+        private Map<RequestMethod, RequestHandler> handlers; // Handlers if a route ends here
+        private String[] paramNames; // Placeholder names of the route ending here, in path order
+        private String pattern; // Pattern of the route ending here
+    }
+
+    /**
+     * The RegexRoute class is a route given as a regular expression, as found
+     * in a snapshot.
+     */
+    private static class RegexRoute {
+        private final String regex; // Regular expression as registered
+        private final Pattern pattern; // Compiled pattern
+        private final List<String> groupNames; // Named groups of the pattern
+        private final Map<RequestMethod, RequestHandler> handlers; // Handlers by method
+
+        /**
+         * Copies a regex route into a snapshot.
+         *
+         * @param route the registered route
+         */
+        RegexRoute(Route route) {
+            this.regex = route.pattern;
+            this.pattern = route.regex;
+            this.groupNames = new ArrayList<>(pattern.namedGroups().keySet());
+            this.handlers = new EnumMap<>(route.handlers);
+        }
+    }
+}
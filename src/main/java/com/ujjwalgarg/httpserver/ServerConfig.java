@@ -0,0 +1,821 @@
+package com.ujjwalgarg.httpserver;
+
+/**
+ * The ServerConfig class holds the tunable settings of an {@link HttpServer}.
+ * A default instance is created by the server if none is supplied, so only the
+ * settings that differ from the defaults need to be changed. Every setter
+ * returns the config, so a configuration is built in one chained expression:
+ *
+ * <pre>
+ * new ServerConfig()
+ *         .setEngineType(EngineType.NIO)
+ *         .setAcceptorThreads(4)
+ *         .setReusePort(true)
+ *         .setBacklog(4096);
+ * </pre>
+ */
+public class ServerConfig {
+    private int idleTimeoutMillis = 15_000; // Time a keep-alive connection may wait for its next request
+    private int maxRequestsPerConnection = 100; // Requests served on one connection before it is closed
+    private int maxPipelinedRequests = 16; // Requests of one connection handled before their responses are written
+    private EngineType engineType = EngineType.BLOCKING; // How connections are served
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors(); // Selector threads of the NIO engine
+    private ExecutionMode executionMode = ExecutionMode.VIRTUAL_THREADS; // Threads running connections or handlers
+    private int poolSize = 200; // Threads of the bounded pool
+    private int queueCapacity = 1000; // Tasks waiting for a thread of the bounded pool
+    private boolean strictParsing = false; // Whether lenient request syntax is rejected
+    private long maxBodySize = 64L * 1024 * 1024; // Largest request body accepted, in bytes
+    private boolean compression = true; // Whether text responses are gzip-encoded for clients accepting it
+    private int compressionMinSize = 1024; // Smallest body compressed, in bytes
+    private boolean conditionalGet = true; // Whether GET responses get ETags and 304 Not Modified answers
+    private long asyncTimeoutMillis = 30_000; // Time async handlers have to complete, unless their route sets one
+    private int backlog = 0; // Pending connections queued by the listening socket, 0 for the JDK default
+    private boolean tcpNoDelay = true; // Whether Nagle's algorithm is turned off on accepted sockets
+    private boolean keepAlive = false; // Whether TCP keep-alive probes are sent on accepted sockets
+    private int sendBufferSize = 0; // SO_SNDBUF of accepted sockets in bytes, 0 for the OS default
+    private int receiveBufferSize = 0; // SO_RCVBUF of accepted sockets in bytes, 0 for the OS default
+    private int acceptorThreads = 1; // Threads accepting connections
+    private boolean reusePort = false; // Whether each acceptor binds its own socket with SO_REUSEPORT
+    private int maxConnections = 0; // Connections open at once, 0 for no limit
+    private int maxConnectionsPerAddress = 0; // Connections open at once from one client address, 0 for no limit
+    private int headerTimeoutMillis = 10_000; // Time a request head may take to arrive once it has started
+    private int bodyTimeoutMillis = 30_000; // Time a request body may go without a byte arriving
+    private int writeTimeoutMillis = 30_000; // Time a response may go without a byte being sent
+    private int maxHeaderSize = RequestParser.MAX_HEAD_SIZE; // Largest request line plus headers, in bytes
+    private int maxHeaderCount = RequestParser.MAX_HEADER_COUNT; // Largest number of request header lines
+    private boolean bufferLeakDetection = false; // Whether pooled buffers remember where they were acquired
+    private boolean http2Enabled = true; // Whether the blocking engine serves HTTP/2 over cleartext
+    private int maxConcurrentStreams = 100; // HTTP/2 streams open at once on one connection
+
+    /**
+     * Returns the idle timeout of persistent connections.
+     *
+     * @return the idle timeout in milliseconds, 0 meaning no timeout
+     */
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a persistent connection may stay idle between two requests
+     * before the server closes it.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds, 0 meaning no
+     *                          timeout
+     * @return this config, for chaining
+     */
+    public ServerConfig setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of requests served on a single connection.
+     *
+     * @return the maximum number of requests, 0 meaning unlimited
+     */
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets the maximum number of requests served on a single connection. The
+     * response to the last allowed request carries {@code Connection: close}.
+     *
+     * @param maxRequestsPerConnection the maximum number of requests, 0 meaning
+     *                                 unlimited
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 0) {
+            throw new IllegalArgumentException("maxRequestsPerConnection must not be negative");
+        }
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of pipelined requests in flight on a single
+     * connection.
+     *
+     * @return the maximum number of requests
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /**
+     * Sets the maximum number of pipelined requests in flight on a single
+     * connection, that is read and handled while the responses to earlier
+     * requests are not written yet. Once the cap is reached the connection is
+     * not read until responses go out, so a single client cannot make the
+     * server queue an unbounded number of responses.
+     *
+     * @param maxPipelinedRequests the maximum number of requests, at least 1
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxPipelinedRequests(int maxPipelinedRequests) {
+        if (maxPipelinedRequests < 1) {
+            throw new IllegalArgumentException("maxPipelinedRequests must be at least 1");
+        }
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        return this;
+    }
+
+    /**
+     * Returns the engine used to serve connections.
+     *
+     * @return the engine type
+     */
+    public EngineType getEngineType() {
+        return engineType;
+    }
+
+    /**
+     * Sets the engine used to serve connections.
+     *
+     * @param engineType the engine type
+     * @return this config, for chaining
+     */
+    public ServerConfig setEngineType(EngineType engineType) {
+        if (engineType == null) {
+            throw new IllegalArgumentException("engineType must not be null");
+        }
+        this.engineType = engineType;
+        return this;
+    }
+
+    /**
+     * Returns the number of selector threads of the NIO engine.
+     *
+     * @return the number of event loop threads
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Sets the number of selector threads of the NIO engine. Defaults to the
+     * number of available processors.
+     *
+     * @param eventLoopThreads the number of event loop threads
+     * @return this config, for chaining
+     */
+    public ServerConfig setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("eventLoopThreads must be at least 1");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+        return this;
+    }
+
+    /**
+     * Returns the threading strategy of the server.
+     *
+     * @return the execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets the threading strategy of the server. It runs connections in the
+     * blocking engine and request handlers in the NIO engine.
+     *
+     * @param executionMode the execution mode
+     * @return this config, for chaining
+     */
+    public ServerConfig setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) {
+            throw new IllegalArgumentException("executionMode must not be null");
+        }
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    /**
+     * Returns the number of threads of the bounded pool.
+     *
+     * @return the pool size
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets the number of threads of the bounded pool. Only used with
+     * {@link ExecutionMode#BOUNDED_POOL}.
+     *
+     * @param poolSize the pool size
+     * @return this config, for chaining
+     */
+    public ServerConfig setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of tasks that may wait for a thread of the bounded pool.
+     *
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the number of tasks that may wait for a thread of the bounded pool.
+     * Connections arriving while the queue is full are answered with 503 Service
+     * Unavailable. Only used with {@link ExecutionMode#BOUNDED_POOL}.
+     *
+     * @param queueCapacity the queue capacity
+     * @return this config, for chaining
+     */
+    public ServerConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Tells whether requests are parsed in strict mode.
+     *
+     * @return true if lenient request syntax is rejected
+     */
+    public boolean isStrictParsing() {
+        return strictParsing;
+    }
+
+    /**
+     * Sets whether requests are parsed in strict mode. Strict parsing requires
+     * CRLF line endings, single spaces in the request line and no whitespace
+     * before header colons, and answers anything else with 400 Bad Request.
+     * Lenient parsing tolerates those deviations.
+     *
+     * @param strictParsing true to reject lenient request syntax
+     * @return this config, for chaining
+     */
+    public ServerConfig setStrictParsing(boolean strictParsing) {
+        this.strictParsing = strictParsing;
+        return this;
+    }
+
+    /**
+     * Returns the largest request body accepted.
+     *
+     * @return the maximum body size in bytes, 0 meaning unlimited
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Sets the largest request body accepted. Requests declaring a larger
+     * Content-Length, or chunked bodies growing larger, are answered with 413
+     * Content Too Large. The NIO engine buffers bodies before dispatching them,
+     * so this also bounds its memory use per connection.
+     *
+     * @param maxBodySize the maximum body size in bytes, 0 meaning unlimited
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("maxBodySize must not be negative");
+        }
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Tells whether text responses are gzip-encoded for clients accepting it.
+     *
+     * @return true if compression is on
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether text responses are gzip-encoded for clients accepting it.
+     *
+     * @param compression true to turn compression on
+     * @return this config, for chaining
+     */
+    public ServerConfig setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Returns the smallest body compressed.
+     *
+     * @return the size in bytes
+     */
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    /**
+     * Sets the smallest body compressed. Smaller bodies gain too little to be
+     * worth the CPU time and the gzip framing. Streamed bodies of unknown length
+     * are always compressed.
+     *
+     * @param compressionMinSize the size in bytes
+     * @return this config, for chaining
+     */
+    public ServerConfig setCompressionMinSize(int compressionMinSize) {
+        if (compressionMinSize < 0) {
+            throw new IllegalArgumentException("compressionMinSize must not be negative");
+        }
+        this.compressionMinSize = compressionMinSize;
+        return this;
+    }
+
+    /**
+     * Tells whether conditional GET requests are answered with 304 Not
+     * Modified.
+     *
+     * @return true if conditional GET is on
+     */
+    public boolean isConditionalGet() {
+        return conditionalGet;
+    }
+
+    /**
+     * Sets whether GET and HEAD responses whose ETag matches If-None-Match, or
+     * whose Last-Modified is not later than If-Modified-Since, are answered with
+     * 304 Not Modified. Responses with a body set at once and no ETag get a
+     * weak one computed from the body.
+     *
+     * @param conditionalGet true to answer conditional GET requests
+     * @return this config, for chaining
+     */
+    public ServerConfig setConditionalGet(boolean conditionalGet) {
+        this.conditionalGet = conditionalGet;
+        return this;
+    }
+
+    /**
+     * Returns the time asynchronous handlers have to complete their response,
+     * for routes added without a timeout of their own.
+     *
+     * @return the timeout in milliseconds, 0 meaning no limit
+     */
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
+    }
+
+    /**
+     * Sets the time asynchronous handlers have to complete their response, for
+     * routes added without a timeout of their own. Requests whose handler takes
+     * longer are answered with 504 Gateway Timeout.
+     *
+     * @param asyncTimeoutMillis the timeout in milliseconds, 0 meaning no limit
+     * @return this config, for chaining
+     */
+    public ServerConfig setAsyncTimeoutMillis(long asyncTimeoutMillis) {
+        if (asyncTimeoutMillis < 0) {
+            throw new IllegalArgumentException("asyncTimeoutMillis must not be negative");
+        }
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Returns the length of the queue of connections waiting to be accepted.
+     *
+     * @return the backlog, 0 meaning the JDK default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Sets the length of the queue of connections the kernel has completed but
+     * the server has not accepted yet. Connections arriving while it is full are
+     * refused or dropped, so bursts of new connections need a deep queue. The
+     * kernel may cap the value (net.core.somaxconn on Linux).
+     *
+     * @param backlog the backlog, 0 meaning the JDK default
+     * @return this config, for chaining
+     */
+    public ServerConfig setBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("backlog must not be negative");
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Tells whether Nagle's algorithm is turned off on accepted sockets.
+     *
+     * @return true if TCP_NODELAY is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether Nagle's algorithm is turned off on accepted sockets. Both
+     * engines gather each response into as few writes as possible, so holding
+     * back small segments only adds latency, notably to the last segment of a
+     * response while the client delays its acknowledgement.
+     *
+     * @param tcpNoDelay true to set TCP_NODELAY
+     * @return this config, for chaining
+     */
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Tells whether TCP keep-alive probes are sent on accepted sockets.
+     *
+     * @return true if SO_KEEPALIVE is set
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether TCP keep-alive probes are sent on accepted sockets, so
+     * connections to clients that vanished without closing them are eventually
+     * detected. This is unrelated to HTTP persistent connections, which the idle
+     * timeout bounds.
+     *
+     * @param keepAlive true to set SO_KEEPALIVE
+     * @return this config, for chaining
+     */
+    public ServerConfig setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Returns the send buffer size of accepted sockets.
+     *
+     * @return the size in bytes, 0 meaning the OS default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the send buffer size of accepted sockets. Larger buffers let large
+     * responses leave in fewer writes over links with a high bandwidth-delay
+     * product. The OS may round or cap the value.
+     *
+     * @param sendBufferSize the size in bytes, 0 meaning the OS default
+     * @return this config, for chaining
+     */
+    public ServerConfig setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize must not be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Returns the receive buffer size of accepted sockets.
+     *
+     * @return the size in bytes, 0 meaning the OS default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the receive buffer size of accepted sockets. It is set on the
+     * listening socket, which accepted sockets inherit it from, because a TCP
+     * window above 64 KB can only be negotiated before the connection is
+     * established. The OS may round or cap the value.
+     *
+     * @param receiveBufferSize the size in bytes, 0 meaning the OS default
+     * @return this config, for chaining
+     */
+    public ServerConfig setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of threads accepting connections.
+     *
+     * @return the number of acceptor threads
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Sets the number of threads accepting connections. The thread calling
+     * {@link HttpServer#start()} is one of them. Without
+     * {@link #setReusePort(boolean)} they share the listening socket, where the
+     * JDK lets one thread accept at a time, so extra acceptors only overlap the
+     * work done after each accept; with it, each one accepts on a socket of its
+     * own.
+     *
+     * @param acceptorThreads the number of acceptor threads
+     * @return this config, for chaining
+     */
+    public ServerConfig setAcceptorThreads(int acceptorThreads) {
+        if (acceptorThreads < 1) {
+            throw new IllegalArgumentException("acceptorThreads must be at least 1");
+        }
+        this.acceptorThreads = acceptorThreads;
+        return this;
+    }
+
+    /**
+     * Tells whether each acceptor thread binds its own listening socket.
+     *
+     * @return true if SO_REUSEPORT is used
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Sets whether each acceptor thread binds its own listening socket to the
+     * port with SO_REUSEPORT, letting the kernel spread new connections over
+     * the sockets so the acceptors never contend. Where SO_REUSEPORT is not
+     * supported the acceptors share a single socket instead.
+     *
+     * @param reusePort true to bind a socket per acceptor
+     * @return this config, for chaining
+     */
+    public ServerConfig setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of connections open at once.
+     *
+     * @return the maximum number of connections, 0 meaning unlimited
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections open at once. Connections accepted
+     * beyond it are answered with 503 Service Unavailable and closed, so that a
+     * flood of connections cannot exhaust threads, memory or file descriptors.
+     *
+     * @param maxConnections the maximum number of connections, 0 meaning
+     *                       unlimited
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 0) {
+            throw new IllegalArgumentException("maxConnections must not be negative");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of connections open at once from a single
+     * client address.
+     *
+     * @return the maximum number of connections, 0 meaning unlimited
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /**
+     * Sets the maximum number of connections open at once from a single client
+     * address, so one client cannot take all of {@link #getMaxConnections()}.
+     * Connections accepted beyond it are answered with 503 Service Unavailable
+     * and closed. Clients behind a shared proxy or NAT count as one address.
+     *
+     * @param maxConnectionsPerAddress the maximum number of connections, 0
+     *                                 meaning unlimited
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        if (maxConnectionsPerAddress < 0) {
+            throw new IllegalArgumentException("maxConnectionsPerAddress must not be negative");
+        }
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        return this;
+    }
+
+    /**
+     * Returns the time a request head may take to arrive.
+     *
+     * @return the header timeout in milliseconds, 0 meaning no timeout
+     */
+    public int getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+
+    /**
+     * Sets the time a request head may take to arrive, counted from its first
+     * byte. It is a deadline for the whole head rather than for each read, so a
+     * client trickling a byte at a time cannot hold the connection (slowloris).
+     * Heads still incomplete are answered with 408 Request Timeout. The wait
+     * before the first byte is bounded by the idle timeout instead.
+     *
+     * @param headerTimeoutMillis the header timeout in milliseconds, 0 meaning
+     *                            no timeout
+     * @return this config, for chaining
+     */
+    public ServerConfig setHeaderTimeoutMillis(int headerTimeoutMillis) {
+        if (headerTimeoutMillis < 0) {
+            throw new IllegalArgumentException("headerTimeoutMillis must not be negative");
+        }
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Returns the time a request body may go without a byte arriving.
+     *
+     * @return the body timeout in milliseconds, 0 meaning no timeout
+     */
+    public int getBodyTimeoutMillis() {
+        return bodyTimeoutMillis;
+    }
+
+    /**
+     * Sets the time a request body may go without a byte arriving. It is reset
+     * by every read, so large uploads over slow links are not cut off. Bodies
+     * that stall are answered with 408 Request Timeout, unless the handler has
+     * already started its response.
+     *
+     * @param bodyTimeoutMillis the body timeout in milliseconds, 0 meaning no
+     *                          timeout
+     * @return this config, for chaining
+     */
+    public ServerConfig setBodyTimeoutMillis(int bodyTimeoutMillis) {
+        if (bodyTimeoutMillis < 0) {
+            throw new IllegalArgumentException("bodyTimeoutMillis must not be negative");
+        }
+        this.bodyTimeoutMillis = bodyTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Returns the time a response may go without a byte being sent.
+     *
+     * @return the write timeout in milliseconds, 0 meaning no timeout
+     */
+    public int getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * Sets the time a response may go without a byte being sent, for clients
+     * that stop reading. It is reset by every write that makes progress. The
+     * connection is closed when it expires, since no response can get through.
+     *
+     * @param writeTimeoutMillis the write timeout in milliseconds, 0 meaning no
+     *                           timeout
+     * @return this config, for chaining
+     */
+    public ServerConfig setWriteTimeoutMillis(int writeTimeoutMillis) {
+        if (writeTimeoutMillis < 0) {
+            throw new IllegalArgumentException("writeTimeoutMillis must not be negative");
+        }
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Returns the largest request head accepted.
+     *
+     * @return the size of the request line plus headers, in bytes
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Sets the largest request head accepted. Larger heads are answered with 431
+     * Request Header Fields Too Large. Heads are buffered whole before they are
+     * parsed, so this bounds the memory a connection can take before its
+     * request is known.
+     *
+     * @param maxHeaderSize the size of the request line plus headers, in bytes
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxHeaderSize(int maxHeaderSize) {
+        if (maxHeaderSize < 1) {
+            throw new IllegalArgumentException("maxHeaderSize must be at least 1");
+        }
+        this.maxHeaderSize = maxHeaderSize;
+        return this;
+    }
+
+    /**
+     * Returns the largest number of request header lines accepted.
+     *
+     * @return the number of header lines
+     */
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    /**
+     * Sets the largest number of request header lines accepted. Requests with
+     * more are answered with 431 Request Header Fields Too Large.
+     *
+     * @param maxHeaderCount the number of header lines
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxHeaderCount(int maxHeaderCount) {
+        if (maxHeaderCount < 1) {
+            throw new IllegalArgumentException("maxHeaderCount must be at least 1");
+        }
+        this.maxHeaderCount = maxHeaderCount;
+        return this;
+    }
+
+    /**
+     * Tells whether the read buffer pools track where each buffer was acquired.
+     *
+     * @return true if leak detection is on
+     */
+    public boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    /**
+     * Sets whether the read buffer pools track where each buffer was acquired,
+     * catch buffers released twice, and report the ones garbage collected
+     * without being released. It costs a stack trace per connection, so it is
+     * meant for tests and debugging.
+     *
+     * @param bufferLeakDetection true to turn leak detection on
+     * @return this config, for chaining
+     */
+    public ServerConfig setBufferLeakDetection(boolean bufferLeakDetection) {
+        this.bufferLeakDetection = bufferLeakDetection;
+        return this;
+    }
+
+    /**
+     * Tells whether connections may speak HTTP/2 over cleartext (h2c).
+     *
+     * @return true if HTTP/2 is served
+     */
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Sets whether connections may speak HTTP/2 over cleartext (h2c), either
+     * by starting with the HTTP/2 connection preface or by upgrading an
+     * HTTP/1.1 request with {@code Upgrade: h2c}. Only the blocking engine
+     * serves HTTP/2; the NIO engine answers such connections as HTTP/1.1.
+     *
+     * @param http2Enabled true to serve HTTP/2
+     * @return this config, for chaining
+     */
+    public ServerConfig setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+        return this;
+    }
+
+    /**
+     * Returns the number of HTTP/2 streams a connection may have open at once.
+     *
+     * @return the number of streams
+     */
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * Sets the number of HTTP/2 streams a connection may have open at once,
+     * announced to clients in SETTINGS_MAX_CONCURRENT_STREAMS. Streams over the
+     * limit are refused and may be retried by the client.
+     *
+     * @param maxConcurrentStreams the number of streams
+     * @return this config, for chaining
+     */
+    public ServerConfig setMaxConcurrentStreams(int maxConcurrentStreams) {
+        if (maxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("maxConcurrentStreams must be at least 1");
+        }
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+}
@@ -0,0 +1,38 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+
+/**
+ * The ServerEngine interface defines how an {@link HttpServer} accepts and
+ * serves connections. Every engine dispatches requests through the same
+ * {@link RequestDispatcher}.
+ */
+interface ServerEngine {
+
+    /**
+     * Binds the port and serves connections until {@link #stop()} is called.
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    void start(int port) throws IOException;
+
+    /**
+     * Stops accepting connections and releases the threads of the engine.
+     */
+    void stop();
+
+    /**
+     * Returns the number of connections or handlers currently running.
+     *
+     * @return the active count
+     */
+    int getActiveCount();
+
+    /**
+     * Returns the number of connections or handlers waiting for a thread.
+     *
+     * @return the queue depth
+     */
+    int getQueueDepth();
+}
@@ -0,0 +1,227 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The ServerListener class binds the listening sockets of an engine and runs
+ * its acceptor threads. Both engines hand it what to do with each accepted
+ * channel; it applies the socket options of the {@link ServerConfig} first.
+ * Connections over the limits of the {@link ConnectionLimiter} are answered
+ * with 503 Service Unavailable and closed without reaching the engine; the
+ * others hold a permit that the engine gives back when it closes them.
+ *
+ * With {@link ServerConfig#isReusePort()} every acceptor binds a channel of its
+ * own with SO_REUSEPORT and the kernel balances new connections between them.
+ * Otherwise all acceptors block in accept on a single channel.
+ */
+class ServerListener {
+
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "content-length: 0\r\nconnection: close\r\n\r\n").getBytes(); // Answer to refused connections
+    private static final long ACCEPT_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Pause after a failed accept
+
+    private final ServerConfig config; // Socket options and acceptor settings
+    private final ConnectionLimiter limiter; // Limits on open connections
+    private final ServerMetrics metrics; // Counts refused connections
+    private final List<ServerSocketChannel> channels; // Listening channels, one per acceptor with SO_REUSEPORT
+
+    /**
+     * Constructs a ServerListener.
+     *
+     * @param config  the socket options and acceptor settings
+     * @param limiter the limits on open connections
+     * @param metrics the metrics counting refused connections
+     */
+    ServerListener(ServerConfig config, ConnectionLimiter limiter, ServerMetrics metrics) {
+        this.config = config;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.channels = new ArrayList<>();
+    }
+
+    /**
+     * Binds the listening channels to a port.
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    synchronized void bind(int port) throws IOException {
+        int count = 1;
+        if (config.isReusePort() && config.getAcceptorThreads() > 1) {
+            try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+                if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    count = config.getAcceptorThreads();
+                } else {
+                    System.out.println("SO_REUSEPORT is not supported, acceptors share one socket");
+                }
+            }
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (count > 1) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                if (config.getReceiveBufferSize() > 0) {
+                    // Inherited by accepted sockets, and needed before the handshake to scale the window
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+                }
+                // Later channels join the port the first one got, even if it was chosen by the OS
+                channel.bind(new InetSocketAddress(i == 0 ? port : getPort()), config.getBacklog());
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        System.out.println("Listening on port: %d".formatted(getPort()));
+    }
+
+    /**
+     * Returns the port the channels are bound to.
+     *
+     * @return the local port
+     * @throws IOException if the channels are closed
+     */
+    synchronized int getPort() throws IOException {
+        return ((InetSocketAddress) channels.get(0).getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accepts connections on the configured number of threads until the
+     * listener is closed. The calling thread is the first acceptor; the others
+     * are started here and joined before returning.
+     *
+     * @param threadName the name prefix of the extra acceptor threads
+     * @param handler    takes over each accepted channel, configured, still in
+     *                   blocking mode and holding a permit of the limiter
+     */
+    void accept(String threadName, Consumer<SocketChannel> handler) {
+        List<ServerSocketChannel> channels;
+        synchronized (this) {
+            channels = List.copyOf(this.channels);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i < config.getAcceptorThreads(); i++) {
+            ServerSocketChannel channel = channels.get(i % channels.size());
+            Thread thread = new Thread(() -> acceptLoop(channel, handler), threadName + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        acceptLoop(channels.get(0), handler);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accepts connections on one channel until it is closed. Failures such as
+     * running out of file descriptors are reported and retried after a pause
+     * rather than ending the loop, so the server recovers once they clear.
+     *
+     * @param channel the listening channel
+     * @param handler takes over each accepted channel
+     */
+    private void acceptLoop(ServerSocketChannel channel, Consumer<SocketChannel> handler) {
+        while (channel.isOpen()) {
+            SocketChannel clientChannel;
+            try {
+                clientChannel = channel.accept();
+            } catch (ClosedChannelException e) {
+                break; // close() closed the channel
+            } catch (IOException e) {
+                if (!channel.isOpen()) {
+                    break;
+                }
+                e.printStackTrace();
+                LockSupport.parkNanos(ACCEPT_RETRY_NANOS);
+                continue;
+            }
+
+            InetAddress address = clientChannel.socket().getInetAddress();
+            if (!limiter.tryAcquire(address)) {
+                metrics.connectionRejected();
+                reject(clientChannel);
+                continue;
+            }
+            try {
+                configure(clientChannel);
+            } catch (IOException e) {
+                // The client is gone already
+                limiter.release(address);
+                try {
+                    clientChannel.close();
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                continue;
+            }
+            handler.accept(clientChannel);
+        }
+    }
+
+    /**
+     * Answers a connection the server has no room for with 503 Service
+     * Unavailable and closes it, without reading the request.
+     *
+     * @param channel the refused connection, in blocking mode
+     */
+    static void reject(SocketChannel channel) {
+        try (SocketChannel socket = channel) {
+            socket.write(ByteBuffer.wrap(SERVICE_UNAVAILABLE));
+        } catch (IOException e) {
+            // The client is gone already, nothing left to tell it
+        }
+    }
+
+    /**
+     * Applies the socket options of the configuration to an accepted channel.
+     *
+     * @param channel the accepted channel
+     * @throws IOException if an option cannot be set
+     */
+    private void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.isKeepAlive()) {
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        }
+        if (config.getSendBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+        }
+    }
+
+    /**
+     * Closes the listening channels, making {@link #accept(String, Consumer)}
+     * return.
+     */
+    synchronized void close() {
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The ServerMetrics class collects the instrumentation of a server: request
+ * counts by route, method and status, latency histograms by route and by
+ * phase of the request, bytes received and sent, and open connections. Gauges
+ * read on demand, such as busy threads and queued tasks, can be added with
+ * {@link #registerGauge(String, String, LongSupplier)}.
+ *
+ * Counters are {@link LongAdder}s, which spread concurrent updates over
+ * several cells and sum them only when read, so recording stays cheap on the
+ * request path. {@link #toPrometheus()} exports everything in the Prometheus
+ * text format, which {@link MetricsHandler} serves.
+ */
+public class ServerMetrics {
+
+    /**
+     * The Phase enum lists the parts of serving a request that are timed
+     * separately.
+     */
+    public enum Phase {
+        /** Parsing the request line and headers. */
+        PARSE,
+        /** Finding the route of the request. */
+        ROUTE,
+        /** Running the handler, until an asynchronous one completes. */
+        HANDLER,
+        /** Serializing and writing the response. */
+        WRITE
+    }
+
+    private static final String UNMATCHED = "unmatched"; // Route label of requests matching no route
+    private static final int STATUS_CODES = 600; // Status codes counted per route and method
+
+    private final Map<String, RouteMetrics> routes; // Metrics of each route pattern
+    private final Map<Phase, LatencyHistogram> phases; // Latency of each phase
+    private final LongAdder bytesIn; // Bytes read from clients
+    private final LongAdder bytesOut; // Bytes written to clients
+    private final LongAdder connectionsOpened; // Connections accepted
+    private final LongAdder activeConnections; // Connections currently open
+    private final LongAdder connectionsRejected; // Connections refused by the connection limits
+    private final Map<TimeoutPhase, LongAdder> timeouts; // Expired timeouts by phase
+    private final CopyOnWriteArrayList<Gauge> gauges; // Values read when exporting
+
+    /**
+     * The RouteMetrics class holds the counters and latency of one route.
+     */
+    private static class RouteMetrics {
+        private final String label; // Escaped route pattern
+        private final AtomicReferenceArray<LongAdder> counts; // Requests by method and status, created on first use
+        private final LatencyHistogram latency; // Time from dispatch to the end of the response
+
+        /**
+         * Constructs the metrics of a route.
+         *
+         * @param route the route pattern
+         */
+        RouteMetrics(String route) {
+            this.label = escape(route);
+            this.counts = new AtomicReferenceArray<>(RequestMethod.values().length * STATUS_CODES);
+            this.latency = new LatencyHistogram();
+        }
+
+        /**
+         * Counts a request.
+         *
+         * @param method     the request method
+         * @param statusCode the status code of the response
+         */
+        void count(RequestMethod method, int statusCode) {
+            int status = statusCode >= 0 && statusCode < STATUS_CODES ? statusCode : 0;
+            int index = method.ordinal() * STATUS_CODES + status;
+            LongAdder count = counts.get(index);
+            if (count == null) {
+                counts.compareAndSet(index, null, new LongAdder());
+                count = counts.get(index);
+            }
+            count.increment();
+        }
+    }
+
+    /**
+     * The Gauge class is a value read when the metrics are exported.
+     */
+    private static class Gauge {
+        private final String name; // Metric name
+        private final String help; // Description of the metric
+        private final LongSupplier value; // Reads the current value
+
+        /**
+         * Constructs a Gauge.
+         *
+         * @param name  the metric name
+         * @param help  the description of the metric
+         * @param value reads the current value
+         */
+        Gauge(String name, String help, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Constructs an empty ServerMetrics.
+     */
+    public ServerMetrics() {
+        this.routes = new ConcurrentHashMap<>();
+        this.phases = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.connectionsOpened = new LongAdder();
+        this.activeConnections = new LongAdder();
+        this.connectionsRejected = new LongAdder();
+        this.timeouts = new EnumMap<>(TimeoutPhase.class);
+        for (TimeoutPhase phase : TimeoutPhase.values()) {
+            timeouts.put(phase, new LongAdder());
+        }
+        this.gauges = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Adds a gauge read every time the metrics are exported.
+     *
+     * @param name  the metric name
+     * @param help  the description of the metric
+     * @param value reads the current value
+     */
+    public void registerGauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /**
+     * Records the duration of a phase of a request.
+     *
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    void recordPhase(Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    /**
+     * Records a request once its response has been sent.
+     *
+     * @param method     the request method
+     * @param route      the matched route pattern, or null if none matched
+     * @param statusCode the status code of the response
+     * @param nanos      the time from dispatch to the end of the response
+     */
+    void recordRequest(RequestMethod method, String route, int statusCode, long nanos) {
+        RouteMetrics metrics = routes.computeIfAbsent(route != null ? route : UNMATCHED, RouteMetrics::new);
+        metrics.count(method, statusCode);
+        metrics.latency.record(nanos);
+    }
+
+    /**
+     * Counts bytes read from a client.
+     *
+     * @param n the number of bytes
+     */
+    void addBytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    /**
+     * Counts bytes written to a client.
+     *
+     * @param n the number of bytes
+     */
+    void addBytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    /**
+     * Counts a connection being accepted.
+     */
+    void connectionOpened() {
+        connectionsOpened.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Counts a connection being closed.
+     */
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Counts a connection refused by the connection limits.
+     */
+    void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    /**
+     * Counts a connection whose timeout expired.
+     *
+     * @param phase the phase that timed out
+     */
+    void timedOut(TimeoutPhase phase) {
+        timeouts.get(phase).increment();
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return the connection count
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    /**
+     * Returns the number of bytes read from clients.
+     *
+     * @return the byte count
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Returns the number of bytes written to clients.
+     *
+     * @return the byte count
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Returns the number of requests served.
+     *
+     * @return the request count
+     */
+    public long getRequestCount() {
+        long count = 0;
+        for (RouteMetrics route : routes.values()) {
+            count += route.latency.count();
+        }
+        return count;
+    }
+
+    /**
+     * Exports the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics text
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        RequestMethod[] methods = RequestMethod.values();
+
+        header(out, "http_requests_total", "counter", "Requests served, by route, method and status.");
+        for (RouteMetrics route : routes.values()) {
+            for (int i = 0; i < route.counts.length(); i++) {
+                LongAdder count = route.counts.get(i);
+                if (count != null) {
+                    out.append("http_requests_total{route=\"").append(route.label).append("\",method=\"")
+                            .append(methods[i / STATUS_CODES]).append("\",status=\"").append(i % STATUS_CODES)
+                            .append("\"} ").append(count.sum()).append('\n');
+                }
+            }
+        }
+
+        header(out, "http_request_duration_seconds", "histogram",
+                "Time from dispatch to the end of the response, by route.");
+        for (RouteMetrics route : routes.values()) {
+            route.latency.writeTo(out, "http_request_duration_seconds", "route=\"" + route.label + "\"");
+        }
+
+        header(out, "http_request_phase_seconds", "histogram", "Time spent in each phase of a request.");
+        for (Map.Entry<Phase, LatencyHistogram> phase : phases.entrySet()) {
+            phase.getValue().writeTo(out, "http_request_phase_seconds",
+                    "phase=\"" + phase.getKey().name().toLowerCase() + "\"");
+        }
+
+        header(out, "http_received_bytes_total", "counter", "Bytes read from clients.");
+        out.append("http_received_bytes_total ").append(bytesIn.sum()).append('\n');
+        header(out, "http_sent_bytes_total", "counter", "Bytes written to clients.");
+        out.append("http_sent_bytes_total ").append(bytesOut.sum()).append('\n');
+        header(out, "http_connections_total", "counter", "Connections accepted.");
+        out.append("http_connections_total ").append(connectionsOpened.sum()).append('\n');
+        header(out, "http_connections_active", "gauge", "Connections currently open.");
+        out.append("http_connections_active ").append(activeConnections.sum()).append('\n');
+        header(out, "http_connections_rejected_total", "counter", "Connections refused by the connection limits.");
+        out.append("http_connections_rejected_total ").append(connectionsRejected.sum()).append('\n');
+        header(out, "http_timeouts_total", "counter", "Connections timed out, by what they were waiting for.");
+        for (Map.Entry<TimeoutPhase, LongAdder> timeout : timeouts.entrySet()) {
+            out.append("http_timeouts_total{phase=\"").append(timeout.getKey().name().toLowerCase())
+                    .append("\"} ").append(timeout.getValue().sum()).append('\n');
+        }
+
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, "gauge", gauge.help);
+            out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of a metric.
+     *
+     * @param out  the text to append to
+     * @param name the metric name
+     * @param type the metric type
+     * @param help the description of the metric
+     */
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Escapes a label value for the Prometheus text format.
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -1,116 +1,478 @@
 package com.ujjwalgarg.httpserver;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.util.Map;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The SocketConnectionHandler class implements the Runnable interface to handle
  * individual client connections.
- * It reads the request, matches it to a handler, and sends the appropriate
- * response.
+ * It reads requests from the connection one after another, dispatches each of
+ * them to its handler, and sends the appropriate response. The connection is
+ * kept open between requests until the client, the idle timeout or the request
+ * limit asks for it to be closed.
+ *
+ * Request bodies are not read up front: handlers stream them straight from the
+ * socket, and whatever a handler leaves unread is drained before the next
+ * request, or the connection is closed if too much is left.
+ *
+ * Pipelined requests are handled one after another, so their responses leave
+ * in request order. When the next request is already buffered, the response
+ * is left in the output buffer to be sent along with the following ones, up to
+ * {@link ServerConfig#getMaxPipelinedRequests()} responses at a time.
+ *
+ * Every blocking read and write is timed by the timer wheel of the engine: the
+ * wait for a request by the idle timeout, a request head by a deadline from its
+ * first byte, and each read of a body and each write of a response by its own
+ * timeout. When one expires, the timer thread shuts the input down to wake the
+ * reading thread, which answers 408 Request Timeout if a request was under way,
+ * or closes the socket when a write is stuck.
+ *
+ * A connection that starts with the HTTP/2 preface, or whose request asks to
+ * upgrade to h2c, is handed over to an {@link Http2Connection} for the rest of
+ * its life, which runs its streams on the connection executor.
  */
 public class SocketConnectionHandler implements Runnable {
 
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024; // Size of the read buffer of a new connection
+    private static final int MIN_WRITE_BUFFER_SIZE = 8 * 1024; // Smallest buffer writes are collected in
+    private static final long MAX_DRAIN_SIZE = 64 * 1024; // Most unread body bytes drained to keep a connection open
+    private static final int MAX_TIMED_WRITE = 64 * 1024; // Largest write done under a single write timeout
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "connection: Upgrade\r\nupgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII); // Upgrade to h2c
+
     private final Socket clientSocket; // Client socket for this connection
-    private final Map<String, Map<RequestMethod, RequestHandler>> handlers; // Handlers for different routes and methods
+    private final RequestDispatcher dispatcher; // Routes requests to their handlers
+    private final ServerConfig config; // Keep-alive settings of the server
+    private final ServerMetrics metrics; // Instrumentation of the server
+    private final InetAddress address; // Address of the client, kept for the limiter once the socket is closed
+    private final String remote; // Address of the client, for the access log
+    private final RequestParser parser; // Parses request heads from the read buffer
+    private final ConnectionLimiter limiter; // Limits on open connections, released on close
+    private final BufferPool pool; // Pool of the read buffer
+    private final ConnectionExecutor workers; // Runs the streams of an HTTP/2 connection
+    private final TimerWheel timer; // Timer wheel tracking the timeouts
+    private final ConnectionTimeout timeout; // Timeout of the current read or write
+    private volatile TimeoutPhase expired; // Phase whose timeout expired, or null
+    private ConnectionInput input; // Bytes read from the socket but not yet consumed
 
     /**
-     * Constructs a SocketConnectionHandler with the specified client socket and
-     * handlers map.
-     * 
+     * Constructs a SocketConnectionHandler with the specified client socket,
+     * dispatcher and server configuration.
+     *
      * @param clientSocket the socket connected to the client
-     * @param handlers     a map of route patterns to method-specific request
-     *                     handlers
+     * @param dispatcher   the dispatcher routing requests to their handlers
+     * @param config       the server configuration holding the keep-alive
+     *                     settings
+     * @param limiter      the limits on open connections, whose permit the
+     *                     connection holds
+     * @param timer        the timer wheel tracking the timeouts
+     * @param pool         the pool the read buffer is taken from
+     * @param workers      the executor running the streams of the connection
+     *                     if it switches to HTTP/2
      */
-    public SocketConnectionHandler(Socket clientSocket, Map<String, Map<RequestMethod, RequestHandler>> handlers) {
+    SocketConnectionHandler(Socket clientSocket, RequestDispatcher dispatcher, ServerConfig config,
+            ConnectionLimiter limiter, TimerWheel timer, BufferPool pool, ConnectionExecutor workers) {
         this.clientSocket = clientSocket;
-        this.handlers = handlers;
+        this.dispatcher = dispatcher;
+        this.config = config;
+        this.metrics = dispatcher.getMetrics();
+        this.address = clientSocket.getInetAddress();
+        this.remote = address.getHostAddress();
+        this.parser = new RequestParser(config.isStrictParsing(), config.getMaxHeaderSize(),
+                config.getMaxHeaderCount());
+        this.limiter = limiter;
+        this.timeout = new ConnectionTimeout(timer, this::onTimeout);
+        this.pool = pool;
+        this.workers = workers;
+        this.timer = timer;
     }
 
     /**
-     * Sends a basic HTTP response with the given status code and message.
-     * 
+     * Wakes the connection thread up once a timeout expired, on the timer
+     * thread. A stuck read is ended by shutting the input down, which leaves
+     * the output usable for a 408 response; a stuck write can only be ended by
+     * closing the socket.
+     *
+     * @param phase the phase that timed out
+     */
+    private void onTimeout(TimeoutPhase phase) {
+        expired = phase;
+        metrics.timedOut(phase);
+        try {
+            if (phase == TimeoutPhase.WRITE) {
+                clientSocket.close();
+            } else {
+                clientSocket.shutdownInput();
+            }
+        } catch (IOException e) {
+            // The connection is being closed already
+        }
+    }
+
+    /**
+     * Sends a basic HTTP response with the given status code and message and an
+     * empty body.
+     *
      * @param statusCode the HTTP status code
      * @param statusMsg  the HTTP status message
+     * @param keepAlive  whether the connection stays open after the response
      * @param out        the OutputStream to send the response to
      * @throws IOException if an I/O error occurs
      */
-    private void respond(int statusCode, String statusMsg, OutputStream out) throws IOException {
-        out.write("HTTP/1.1 %d %s\r\n\r\n".formatted(statusCode, statusMsg).getBytes());
+    private void respond(int statusCode, String statusMsg, boolean keepAlive, OutputStream out) throws IOException {
+        out.write("HTTP/1.1 %d %s\r\ncontent-length: 0\r\nconnection: %s\r\n\r\n"
+                .formatted(statusCode, statusMsg, keepAlive ? "keep-alive" : "close").getBytes());
+        out.flush();
     }
 
     /**
-     * Handles the client connection. This method reads the request, finds the
-     * appropriate handler, and sends the response.
+     * Handles the client connection. This method reads requests until the
+     * connection has to be closed, finds the appropriate handler for each of
+     * them, and sends the responses.
      */
     @Override
     public void run() {
-        BufferedReader in = null;
         OutputStream out = null;
+        Response res = null;
+        metrics.connectionOpened();
 
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = clientSocket.getOutputStream();
-
-            // Parse the request
-            Request req = new Request(in);
-            if (!req.parse()) {
-                respond(500, "Unable to parse request", out);
-                return;
-            }
+            // Coalesce the writes of a response into socket-sized segments
+            out = new BufferedOutputStream(new TimedOutputStream(clientSocket.getOutputStream()),
+                    Math.max(clientSocket.getSendBufferSize(), MIN_WRITE_BUFFER_SIZE));
+            input = new ConnectionInput(clientSocket.getChannel(), out, INITIAL_BUFFER_SIZE, pool, metrics, timeout);
 
-            // Find the handler for the request path and method
-            Map<RequestMethod, RequestHandler> methodHandler = null;
-            for (Map.Entry<String, Map<RequestMethod, RequestHandler>> p : handlers.entrySet()) {
-                if (Pattern.matches(p.getKey(), req.getPath())) {
-                    methodHandler = p.getValue();
-                    break; // Path matched, stop searching
+            int servedRequests = 0;
+            int unflushed = 0;
+            boolean keepAlive = true;
+            Request req = null;
+            while (keepAlive) {
+                // Reuse the request and response of the previous exchange, unless they were
+                // abandoned to an asynchronous handler that may still use them
+                Response recycled = null;
+                if (req != null && res != null && !res.isAbandoned()) {
+                    req.reset();
+                    res.reset();
+                    recycled = res;
+                } else {
+                    req = new Request();
                 }
-            }
+                res = null;
 
-            // If no handler was found, respond with 404 Not Found
-            if (methodHandler == null) {
-                respond(404, "Not Found", out);
-                return;
-            }
+                // Parse the request, a closed or idle connection ends the loop
+                BodyInputStream body;
+                try {
+                    if (servedRequests == 0 && config.isHttp2Enabled() && readPreface()) {
+                        serveHttp2(out, null, null);
+                        return;
+                    }
+                    if (!readHead(req)) {
+                        return;
+                    }
+                    body = openBody(req, out);
+                } catch (HttpException e) {
+                    respond(e.getStatusCode(), e.getStatusMsg(), false, out);
+                    return;
+                }
+                byte[] settings = config.isHttp2Enabled() ? upgradeSettings(req) : null;
+                if (settings != null) {
+                    out.write(SWITCHING_PROTOCOLS);
+                    serveHttp2(out, req, settings);
+                    return;
+                }
+                // Body reads are timed separately, each one as it happens
+                input.timeReads(TimeoutPhase.BODY, config.getBodyTimeoutMillis());
 
-            // Find the handler for the request method
-            System.out.println(req);
-            RequestHandler handler = methodHandler.get(req.getMethod());
-            if (handler == null) {
-                respond(405, "Method not allowed", out);
-                return;
-            }
+                servedRequests++;
+                int maxRequests = config.getMaxRequestsPerConnection();
+                keepAlive = req.isKeepAlive() && (maxRequests == 0 || servedRequests < maxRequests);
 
-            // Handle the request and send the response
-            Response res = new Response(out);
-            handler.handle(req, res);
-            res.send();
+                // Handle the request and send the response
+                res = recycled != null ? recycled : new Response(out);
+                res.setKeepAlive(keepAlive);
+                res.setChunkedAllowed(!"HTTP/1.0".equals(req.getHttpVersion()));
+                res.setChannel(clientSocket.getChannel());
+                res.setWriteTimeout(timeout, config.getWriteTimeoutMillis());
+                HttpException error = null;
+                long start = System.nanoTime();
+                try {
+                    // Async handlers complete elsewhere; a virtual thread unmounts while waiting
+                    AsyncHandlerAdapter.await(dispatcher.dispatch(req, res));
+                } catch (HttpException e) {
+                    if (res.isCommitted()) {
+                        throw e; // Part of the response is out, only closing can signal the failure
+                    }
+                    error = e;
+                }
+
+                // Skip the unread body so the next request can be read
+                if (body != null && res.isAbandoned()) {
+                    // A late handler may still read the body from the connection: stop its reads
+                    // and the connection rather than share the input with the next request
+                    keepAlive = false;
+                    clientSocket.shutdownInput();
+                    body.detach();
+                } else if (expired == TimeoutPhase.BODY) {
+                    keepAlive = false;
+                    if (error != null) {
+                        error = new HttpException(408, "Request Timeout");
+                    }
+                } else if (body != null && !body.discardRemaining(MAX_DRAIN_SIZE)) {
+                    keepAlive = false;
+                }
+                if (error != null) {
+                    respond(error.getStatusCode(), error.getStatusMsg(), keepAlive, out);
+                    dispatcher.recordResponse(req, remote, error.getStatusCode(), 0, System.nanoTime() - start);
+                    continue;
+                }
+                res.setKeepAlive(res.isKeepAlive() && keepAlive);
+                // Hold the response back if the next pipelined request is already here
+                boolean pipelined = keepAlive && input.buffer().hasRemaining()
+                        && ++unflushed < config.getMaxPipelinedRequests();
+                if (!pipelined) {
+                    unflushed = 0;
+                }
+                res.setFlushDeferred(pipelined);
+                long written = System.nanoTime();
+                res.send();
+                long sent = System.nanoTime();
+                metrics.addBytesOut(res.getChannelBytes());
+                metrics.recordPhase(ServerMetrics.Phase.WRITE, sent - written);
+                dispatcher.recordResponse(req, remote, res.getStatusCode(), res.getBodyLength(), sent - start);
+                keepAlive = res.isKeepAlive();
+            }
         } catch (IOException e) {
+            TimeoutPhase phase = expired;
             try {
-                respond(500, "Server Error", out);
-                e.printStackTrace();
+                if (out != null && phase != TimeoutPhase.WRITE && (res == null || !res.isCommitted())) {
+                    if (phase == TimeoutPhase.BODY) {
+                        respond(408, "Request Timeout", false, out);
+                    } else {
+                        respond(500, "Server Error", false, out);
+                    }
+                }
+                if (phase == null) {
+                    e.printStackTrace();
+                }
             } catch (IOException err) {
-                err.printStackTrace();
+                if (phase == null) {
+                    err.printStackTrace();
+                }
             }
         } finally {
             // Close resources
+            timeout.cancel();
+            limiter.release(address);
+            metrics.connectionClosed();
+            if (input != null) {
+                input.close();
+            }
             try {
-                if (in != null)
-                    in.close();
                 if (out != null)
                     out.close();
                 clientSocket.close();
             } catch (IOException e) {
-                System.out.println("Error while closing InputStream, OutputStream, and Client Socket");
+                System.out.println("Error while closing OutputStream and Client Socket");
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Reads the head of the next request from the connection.
+     *
+     * @param req the request to fill
+     * @return true if a request was read, false if the client closed the
+     *         connection between requests
+     * @throws HttpException if the request is malformed or the connection ends
+     *                       in the middle of it
+     * @throws IOException   if an I/O error occurs
+     */
+    private boolean readHead(Request req) throws IOException {
+        long parsing = 0;
+        boolean started = false;
+        while (true) {
+            // Only time the parser, not the wait for the client
+            long start = System.nanoTime();
+            boolean parsed = parser.parse(input.buffer(), req);
+            parsing += System.nanoTime() - start;
+            if (parsed) {
+                metrics.recordPhase(ServerMetrics.Phase.PARSE, parsing);
+                return true;
+            }
+
+            // Wait for the first byte up to the idle timeout, then for the
+            // whole head up to the header timeout
+            if (!input.buffer().hasRemaining()) {
+                input.timeReads(TimeoutPhase.IDLE, config.getIdleTimeoutMillis());
+            } else if (!started) {
+                started = true;
+                int headerTimeout = config.getHeaderTimeoutMillis();
+                if (headerTimeout > 0) {
+                    input.timeReadsUntil(TimeoutPhase.HEADER,
+                            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(headerTimeout));
+                } else {
+                    input.timeReads(TimeoutPhase.HEADER, 0);
+                }
+            }
+            if (!input.fill()) {
+                if (input.buffer().hasRemaining()) {
+                    if (expired == TimeoutPhase.HEADER) {
+                        throw new HttpException(408, "Request Timeout");
+                    }
+                    throw new HttpException(400, "Bad Request");
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the connection starts with the HTTP/2 preface, and consumes
+     * it if it does. Only as many bytes are awaited as it takes to tell a
+     * preface from a request line.
+     *
+     * @return true if the client sent the preface
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean readPreface() throws IOException {
+        input.timeReads(TimeoutPhase.IDLE, config.getIdleTimeoutMillis());
+        byte[] preface = Http2Connection.PREFACE;
+        while (true) {
+            ByteBuffer buffer = input.buffer();
+            int n = Math.min(buffer.remaining(), preface.length);
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(buffer.position() + i) != preface[i]) {
+                    return false;
+                }
+            }
+            if (n == preface.length) {
+                buffer.position(buffer.position() + n);
+                return true;
+            }
+            if (!input.fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the HTTP/2 settings of a request asking to upgrade to h2c. The
+     * upgrade is only taken for HTTP/1.1 requests without a body that carry a
+     * single valid HTTP2-Settings header; others are served as HTTP/1.1.
+     *
+     * @param req the request
+     * @return the decoded SETTINGS payload, or null if the request is not
+     *         upgraded
+     */
+    private static byte[] upgradeSettings(Request req) {
+        if (!"HTTP/1.1".equals(req.getHttpVersion()) || req.hasBody()
+                || !req.hasHeaderToken(HeaderNames.UPGRADE, "h2c")
+                || !req.hasHeaderToken(HeaderNames.CONNECTION, "upgrade")) {
+            return null;
+        }
+        List<String> settings = req.getHeaders().getAll(HeaderNames.HTTP2_SETTINGS);
+        if (settings.size() != 1) {
+            return null;
+        }
+        try {
+            return Base64.getUrlDecoder().decode(settings.get(0).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves the rest of the connection as HTTP/2. Errors end the connection
+     * quietly, since nothing can be answered in HTTP/1.1 any more.
+     *
+     * @param out      the output of the connection
+     * @param upgrade  the request that asked for the upgrade, or null
+     * @param settings the HTTP2-Settings payload of that request, or null
+     */
+    private void serveHttp2(OutputStream out, Request upgrade, byte[] settings) {
+        Http2Connection connection = new Http2Connection(input, out, dispatcher, config, workers, timer, remote,
+                () -> onTimeout(TimeoutPhase.IDLE));
+        try {
+            connection.serve(upgrade, settings);
+        } catch (IOException e) {
+            if (expired == null) {
+                System.out.println("HTTP/2 connection failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Attaches a stream reading the body of a request from the connection.
+     *
+     * @param req the request whose head has been read
+     * @param out the OutputStream of the connection, for {@code 100 Continue}
+     * @return the body stream, or null if the request has no body
+     * @throws HttpException if the declared body is too large
+     */
+    private BodyInputStream openBody(Request req, OutputStream out) throws HttpException {
+        if (!req.hasBody()) {
+            return null;
+        }
+        long maxBodySize = config.getMaxBodySize();
+        if (maxBodySize > 0 && req.getContentLength() > maxBodySize) {
+            throw new HttpException(413, "Content Too Large");
+        }
+        BodyInputStream body = req.isChunked() ? new ChunkedInputStream(input, maxBodySize)
+                : new FixedLengthInputStream(input, req.getContentLength());
+        if (req.expectsContinue()) {
+            body.expectContinue(out);
+        }
+        req.setBodyStream(body);
+        return body;
+    }
+
+    /**
+     * The TimedOutputStream class writes to the socket under the write timeout
+     * and counts the bytes written. It sits below the write buffer, so it sees
+     * few, large writes; each one is split so that a client reading slowly but
+     * steadily never runs into the timeout.
+     */
+    private class TimedOutputStream extends FilterOutputStream {
+
+        /**
+         * Constructs a TimedOutputStream.
+         *
+         * @param out the OutputStream of the socket
+         */
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int writeTimeout = config.getWriteTimeoutMillis();
+            try {
+                while (len > 0) {
+                    int n = Math.min(len, MAX_TIMED_WRITE);
+                    timeout.arm(TimeoutPhase.WRITE, writeTimeout);
+                    out.write(b, off, n);
+                    metrics.addBytesOut(n);
+                    off += n;
+                    len -= n;
+                }
+            } finally {
+                timeout.cancel();
+            }
+        }
+    }
 }
@@ -0,0 +1,393 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The StaticFileHandler class serves the files of a directory. The file is
+ * found by stripping a prefix from the request path, and is sent with
+ * {@link Response#setBody(FileChannel, long, long)}, so the bytes go from the
+ * file to the socket without being read into the heap.
+ *
+ * A single {@code Range: bytes=...} range is answered with 206 Partial
+ * Content, an unsatisfiable one with 416; multiple ranges are ignored and the
+ * whole file is sent. Paths resolving outside the directory, through
+ * {@code ..} or symbolic links, are answered with 404 Not Found. HEAD requests
+ * are served by registering the handler for GET.
+ *
+ * Every file is sent with a Last-Modified header and a strong ETag made of its
+ * size and modification time, so that conditional requests are answered with
+ * 304 Not Modified without the file being sent again.
+ *
+ * With a {@link FileCache}, small files are served from off-heap copies kept in
+ * memory instead of being opened for every request.
+ *
+ * Clients accepting gzip are sent the {@code .gz} sibling of a text file when
+ * one exists and is not older than the file. {@link #precompress()} creates
+ * those siblings, typically once at startup.
+ */
+public class StaticFileHandler implements RequestHandler {
+
+    private static final int MIN_PRECOMPRESS_SIZE = 1024; // Smallest file given a .gz sibling
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream"; // Type of unknown files
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>(); // Content-Type by file extension
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("csv", "text/csv; charset=utf-8");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("zip", "application/zip");
+        CONTENT_TYPES.put("gz", "application/gzip");
+        CONTENT_TYPES.put("wasm", "application/wasm");
+        CONTENT_TYPES.put("mp4", "video/mp4");
+        CONTENT_TYPES.put("mp3", "audio/mpeg");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+    }
+
+    private final Path root; // Real path of the directory files are served from
+    private final String prefix; // Part of the request path stripped before resolving the file
+    private final FileCache cache; // Cache of hot files, or null
+
+    /**
+     * Constructs a StaticFileHandler.
+     *
+     * @param root   the directory files are served from
+     * @param prefix the part of the request path that maps to the directory,
+     *               such as {@code /files/}
+     * @throws IOException if the directory does not exist
+     */
+    public StaticFileHandler(Path root, String prefix) throws IOException {
+        this(root, prefix, null);
+    }
+
+    /**
+     * Constructs a StaticFileHandler serving hot files from a cache.
+     *
+     * @param root   the directory files are served from
+     * @param prefix the part of the request path that maps to the directory,
+     *               such as {@code /files/}
+     * @param cache  the cache of file contents, or null to always read from disk
+     * @throws IOException if the directory does not exist
+     */
+    public StaticFileHandler(Path root, String prefix, FileCache cache) throws IOException {
+        this.root = root.toRealPath();
+        this.prefix = prefix;
+        this.cache = cache;
+    }
+
+    @Override
+    public void handle(Request req, Response res) throws IOException {
+        Path file = resolve(req.getPath());
+        if (file == null) {
+            notFound(res);
+            return;
+        }
+
+        // Prefer an up-to-date precompressed sibling for clients accepting gzip
+        Path source = file;
+        if (GzipEncoder.isCompressible(contentType(file))) {
+            res.addHeader(HeaderNames.VARY, "Accept-Encoding");
+            Path sibling = GzipEncoder.accepts(req.getHeader(HeaderNames.ACCEPT_ENCODING)) ? gzipSibling(file) : null;
+            if (sibling != null) {
+                res.addHeader(HeaderNames.CONTENT_ENCODING, "gzip");
+                source = sibling;
+            }
+        }
+
+        FileCache.Entry cached = null;
+        if (cache != null) {
+            try {
+                cached = cache.get(source);
+            } catch (NoSuchFileException e) {
+                notFound(res);
+                return;
+            }
+        }
+        if (cached != null) {
+            sendCached(req, res, file, source != file, cached);
+            return;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(source, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            notFound(res);
+            return;
+        }
+        try {
+            long size = channel.size();
+            long lastModified = Files.getLastModifiedTime(source).toMillis();
+            long[] range = prepare(req, res, file, size, validator(size, lastModified, source != file), lastModified);
+            if (range == null) {
+                res.setBody(channel, 0, size);
+            } else if (range.length == 0) {
+                channel.close();
+            } else {
+                res.setBody(channel, range[0], range[1] - range[0] + 1);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Serves a file from its cached contents.
+     *
+     * @param req    the request
+     * @param res    the response
+     * @param file   the file
+     * @param gzip   whether the cached contents are the gzip sibling of the file
+     * @param cached the cached contents of the file
+     */
+    private void sendCached(Request req, Response res, Path file, boolean gzip, FileCache.Entry cached) {
+        ByteBuffer data = cached.getData();
+        long[] range = prepare(req, res, file, cached.getSize(),
+                validator(cached.getSize(), cached.getLastModified(), gzip), cached.getLastModified());
+        if (range == null) {
+            res.setBody(data);
+        } else if (range.length != 0) {
+            res.setBody(data.limit((int) range[1] + 1).position((int) range[0]));
+        }
+    }
+
+    /**
+     * Sets the status and headers of the response for a file and the Range the
+     * client asked for.
+     *
+     * @param req  the request
+     * @param res  the response
+     * @param file         the file
+     * @param size         the size of the file
+     * @param etag         the entity tag of the file
+     * @param lastModified the modification time of the file, in milliseconds
+     * @return null to send the whole file, an empty array if no body is sent, or
+     *         the first and last byte positions to send
+     */
+    private static long[] prepare(Request req, Response res, Path file, long size, String etag,
+            long lastModified) {
+        res.addHeader(HeaderNames.CONTENT_TYPE, contentType(file));
+        res.addHeader(HeaderNames.ACCEPT_RANGES, "bytes");
+        res.addHeader(HeaderNames.ETAG, etag);
+        res.addHeader(HeaderNames.LAST_MODIFIED, ResponseHead.formatDate(lastModified));
+
+        long[] range = parseRange(req.getHeader("range"), size);
+        if (range == null) {
+            res.setStatusCode(200);
+            res.setStatusMsg("OK");
+        } else if (range.length == 0) {
+            res.setStatusCode(416);
+            res.setStatusMsg("Range Not Satisfiable");
+            res.addHeader(HeaderNames.CONTENT_RANGE, "bytes */" + size);
+        } else {
+            res.setStatusCode(206);
+            res.setStatusMsg("Partial Content");
+            res.addHeader(HeaderNames.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        return range;
+    }
+
+    /**
+     * Builds the entity tag of a file from its size and modification time,
+     * distinct for its gzip sibling since that is another representation.
+     *
+     * @param size         the size of the file sent
+     * @param lastModified the modification time of the file sent
+     * @param gzip         whether the gzip sibling is sent
+     * @return the strong entity tag
+     */
+    private static String validator(long size, long lastModified, boolean gzip) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + (gzip ? "-gz\"" : "\"");
+    }
+
+    /**
+     * Creates or refreshes the {@code .gz} sibling of every text file in the
+     * directory and its subdirectories that is large enough to benefit. Each
+     * sibling is written to a temporary file first and moved into place, so
+     * clients never see a partial one.
+     *
+     * @return the number of siblings written
+     * @throws IOException if a file cannot be read or written
+     */
+    public int precompress() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        int written = 0;
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(".gz") || !GzipEncoder.isCompressible(contentType(file))
+                    || Files.size(file) < MIN_PRECOMPRESS_SIZE || gzipSibling(file) != null) {
+                continue;
+            }
+            Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+            Path temp = Files.createTempFile(file.getParent(), ".precompress", ".tmp");
+            try {
+                try (OutputStream out = new GzipEncoder(Files.newOutputStream(temp))) {
+                    Files.copy(file, out);
+                }
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+                } catch (UnsupportedOperationException e) {
+                    // Temporary files already get default permissions here
+                }
+                Files.move(temp, sibling, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written++;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Finds the precompressed sibling of a file.
+     *
+     * @param file the real path of the file
+     * @return the sibling, or null if there is none inside the directory that is
+     *         at least as recent as the file
+     */
+    private Path gzipSibling(Path file) {
+        Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            if (!Files.isRegularFile(sibling) || !sibling.toRealPath().startsWith(root)) {
+                return null;
+            }
+            boolean fresh = Files.getLastModifiedTime(sibling).compareTo(Files.getLastModifiedTime(file)) >= 0;
+            return fresh ? sibling : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps a request path to a regular file inside the directory. Malformed
+     * percent escapes, NUL, backslashes, and names escaping the directory
+     * through {@code ..} or symbolic links map to no file.
+     *
+     * @param path the request path
+     * @return the real path of the file, or null if there is no such file or it
+     *         lies outside the directory
+     */
+    Path resolve(String path) {
+        if (!path.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            // Decode percent escapes, keeping '+' as is since this is a path
+            String name = URLDecoder.decode(path.substring(prefix.length()).replace("+", "%2B"),
+                    StandardCharsets.UTF_8);
+            if (name.isEmpty() || name.indexOf('\0') != -1 || name.indexOf('\\') != -1) {
+                return null;
+            }
+            Path file = root.resolve(name).normalize();
+            if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+                return null;
+            }
+            Path real = file.toRealPath(); // Follow links, which may point outside
+            return real.startsWith(root) ? real : null;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a Range header holding a single byte range.
+     *
+     * @param header the Range header, or null
+     * @param size   the size of the file
+     * @return null to send the whole file, an empty array if the range cannot be
+     *         satisfied, or the first and last byte positions of the range
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6) || header.indexOf(',') != -1) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return null; // Invalid ranges are ignored
+                }
+                if (start >= size) {
+                    return new long[0];
+                }
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the Content-Type of a file from its extension.
+     *
+     * @param file the file
+     * @return the content type
+     */
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return DEFAULT_CONTENT_TYPE;
+        }
+        return CONTENT_TYPES.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), DEFAULT_CONTENT_TYPE);
+    }
+
+    /**
+     * Sets the response to 404 Not Found.
+     *
+     * @param res the response
+     */
+    private static void notFound(Response res) {
+        res.setStatusCode(404);
+        res.setStatusMsg("Not Found");
+    }
+}
@@ -0,0 +1,16 @@
+package com.ujjwalgarg.httpserver;
+
+/**
+ * The TimeoutPhase enum lists what a connection may be waiting for when its
+ * timeout expires, each phase having its own limit in {@link ServerConfig}.
+ */
+enum TimeoutPhase {
+    /** The first byte of the next request; the connection is closed silently. */
+    IDLE,
+    /** The rest of a request head; answered with 408 Request Timeout. */
+    HEADER,
+    /** The next bytes of a request body; answered with 408 Request Timeout. */
+    BODY,
+    /** The client to take more of a response; the connection is closed. */
+    WRITE
+}
@@ -0,0 +1,238 @@
+package com.ujjwalgarg.httpserver;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The TimerWheel class is a hashed timer wheel tracking the timeouts of every
+ * connection of a server on a single thread. The wheel is a ring of buckets,
+ * each covering one tick; a timeout sits in the bucket of the tick its
+ * deadline falls in, and the timer thread visits one bucket per tick. Deadlines
+ * further away than one turn of the wheel are simply visited again on the next
+ * turn.
+ *
+ * Scheduling, extending and cancelling a {@link Timeout} cost O(1) and do not
+ * touch the buckets: they only write the deadline, which the timer thread reads
+ * when it visits the bucket. A timeout extended by every read of a busy
+ * connection is thus just a volatile write per read, and a cancelled one is
+ * dropped on the next visit. Timeouts fire up to one tick late, never early.
+ *
+ * Expiry tasks run on the timer thread, so they must be short: they usually
+ * just close a socket or hand work to the thread owning the connection.
+ */
+class TimerWheel implements Runnable {
+
+    private final long tickNanos; // Time covered by a bucket
+    private final Timeout[] buckets; // Heads of the bucket lists, only used on the timer thread
+    private final int mask; // Bucket index mask, the wheel size being a power of two
+    private final Queue<Timeout> pending; // Timeouts scheduled since the last tick
+    private final long startNanos; // Time of tick 0
+    private long tick; // Index of the next tick to process, only used on the timer thread
+    private volatile boolean running; // Cleared by stop()
+    private Thread thread; // Timer thread, once started
+
+    /**
+     * The Timeout class is a reusable timeout, armed again and again for the
+     * successive phases of a connection.
+     */
+    final class Timeout {
+        private final Runnable task; // Run on the timer thread when the deadline passes
+        private final AtomicBoolean queued; // Whether the timeout is pending or in a bucket
+        private volatile long deadline; // Expiry time from System.nanoTime(), 0 when not armed
+        private Timeout next; // Next timeout of the same bucket, only used on the timer thread
+
+        /**
+         * Constructs a disarmed Timeout.
+         *
+         * @param task the task run on expiry
+         */
+        private Timeout(Runnable task) {
+            this.task = task;
+            this.queued = new AtomicBoolean();
+        }
+
+        /**
+         * Arms the timeout to expire after a delay, replacing any earlier
+         * deadline.
+         *
+         * @param delayMillis the delay in milliseconds
+         */
+        void schedule(long delayMillis) {
+            scheduleAt(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        }
+
+        /**
+         * Arms the timeout to expire at a point in time, replacing any earlier
+         * deadline.
+         *
+         * @param deadlineNanos the expiry time, from {@link System#nanoTime()}
+         */
+        void scheduleAt(long deadlineNanos) {
+            deadline = deadlineNanos == 0 ? 1 : deadlineNanos; // 0 means disarmed
+            if (queued.compareAndSet(false, true)) {
+                pending.add(this);
+            }
+        }
+
+        /**
+         * Disarms the timeout. It may still fire if its task is already running.
+         */
+        void cancel() {
+            deadline = 0;
+        }
+    }
+
+    private static final VarHandle DEADLINE; // Atomic access to Timeout.deadline
+
+    static {
+        try {
+            DEADLINE = MethodHandles.lookup().findVarHandle(Timeout.class, "deadline", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Constructs a TimerWheel.
+     *
+     * @param tickMillis the time covered by a bucket, the precision of the
+     *                   timeouts
+     * @param wheelSize  the number of buckets, rounded up to a power of two
+     */
+    TimerWheel(long tickMillis, int wheelSize) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be at least 1");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a disarmed timeout.
+     *
+     * @param task the task run on the timer thread each time the timeout expires
+     * @return the timeout
+     */
+    Timeout newTimeout(Runnable task) {
+        return new Timeout(task);
+    }
+
+    /**
+     * Starts the timer thread.
+     *
+     * @param threadName the name of the thread
+     */
+    synchronized void start(String threadName) {
+        running = true;
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the timer thread. Armed timeouts never fire.
+     */
+    synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Processes one bucket per tick until the wheel is stopped.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long wait;
+            while (running && (wait = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (!running) {
+                break;
+            }
+            advance(System.nanoTime());
+        }
+    }
+
+    /**
+     * Places the timeouts scheduled since the last tick, then expires the due
+     * timeouts of the current bucket.
+     *
+     * @param now the current time, from {@link System#nanoTime()}
+     */
+    void advance(long now) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            place(timeout);
+        }
+
+        int index = (int) (tick & mask);
+        Timeout head = buckets[index];
+        buckets[index] = null;
+        tick++;
+        while (head != null) {
+            timeout = head;
+            head = head.next;
+            timeout.next = null;
+
+            long deadline = timeout.deadline;
+            if (deadline == 0) {
+                unqueue(timeout); // Cancelled
+            } else if (deadline - now > 0) {
+                place(timeout); // Extended, or due on a later turn of the wheel
+            } else if (DEADLINE.compareAndSet(timeout, deadline, 0L)) {
+                unqueue(timeout);
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                place(timeout); // Rescheduled while being expired
+            }
+        }
+    }
+
+    /**
+     * Puts a timeout in the bucket of its deadline, or in the next bucket to be
+     * visited if the deadline has passed.
+     *
+     * @param timeout the timeout
+     */
+    private void place(Timeout timeout) {
+        long deadline = timeout.deadline;
+        if (deadline == 0) {
+            unqueue(timeout);
+            return;
+        }
+        long due = Math.max(tick, Math.ceilDiv(deadline - startNanos, tickNanos) - 1);
+        int index = (int) (due & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+    }
+
+    /**
+     * Takes a timeout out of the wheel, putting it back if it was armed again
+     * in the meantime.
+     *
+     * @param timeout the timeout, no longer in any bucket
+     */
+    private void unqueue(Timeout timeout) {
+        timeout.queued.set(false);
+        if (timeout.deadline != 0 && timeout.queued.compareAndSet(false, true)) {
+            place(timeout);
+        }
+    }
+}
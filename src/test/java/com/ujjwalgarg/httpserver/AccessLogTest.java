@@ -0,0 +1,120 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the buffering, formats and rotation of {@link AccessLog}.
+ */
+public class AccessLogTest
+    extends TestCase
+{
+    private Path dir;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AccessLogTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( AccessLogTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "access-log-test" );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try ( var files = Files.list( dir ) ) {
+            for ( Path file : files.toList() ) {
+                Files.delete( file );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    private static Request request( String path ) throws Exception
+    {
+        Request req = new Request();
+        new RequestParser( false ).parse( ByteBuffer.wrap(
+                ( "GET " + path + " HTTP/1.1\r\nUser-Agent: test\r\n\r\n" ).getBytes() ), req );
+        return req;
+    }
+
+    public void testWritesJsonLines() throws Exception
+    {
+        Path file = dir.resolve( "access.log" );
+        try ( AccessLog log = new AccessLog( file ).setFormat( AccessLog.Format.JSON ) ) {
+            log.log( request( "/a\"b" ), "127.0.0.1", 200, 5, 1_500_000 );
+        }
+
+        List<String> lines = Files.readAllLines( file );
+        assertEquals( 1, lines.size() );
+        assertTrue( lines.get( 0 ).contains( "\"path\":\"/a\\\"b\"" ) );
+        assertTrue( lines.get( 0 ).contains( "\"status\":200,\"bytes\":5,\"duration_ms\":1.5" ) );
+        assertTrue( lines.get( 0 ).contains( "\"user_agent\":\"test\"" ) );
+    }
+
+    public void testSamplingKeepsErrors() throws Exception
+    {
+        Path file = dir.resolve( "access.log" );
+        try ( AccessLog log = new AccessLog( file ).setSampleRate( 0 ) ) {
+            log.log( request( "/ok" ), "127.0.0.1", 200, 0, 0 );
+            log.log( request( "/missing" ), "127.0.0.1", 404, 0, 0 );
+        }
+
+        List<String> lines = Files.readAllLines( file );
+        assertEquals( 1, lines.size() );
+        assertTrue( lines.get( 0 ).contains( "\"GET /missing HTTP/1.1\" 404 -" ) );
+    }
+
+    public void testDropsInsteadOfBlockingWhenFull() throws Exception
+    {
+        Path file = dir.resolve( "access.log" );
+        Request req = request( "/" );
+        AccessLog log = new AccessLog( file, 2 );
+        for ( int i = 0; i < 10_000; i++ ) {
+            log.log( req, "127.0.0.1", 200, 0, 0 );
+        }
+        log.close();
+
+        assertEquals( 10_000, log.getWrittenCount() + log.getDroppedCount() );
+        assertEquals( log.getWrittenCount(), Files.readAllLines( file ).size() );
+    }
+
+    public void testRotatesBySize() throws Exception
+    {
+        Path file = dir.resolve( "access.log" );
+        Request req = request( "/" );
+        try ( AccessLog log = new AccessLog( file ).setRotation( 100, 2 ) ) {
+            for ( int i = 0; i < 20; i++ ) {
+                log.log( req, "127.0.0.1", 200, 0, 0 );
+                Thread.sleep( 10 ); // One batch per entry
+            }
+        }
+
+        assertTrue( Files.exists( dir.resolve( "access.log.1" ) ) );
+        assertTrue( Files.exists( dir.resolve( "access.log.2" ) ) );
+        assertFalse( Files.exists( dir.resolve( "access.log.3" ) ) );
+        assertTrue( Files.size( file ) <= 100 );
+    }
+}
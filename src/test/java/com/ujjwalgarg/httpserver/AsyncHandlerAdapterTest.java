@@ -0,0 +1,83 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the completion and timeouts of {@link AsyncHandlerAdapter}.
+ */
+public class AsyncHandlerAdapterTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AsyncHandlerAdapterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( AsyncHandlerAdapterTest.class );
+    }
+
+    public void testCompletesFromAnotherThread() throws Exception
+    {
+        AsyncHandlerAdapter adapter = new AsyncHandlerAdapter( ( req, res ) -> CompletableFuture.runAsync( () -> {
+            res.setResponseBody( "later" );
+        } ), 5000 );
+        Response res = new Response( new ByteArrayOutputStream() );
+
+        AsyncHandlerAdapter.await( adapter.start( new Request(), res ) );
+        assertEquals( "later", res.getResponseBody() );
+    }
+
+    public void testTimeoutAbandonsResponse() throws Exception
+    {
+        AsyncHandlerAdapter adapter = new AsyncHandlerAdapter( ( req, res ) -> new CompletableFuture<Void>(), 50 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response( out );
+
+        try {
+            AsyncHandlerAdapter.await( adapter.start( new Request(), res ) );
+            fail( "Expected a timeout" );
+        } catch ( HttpException e ) {
+            assertEquals( 504, e.getStatusCode() );
+        }
+        try {
+            res.send();
+            fail( "An abandoned response must not be sent" );
+        } catch ( IOException e ) {
+            assertEquals( 0, out.size() );
+        }
+    }
+
+    public void testMapsFailures() throws Exception
+    {
+        assertStatus( 503, CompletableFuture.failedFuture( new RejectedExecutionException() ) );
+        assertStatus( 404, CompletableFuture.failedFuture( new HttpException( 404, "Not Found" ) ) );
+    }
+
+    private static void assertStatus( int statusCode, CompletableFuture<Void> stage ) throws Exception
+    {
+        AsyncHandlerAdapter adapter = new AsyncHandlerAdapter( ( req, res ) -> stage, 0 );
+        try {
+            AsyncHandlerAdapter.await( adapter.start( new Request(), new Response( new ByteArrayOutputStream() ) ) );
+            fail( "Expected " + statusCode );
+        } catch ( HttpException e ) {
+            assertEquals( statusCode, e.getStatusCode() );
+        }
+    }
+}
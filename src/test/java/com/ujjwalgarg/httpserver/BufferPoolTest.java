@@ -0,0 +1,98 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the size classes, reuse and leak detection of
+ * {@link BufferPool}.
+ */
+public class BufferPoolTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public BufferPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( BufferPoolTest.class );
+    }
+
+    public void testReusesReleasedBuffersOfTheSameClass()
+    {
+        BufferPool pool = new BufferPool( 4, false );
+        ByteBuffer first = pool.acquire( 5000 );
+        assertTrue( first.isDirect() );
+        assertEquals( 8192, first.capacity() );
+        first.put( (byte) 1 );
+        pool.release( first );
+
+        ByteBuffer second = pool.acquire( 8192 );
+        assertSame( first, second );
+        assertEquals( 0, second.position() );
+        assertEquals( 8192, second.limit() );
+        assertNotSame( first, pool.acquire( 100 ) );
+        assertEquals( 2, pool.getAllocated() );
+        assertEquals( 1, pool.getReused() );
+        assertEquals( 2, pool.getOutstanding() );
+    }
+
+    public void testServesOversizedRequestsFromTheHeap()
+    {
+        BufferPool pool = new BufferPool( 4, true );
+        ByteBuffer buffer = pool.acquire( BufferPool.MAX_SIZE + 1 );
+        assertFalse( buffer.isDirect() );
+        assertEquals( BufferPool.MAX_SIZE + 1, buffer.capacity() );
+        pool.release( buffer );
+        assertEquals( 0, pool.getOutstanding() );
+        assertEquals( 0, pool.getAllocated() );
+    }
+
+    public void testDetectsDoubleRelease()
+    {
+        BufferPool pool = new BufferPool( 4, true );
+        ByteBuffer buffer = pool.acquire( 100 );
+        pool.release( buffer );
+        try {
+            pool.release( buffer );
+            fail( "Expected IllegalStateException" );
+        } catch ( IllegalStateException e ) {
+            // expected
+        }
+        try {
+            pool.release( ByteBuffer.allocateDirect( 100 ) );
+            fail( "Expected IllegalStateException" );
+        } catch ( IllegalStateException e ) {
+            // expected
+        }
+        assertEquals( 0, pool.getOutstanding() );
+    }
+
+    public void testReportsAndRecoversBuffersNeverReleased() throws Exception
+    {
+        BufferPool pool = new BufferPool( 4, true );
+        pool.acquire( 100 );
+        for ( int i = 0; i < 50 && pool.getLeaked() == 0; i++ ) {
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertEquals( 1, pool.getLeaked() );
+        assertEquals( 0, pool.getOutstanding() );
+
+        pool.acquire( 100 );
+        assertEquals( 1, pool.getReused() );
+    }
+}
@@ -0,0 +1,93 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the incremental {@link ChunkedDecoder}.
+ */
+public class ChunkedDecoderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ChunkedDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ChunkedDecoderTest.class );
+    }
+
+    public void testDecodesChunksExtensionsAndTrailers() throws Exception
+    {
+        ChunkedDecoder decoder = new ChunkedDecoder( 0 );
+        ByteBuffer src = bytes( "5;name=value\r\nhello\r\n7\r\n, world\r\n0\r\nX-Trailer: 1\r\n\r\nNEXT" );
+
+        assertEquals( "hello, world", decode( decoder, src, 64 ) );
+        assertTrue( decoder.isDone() );
+        assertEquals( 4, src.remaining() ); // Bytes of the next request are left alone
+    }
+
+    public void testResumesAcrossArbitrarySplits() throws Exception
+    {
+        byte[] encoded = "4\r\nWiki\r\n5\r\npedia\r\nE\r\n in\r\n\r\nchunks.\r\n0\r\n\r\n".getBytes();
+        ChunkedDecoder decoder = new ChunkedDecoder( 0 );
+        StringBuilder body = new StringBuilder();
+        for ( byte b : encoded )
+        {
+            body.append( decode( decoder, ByteBuffer.wrap( new byte[] { b } ), 3 ) );
+        }
+
+        assertEquals( "Wikipedia in\r\n\r\nchunks.", body.toString() );
+        assertTrue( decoder.isDone() );
+    }
+
+    public void testRejectsMalformedAndOversizedBodies()
+    {
+        assertStatus( 400, new ChunkedDecoder( 0 ), "zz\r\n" );
+        assertStatus( 400, new ChunkedDecoder( 0 ), "3\r\nabcX" );
+        assertStatus( 413, new ChunkedDecoder( 4 ), "5\r\nhello\r\n0\r\n\r\n" );
+    }
+
+    private static String decode( ChunkedDecoder decoder, ByteBuffer src, int size ) throws HttpException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] dst = new byte[size];
+        while ( src.hasRemaining() && !decoder.isDone() )
+        {
+            out.write( dst, 0, decoder.decode( src, dst, 0, dst.length ) );
+        }
+        return out.toString();
+    }
+
+    private static ByteBuffer bytes( String s )
+    {
+        return ByteBuffer.wrap( s.getBytes() );
+    }
+
+    private static void assertStatus( int statusCode, ChunkedDecoder decoder, String encoded )
+    {
+        try
+        {
+            decode( decoder, bytes( encoded ), 64 );
+            fail( "Expected " + statusCode + " for " + encoded );
+        }
+        catch ( HttpException e )
+        {
+            assertEquals( statusCode, e.getStatusCode() );
+        }
+    }
+}
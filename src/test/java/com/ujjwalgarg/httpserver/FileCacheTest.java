@@ -0,0 +1,127 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the size-bounded LRU {@link FileCache}.
+ */
+public class FileCacheTest
+    extends TestCase
+{
+    private Path dir;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public FileCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( FileCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "file-cache" ).toRealPath();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try ( var files = Files.walk( dir ) )
+        {
+            for ( Path file : files.sorted( Comparator.reverseOrder() ).toList() )
+            {
+                Files.delete( file );
+            }
+        }
+    }
+
+    public void testCountsHitsAndMisses() throws Exception
+    {
+        Path a = write( "a", "hello" );
+        FileCache cache = new FileCache( 100, 100 );
+
+        assertEquals( "hello", text( cache.get( a ) ) );
+        assertEquals( "hello", text( cache.get( a ) ) );
+        assertEquals( 1, cache.getMissCount() );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 5, cache.getSize() );
+    }
+
+    public void testEvictsLeastRecentlyUsedToStayWithinBound() throws Exception
+    {
+        Path a = write( "a", "aaaa" );
+        Path b = write( "b", "bbbb" );
+        Path c = write( "c", "cccc" );
+        FileCache cache = new FileCache( 10, 10 );
+
+        cache.get( a );
+        cache.get( b );
+        cache.get( a ); // b is now the least recently used
+        cache.get( c );
+
+        assertEquals( 1, cache.getEvictionCount() );
+        assertEquals( 8, cache.getSize() );
+        cache.get( a );
+        assertEquals( 2, cache.getHitCount() );
+        cache.get( b );
+        assertEquals( 4, cache.getMissCount() );
+    }
+
+    public void testSkipsLargeFilesAndReloadsChangedOnes() throws Exception
+    {
+        Path big = write( "big", "0123456789" );
+        Path a = write( "a", "old" );
+        FileCache cache = new FileCache( 100, 5 );
+
+        assertNull( cache.get( big ) );
+        cache.get( a );
+        write( "a", "newer" );
+        Files.setLastModifiedTime( a, FileTime.fromMillis( System.currentTimeMillis() + 5000 ) );
+        assertEquals( "newer", text( cache.get( a ) ) );
+        assertEquals( 3, cache.getMissCount() );
+    }
+
+    public void testChecksFilesOutsideWatchedDirectories() throws Exception
+    {
+        Files.createDirectory( dir.resolve( "sub" ) );
+        Path nested = write( "sub/a", "old" );
+        FileCache cache = new FileCache( 100, 100 );
+        cache.watch( dir );
+
+        cache.get( nested );
+        write( "sub/a", "newer" );
+        Files.setLastModifiedTime( nested, FileTime.fromMillis( System.currentTimeMillis() + 5000 ) );
+        assertEquals( "newer", text( cache.get( nested ) ) );
+        assertEquals( 2, cache.getMissCount() );
+        cache.close();
+    }
+
+    private Path write( String name, String content ) throws Exception
+    {
+        return Files.writeString( dir.resolve( name ), content );
+    }
+
+    private static String text( FileCache.Entry entry )
+    {
+        return StandardCharsets.UTF_8.decode( entry.getData() ).toString();
+    }
+}
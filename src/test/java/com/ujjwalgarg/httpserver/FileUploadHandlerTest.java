@@ -0,0 +1,105 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the storage, limits and path checks of
+ * {@link FileUploadHandler}.
+ */
+public class FileUploadHandlerTest
+    extends TestCase
+{
+    private Path dir;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public FileUploadHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( FileUploadHandlerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "upload-test" );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try ( var files = Files.list( dir ) ) {
+            for ( Path file : files.toList() ) {
+                Files.delete( file );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    private static Response upload( FileUploadHandler handler, String path, String body ) throws Exception
+    {
+        Request req = new Request();
+        new RequestParser( false ).parse( ByteBuffer.wrap( ( "POST " + path + " HTTP/1.1\r\nContent-Length: "
+                + body.length() + "\r\n\r\n" ).getBytes() ), req );
+        req.setBody( body.getBytes() );
+        Response res = new Response( new ByteArrayOutputStream() );
+        handler.handle( req, res );
+        return res;
+    }
+
+    public void testReplacesFileWithoutLeavingTemporaryFiles() throws Exception
+    {
+        FileUploadHandler handler = new FileUploadHandler( dir, "/files/" ).setSync( true );
+        assertEquals( 201, upload( handler, "/files/a.txt", "first" ).getStatusCode() );
+        assertEquals( 201, upload( handler, "/files/a.txt", "second" ).getStatusCode() );
+
+        assertEquals( "second", Files.readString( dir.resolve( "a.txt" ) ) );
+        try ( var files = Files.list( dir ) ) {
+            assertEquals( 1, files.count() );
+        }
+    }
+
+    public void testRejectsTooLargeBodiesAndKeepsOldContents() throws Exception
+    {
+        FileUploadHandler handler = new FileUploadHandler( dir, "/files/" ).setMaxSize( 4 );
+        upload( handler, "/files/a.txt", "abc" );
+        try {
+            upload( handler, "/files/a.txt", "abcdef" );
+            fail( "Expected 413" );
+        } catch ( HttpException e ) {
+            assertEquals( 413, e.getStatusCode() );
+        }
+
+        assertEquals( "abc", Files.readString( dir.resolve( "a.txt" ) ) );
+        try ( var files = Files.list( dir ) ) {
+            assertEquals( 1, files.count() );
+        }
+    }
+
+    public void testRejectsPathsOutsideTheDirectory() throws Exception
+    {
+        FileUploadHandler handler = new FileUploadHandler( dir, "/files/" );
+        assertEquals( 404, upload( handler, "/files/..%2Fescaped.txt", "x" ).getStatusCode() );
+        assertEquals( 404, upload( handler, "/files/", "x" ).getStatusCode() );
+        assertEquals( 404, upload( handler, "/files/%zz", "x" ).getStatusCode() );
+        assertEquals( 404, upload( handler, "/files/a.txt%2", "x" ).getStatusCode() );
+        assertFalse( Files.exists( dir.resolveSibling( "escaped.txt" ) ) );
+    }
+}
@@ -0,0 +1,119 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the negotiation and encoding of {@link GzipEncoder}.
+ */
+public class GzipEncoderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GzipEncoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( GzipEncoderTest.class );
+    }
+
+    public void testWeighsCodingsByQValue()
+    {
+        assertTrue( GzipEncoder.accepts( "gzip" ) );
+        assertTrue( GzipEncoder.accepts( "deflate, GZIP;q=0.5" ) );
+        assertTrue( GzipEncoder.accepts( "br;q=1.0, *;q=0.1" ) );
+        assertFalse( GzipEncoder.accepts( null ) );
+        assertFalse( GzipEncoder.accepts( "deflate, br" ) );
+        assertFalse( GzipEncoder.accepts( "gzip;q=0" ) );
+        assertFalse( GzipEncoder.accepts( "*;q=0.5, identity" ) );
+        assertFalse( GzipEncoder.accepts( "*, gzip;q=0" ) );
+    }
+
+    public void testSkipsContentAlreadyCompressed()
+    {
+        assertTrue( GzipEncoder.isCompressible( "text/html; charset=utf-8" ) );
+        assertTrue( GzipEncoder.isCompressible( "application/problem+json" ) );
+        assertFalse( GzipEncoder.isCompressible( "image/png" ) );
+        assertFalse( GzipEncoder.isCompressible( "application/octet-stream" ) );
+        assertFalse( GzipEncoder.isCompressible( null ) );
+    }
+
+    public void testEncodesValidGzipRepeatedlyOnOneThread() throws Exception
+    {
+        for ( String text : new String[] { "first body", "", "second, longer body second, longer body" } )
+        {
+            assertEquals( text, gunzip( GzipEncoder.encode( ByteBuffer.wrap( text.getBytes() ) ) ) );
+        }
+    }
+
+    public void testKeepsABoundedPoolOfDeflatersAcrossThreads() throws Exception
+    {
+        int max = 2 * Runtime.getRuntime().availableProcessors();
+        List<ByteArrayOutputStream> outs = new ArrayList<>();
+        List<GzipEncoder> open = new ArrayList<>();
+        for ( int i = 0; i < max + 4; i++ ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GzipEncoder encoder = new GzipEncoder( out );
+            encoder.write( ( "body " + i ).getBytes() );
+            outs.add( out );
+            open.add( encoder );
+        }
+        for ( GzipEncoder encoder : open ) {
+            encoder.close();
+        }
+        assertEquals( max, GzipEncoder.getIdleDeflaterCount() );
+        assertEquals( "body 3", gunzip( outs.get( 3 ).toByteArray() ) );
+
+        // Each virtual thread takes a pooled deflater rather than creating its own
+        try ( var executor = Executors.newVirtualThreadPerTaskExecutor() ) {
+            for ( int i = 0; i < 100; i++ ) {
+                executor.submit( () -> GzipEncoder.encode( ByteBuffer.wrap( "virtual".getBytes() ) ) );
+            }
+        }
+        assertEquals( max, GzipEncoder.getIdleDeflaterCount() );
+    }
+
+        public void testCompressesStreamedTextBodies() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response( out );
+        res.setStatusCode( 200 );
+        res.setStatusMsg( "OK" );
+        res.setCompression( true, 1024 );
+        res.addHeader( "Content-Type", "text/plain" );
+        res.getBodyStream().write( "streamed".getBytes() );
+        res.send();
+
+        String sent = out.toString( "ISO-8859-1" );
+        assertTrue( sent.contains( "content-encoding: gzip\r\n" ) );
+        assertTrue( sent.contains( "transfer-encoding: chunked\r\n" ) );
+        assertTrue( sent.endsWith( "\r\n0\r\n\r\n" ) );
+    }
+
+    private static String gunzip( byte[] compressed ) throws Exception
+    {
+        try ( GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) ) )
+        {
+            return new String( in.readAllBytes() );
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.HexFormat;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link HpackDecoder}, against the examples of RFC 7541
+ * Appendix C.
+ */
+public class HpackDecoderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HpackDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( HpackDecoderTest.class );
+    }
+
+    private static HttpHeaders decode( HpackDecoder decoder, String hex ) throws Http2Exception
+    {
+        byte[] block = HexFormat.of().parseHex( hex.replace( " ", "" ) );
+        HttpHeaders headers = new HttpHeaders();
+        decoder.decode( block, block.length, headers );
+        return headers;
+    }
+
+    public void testDecodesHuffmanRequestsSharingTheTable() throws Exception
+    {
+        HpackDecoder decoder = new HpackDecoder( 4096 );
+
+        HttpHeaders first = decode( decoder, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff" );
+        assertEquals( "{:method=GET, :scheme=http, :path=/, :authority=www.example.com}", first.toString() );
+
+        HttpHeaders second = decode( decoder, "8286 84be 5886 a8eb 1064 9cbf" );
+        assertEquals( "www.example.com", second.get( ":authority" ) );
+        assertEquals( "no-cache", second.get( "cache-control" ) );
+
+        HttpHeaders third = decode( decoder,
+                "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf" );
+        assertEquals( "{:method=GET, :scheme=https, :path=/index.html, :authority=www.example.com, "
+                + "custom-key=custom-value}", third.toString() );
+    }
+
+    public void testEvictsTheOldestEntriesWhenTheTableIsFull() throws Exception
+    {
+        HpackDecoder decoder = new HpackDecoder( 256 );
+
+        decode( decoder, "4882 6402 5885 aec3 771a 4b61 96d0 7abe 9410 54d4 44a8 2005 9504 0b81 66e0 82a6"
+                + "2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8 e9ae 82ae 43d3" );
+        // ":status: 302" is evicted to make room for ":status: 307"
+        HttpHeaders second = decode( decoder, "4883 640e ff c1 c0 bf" );
+        assertEquals( "{:status=307, cache-control=private, date=Mon, 21 Oct 2013 20:13:21 GMT, "
+                + "location=https://www.example.com}", second.toString() );
+
+        try {
+            decode( decoder, "c2" ); // Index 66 was the evicted entry
+            fail( "Evicted entry decoded" );
+        } catch ( Http2Exception e ) {
+            assertEquals( Http2Exception.COMPRESSION_ERROR, e.getErrorCode() );
+        }
+    }
+
+    public void testRejectsInvalidTableSizeUpdates() throws Exception
+    {
+        HpackDecoder decoder = new HpackDecoder( 4096 );
+
+        assertEquals( "GET", decode( decoder, "20 82" ).get( ":method" ) );
+        // An update after a field, and one past the size announced to the peer
+        for ( String block : new String[] { "82 20", "3fe2 1f" } ) {
+            try {
+                decode( decoder, block );
+                fail( "Accepted " + block );
+            } catch ( Http2Exception e ) {
+                assertEquals( Http2Exception.COMPRESSION_ERROR, e.getErrorCode() );
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the lookup, multiple values and ordering of
+ * {@link HttpHeaders}.
+ */
+public class HttpHeadersTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HttpHeadersTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( HttpHeadersTest.class );
+    }
+
+    public void testLooksUpNamesIgnoringCase()
+    {
+        HttpHeaders headers = new HttpHeaders()
+                .add( "Content-Type", "text/plain" )
+                .add( "X-Trace", "abc" );
+
+        assertEquals( "text/plain", headers.get( "content-type" ) );
+        assertEquals( "text/plain", headers.get( "CONTENT-TYPE" ) );
+        assertEquals( "abc", headers.get( "x-TRACE" ) );
+        assertTrue( headers.contains( "x-trace" ) );
+        assertNull( headers.get( "content-length" ) );
+        assertEquals( "Content-Type", headers.getName( 0 ) );
+    }
+
+    public void testKeepsRepeatedNamesInOrder()
+    {
+        HttpHeaders headers = new HttpHeaders();
+        for ( int i = 0; i < 20; i++ ) {
+            headers.add( i % 2 == 0 ? "Set-Cookie" : "x-n", Integer.toString( i ) );
+        }
+
+        List<String> cookies = headers.getAll( "set-cookie" );
+        assertEquals( 10, cookies.size() );
+        assertEquals( "0", cookies.get( 0 ) );
+        assertEquals( "18", cookies.get( 9 ) );
+        assertEquals( "1", headers.get( "X-N" ) );
+        assertTrue( headers.getAll( "vary" ).isEmpty() );
+
+        StringBuilder order = new StringBuilder();
+        headers.forEach( ( name, value ) -> order.append( value ).append( ' ' ) );
+        assertTrue( order.toString().startsWith( "0 1 2 3 " ) );
+    }
+
+    public void testSetReplacesInPlaceAndRemoveDropsAll()
+    {
+        HttpHeaders headers = new HttpHeaders()
+                .add( "Vary", "Origin" )
+                .add( "Server", "test" )
+                .add( "vary", "Cookie" )
+                .add( "X-Last", "1" );
+
+        headers.set( "VARY", "Accept-Encoding" );
+        assertEquals( 3, headers.size() );
+        assertEquals( "VARY", headers.getName( 0 ) );
+        assertEquals( List.of( "Accept-Encoding" ), headers.getAll( "vary" ) );
+        assertEquals( "X-Last", headers.getName( 2 ) );
+
+        assertTrue( headers.remove( "server" ) );
+        assertFalse( headers.remove( "server" ) );
+        assertEquals( 2, headers.size() );
+        assertEquals( "1", headers.get( "x-last" ) );
+
+        headers.clear();
+        assertEquals( 0, headers.size() );
+        assertNull( headers.get( "vary" ) );
+    }
+
+    public void testReadsFieldsParsedFromARequest() throws Exception
+    {
+        Request req = new Request();
+        new RequestParser( true ).parse( ByteBuffer.wrap( ( "GET / HTTP/1.1\r\nHost: a\r\n"
+                + "X-Forwarded-For: 1.1.1.1\r\nX-Custom: one\r\nx-forwarded-for: 2.2.2.2\r\n\r\n" ).getBytes() ), req );
+        HttpHeaders headers = req.getHeaders();
+
+        assertEquals( 4, headers.size() );
+        assertEquals( "x-custom", headers.getName( 2 ) );
+        assertEquals( "one", headers.get( "X-CUSTOM" ) );
+        assertEquals( List.of( "1.1.1.1", "2.2.2.2" ), headers.getAll( "X-Forwarded-For" ) );
+
+        headers.set( "x-custom", "two" );
+        headers.remove( "host" );
+        assertEquals( "two", headers.getValue( 1 ) );
+        assertEquals( "2.2.2.2", headers.getValue( 2 ) );
+    }
+}
@@ -0,0 +1,717 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Loopback test of {@link HttpServer}, driving its engines over raw sockets.
+ */
+public class HttpServerTest
+    extends TestCase
+{
+    private final List<HttpServer> servers = new ArrayList<>(); // Servers started by the test
+    private final List<String> events = Collections.synchronizedList( new ArrayList<>() ); // Handlers done, in order
+    private final AtomicInteger running = new AtomicInteger(); // Delayed handlers running
+    private final AtomicInteger maxRunning = new AtomicInteger(); // Most delayed handlers running at once
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HttpServerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( HttpServerTest.class );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for ( HttpServer server : servers ) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Starts a server on a free port with the given routes and connects to it
+     * once it accepts connections.
+     */
+    private Socket start( ServerConfig config, Consumer<HttpServer> routes ) throws Exception
+    {
+        int port;
+        try ( ServerSocket free = new ServerSocket( 0 ) ) {
+            port = free.getLocalPort();
+        }
+        HttpServer server = new HttpServer( port, config );
+        routes.accept( server );
+        servers.add( server );
+        Thread thread = new Thread( server::start );
+        thread.setDaemon( true );
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 5 );
+        while ( true ) {
+            try {
+                return connect( port );
+            } catch ( IOException e ) {
+                if ( System.nanoTime() > deadline ) {
+                    throw e;
+                }
+                Thread.sleep( 20 );
+            }
+        }
+    }
+
+    private static Socket connect( int port ) throws IOException
+    {
+        Socket socket = new Socket( "127.0.0.1", port );
+        socket.setSoTimeout( 5000 );
+        return socket;
+    }
+
+    /**
+     * Adds a GET /hello route answering "hello".
+     */
+    private static void hello( HttpServer server )
+    {
+        server.addHandler( RequestMethod.GET, "/hello", ( req, res ) -> {
+            res.setStatusCode( 200 );
+            res.setStatusMsg( "OK" );
+            res.setResponseBody( "hello" );
+        } );
+    }
+
+    /**
+     * Adds GET /delay/{ms}, answering "ms" after that many milliseconds, and
+     * POST /log, answering "post" at once. Both record in {@link #events}
+     * when they are done.
+     */
+    private void delays( HttpServer server )
+    {
+        hello( server );
+        server.addAsyncHandler( RequestMethod.GET, "/delay/{ms}", ( req, res ) -> {
+            String ms = req.getPathParam( "ms" );
+            maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture.delayedExecutor( Long.parseLong( ms ), TimeUnit.MILLISECONDS ).execute( () -> {
+                res.setStatusCode( 200 );
+                res.setStatusMsg( "OK" );
+                res.setResponseBody( ms );
+                events.add( "get " + ms );
+                running.decrementAndGet();
+                done.complete( null );
+            } );
+            return done;
+        } );
+        server.addHandler( RequestMethod.POST, "/log", ( req, res ) -> {
+            res.setStatusCode( 200 );
+            res.setStatusMsg( "OK" );
+            res.setResponseBody( "post" );
+            events.add( "post" );
+        } );
+    }
+
+    /**
+     * Sends all the requests in one write and reads their responses.
+     */
+    private static List<String> pipeline( Socket socket, String... requests ) throws IOException
+    {
+        send( socket, String.join( "", requests ) );
+        List<String> responses = new ArrayList<>();
+        for ( int i = 0; i < requests.length; i++ ) {
+            responses.add( readResponse( socket.getInputStream() ) );
+        }
+        return responses;
+    }
+
+    private static String get( String path )
+    {
+        return "GET " + path + " HTTP/1.1\r\nHost: x\r\n\r\n";
+    }
+
+    private static void assertBodies( List<String> responses, String... bodies )
+    {
+        assertEquals( bodies.length, responses.size() );
+        for ( int i = 0; i < bodies.length; i++ ) {
+            assertTrue( responses.get( i ), responses.get( i ).endsWith( "\r\n\r\n" + bodies[i] ) );
+        }
+    }
+
+    /**
+     * A frame read by the HTTP/2 client of the tests.
+     */
+    private static final class Frame
+    {
+        int type; // Frame type
+        int flags; // Frame flags
+        int stream; // Stream id, 0 for the connection
+        byte[] payload; // Frame payload
+    }
+
+    /**
+     * Starts an HTTP/2 connection with the preface and empty settings.
+     */
+    private static void preface( Socket socket ) throws IOException
+    {
+        OutputStream out = socket.getOutputStream();
+        out.write( Http2Connection.PREFACE );
+        writeFrame( socket, 0x4, 0, 0, new byte[0] );
+    }
+
+    private static void writeFrame( Socket socket, int type, int flags, int stream, byte[] payload )
+            throws IOException
+    {
+        byte[] frame = new byte[9 + payload.length];
+        frame[0] = (byte) ( payload.length >>> 16 );
+        frame[1] = (byte) ( payload.length >>> 8 );
+        frame[2] = (byte) payload.length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        writeInt( frame, 5, stream );
+        System.arraycopy( payload, 0, frame, 9, payload.length );
+        socket.getOutputStream().write( frame );
+        socket.getOutputStream().flush();
+    }
+
+    private static void writeInt( byte[] b, int off, int value )
+    {
+        b[off] = (byte) ( value >>> 24 );
+        b[off + 1] = (byte) ( value >>> 16 );
+        b[off + 2] = (byte) ( value >>> 8 );
+        b[off + 3] = (byte) value;
+    }
+
+    private static byte[] windowUpdate( int increment )
+    {
+        byte[] payload = new byte[4];
+        writeInt( payload, 0, increment );
+        return payload;
+    }
+
+    /**
+     * Sends a GET on a stream, its headers as literals without indexing.
+     */
+    private static void get( Socket socket, int stream, String path ) throws IOException
+    {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        String[] fields = { ":method", "GET", ":scheme", "http", ":path", path, ":authority", "x" };
+        for ( int i = 0; i < fields.length; i++ ) {
+            if ( i % 2 == 0 ) {
+                block.write( 0 );
+            }
+            block.write( fields[i].length() );
+            block.writeBytes( fields[i].getBytes( StandardCharsets.US_ASCII ) );
+        }
+        writeFrame( socket, 0x1, 0x1 | 0x4, stream, block.toByteArray() ); // END_STREAM, END_HEADERS
+    }
+
+    private static Frame readFrame( InputStream in ) throws IOException
+    {
+        DataInputStream data = new DataInputStream( in );
+        Frame frame = new Frame();
+        int length = data.readUnsignedByte() << 16 | data.readUnsignedShort();
+        frame.type = data.readUnsignedByte();
+        frame.flags = data.readUnsignedByte();
+        frame.stream = data.readInt() & 0x7fffffff;
+        frame.payload = data.readNBytes( length );
+        return frame;
+    }
+
+    /**
+     * Reads the next frame of a stream, skipping settings, pings and window
+     * updates of the connection.
+     */
+    private static Frame readStreamFrame( InputStream in ) throws IOException
+    {
+        while ( true ) {
+            Frame frame = readFrame( in );
+            if ( frame.stream != 0 || frame.type == 0x7 ) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Reads the response of each stream until all of them ended, adding the
+     * streams to ended as they end.
+     *
+     * @return the bodies by stream
+     */
+    private static Map<Integer, String> readResponses( InputStream in, List<Integer> ended, int... streams )
+            throws IOException
+    {
+        Map<Integer, String> bodies = new HashMap<>();
+        HpackDecoder decoder = new HpackDecoder( 4096 );
+        while ( ended.size() < streams.length ) {
+            Frame frame = readStreamFrame( in );
+            if ( frame.type == 0x1 ) {
+                HttpHeaders headers = new HttpHeaders();
+                decoder.decode( frame.payload, frame.payload.length, headers );
+                assertEquals( "200", headers.get( ":status" ) );
+                bodies.put( frame.stream, "" );
+            } else if ( frame.type == 0x0 ) {
+                bodies.merge( frame.stream, new String( frame.payload, StandardCharsets.US_ASCII ), String::concat );
+            } else {
+                fail( "Unexpected frame " + frame.type + " on stream " + frame.stream );
+            }
+            if ( ( frame.flags & 0x1 ) != 0 ) {
+                ended.add( frame.stream );
+            }
+        }
+        return bodies;
+    }
+
+    private static void send( Socket socket, String data ) throws IOException
+    {
+        OutputStream out = socket.getOutputStream();
+        out.write( data.getBytes( StandardCharsets.US_ASCII ) );
+        out.flush();
+    }
+
+    /**
+     * Reads one response, its head and its Content-Length body.
+     */
+    private static String readResponse( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while ( !head.toString( StandardCharsets.US_ASCII ).endsWith( "\r\n\r\n" ) ) {
+            int b = in.read();
+            if ( b == -1 ) {
+                throw new IOException( "Connection closed after " + head );
+            }
+            head.write( b );
+        }
+        String text = head.toString( StandardCharsets.US_ASCII );
+        int length = 0;
+        for ( String line : text.split( "\r\n" ) ) {
+            if ( line.toLowerCase().startsWith( "content-length:" ) ) {
+                length = Integer.parseInt( line.substring( 15 ).trim() );
+            }
+        }
+        return text + new String( in.readNBytes( length ), StandardCharsets.US_ASCII );
+    }
+
+    public void testAbandonedRequestBodyIsDetachedFromTheConnection() throws Exception
+    {
+        CompletableFuture<String> late = new CompletableFuture<>();
+        CountDownLatch responded = new CountDownLatch( 1 );
+        Consumer<HttpServer> routes = server -> server.addAsyncHandler( RequestMethod.POST, "/slow", ( req, res ) -> {
+            // Reads the body past the timeout, as a handler would that is too slow
+            new Thread( () -> {
+                InputStream body = req.getBodyStream();
+                try {
+                    body.readAllBytes();
+                    late.complete( "read the whole body" );
+                } catch ( IOException first ) {
+                    try {
+                        responded.await();
+                        body.read();
+                        late.complete( "read after failing" );
+                    } catch ( IOException second ) {
+                        late.complete( second.getMessage() );
+                    } catch ( InterruptedException e ) {
+                        late.completeExceptionally( e );
+                    }
+                }
+            } ).start();
+            return new CompletableFuture<>();
+        }, 300 );
+
+        try ( Socket socket = start( new ServerConfig(), routes ) ) {
+            // Half the body, so the handler is still reading when the timeout expires
+            send( socket, "POST /slow HTTP/1.1\r\nHost: x\r\nContent-Length: 10\r\n\r\n12345" );
+            String response = readResponse( socket.getInputStream() );
+            assertTrue( response, response.startsWith( "HTTP/1.1 504 " ) );
+            assertTrue( response, response.contains( "connection: close" ) );
+            responded.countDown();
+            assertEquals( "Request body abandoned by the server", late.get( 5, TimeUnit.SECONDS ) );
+            assertEquals( -1, socket.getInputStream().read() );
+        }
+    }
+
+    public void testKeepsConnectionsAliveBetweenRequests() throws Exception
+    {
+        assertKeepsConnectionsAlive( new ServerConfig() );
+    }
+
+    public void testClosesHttp10ConnectionsUnlessAskedToKeepThem() throws Exception
+    {
+        assertClosesHttp10Connections( new ServerConfig() );
+    }
+
+    public void testClosesConnectionsAfterTheRequestLimit() throws Exception
+    {
+        assertClosesAfterTheRequestLimit( new ServerConfig() );
+    }
+
+    public void testAnswersEmptyBodies() throws Exception
+    {
+        Consumer<HttpServer> routes = server -> server.addHandler( RequestMethod.GET, "/empty", ( req, res ) -> {
+            res.setStatusCode( 200 );
+            res.setStatusMsg( "OK" );
+            res.setResponseBody( "" );
+        } );
+        for ( EngineType engine : EngineType.values() ) {
+            try ( Socket socket = start( new ServerConfig().setEngineType( engine ), routes ) ) {
+                for ( int i = 0; i < 2; i++ ) {
+                    send( socket, "GET /empty HTTP/1.1\r\nHost: x\r\n\r\n" );
+                    String response = readResponse( socket.getInputStream() );
+                    assertTrue( response, response.startsWith( "HTTP/1.1 200 " ) );
+                    assertTrue( response, response.contains( "content-length: 0\r\n" ) );
+                }
+            }
+        }
+    }
+
+    public void testNioEngineKeepsConnectionsAlive() throws Exception
+    {
+        assertKeepsConnectionsAlive( new ServerConfig().setEngineType( EngineType.NIO ) );
+        assertClosesHttp10Connections( new ServerConfig().setEngineType( EngineType.NIO ) );
+        assertClosesAfterTheRequestLimit( new ServerConfig().setEngineType( EngineType.NIO ) );
+    }
+
+    public void testNioEngineReadsRequestBodies() throws Exception
+    {
+        Consumer<HttpServer> routes = server -> server.addHandler( RequestMethod.POST, "/echo", ( req, res ) -> {
+            res.setStatusCode( 200 );
+            res.setStatusMsg( "OK" );
+            res.setResponseBody( req.getRequestBody() );
+        } );
+        String body = "0123456789abcdef".repeat( 20_000 ); // Larger than a read buffer
+
+        try ( Socket socket = start( new ServerConfig().setEngineType( EngineType.NIO ), routes ) ) {
+            send( socket, "POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: " + body.length() + "\r\n\r\n" );
+            Thread.sleep( 50 ); // The body arrives in a later read than the head
+            send( socket, body );
+            String response = readResponse( socket.getInputStream() );
+            assertTrue( response.startsWith( "HTTP/1.1 200 " ) );
+            assertTrue( response.endsWith( "\r\n\r\n" + body ) );
+
+            send( socket, "POST /echo HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n" );
+            response = readResponse( socket.getInputStream() );
+            assertTrue( response, response.endsWith( "\r\n\r\nhello world" ) );
+        }
+    }
+
+    public void testNioEngineSurvivesBadRequestsAndFailingHandlers() throws Exception
+    {
+        Consumer<HttpServer> routes = server -> {
+            hello( server );
+            server.addHandler( RequestMethod.GET, "/fail", ( req, res ) -> {
+                throw new IllegalStateException( "handler bug" );
+            } );
+        };
+
+        try ( Socket socket = start( new ServerConfig().setEngineType( EngineType.NIO ), routes ) ) {
+            send( socket, "GET /fail HTTP/1.1\r\nHost: x\r\n\r\n" );
+            String response = readResponse( socket.getInputStream() );
+            assertTrue( response, response.startsWith( "HTTP/1.1 500 " ) );
+
+            try ( Socket bad = connect( socket.getPort() ) ) {
+                send( bad, "GET /hello HTTP/1.1\r\nNo colon here\r\n\r\n" );
+                response = readResponse( bad.getInputStream() );
+                assertTrue( response, response.startsWith( "HTTP/1.1 400 " ) );
+                assertTrue( response, response.contains( "connection: close" ) );
+                assertEquals( -1, bad.getInputStream().read() );
+            }
+
+            try ( Socket next = connect( socket.getPort() ) ) {
+                send( next, "GET /hello HTTP/1.1\r\nHost: x\r\n\r\n" );
+                assertTrue( readResponse( next.getInputStream() ).endsWith( "\r\n\r\nhello" ) );
+            }
+        }
+    }
+
+    private void assertKeepsConnectionsAlive( ServerConfig config ) throws Exception
+    {
+        try ( Socket socket = start( config, HttpServerTest::hello ) ) {
+            for ( int i = 0; i < 3; i++ ) {
+                send( socket, "GET /hello HTTP/1.1\r\nHost: x\r\n\r\n" );
+                String response = readResponse( socket.getInputStream() );
+                assertTrue( response, response.startsWith( "HTTP/1.1 200 " ) );
+                assertTrue( response, response.contains( "connection: keep-alive" ) );
+                assertTrue( response, response.endsWith( "\r\n\r\nhello" ) );
+            }
+            send( socket, "GET /hello HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n" );
+            assertTrue( readResponse( socket.getInputStream() ).contains( "connection: close" ) );
+            assertEquals( -1, socket.getInputStream().read() );
+        }
+    }
+
+    private void assertClosesHttp10Connections( ServerConfig config ) throws Exception
+    {
+        try ( Socket socket = start( config, HttpServerTest::hello ) ) {
+            send( socket, "GET /hello HTTP/1.0\r\n\r\n" );
+            String response = readResponse( socket.getInputStream() );
+            assertTrue( response, response.contains( "connection: close" ) );
+            assertTrue( response, response.endsWith( "\r\n\r\nhello" ) );
+            assertEquals( -1, socket.getInputStream().read() );
+
+            try ( Socket kept = connect( socket.getPort() ) ) {
+                send( kept, "GET /hello HTTP/1.0\r\nConnection: keep-alive\r\n\r\n" );
+                response = readResponse( kept.getInputStream() );
+                assertTrue( response, response.contains( "connection: keep-alive" ) );
+                send( kept, "GET /hello HTTP/1.0\r\n\r\n" );
+                response = readResponse( kept.getInputStream() );
+                assertTrue( response, response.contains( "connection: close" ) );
+                assertEquals( -1, kept.getInputStream().read() );
+            }
+        }
+    }
+
+    private void assertClosesAfterTheRequestLimit( ServerConfig config ) throws Exception
+    {
+        try ( Socket socket = start( config.setMaxRequestsPerConnection( 2 ), HttpServerTest::hello ) ) {
+            send( socket, "GET /hello HTTP/1.1\r\nHost: x\r\n\r\n" );
+            assertTrue( readResponse( socket.getInputStream() ).contains( "connection: keep-alive" ) );
+            send( socket, "GET /hello HTTP/1.1\r\nHost: x\r\n\r\n" );
+            String response = readResponse( socket.getInputStream() );
+            assertTrue( response, response.contains( "connection: close" ) );
+            assertTrue( response, response.endsWith( "\r\n\r\nhello" ) );
+            assertEquals( -1, socket.getInputStream().read() );
+        }
+    }
+
+    public void testAnswersPipelinedRequestsInOrder() throws Exception
+    {
+        for ( EngineType engine : EngineType.values() ) {
+            try ( Socket socket = start( new ServerConfig().setEngineType( engine ), this::delays ) ) {
+                assertBodies( pipeline( socket, get( "/delay/300" ), get( "/delay/0" ), get( "/delay/100" ) ),
+                        "300", "0", "100" );
+
+                String[] requests = new String[20];
+                String[] bodies = new String[20];
+                for ( int i = 0; i < requests.length; i++ ) {
+                    requests[i] = get( "/delay/" + i % 3 );
+                    bodies[i] = String.valueOf( i % 3 );
+                }
+                assertBodies( pipeline( socket, requests ), bodies );
+            }
+        }
+    }
+
+    public void testNioEngineCompletesPipelinedRequestsOutOfOrder() throws Exception
+    {
+        try ( Socket socket = start( new ServerConfig().setEngineType( EngineType.NIO ), this::delays ) ) {
+            assertBodies( pipeline( socket, get( "/delay/300" ), get( "/delay/100" ), get( "/delay/200" ) ),
+                    "300", "100", "200" );
+            assertEquals( List.of( "get 100", "get 200", "get 300" ), events );
+            assertEquals( 3, maxRunning.get() );
+        }
+    }
+
+    public void testNioEngineRunsUnsafeRequestsAlone() throws Exception
+    {
+        try ( Socket socket = start( new ServerConfig().setEngineType( EngineType.NIO ), this::delays ) ) {
+            String post = "POST /log HTTP/1.1\r\nHost: x\r\nContent-Length: 4\r\n\r\nbody";
+            assertBodies( pipeline( socket, get( "/delay/200" ), post, get( "/delay/0" ), get( "/delay/0" ) ),
+                    "200", "post", "0", "0" );
+            // The POST waits for the GET before it, and the GETs after it wait for the POST
+            assertEquals( List.of( "get 200", "post", "get 0", "get 0" ), events );
+        }
+    }
+
+    public void testNioEngineCapsPipelinedRequests() throws Exception
+    {
+        ServerConfig config = new ServerConfig().setEngineType( EngineType.NIO ).setMaxPipelinedRequests( 2 );
+        try ( Socket socket = start( config, this::delays ) ) {
+            assertBodies( pipeline( socket, get( "/delay/100" ), get( "/delay/100" ), get( "/delay/100" ),
+                    get( "/delay/100" ), get( "/delay/100" ) ), "100", "100", "100", "100", "100" );
+            assertEquals( 2, maxRunning.get() );
+        }
+    }
+
+    public void testStopsPipelinesAtTheLastRequestOfTheConnection() throws Exception
+    {
+        for ( EngineType engine : EngineType.values() ) {
+            try ( Socket socket = start( new ServerConfig().setEngineType( engine ), this::delays ) ) {
+                // The request pipelined after the HTTP/1.0 one is never answered
+                send( socket, get( "/delay/50" ) + "GET /hello HTTP/1.0\r\n\r\n" + get( "/hello" ) );
+                assertTrue( readResponse( socket.getInputStream() ).endsWith( "\r\n\r\n50" ) );
+                String response = readResponse( socket.getInputStream() );
+                assertTrue( response, response.contains( "connection: close" ) );
+                assertTrue( response, response.endsWith( "\r\n\r\nhello" ) );
+                assertEquals( engine.toString(), -1, socket.getInputStream().read() );
+            }
+
+            ServerConfig limited = new ServerConfig().setEngineType( engine ).setMaxRequestsPerConnection( 2 );
+            try ( Socket socket = start( limited, this::delays ) ) {
+                send( socket, get( "/delay/50" ) + get( "/hello" ) + get( "/hello" ) );
+                assertTrue( readResponse( socket.getInputStream() ).contains( "connection: keep-alive" ) );
+                String response = readResponse( socket.getInputStream() );
+                assertTrue( response, response.contains( "connection: close" ) );
+                assertEquals( engine.toString(), -1, socket.getInputStream().read() );
+            }
+        }
+    }
+
+    public void testServesHttp2WithPriorKnowledge() throws Exception
+    {
+        try ( Socket socket = start( new ServerConfig(), this::delays ) ) {
+            preface( socket );
+            get( socket, 1, "/hello" );
+            List<Integer> ended = new ArrayList<>();
+            assertEquals( Map.of( 1, "hello" ), readResponses( socket.getInputStream(), ended, 1 ) );
+
+            // Both streams run at once, and the shorter one ends first
+            get( socket, 3, "/delay/300" );
+            get( socket, 5, "/delay/100" );
+            ended.clear();
+            assertEquals( Map.of( 3, "300", 5, "100" ), readResponses( socket.getInputStream(), ended, 3, 5 ) );
+            assertEquals( List.of( 5, 3 ), ended );
+            assertEquals( 2, maxRunning.get() );
+        }
+    }
+
+    public void testHttp2SendsNoMoreThanTheClientWindow() throws Exception
+    {
+        String big = "0123456789".repeat( 20_000 );
+        Consumer<HttpServer> routes = server -> server.addHandler( RequestMethod.GET, "/big", ( req, res ) -> {
+            res.setStatusCode( 200 );
+            res.setStatusMsg( "OK" );
+            res.setResponseBody( big );
+        } );
+
+        try ( Socket socket = start( new ServerConfig(), routes ) ) {
+            preface( socket );
+            get( socket, 1, "/big" );
+            InputStream in = socket.getInputStream();
+            assertEquals( 0x1, readStreamFrame( in ).type );
+            int received = 0;
+            while ( received < 65_535 ) {
+                Frame frame = readStreamFrame( in );
+                assertEquals( 0x0, frame.type );
+                received += frame.payload.length;
+            }
+            assertEquals( 65_535, received );
+
+            // The initial windows are used up: nothing more comes until they grow
+            socket.setSoTimeout( 300 );
+            try {
+                fail( "Frame " + readStreamFrame( in ).type + " past the window" );
+            } catch ( SocketTimeoutException e ) {
+                // Expected
+            }
+            socket.setSoTimeout( 5000 );
+
+            writeFrame( socket, 0x8, 0, 0, windowUpdate( big.length() ) );
+            writeFrame( socket, 0x8, 0, 1, windowUpdate( big.length() ) );
+            Frame frame;
+            do {
+                frame = readStreamFrame( in );
+                received += frame.payload.length;
+            } while ( ( frame.flags & 0x1 ) == 0 );
+            assertEquals( big.length(), received );
+        }
+    }
+
+    public void testHttp2RefusesStreamsOverTheLimit() throws Exception
+    {
+        try ( Socket socket = start( new ServerConfig().setMaxConcurrentStreams( 1 ), this::delays ) ) {
+            preface( socket );
+            get( socket, 1, "/delay/300" );
+            get( socket, 3, "/hello" );
+            Frame refused = readStreamFrame( socket.getInputStream() );
+            assertEquals( 0x3, refused.type ); // RST_STREAM
+            assertEquals( 3, refused.stream );
+            assertEquals( 0x7, refused.payload[3] ); // REFUSED_STREAM
+
+            List<Integer> ended = new ArrayList<>();
+            assertEquals( Map.of( 1, "300" ), readResponses( socket.getInputStream(), ended, 1 ) );
+            // The slot of the finished stream is free again
+            get( socket, 5, "/hello" );
+            assertEquals( Map.of( 5, "hello" ), readResponses( socket.getInputStream(), ended, 1, 5 ) );
+        }
+    }
+
+    public void testHttp2SendsGoAwayOnProtocolErrors() throws Exception
+    {
+        try ( Socket socket = start( new ServerConfig(), this::delays ) ) {
+            preface( socket );
+            get( socket, 1, "/hello" );
+            readResponses( socket.getInputStream(), new ArrayList<>(), 1 );
+            writeFrame( socket, 0x0, 0, 0, new byte[1] ); // DATA on the connection
+
+            Frame goAway = readStreamFrame( socket.getInputStream() );
+            assertEquals( 0x7, goAway.type );
+            assertEquals( 1, goAway.payload[3] ); // Last stream id
+            assertEquals( 0x1, goAway.payload[7] ); // PROTOCOL_ERROR
+            assertEquals( -1, socket.getInputStream().read() );
+        }
+    }
+
+    public void testUpgradesToHttp2() throws Exception
+    {
+        Consumer<HttpServer> routes = server -> {
+            delays( server );
+            server.addHandler( RequestMethod.POST, "/echo", ( req, res ) -> {
+                res.setStatusCode( 200 );
+                res.setStatusMsg( "OK" );
+                res.setResponseBody( req.getRequestBody() );
+            } );
+        };
+        String port;
+        try ( Socket socket = start( new ServerConfig(), routes ) ) {
+            port = String.valueOf( socket.getPort() );
+        }
+        String base = "http://127.0.0.1:" + port;
+        HttpClient client = HttpClient.newBuilder().version( HttpClient.Version.HTTP_2 ).build();
+
+        // The first request asks for the upgrade and is answered on stream 1
+        HttpResponse<String> hello = client.send( HttpRequest.newBuilder( URI.create( base + "/hello" ) ).build(),
+                HttpResponse.BodyHandlers.ofString() );
+        assertEquals( HttpClient.Version.HTTP_2, hello.version() );
+        assertEquals( "hello", hello.body() );
+
+        // Larger than the initial window of the stream, in both directions
+        String body = "0123456789abcdef".repeat( 20_000 );
+        HttpResponse<String> echo = client.send( HttpRequest.newBuilder( URI.create( base + "/echo" ) )
+                .POST( HttpRequest.BodyPublishers.ofString( body ) ).build(), HttpResponse.BodyHandlers.ofString() );
+        assertEquals( HttpClient.Version.HTTP_2, echo.version() );
+        assertEquals( body, echo.body() );
+
+        CompletableFuture<HttpResponse<String>> slow = client.sendAsync(
+                HttpRequest.newBuilder( URI.create( base + "/delay/300" ) ).build(),
+                HttpResponse.BodyHandlers.ofString() );
+        CompletableFuture<HttpResponse<String>> fast = client.sendAsync(
+                HttpRequest.newBuilder( URI.create( base + "/delay/100" ) ).build(),
+                HttpResponse.BodyHandlers.ofString() );
+        assertEquals( "300", slow.get( 5, TimeUnit.SECONDS ).body() );
+        assertEquals( "100", fast.get( 5, TimeUnit.SECONDS ).body() );
+        assertEquals( List.of( "get 100", "get 300" ), events );
+        assertEquals( 2, maxRunning.get() );
+    }
+}
@@ -0,0 +1,139 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the byte-level {@link RequestParser}.
+ */
+public class RequestParserTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RequestParserTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RequestParserTest.class );
+    }
+
+    public void testParsesRequestLineAndHeaders() throws Exception
+    {
+        ByteBuffer buffer = bytes( "GET /echo/abc?x=1&y HTTP/1.1\r\nHost: localhost\r\n"
+                + "User-Agent: curl/8.0\r\nX-Custom:  spaced  \r\n\r\n" );
+        Request req = new Request();
+
+        assertTrue( new RequestParser( true ).parse( buffer, req ) );
+        assertFalse( buffer.hasRemaining() );
+        assertEquals( RequestMethod.GET, req.getMethod() );
+        assertEquals( "/echo/abc", req.getPath() );
+        assertEquals( "x=1&y", req.getQueryString() );
+        assertEquals( "1", req.getQueryParameter( "x" ) );
+        assertEquals( "HTTP/1.1", req.getHttpVersion() );
+        assertEquals( "curl/8.0", req.getHeader( "user-agent" ) );
+        assertEquals( "spaced", req.getHeader( "X-CUSTOM" ) );
+        assertNull( req.getHeader( "accept" ) );
+    }
+
+    public void testResetRequestTakesALargerHead() throws Exception
+    {
+        RequestParser parser = new RequestParser( true );
+        Request req = new Request();
+        assertTrue( parser.parse( bytes( "POST /a HTTP/1.1\r\nContent-Length: 3\r\nX-A: 1\r\n\r\n" ), req ) );
+
+        req.reset();
+        assertTrue( parser.parse( bytes( "GET /a/much/longer/path HTTP/1.1\r\nHost: localhost\r\n\r\n" ), req ) );
+        assertEquals( RequestMethod.GET, req.getMethod() );
+        assertEquals( "/a/much/longer/path", req.getPath() );
+        assertEquals( "localhost", req.getHeader( "host" ) );
+        assertNull( req.getHeader( "x-a" ) );
+        assertEquals( -1, req.getContentLength() );
+    }
+
+    public void testResumesOnPartialHead() throws Exception
+    {
+        RequestParser parser = new RequestParser( true );
+        Request req = new Request();
+        ByteBuffer buffer = ByteBuffer.allocate( 256 );
+
+        buffer.put( "POST /files/a HTTP/1.1\r\nContent-Length: 5\r".getBytes() ).flip();
+        assertFalse( parser.parse( buffer, req ) );
+        buffer.compact().put( "\n\r\nhello".getBytes() ).flip();
+        assertTrue( parser.parse( buffer, req ) );
+        assertEquals( 5, req.getContentLength() );
+        assertEquals( 5, buffer.remaining() );
+    }
+
+    public void testStrictRejectsBareLineFeeds()
+    {
+        assertStatus( 400, new RequestParser( true ), "GET / HTTP/1.1\nHost: x\n\n" );
+    }
+
+    public void testLenientAcceptsBareLineFeedsAndExtraSpaces() throws Exception
+    {
+        Request req = new Request();
+        assertTrue( new RequestParser( false ).parse( bytes( "GET  /  HTTP/1.0\nHost : x\n\n" ), req ) );
+        assertEquals( "/", req.getPath() );
+        assertEquals( "HTTP/1.0", req.getHttpVersion() );
+        assertEquals( "x", req.getHeader( "host" ) );
+    }
+
+    public void testMalformedInputGetsSpecificStatus()
+    {
+        RequestParser parser = new RequestParser( false );
+        assertStatus( 400, parser, "GET /\r\n\r\n" );
+        assertStatus( 400, parser, "GET / HTTP/1.1\r\nno colon here\r\n\r\n" );
+        assertStatus( 400, parser, "GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n" );
+        assertStatus( 501, parser, "BREW / HTTP/1.1\r\n\r\n" );
+        assertStatus( 505, parser, "GET / HTTP/2.0\r\n\r\n" );
+        assertStatus( 400, parser, "POST / HTTP/1.1\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n" );
+        assertStatus( 501, parser, "POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n" );
+    }
+
+    public void testLimitsHeadSizeAndHeaderCount()
+    {
+        RequestParser parser = new RequestParser( false, 64, 2 );
+        assertStatus( 431, parser, "GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n" );
+        assertStatus( 431, parser, "GET / HTTP/1.1\r\nA: " + "x".repeat( 64 ) + "\r\n\r\n" );
+    }
+
+    public void testAcceptsChunkedFraming() throws Exception
+    {
+        Request req = new Request();
+        assertTrue( new RequestParser( true ).parse(
+                bytes( "POST / HTTP/1.1\r\nTransfer-Encoding: Chunked\r\n\r\n" ), req ) );
+        assertTrue( req.isChunked() );
+        assertTrue( req.hasBody() );
+    }
+
+    private static ByteBuffer bytes( String s )
+    {
+        return ByteBuffer.wrap( s.getBytes() );
+    }
+
+    private static void assertStatus( int statusCode, RequestParser parser, String request )
+    {
+        try
+        {
+            parser.parse( bytes( request ), new Request() );
+            fail( "Expected " + statusCode + " for " + request );
+        }
+        catch ( HttpException e )
+        {
+            assertEquals( statusCode, e.getStatusCode() );
+        }
+    }
+}
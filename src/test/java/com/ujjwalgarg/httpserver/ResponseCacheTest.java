@@ -0,0 +1,130 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link ResponseCache} and the validators of
+ * {@link ConditionalGet}.
+ */
+public class ResponseCacheTest
+    extends TestCase
+{
+    private final AtomicInteger calls = new AtomicInteger(); // Times the handler ran
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ResponseCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ResponseCacheTest.class );
+    }
+
+    private final RequestHandler handler = ( req, res ) -> {
+        calls.incrementAndGet();
+        res.setStatusCode( 200 );
+        res.setStatusMsg( "OK" );
+        res.addHeader( "Content-Type", "text/plain" );
+        res.setResponseBody( req.getPath().substring( 1 ).repeat( 100 ) );
+    };
+
+    private static Response get( RequestHandler handler, String path, String headers ) throws Exception
+    {
+        Request req = new Request();
+        new RequestParser( false ).parse( ByteBuffer.wrap( ( "GET " + path + " HTTP/1.1\r\n" + headers
+                + "\r\n" ).getBytes() ), req );
+        Response res = new Response( new ByteArrayOutputStream() );
+        res.setCompression( req.hasHeaderToken( "Accept-Encoding", "gzip" ), 64 );
+        handler.handle( req, res );
+        ConditionalGet.apply( req, res );
+        return res;
+    }
+
+    public void testServesHitsWithoutCallingTheHandler() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 10_000, 1_000 );
+        RequestHandler cached = cache.cache( handler, 60_000 );
+
+        Response first = get( cached, "/a", "" );
+        Response second = get( cached, "/a", "" );
+        assertEquals( 1, calls.get() );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+        assertEquals( first.getHeaders().get( "ETag" ), second.getHeaders().get( "ETag" ) );
+        assertEquals( "0", second.getHeaders().get( "Age" ) );
+        assertEquals( "a".repeat( 100 ), new String( second.getBufferedBody().array() ) );
+
+        get( cached, "/a", "Cache-Control: no-cache\r\n" );
+        assertEquals( 2, calls.get() );
+    }
+
+    public void testKeepsOneVariantPerVaryValue() throws Exception
+    {
+        RequestHandler cached = new ResponseCache( 10_000, 1_000 ).cache( handler, 60_000 );
+
+        Response gzip = get( cached, "/a", "Accept-Encoding: gzip\r\n" );
+        Response plain = get( cached, "/a", "" );
+        assertEquals( 2, calls.get() );
+        assertEquals( "gzip", gzip.getHeaders().get( "Content-Encoding" ) );
+        assertNull( plain.getHeaders().get( "Content-Encoding" ) );
+
+        assertEquals( "gzip", get( cached, "/a", "Accept-Encoding: gzip\r\n" ).getHeaders().get( "Content-Encoding" ) );
+        assertNull( get( cached, "/a", "" ).getHeaders().get( "Content-Encoding" ) );
+        assertEquals( 2, calls.get() );
+    }
+
+    public void testExpiresAndEvictsEntries() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 700, 1_000 );
+        RequestHandler cached = cache.cache( handler, 60_000 );
+
+        get( cached, "/a", "" );
+        get( cached, "/b", "" );
+        get( cached, "/a", "" ); // b is now the least recently used
+        get( cached, "/c", "" );
+        assertEquals( 1, cache.getEvictionCount() );
+        assertTrue( cache.getSize() <= 700 );
+        get( cached, "/b", "" );
+        assertEquals( 4, calls.get() );
+
+        RequestHandler shortLived = cache.cache( handler, 1 );
+        get( shortLived, "/d", "" );
+        Thread.sleep( 5 );
+        get( shortLived, "/d", "" );
+        assertEquals( 6, calls.get() );
+    }
+
+    public void testAnswersMatchingValidatorsWithNotModified() throws Exception
+    {
+        RequestHandler cached = new ResponseCache( 10_000, 1_000 ).cache( handler, 60_000 );
+
+        Response full = get( cached, "/a", "" );
+        String etag = full.getHeaders().get( "ETag" );
+        assertTrue( etag, etag.startsWith( "W/\"" ) );
+
+        Response revalidated = get( cached, "/a", "If-None-Match: \"other\", " + etag.substring( 2 ) + "\r\n" );
+        assertEquals( 304, revalidated.getStatusCode() );
+        assertNull( revalidated.getBufferedBody() );
+        assertEquals( 200, get( cached, "/a", "If-None-Match: \"other\"\r\n" ).getStatusCode() );
+
+        String lastModified = full.getHeaders().get( "Last-Modified" );
+        assertEquals( 304, get( cached, "/a", "If-Modified-Since: " + lastModified + "\r\n" ).getStatusCode() );
+        assertEquals( 200, get( cached, "/a", "If-Modified-Since: Thu, 01 Jan 1970 00:00:00 GMT\r\n" )
+                .getStatusCode() );
+    }
+}
@@ -0,0 +1,168 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the serialization of {@link Response}.
+ */
+public class ResponseTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ResponseTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ResponseTest.class );
+    }
+
+    public void testContentLengthCountsBytesNotChars() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        res.setResponseBody( "héllo" );
+        res.send();
+
+        String sent = out.toString( StandardCharsets.UTF_8 );
+        assertTrue( sent.startsWith( "HTTP/1.1 200 OK\r\ndate: " ) );
+        assertTrue( sent.contains( "content-length: 6\r\n" ) );
+        assertTrue( sent.endsWith( "\r\n\r\nhéllo" ) );
+    }
+
+    public void testSendsEachHeaderOnceWhateverItsCase() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        res.addHeader( "content-length", "99" );
+        res.addHeader( "Set-Cookie", "a=1" );
+        res.addHeader( "Set-Cookie", "b=2" );
+        res.setResponseBody( "hello" );
+        res.send();
+
+        String sent = out.toString();
+        assertFalse( sent.contains( "99" ) );
+        assertEquals( sent.indexOf( "content-length" ), sent.lastIndexOf( "content-length" ) );
+        assertTrue( sent.contains( "content-length: 5\r\nset-cookie: a=1\r\nset-cookie: b=2\r\n" ) );
+    }
+
+    public void testSendsNoContentLengthWithoutContent() throws Exception
+    {
+        for ( int status : new int[] { 103, 204, 304 } ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Response res = new Response( out );
+            res.setStatusCode( status );
+            res.addHeader( "Content-Length", "0" );
+            if ( status == 304 ) {
+                res.notModified();
+            }
+            res.send();
+            assertFalse( out.toString(), out.toString().contains( "content-length" ) );
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response( out );
+        res.setStatusCode( 404 );
+        res.send();
+        assertTrue( out.toString().contains( "content-length: 0\r\n" ) );
+    }
+
+        public void testSendsRemainingBytesOfBuffer() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        ByteBuffer body = ByteBuffer.allocateDirect( 8 ).put( "xxbinary".getBytes() ).position( 2 );
+        res.setBody( body );
+        res.send();
+
+        assertTrue( out.toString().contains( "content-length: 6\r\n" ) );
+        assertTrue( out.toString().endsWith( "\r\n\r\nbinary" ) );
+        assertEquals( 2, body.position() );
+    }
+
+    public void testUsesStandardReasonWhenUnset() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = new Response( out );
+        res.setStatusCode( 418 );
+        res.setStatusMsg( "I'm a teapot" );
+        res.send();
+        assertTrue( out.toString().startsWith( "HTTP/1.1 418 I'm a teapot\r\n" ) );
+
+        out.reset();
+        res = new Response( out );
+        res.setStatusCode( 404 );
+        res.send();
+        assertTrue( out.toString().startsWith( "HTTP/1.1 404 Not Found\r\n" ) );
+    }
+
+    public void testStreamsUnknownLengthAsChunks() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        res.setKeepAlive( true );
+        OutputStream body = res.getBodyStream();
+        body.write( "hello ".getBytes() );
+        body.flush();
+        assertTrue( res.isCommitted() );
+        body.write( "world".getBytes() );
+        res.send();
+
+        String sent = out.toString();
+        assertTrue( sent.contains( "transfer-encoding: chunked\r\n" ) );
+        assertFalse( sent.toLowerCase().contains( "content-length" ) );
+        assertTrue( sent.endsWith( "\r\n\r\n6\r\nhello \r\n5\r\nworld\r\n0\r\n\r\n" ) );
+        assertTrue( res.isKeepAlive() );
+    }
+
+    public void testStreamsDeclaredLengthAsIs() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        res.setKeepAlive( true );
+        res.addHeader( "Content-Length", "5" );
+        res.getBodyStream().write( "hello".getBytes() );
+        res.send();
+
+        assertTrue( out.toString().endsWith( "\r\n\r\nhello" ) );
+        assertTrue( res.isKeepAlive() );
+    }
+
+    public void testHttp10StreamClosesConnection() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response res = ok( out );
+        res.setKeepAlive( true );
+        res.setChunkedAllowed( false );
+        res.getBodyStream().write( "hello".getBytes() );
+        res.send();
+
+        assertTrue( out.toString().contains( "connection: close\r\n" ) );
+        assertTrue( out.toString().endsWith( "\r\n\r\nhello" ) );
+        assertFalse( res.isKeepAlive() );
+    }
+
+    private static Response ok( OutputStream out )
+    {
+        Response res = new Response( out );
+        res.setStatusCode( 200 );
+        res.setStatusMsg( "OK" );
+        return res;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ujjwalgarg.httpserver;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the route lookup of {@link Router}.
+ */
+public class RouterTest
+    extends TestCase
+{
+    private static final RequestHandler A = (req, res) -> {};
+    private static final RequestHandler B = (req, res) -> {};
+    private static final RequestHandler C = (req, res) -> {};
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RouterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RouterTest.class );
+    }
+
+    public void testAnchoredLiteralIsTemplate()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "^/$", A );
+        router.addRoute( RequestMethod.GET, "^/user-agent$", B );
+
+        assertSame( A, router.match( "/" ).getHandler( RequestMethod.GET ) );
+        assertSame( B, router.match( "/user-agent" ).getHandler( RequestMethod.GET ) );
+        assertNull( router.match( "/user-agentX" ) );
+    }
+
+    public void testPlaceholderCapturesSegment()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "/files/{filename}", A );
+
+        Router.Match match = router.match( "/files/a.txt" );
+        assertEquals( "a.txt", match.getPathParams().get( "filename" ) );
+        assertNull( router.match( "/files/" ) );
+        assertNull( router.match( "/files/a/b" ) );
+    }
+
+    public void testLiteralBeatsPlaceholderWithBacktracking()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "/users/{id}/posts", A );
+        router.addRoute( RequestMethod.GET, "/users/me", B );
+
+        assertSame( B, router.match( "/users/me" ).getHandler( RequestMethod.GET ) );
+        Router.Match match = router.match( "/users/me/posts" );
+        assertSame( A, match.getHandler( RequestMethod.GET ) );
+        assertEquals( "me", match.getPathParams().get( "id" ) );
+    }
+
+    public void testRegexFallbackInRegistrationOrder()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "^/v[0-9]+/.*$", A );
+        router.addRoute( RequestMethod.GET, "^/v1/(?<rest>.*)$", B );
+        router.addRoute( RequestMethod.GET, "/v1/status", C );
+
+        assertSame( C, router.match( "/v1/status" ).getHandler( RequestMethod.GET ) );
+        assertSame( A, router.match( "/v1/other" ).getHandler( RequestMethod.GET ) );
+    }
+
+    public void testRegexNamedGroupsBecomeParams()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "^/echo/(?<text>[^/]+)$", A );
+
+        assertEquals( "abc", router.match( "/echo/abc" ).getPathParams().get( "text" ) );
+    }
+
+    public void testMethodsShareRoute()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "/files/{name}", A );
+        router.addRoute( RequestMethod.POST, "/files/{name}", B );
+
+        Router.Match match = router.match( "/files/x" );
+        assertSame( A, match.getHandler( RequestMethod.GET ) );
+        assertSame( B, match.getHandler( RequestMethod.POST ) );
+        assertNull( match.getHandler( RequestMethod.DELETE ) );
+    }
+
+    public void testRemovesRoutes()
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "/files/{name}", A );
+        router.addRoute( RequestMethod.POST, "/files/{name}", B );
+        router.addRoute( RequestMethod.GET, "^/v1/(?<rest>.*)$", C );
+
+        assertTrue( router.removeRoute( RequestMethod.POST, "/files/{name}" ) );
+        assertFalse( router.removeRoute( RequestMethod.POST, "/files/{name}" ) );
+        assertSame( A, router.match( "/files/x" ).getHandler( RequestMethod.GET ) );
+        assertNull( router.match( "/files/x" ).getHandler( RequestMethod.POST ) );
+
+        assertTrue( router.removeRoute( RequestMethod.GET, "/files/{name}" ) );
+        assertTrue( router.removeRoute( RequestMethod.GET, "^/v1/(?<rest>.*)$" ) );
+        assertNull( router.match( "/files/x" ) );
+        assertNull( router.match( "/v1/x" ) );
+    }
+
+    public void testLookupsKeepTheirSnapshotWhileRoutesChange() throws Exception
+    {
+        Router router = new Router();
+        router.addRoute( RequestMethod.GET, "/users/{id}", A );
+        Router.Match before = router.match( "/users/1" );
+        router.addRoute( RequestMethod.GET, "/users/{id}", B );
+        assertSame( A, before.getHandler( RequestMethod.GET ) );
+
+        // Routes come and go while another thread keeps matching the stable one
+        Thread writer = new Thread( () -> {
+            for ( int i = 0; i < 2_000; i++ ) {
+                router.addRoute( RequestMethod.GET, "/users/me" + i, C );
+                router.removeRoute( RequestMethod.GET, "/users/me" + ( i - 1 ) );
+            }
+        } );
+        writer.start();
+        while ( writer.isAlive() ) {
+            Router.Match match = router.match( "/users/42" );
+            assertSame( B, match.getHandler( RequestMethod.GET ) );
+            assertEquals( "42", match.getPathParams().get( "id" ) );
+        }
+        writer.join();
+        assertSame( C, router.match( "/users/me1999" ).getHandler( RequestMethod.GET ) );
+        assertEquals( "me1998", router.match( "/users/me1998" ).getPathParams().get( "id" ) );
+    }
+}
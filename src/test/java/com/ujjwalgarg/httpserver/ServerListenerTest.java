@@ -0,0 +1,101 @@
+package com.ujjwalgarg.httpserver;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the acceptor threads and socket options of
+ * {@link ServerListener}.
+ */
+public class ServerListenerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ServerListenerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ServerListenerTest.class );
+    }
+
+    private static void acceptAll( ServerConfig config, int clients ) throws Exception
+    {
+        ServerListener listener = new ServerListener( config, new ConnectionLimiter( config ), new ServerMetrics() );
+        listener.bind( 0 );
+        CountDownLatch accepted = new CountDownLatch( clients );
+        Set<String> acceptors = ConcurrentHashMap.newKeySet();
+        Thread acceptor = new Thread( () -> listener.accept( "test-acceptor-", channel -> {
+            try ( SocketChannel client = channel ) {
+                assertEquals( config.isTcpNoDelay(), (boolean) client.getOption( StandardSocketOptions.TCP_NODELAY ) );
+                acceptors.add( Thread.currentThread().getName() );
+            } catch ( Exception e ) {
+                fail( e.toString() );
+            }
+            accepted.countDown();
+        } ) );
+        acceptor.start();
+
+        for ( int i = 0; i < clients; i++ ) {
+            new Socket( "127.0.0.1", listener.getPort() ).close();
+        }
+        assertTrue( accepted.await( 5, TimeUnit.SECONDS ) );
+        listener.close();
+        acceptor.join( 5000 );
+        assertFalse( acceptor.isAlive() );
+    }
+
+    public void testAcceptsOnSharedSocket() throws Exception
+    {
+        acceptAll( new ServerConfig().setAcceptorThreads( 3 ).setBacklog( 128 ), 20 );
+    }
+
+    public void testAcceptsOnReusedPort() throws Exception
+    {
+        acceptAll( new ServerConfig().setAcceptorThreads( 3 ).setReusePort( true ).setTcpNoDelay( false ), 20 );
+    }
+
+    public void testRefusesConnectionsOverThePerAddressLimit() throws Exception
+    {
+        ServerConfig config = new ServerConfig().setMaxConnectionsPerAddress( 1 );
+        ServerMetrics metrics = new ServerMetrics();
+        ServerListener listener = new ServerListener( config, new ConnectionLimiter( config ), metrics );
+        listener.bind( 0 );
+        Set<SocketChannel> held = ConcurrentHashMap.newKeySet();
+        Thread acceptor = new Thread( () -> listener.accept( "test-acceptor-", held::add ) );
+        acceptor.start();
+
+        try ( Socket first = new Socket( "127.0.0.1", listener.getPort() );
+                Socket second = new Socket( "127.0.0.1", listener.getPort() ) ) {
+            InputStream in = second.getInputStream();
+            String response = new String( in.readAllBytes() );
+            assertTrue( response.startsWith( "HTTP/1.1 503 Service Unavailable\r\n" ) );
+            assertEquals( 1, held.size() );
+        }
+        assertTrue( metrics.toPrometheus().contains( "http_connections_rejected_total 1" ) );
+        listener.close();
+        acceptor.join( 5000 );
+        for ( SocketChannel channel : held ) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ujjwalgarg.httpserver;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the counters and Prometheus export of {@link ServerMetrics}.
+ */
+public class ServerMetricsTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ServerMetricsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ServerMetricsTest.class );
+    }
+
+    public void testCountsRequestsByRouteMethodAndStatus()
+    {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.recordRequest( RequestMethod.GET, "/files/{filename}", 200, 1_000_000 );
+        metrics.recordRequest( RequestMethod.GET, "/files/{filename}", 200, 1_000_000 );
+        metrics.recordRequest( RequestMethod.POST, "/files/{filename}", 201, 1_000_000 );
+        metrics.recordRequest( RequestMethod.GET, null, 404, 1_000 );
+
+        String text = metrics.toPrometheus();
+        assertTrue( text.contains( "http_requests_total{route=\"/files/{filename}\",method=\"GET\",status=\"200\"} 2\n" ) );
+        assertTrue( text.contains( "http_requests_total{route=\"/files/{filename}\",method=\"POST\",status=\"201\"} 1\n" ) );
+        assertTrue( text.contains( "http_requests_total{route=\"unmatched\",method=\"GET\",status=\"404\"} 1\n" ) );
+        assertEquals( 4, metrics.getRequestCount() );
+    }
+
+    public void testHistogramBucketsAreCumulative()
+    {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.recordPhase( ServerMetrics.Phase.HANDLER, 40_000 );
+        metrics.recordPhase( ServerMetrics.Phase.HANDLER, 2_000_000 );
+        metrics.recordPhase( ServerMetrics.Phase.HANDLER, 20_000_000_000L );
+
+        String text = metrics.toPrometheus();
+        assertTrue( text.contains( "http_request_phase_seconds_bucket{phase=\"handler\",le=\"5.0E-5\"} 1\n" ) );
+        assertTrue( text.contains( "http_request_phase_seconds_bucket{phase=\"handler\",le=\"0.0025\"} 2\n" ) );
+        assertTrue( text.contains( "http_request_phase_seconds_bucket{phase=\"handler\",le=\"10.0\"} 2\n" ) );
+        assertTrue( text.contains( "http_request_phase_seconds_bucket{phase=\"handler\",le=\"+Inf\"} 3\n" ) );
+        assertTrue( text.contains( "http_request_phase_seconds_count{phase=\"handler\"} 3\n" ) );
+    }
+
+    public void testExportsGauges()
+    {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        metrics.registerGauge( "test_gauge", "A gauge.", () -> 42 );
+
+        String text = metrics.toPrometheus();
+        assertEquals( 1, metrics.getActiveConnections() );
+        assertTrue( text.contains( "http_connections_total 2\n" ) );
+        assertTrue( text.contains( "# TYPE test_gauge gauge\ntest_gauge 42\n" ) );
+    }
+}
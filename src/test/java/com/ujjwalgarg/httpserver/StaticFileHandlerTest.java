@@ -0,0 +1,120 @@
+package com.ujjwalgarg.httpserver;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the Range parsing and path resolution of
+ * {@link StaticFileHandler}.
+ */
+public class StaticFileHandlerTest
+    extends TestCase
+{
+    private Path base; // Holds the served directory and a file outside it
+    private Path root; // Served directory
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public StaticFileHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( StaticFileHandlerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        base = Files.createTempDirectory( "static-files" ).toRealPath();
+        root = Files.createDirectory( base.resolve( "root" ) );
+        Files.createDirectory( root.resolve( "sub" ) );
+        Files.writeString( root.resolve( "a.txt" ), "a" );
+        Files.writeString( root.resolve( "sub/b.txt" ), "b" );
+        Files.writeString( base.resolve( "secret.txt" ), "secret" );
+        Files.createSymbolicLink( root.resolve( "inside.txt" ), root.resolve( "a.txt" ) );
+        Files.createSymbolicLink( root.resolve( "outside.txt" ), base.resolve( "secret.txt" ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try ( var files = Files.walk( base ) ) {
+            for ( Path file : files.sorted( Comparator.reverseOrder() ).toList() ) {
+                Files.delete( file );
+            }
+        }
+    }
+
+    public void testResolvesFilesInsideTheRoot() throws Exception
+    {
+        StaticFileHandler handler = new StaticFileHandler( root, "/files/" );
+
+        assertEquals( root.resolve( "a.txt" ), handler.resolve( "/files/a.txt" ) );
+        assertEquals( root.resolve( "sub/b.txt" ), handler.resolve( "/files/sub%2Fb.txt" ) );
+        assertEquals( root.resolve( "a.txt" ), handler.resolve( "/files/sub/../a.txt" ) );
+        assertEquals( root.resolve( "a.txt" ), handler.resolve( "/files/inside.txt" ) );
+    }
+
+    public void testRejectsPathsEscapingTheRoot() throws Exception
+    {
+        StaticFileHandler handler = new StaticFileHandler( root, "/files/" );
+
+        for ( String path : new String[] { "/files/../secret.txt", "/files/%2e%2e%2fsecret.txt",
+                "/files/sub%2F..%2F..%2Fsecret.txt", "/files/outside.txt", "/files/a.txt%00",
+                "/files/a.txt%00.png", "/files/..%5Csecret.txt", "/files/sub", "/other/a.txt" } ) {
+            assertNull( path, handler.resolve( path ) );
+        }
+    }
+
+    public void testRejectsMalformedEscapes() throws Exception
+    {
+        StaticFileHandler handler = new StaticFileHandler( root, "/files/" );
+
+        assertNull( handler.resolve( "/files/%zz" ) );
+        assertNull( handler.resolve( "/files/a.txt%2" ) );
+    }
+
+    public void testParsesSingleRanges()
+    {
+        assertRange( "bytes=0-9", 100, 0, 9 );
+        assertRange( "bytes=90-", 100, 90, 99 );
+        assertRange( "bytes=-10", 100, 90, 99 );
+        assertRange( "bytes=50-500", 100, 50, 99 );
+        assertRange( "bytes=-500", 100, 0, 99 );
+    }
+
+    public void testIgnoresMissingInvalidAndMultipleRanges()
+    {
+        assertNull( StaticFileHandler.parseRange( null, 100 ) );
+        assertNull( StaticFileHandler.parseRange( "items=0-1", 100 ) );
+        assertNull( StaticFileHandler.parseRange( "bytes=5-1", 100 ) );
+        assertNull( StaticFileHandler.parseRange( "bytes=a-b", 100 ) );
+        assertNull( StaticFileHandler.parseRange( "bytes=0-1,5-6", 100 ) );
+    }
+
+    public void testReportsUnsatisfiableRanges()
+    {
+        assertEquals( 0, StaticFileHandler.parseRange( "bytes=100-", 100 ).length );
+        assertEquals( 0, StaticFileHandler.parseRange( "bytes=-0", 100 ).length );
+    }
+
+    private static void assertRange( String header, long size, long first, long last )
+    {
+        assertEquals( header, Arrays.toString( new long[] { first, last } ),
+                Arrays.toString( StaticFileHandler.parseRange( header, size ) ) );
+    }
+}
@@ -0,0 +1,92 @@
+package com.ujjwalgarg.httpserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the scheduling, extension and cancellation of timeouts on a
+ * {@link TimerWheel}, driven tick by tick.
+ */
+public class TimerWheelTest
+    extends TestCase
+{
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TimerWheelTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TimerWheelTest.class );
+    }
+
+    public void testFiresOnceDeadlinePassed()
+    {
+        TimerWheel wheel = new TimerWheel( 10, 8 );
+        AtomicInteger fired = new AtomicInteger();
+        long now = System.nanoTime();
+        wheel.newTimeout( fired::incrementAndGet ).scheduleAt( now + 3 * TICK );
+
+        wheel.advance( now );
+        assertEquals( 0, fired.get() );
+        for ( int i = 0; i < 8; i++ ) {
+            wheel.advance( now + 5 * TICK );
+        }
+        assertEquals( 1, fired.get() );
+    }
+
+    public void testCancelledTimeoutNeverFires()
+    {
+        TimerWheel wheel = new TimerWheel( 10, 8 );
+        AtomicInteger fired = new AtomicInteger();
+        long now = System.nanoTime();
+        TimerWheel.Timeout timeout = wheel.newTimeout( fired::incrementAndGet );
+        timeout.scheduleAt( now );
+        timeout.cancel();
+
+        for ( int i = 0; i < 16; i++ ) {
+            wheel.advance( now + TICK );
+        }
+        assertEquals( 0, fired.get() );
+
+        // A cancelled timeout can be armed again
+        timeout.scheduleAt( now );
+        wheel.advance( now + TICK );
+        assertEquals( 1, fired.get() );
+    }
+
+    public void testExtendedTimeoutWaitsForNewDeadline()
+    {
+        TimerWheel wheel = new TimerWheel( 10, 4 );
+        AtomicInteger fired = new AtomicInteger();
+        long now = System.nanoTime();
+        TimerWheel.Timeout timeout = wheel.newTimeout( fired::incrementAndGet );
+        timeout.scheduleAt( now + TICK );
+        wheel.advance( now );
+
+        // Past a full turn of the wheel, so the bucket is visited more than once
+        timeout.scheduleAt( now + 20 * TICK );
+        for ( int i = 0; i < 12; i++ ) {
+            wheel.advance( now + 10 * TICK );
+        }
+        assertEquals( 0, fired.get() );
+        for ( int i = 0; i < 12; i++ ) {
+            wheel.advance( now + 21 * TICK );
+        }
+        assertEquals( 1, fired.get() );
+    }
+}